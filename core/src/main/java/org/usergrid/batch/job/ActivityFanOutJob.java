@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.batch.job;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.usergrid.batch.JobExecution;
+import org.usergrid.batch.service.SchedulerService;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.EntityManagerFactory;
+import org.usergrid.persistence.EntityRef;
+import org.usergrid.persistence.Query;
+import org.usergrid.persistence.Results;
+import org.usergrid.persistence.SimpleEntityRef;
+import org.usergrid.persistence.entities.Activity;
+import org.usergrid.persistence.entities.JobData;
+
+import static org.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
+import static org.usergrid.utils.ConversionUtils.getLong;
+import static org.usergrid.utils.ConversionUtils.string;
+import static org.usergrid.utils.ConversionUtils.uuid;
+
+
+/**
+ * Delivers an activity to the feeds of the entities connecting to its owner (e.g. the followers of a user), or to the
+ * feeds of the members of a collection of its owner (e.g. the users of a group).  The recipients are read a page at a
+ * time, each page is written in batches by a bounded number of threads, and the cursor of the next page is saved with
+ * the job data once a page is delivered.  A job that's restarted resumes from the last delivered page.
+ */
+@Component(ActivityFanOutJob.JOB_NAME)
+public class ActivityFanOutJob extends OnlyOnceJob {
+
+    public static final String JOB_NAME = "activityFanOutJob";
+
+    /** The collection activities are delivered to */
+    public static final String FEED = "feed";
+
+    private static final String APPLICATION_ID = "applicationId";
+    private static final String ACTIVITY_ID = "activityId";
+    private static final String OWNER_ID = "ownerId";
+    private static final String OWNER_TYPE = "ownerType";
+    private static final String CONNECTION_TYPE = "connectionType";
+    private static final String CONNECTING_TYPE = "connectingType";
+    private static final String COLLECTION_NAME = "collectionName";
+    private static final String CURSOR = "cursor";
+    private static final String DELIVERED = "delivered";
+
+    private static final Logger logger = LoggerFactory.getLogger( ActivityFanOutJob.class );
+
+    /** Default number of recipients read per page */
+    public static final int DEFAULT_PAGE_SIZE = Query.MAX_LIMIT;
+
+    /** Default number of feeds written in a single batch */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** Default number of batches written concurrently */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** Default number of recipients delivered to by the request that posted the activity */
+    public static final int DEFAULT_INLINE_SIZE = 100;
+
+    /** Default delay before retrying if another node is running the job */
+    public static final long DEFAULT_LOCK_DELAY = 5000;
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int parallelism = DEFAULT_PARALLELISM;
+
+    private volatile ExecutorService executor;
+
+
+    public ActivityFanOutJob() {
+    }
+
+
+    /**
+     * Create the job data to deliver the activity to the entities connecting to the owner
+     *
+     * @param applicationId The application of the activity
+     * @param owner The owner the activity was posted to
+     * @param activity The activity
+     * @param connectionType The type of the connections to the owner, e.g. "following"
+     * @param connectingType The type of the connecting entities, e.g. "user"
+     */
+    public static JobData connectingJobData( UUID applicationId, EntityRef owner, EntityRef activity,
+                                             String connectionType, String connectingType ) {
+        JobData data = jobData( applicationId, owner, activity );
+        data.setProperty( CONNECTION_TYPE, connectionType );
+        data.setProperty( CONNECTING_TYPE, connectingType );
+        return data;
+    }
+
+
+    /**
+     * Create the job data to deliver the activity to the members of a collection of the owner
+     *
+     * @param applicationId The application of the activity
+     * @param owner The owner the activity was posted to
+     * @param activity The activity
+     * @param collectionName The collection of the owner, e.g. "users"
+     */
+    public static JobData collectionJobData( UUID applicationId, EntityRef owner, EntityRef activity,
+                                             String collectionName ) {
+        JobData data = jobData( applicationId, owner, activity );
+        data.setProperty( COLLECTION_NAME, collectionName );
+        return data;
+    }
+
+
+    private static JobData jobData( UUID applicationId, EntityRef owner, EntityRef activity ) {
+        JobData data = new JobData();
+        data.setProperty( APPLICATION_ID, applicationId );
+        data.setProperty( ACTIVITY_ID, activity.getUuid() );
+        data.setProperty( OWNER_ID, owner.getUuid() );
+        data.setProperty( OWNER_TYPE, owner.getType() );
+        return data;
+    }
+
+
+    /**
+     * Read the page of recipients at the cursor of the job data
+     *
+     * @param em The entity manager of the application
+     * @param data The job data
+     * @param limit The maximum number of recipients to read
+     *
+     * @return The recipient references.  The cursor is null if this was the last page
+     */
+    public static Results getRecipients( EntityManager em, JobData data, int limit ) throws Exception {
+        UUID ownerId = uuid( data.getProperty( OWNER_ID ) );
+
+        Query query = new Query();
+        query.setResultsLevel( Results.Level.REFS );
+        query.setLimit( limit );
+
+        String cursor = string( data.getProperty( CURSOR ) );
+
+        if ( cursor != null ) {
+            query.setCursor( cursor );
+        }
+
+        String collectionName = string( data.getProperty( COLLECTION_NAME ) );
+
+        if ( collectionName != null ) {
+            return em.getCollection( ownerId, collectionName, query, Results.Level.REFS );
+        }
+
+        query.setConnectionType( string( data.getProperty( CONNECTION_TYPE ) ) );
+        query.setEntityType( string( data.getProperty( CONNECTING_TYPE ) ) );
+
+        return em.getConnectingEntities( ownerId, query );
+    }
+
+
+    /**
+     * Deliver the activity to the first page of recipients, and schedule a job to deliver it to the rest.  Small fan
+     * outs complete before this returns, large ones don't hold up the request that posted the activity.  If there's no
+     * scheduler, every page is delivered before this returns.
+     *
+     * @param em The entity manager of the application
+     * @param scheduler The scheduler of the job, may be null
+     * @param data The job data of the fan out
+     * @param activity The activity
+     * @param inlineLimit The number of recipients to deliver to before returning
+     */
+    public static void distribute( EntityManager em, SchedulerService scheduler, JobData data, EntityRef activity,
+                                   int inlineLimit ) throws Exception {
+        String cursor;
+
+        do {
+            Results results = getRecipients( em, data, inlineLimit );
+            List<EntityRef> refs = results.getRefs();
+
+            if ( refs != null && !refs.isEmpty() ) {
+                em.addToCollections( refs, FEED, activity );
+            }
+
+            cursor = results.getCursor();
+            setCursor( data, cursor );
+
+            if ( cursor != null && scheduler != null ) {
+                scheduler.createJob( JOB_NAME, System.currentTimeMillis(), data );
+                return;
+            }
+        }
+        while ( cursor != null );
+    }
+
+
+    /** Set the cursor of the next page to deliver, null if all pages were delivered */
+    public static void setCursor( JobData data, String cursor ) {
+        data.setProperty( CURSOR, cursor );
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.usergrid.batch.job.OnlyOnceJob#doJob(org.usergrid.batch.JobExecution)
+     */
+    @Override
+    protected void doJob( JobExecution execution ) throws Exception {
+        JobData data = execution.getJobData();
+
+        UUID applicationId = uuid( data.getProperty( APPLICATION_ID ) );
+        EntityRef activity = new SimpleEntityRef( Activity.ENTITY_TYPE, uuid( data.getProperty( ACTIVITY_ID ) ) );
+
+        EntityManager em = emf.getEntityManager( applicationId );
+        EntityManager jobEm = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
+
+        long delivered = data.getProperty( DELIVERED ) == null ? 0 : getLong( data.getProperty( DELIVERED ) );
+
+        String cursor;
+
+        do {
+            Results results = getRecipients( em, data, pageSize );
+            List<EntityRef> refs = results.getRefs();
+
+            if ( refs != null && !refs.isEmpty() ) {
+                deliver( em, refs, activity );
+                delivered += refs.size();
+            }
+
+            cursor = results.getCursor();
+
+            // checkpoint, a retry after a failure starts from the next page
+            setCursor( data, cursor );
+            data.setProperty( DELIVERED, delivered );
+            jobEm.update( data );
+
+            execution.heartbeat();
+        }
+        while ( cursor != null );
+
+        logger.info( "Delivered activity {} of {} {} to {} feeds", new Object[] {
+                activity.getUuid(), data.getProperty( OWNER_TYPE ), data.getProperty( OWNER_ID ), delivered
+        } );
+    }
+
+
+    /** Write the activity to the feeds of the page of recipients, at most parallelism batches at a time */
+    private void deliver( final EntityManager em, List<EntityRef> refs, final EntityRef activity ) throws Exception {
+
+        if ( refs.size() <= batchSize ) {
+            em.addToCollections( refs, FEED, activity );
+            return;
+        }
+
+        List<Callable<Void>> batches = new ArrayList<Callable<Void>>();
+
+        for ( int i = 0; i < refs.size(); i += batchSize ) {
+            final List<EntityRef> batch = refs.subList( i, Math.min( i + batchSize, refs.size() ) );
+
+            batches.add( new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    em.addToCollections( batch, FEED, activity );
+                    return null;
+                }
+            } );
+        }
+
+        // invokeAll waits for every batch, rethrow the first failure so the page is retried
+        for ( Future<Void> future : getExecutor().invokeAll( batches ) ) {
+            future.get();
+        }
+    }
+
+
+    private ExecutorService getExecutor() {
+        if ( executor == null ) {
+            synchronized ( this ) {
+                if ( executor == null ) {
+                    executor = Executors.newFixedThreadPool( parallelism, new ThreadFactory() {
+                        @Override
+                        public Thread newThread( Runnable r ) {
+                            Thread thread = new Thread( r, "activity-fan-out" );
+                            thread.setDaemon( true );
+                            return thread;
+                        }
+                    } );
+                }
+            }
+        }
+
+        return executor;
+    }
+
+
+    @PreDestroy
+    public void shutdown() {
+        if ( executor != null ) {
+            executor.shutdown();
+        }
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.usergrid.batch.job.OnlyOnceJob#getDelay(org.usergrid.batch.JobExecution)
+     */
+    @Override
+    protected long getDelay( JobExecution execution ) throws Exception {
+        return DEFAULT_LOCK_DELAY;
+    }
+
+
+    /** @param pageSize the number of recipients read per page */
+    public void setPageSize( int pageSize ) {
+        this.pageSize = pageSize;
+    }
+
+
+    /** @param batchSize the number of feeds written in a single batch */
+    public void setBatchSize( int batchSize ) {
+        this.batchSize = batchSize;
+    }
+
+
+    /** @param parallelism the number of batches written concurrently */
+    public void setParallelism( int parallelism ) {
+        this.parallelism = parallelism;
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.clustering.hazelcast;
+
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.mq.QueueArrivalNotifier;
+
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.MessageListener;
+
+
+/** Sends the messages arriving on queues to the other nodes over a topic, so their waiting readers wake up */
+public class HazelcastQueueArrivals implements MessageListener<String>, QueueArrivalNotifier.Publisher {
+
+    private static final Logger logger = LoggerFactory.getLogger( HazelcastQueueArrivals.class );
+
+    public static final String TOPIC = "usergrid-queue-arrivals";
+
+    /** Arrivals published by this node are skipped, the notifier already woke up its readers */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private QueueArrivalNotifier notifier;
+    private boolean enabled;
+    private ITopic<String> topic;
+
+
+    public HazelcastQueueArrivals() {
+    }
+
+
+    public void setNotifier( QueueArrivalNotifier notifier ) {
+        this.notifier = notifier;
+    }
+
+
+    public void setEnabled( boolean enabled ) {
+        this.enabled = enabled;
+    }
+
+
+    public void init() {
+        if ( !enabled ) {
+            return;
+        }
+
+        logger.info( "Publishing queue arrivals on topic {}", TOPIC );
+        topic = Hazelcast.getTopic( TOPIC );
+        topic.addMessageListener( this );
+        notifier.setPublisher( this );
+    }
+
+
+    public void destroy() {
+        if ( topic == null ) {
+            return;
+        }
+
+        notifier.setPublisher( null );
+        topic.removeMessageListener( this );
+        topic = null;
+    }
+
+
+    @Override
+    public void publish( String key ) {
+        topic.publish( nodeId + " " + key );
+    }
+
+
+    @Override
+    public void onMessage( String msg ) {
+        int separator = msg.indexOf( ' ' );
+
+        if ( separator == -1 || msg.substring( 0, separator ).equals( nodeId ) ) {
+            return;
+        }
+
+        notifier.notifyLocal( msg.substring( separator + 1 ) );
+    }
+}
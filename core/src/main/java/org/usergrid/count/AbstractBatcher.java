@@ -18,39 +18,81 @@ package org.usergrid.count;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.usergrid.count.common.Count;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 
 
 /**
- * Base batcher implementation, handles concurrency and locking throughput throttling.
+ * Base batcher implementation, handles concurrency and throughput throttling.  Counts for the same counter are summed
+ * as they're added, so a batch submits a single count per counter.  A batch is submitted once batchSize counts were
+ * added to it, or once it's older than the batch interval, whichever comes first.  Adding never drops a count, if the
+ * submitter falls behind adds wait for submissions to complete.
  *
  * @author zznate
  */
 public abstract class AbstractBatcher implements Batcher {
+    private static final Logger logger = LoggerFactory.getLogger( AbstractBatcher.class );
+
     protected BatchSubmitter batchSubmitter;
 
-    private volatile Batch batch;
+    private final AtomicReference<Batch> batch = new AtomicReference<Batch>( new Batch() );
     private final AtomicLong opCount = new AtomicLong();
     private final Timer addTimer =
             Metrics.newTimer( AbstractBatcher.class, "add_invocation", TimeUnit.MICROSECONDS, TimeUnit.SECONDS );
+    /** How long the counts of a batch waited to be submitted, from the creation of the batch to its submission */
+    private final Histogram batchAge = Metrics.newHistogram( AbstractBatcher.class, "batch_age_ms" );
     protected final Counter invocationCounter = Metrics.newCounter( AbstractBatcher.class, "batch_add_invocations" );
     private final Counter existingCounterHit = Metrics.newCounter( AbstractBatcher.class, "counter_existed" );
-    // TODO add batchCount, remove shouldSubmit, impl submit, change simpleBatcher to just be an extension
     protected int batchSize = 500;
     private final AtomicLong batchSubmissionCount = new AtomicLong();
-    private final AtomicBoolean lock = new AtomicBoolean( false );
+
+    /** The max time in milliseconds a count waits in a batch before the batch is submitted */
+    private long batchInterval = 30 * 1000;
+
+    /** The max number of submissions that can be in flight before adds wait */
+    private int maxPendingSubmissions = 8;
+
+    private final LinkedList<Future<?>> pendingSubmissions = new LinkedList<Future<?>>();
+
+    private ScheduledExecutorService intervalExecutor;
+
+
+    {
+        Metrics.newGauge( AbstractBatcher.class, "batch_depth", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return Math.min( batch.get().reserved.get(), batchSize );
+            }
+        } );
+        Metrics.newGauge( AbstractBatcher.class, "pending_submissions", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                synchronized ( pendingSubmissions ) {
+                    return pendingSubmissions.size();
+                }
+            }
+        } );
+    }
 
 
     public void setBatchSize( int batchSize ) {
@@ -58,6 +100,17 @@ public abstract class AbstractBatcher implements Batcher {
     }
 
 
+    /** Set the max time in seconds a count waits before it's submitted */
+    public void setBatchInterval( long batchInterval ) {
+        this.batchInterval = batchInterval * 1000;
+    }
+
+
+    public void setMaxPendingSubmissions( int maxPendingSubmissions ) {
+        this.maxPendingSubmissions = maxPendingSubmissions;
+    }
+
+
     public void setBatchSubmitter( BatchSubmitter batchSubmitter ) {
         this.batchSubmitter = batchSubmitter;
     }
@@ -78,33 +131,205 @@ public abstract class AbstractBatcher implements Batcher {
         invocationCounter.inc();
         final TimerContext context = addTimer.time();
         if ( batchSize == 1 ) {
-            getBatch().addSerial( count );
+            addSerial( count );
         }
         else {
-            getBatch().add( count );
+            startInterval();
+            addBatched( count );
         }
         context.stop();
     }
 
 
-    Batch getBatch() {
-        Batch active = batch;
-        if ( active == null ) {
-            synchronized ( this ) {
-                active = batch;
-                if ( active == null ) {
-                    batch = active = new Batch();
+    private void addBatched( Count count ) {
+        for (; ; ) {
+            Batch active = batch.get();
+
+            int slot = active.reserved.incrementAndGet();
+
+            // full or closed by the interval, wait for the next batch to be installed
+            if ( slot > batchSize ) {
+                active.awaitReplaced();
+                continue;
+            }
+
+            active.add( count );
+
+            int completed = active.completed.incrementAndGet();
+
+            // the last count of a full batch, every other reserved count has been added
+            if ( completed == batchSize ) {
+                flush( active );
+            }
+            // closed by the interval, which may be waiting for this count
+            else if ( active.reserved.get() > batchSize ) {
+                active.signal();
+            }
+
+            return;
+        }
+    }
+
+
+    private void addSerial( Count count ) {
+        Future f = batchSubmitter.submit( Arrays.asList( count ) );
+        try {
+            f.get();
+        }
+        catch ( Exception ex ) {
+            logger.error( "Counter submission failed", ex );
+        }
+        batchSubmissionCount.incrementAndGet();
+        opCount.incrementAndGet();
+    }
+
+
+    /** Close the active batch if it has counts and submit it, invoked every batch interval */
+    void flushInterval() {
+        Batch active = batch.get();
+
+        for (; ; ) {
+            int reserved = active.reserved.get();
+
+            // empty, or it's full and the last count will flush it
+            if ( reserved == 0 || reserved >= batchSize ) {
+                return;
+            }
+
+            if ( active.reserved.compareAndSet( reserved, batchSize + 1 ) ) {
+                // wait for the counts that got in before we closed it
+                active.awaitCompleted( reserved );
+
+                flush( active );
+                return;
+            }
+        }
+    }
+
+
+    /** Submit the active batch, and wait for every submission in flight */
+    public void flush() {
+        flushInterval();
+
+        for (; ; ) {
+            Future<?> oldest;
+
+            synchronized ( pendingSubmissions ) {
+                if ( pendingSubmissions.isEmpty() ) {
+                    return;
                 }
+
+                oldest = pendingSubmissions.removeFirst();
+            }
+
+            try {
+                oldest.get();
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch ( Exception e ) {
+                logger.error( "Counter submission failed", e );
             }
         }
-        if ( batchSize > 1 && active.getCapacity() == 0 ) {
-            synchronized ( this ) {
-                if ( active.getCapacity() == 0 ) {
-                    active.flush();
+    }
+
+
+    /** Install a new batch and submit the closed one */
+    private void flush( Batch closed ) {
+        if ( !batch.compareAndSet( closed, new Batch() ) ) {
+            return;
+        }
+
+        // let the adds that found it full into the new batch
+        closed.signal();
+
+        batchAge.update( System.currentTimeMillis() - closed.created );
+
+        awaitPendingSubmissions();
+
+        Future<?> submission = batchSubmitter.submit( closed.getCounts() );
+
+        if ( submission != null ) {
+            synchronized ( pendingSubmissions ) {
+                pendingSubmissions.add( submission );
+            }
+        }
+
+        batchSubmissionCount.incrementAndGet();
+        opCount.incrementAndGet();
+    }
+
+
+    /** Drop completed submissions, and wait for the oldest ones while there are too many in flight */
+    private void awaitPendingSubmissions() {
+        for (; ; ) {
+            Future<?> oldest;
+
+            synchronized ( pendingSubmissions ) {
+                Iterator<Future<?>> itr = pendingSubmissions.iterator();
+                while ( itr.hasNext() ) {
+                    if ( itr.next().isDone() ) {
+                        itr.remove();
+                    }
                 }
+
+                if ( pendingSubmissions.size() < maxPendingSubmissions ) {
+                    return;
+                }
+
+                oldest = pendingSubmissions.getFirst();
+            }
+
+            try {
+                oldest.get();
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch ( Exception e ) {
+                logger.error( "Counter submission failed", e );
             }
         }
-        return active;
+    }
+
+
+    /** Start submitting batches on the batch interval, if it's not started yet */
+    private void startInterval() {
+        if ( intervalExecutor != null || batchInterval <= 0 ) {
+            return;
+        }
+
+        synchronized ( this ) {
+            if ( intervalExecutor != null ) {
+                return;
+            }
+
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+                @Override
+                public Thread newThread( Runnable r ) {
+                    Thread thread = new Thread( r, "CounterBatchInterval" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+
+            executor.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushInterval();
+                    }
+                    catch ( Throwable t ) {
+                        logger.error( "Unable to submit counter batch", t );
+                    }
+                }
+            }, batchInterval, batchInterval, TimeUnit.MILLISECONDS );
+
+            intervalExecutor = executor;
+        }
     }
 
 
@@ -114,62 +339,104 @@ public abstract class AbstractBatcher implements Batcher {
 
 
     class Batch {
-        private BlockingQueue<Count> counts;
-        private final AtomicInteger localCallCounter = new AtomicInteger();
+        /** The number of counts that were let into this batch, more than batchSize once it's closed */
+        private final AtomicInteger reserved = new AtomicInteger();
+
+        /** The number of counts that were added to the sums */
+        private final AtomicInteger completed = new AtomicInteger();
+
+        private final ConcurrentHashMap<String, Sum> sums = new ConcurrentHashMap<String, Sum>();
+
+        private final long created = System.currentTimeMillis();
 
-        private final AtomicBoolean lock = new AtomicBoolean( false );
 
+        /** Wait until another batch is installed.  Adds never give up, an interrupt is kept for the caller */
+        synchronized void awaitReplaced() {
+            boolean interrupted = false;
+
+            while ( batch.get() == this ) {
+                try {
+                    wait();
+                }
+                catch ( InterruptedException e ) {
+                    interrupted = true;
+                }
+            }
 
-        Batch() {
-            counts = new ArrayBlockingQueue<Count>( batchSize );
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
         }
 
 
-        int getCapacity() {
-            return counts.remainingCapacity();
+        /** Wait until the reserved counts have been added, the batch must be closed */
+        synchronized void awaitCompleted( int reserved ) {
+            boolean interrupted = false;
+
+            while ( completed.get() < reserved ) {
+                try {
+                    wait();
+                }
+                catch ( InterruptedException e ) {
+                    interrupted = true;
+                }
+            }
+
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
         }
 
 
-        void flush() {
-            ArrayList<Count> flushed = new ArrayList<Count>( batchSize );
-            counts.drainTo( flushed );
-            batchSubmitter.submit( flushed );
-            batchSubmissionCount.incrementAndGet();
-            opCount.incrementAndGet();
-            localCallCounter.incrementAndGet();
+        /** Wake the threads waiting for this batch to be replaced or completed */
+        synchronized void signal() {
+            notifyAll();
         }
 
 
         void add( Count count ) {
-            try {
-                counts.offer( count, 500, TimeUnit.MILLISECONDS );
-            }
-            catch ( Exception ex ) {
-                ex.printStackTrace();
+            String name = count.getCounterName();
+
+            Sum sum = sums.get( name );
+
+            if ( sum == null ) {
+                sum = new Sum( count );
+                Sum existing = sums.putIfAbsent( name, sum );
+                if ( existing == null ) {
+                    return;
+                }
+                sum = existing;
             }
+
+            existingCounterHit.inc();
+            sum.value.addAndGet( count.getValue() );
         }
 
 
-        void addSerial( Count count ) {
-            Future f = batchSubmitter.submit( Arrays.asList( count ) );
-            try {
-                f.get();
-            }
-            catch ( Exception ex ) {
-                ex.printStackTrace();
+        /** Get a single count per counter, only valid once every reserved count has been added */
+        @SuppressWarnings("unchecked")
+        List<Count> getCounts() {
+            List<Count> counts = new ArrayList<Count>( sums.size() );
+
+            for ( Sum sum : sums.values() ) {
+                counts.add( new Count( sum.first.getTableName(), sum.first.getKeyName(), sum.first.getColumnName(),
+                        sum.value.get() ) );
             }
-            batchSubmissionCount.incrementAndGet();
-            opCount.incrementAndGet();
-            localCallCounter.incrementAndGet();
+
+            return counts;
         }
+    }
+
+
+    /** The sum of the counts of a single counter */
+    private static class Sum {
+        private final Count first;
+        private final AtomicLong value;
 
 
-        /**
-         * The number of times the {@link #add(org.usergrid.count.common.Count)} method has been invoked on this batch
-         * instance
-         */
-        public int getLocalCallCount() {
-            return localCallCounter.get();
+        private Sum( Count first ) {
+            this.first = first;
+            this.value = new AtomicLong( first.getValue() );
         }
     }
 }
@@ -32,4 +32,7 @@ public interface Batcher {
     long getOpCount();
 
     long getBatchSubmissionCount();
+
+    /** Submit the counts that are waiting in a batch, and wait for every submission to complete */
+    void flush();
 }
@@ -49,6 +49,12 @@ public class Queue {
     public static final String QUEUE_NEWEST = "newest";
     public static final String QUEUE_OLDEST = "oldest";
 
+    /**
+     * The number of rows each time shard of the queue inbox is spread over.  Defaults to 1, a busy queue should use
+     * more so its writes aren't all on the same replicas.  It can be raised but not lowered.
+     */
+    public static final String QUEUE_SHARD_BUCKETS = "shard_buckets";
+
     @SuppressWarnings("rawtypes")
     public static final Map<String, Class> QUEUE_PROPERTIES =
             hashMap( QUEUE_PATH, ( Class ) String.class ).map( QUEUE_ID, UUID.class ).map( QUEUE_CREATED, Long.class )
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mq;
+
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Wakes up the readers waiting for messages to arrive on a queue.  Readers subscribe to the queue before they read it,
+ * so a message posted between the read and the wait isn't missed.  Arrivals are only known in this JVM, unless a
+ * publisher is set to send them to the other nodes.  Each waiter holds a request thread, so the number of waiters is
+ * bounded, once it's reached readers don't wait.
+ */
+public class QueueArrivalNotifier {
+
+    /** Sends arrivals to the other nodes, which call {@link QueueArrivalNotifier#notifyLocal(String)} */
+    public interface Publisher {
+
+        public void publish( String key );
+    }
+
+
+    /** The default max number of readers waiting at the same time */
+    public static final int DEFAULT_MAX_WAITERS = 100;
+
+    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private volatile Publisher publisher;
+
+    private volatile int maxWaiters = DEFAULT_MAX_WAITERS;
+
+
+    public QueueArrivalNotifier() {
+    }
+
+
+    public void setPublisher( Publisher publisher ) {
+        this.publisher = publisher;
+    }
+
+
+    /** Set the max number of readers waiting at the same time */
+    public void setMaxWaiters( int maxWaiters ) {
+        this.maxWaiters = maxWaiters;
+    }
+
+
+    /** Get the key of the queue, the same on every node */
+    public static String getKey( UUID applicationId, UUID queueId ) {
+        return applicationId + "/" + queueId;
+    }
+
+
+    /** Messages were posted to the queue, wake up its readers here and on the other nodes */
+    public void arrived( UUID applicationId, UUID queueId ) {
+        String key = getKey( applicationId, queueId );
+
+        notifyLocal( key );
+
+        Publisher p = publisher;
+        if ( p != null ) {
+            p.publish( key );
+        }
+    }
+
+
+    /** Wake up the readers of the queue in this JVM */
+    public void notifyLocal( String key ) {
+        Subscription subscription = subscriptions.get( key );
+
+        if ( subscription != null ) {
+            subscription.arrived();
+        }
+    }
+
+
+    /**
+     * Subscribe to the arrivals on the queue.  The waiter must be closed once the reader is done with it.
+     *
+     * @return The waiter, only messages that arrive after this call wake it up.  Null if the max number of readers are
+     *         already waiting
+     */
+    public Waiter subscribe( UUID applicationId, UUID queueId ) {
+        if ( waiting.incrementAndGet() > maxWaiters ) {
+            waiting.decrementAndGet();
+            return null;
+        }
+
+        String key = getKey( applicationId, queueId );
+
+        while ( true ) {
+            Subscription subscription = subscriptions.get( key );
+
+            if ( subscription == null ) {
+                subscription = new Subscription( key );
+                Subscription existing = subscriptions.putIfAbsent( key, subscription );
+                if ( existing != null ) {
+                    subscription = existing;
+                }
+            }
+
+            Waiter waiter = subscription.add();
+
+            // the last waiter of the subscription closed it, make a new one
+            if ( waiter != null ) {
+                return waiter;
+            }
+        }
+    }
+
+
+    /** A reader waiting on a queue */
+    public class Waiter {
+
+        private final Subscription subscription;
+        private long seen;
+        private boolean closed;
+
+
+        private Waiter( Subscription subscription, long seen ) {
+            this.subscription = subscription;
+            this.seen = seen;
+        }
+
+
+        /**
+         * Wait for a message to arrive after the subscription, or after the last time this returned true
+         *
+         * @param timeout The max time to wait in milliseconds
+         *
+         * @return True if a message arrived, false if the timeout passed
+         */
+        public boolean await( long timeout ) throws InterruptedException {
+            long arrivals = subscription.await( seen, timeout );
+
+            if ( arrivals == seen ) {
+                return false;
+            }
+
+            seen = arrivals;
+            return true;
+        }
+
+
+        public void close() {
+            if ( !closed ) {
+                closed = true;
+                subscription.remove();
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+
+    /** The readers waiting on a queue, and the count of arrivals since the first of them subscribed */
+    private class Subscription {
+
+        private final String key;
+        private long arrivals;
+        private int waiters;
+        private boolean closed;
+
+
+        private Subscription( String key ) {
+            this.key = key;
+        }
+
+
+        private synchronized Waiter add() {
+            if ( closed ) {
+                return null;
+            }
+            waiters++;
+            return new Waiter( this, arrivals );
+        }
+
+
+        private synchronized void remove() {
+            waiters--;
+            if ( waiters == 0 ) {
+                closed = true;
+                subscriptions.remove( key, this );
+            }
+        }
+
+
+        private synchronized void arrived() {
+            arrivals++;
+            notifyAll();
+        }
+
+
+        private synchronized long await( long seen, long timeout ) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+
+            while ( arrivals == seen && remaining > 0 ) {
+                wait( remaining );
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            return arrivals;
+        }
+    }
+}
@@ -40,6 +40,7 @@ public class QueueQuery extends Query {
     boolean _synchronized;
     boolean update = true;
     long timeout;
+    long wait;
 
 
     public QueueQuery() {
@@ -60,6 +61,7 @@ public class QueueQuery extends Query {
             position = q.position;
             _synchronized = q._synchronized;
             update = q.update;
+            wait = q.wait;
         }
     }
 
@@ -137,6 +139,11 @@ public class QueueQuery extends Query {
             query.setTimeout( ConversionUtils.getLong( first( params.get( "timeout" ) ) ) );
         }
 
+        if ( params.containsKey( "wait" ) ) {
+            query = newQueryIfNull( query );
+            query.setWait( ConversionUtils.getLong( first( params.get( "wait" ) ) ) );
+        }
+
         if ( ( query != null ) && ( consumer != null ) ) {
             query.setPositionIfUnset( QueuePosition.CONSUMER );
         }
@@ -303,4 +310,22 @@ public class QueueQuery extends Query {
         setTimeout( timeout );
         return this;
     }
+
+
+    /** @return the time to wait for messages to arrive if there are none, in milliseconds */
+    public long getWait() {
+        return wait;
+    }
+
+
+    /** @param wait the time to wait for messages to arrive if there are none, in milliseconds */
+    public void setWait( long wait ) {
+        this.wait = wait;
+    }
+
+
+    public QueueQuery withWait( long wait ) {
+        setWait( wait );
+        return this;
+    }
 }
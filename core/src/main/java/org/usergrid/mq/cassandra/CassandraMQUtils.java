@@ -17,6 +17,7 @@ package org.usergrid.mq.cassandra;
 
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +43,7 @@ import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.mutation.Mutator;
 
 import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static org.apache.commons.codec.digest.DigestUtils.md5;
 import static org.usergrid.mq.Message.MESSAGE_ID;
 import static org.usergrid.mq.Message.MESSAGE_PROPERTIES;
 import static org.usergrid.mq.Message.MESSAGE_TYPE;
@@ -49,7 +51,9 @@ import static org.usergrid.mq.Queue.QUEUE_NEWEST;
 import static org.usergrid.mq.Queue.QUEUE_OLDEST;
 import static org.usergrid.mq.Queue.QUEUE_PROPERTIES;
 import static org.usergrid.mq.QueuePosition.CONSUMER;
+import static org.usergrid.mq.cassandra.QueueManagerImpl.MAX_QUEUE_SHARD_BUCKETS;
 import static org.usergrid.utils.ConversionUtils.bytebuffer;
+import static org.usergrid.utils.ConversionUtils.bytes;
 import static org.usergrid.utils.ConversionUtils.getLong;
 import static org.usergrid.utils.ConversionUtils.object;
 
@@ -228,6 +232,58 @@ public class CassandraMQUtils {
     }
 
 
+    /**
+     * Get the row key of a bucket of a queue shard.  Bucket 0 is the row of the shard from before queues had buckets,
+     * so queues with a single bucket are read and written as they always were.
+     */
+    public static ByteBuffer getQueueShardRowKey( UUID uuid, long ts, int bucket ) {
+        if ( bucket == 0 ) {
+            return getQueueShardRowKey( uuid, ts );
+        }
+        ByteBuffer bytes = ByteBuffer.allocate( 28 );
+        bytes.putLong( uuid.getMostSignificantBits() );
+        bytes.putLong( uuid.getLeastSignificantBits() );
+        bytes.putLong( ts );
+        bytes.putInt( bucket );
+        return ( ByteBuffer ) bytes.rewind();
+    }
+
+
+    /** Get the row keys of every bucket of a queue shard */
+    public static List<ByteBuffer> getQueueShardRowKeys( UUID uuid, long ts, int buckets ) {
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>( buckets );
+        for ( int i = 0; i < buckets; i++ ) {
+            keys.add( getQueueShardRowKey( uuid, ts, i ) );
+        }
+        return keys;
+    }
+
+
+    /**
+     * Get the bucket of a queue shard the message is written to.  Like the index bucket locator, the message id is
+     * hashed so messages are spread evenly whatever the node that created their id.
+     */
+    public static int getQueueShardBucket( UUID messageId, int buckets ) {
+        if ( buckets <= 1 ) {
+            return 0;
+        }
+        byte[] hash = md5( bytes( messageId ) );
+        int location = ( ( hash[0] & 0xFF ) << 24 ) | ( ( hash[1] & 0xFF ) << 16 ) | ( ( hash[2] & 0xFF ) << 8 ) | (
+                hash[3] & 0xFF );
+        return ( location & Integer.MAX_VALUE ) % buckets;
+    }
+
+
+    /** Get the number of shard buckets from the value of the queue property, between 1 and the max */
+    public static int getQueueShardBuckets( Object value ) {
+        if ( value == null ) {
+            return 1;
+        }
+        int buckets = ConversionUtils.getInt( value );
+        return Math.max( 1, Math.min( buckets, MAX_QUEUE_SHARD_BUCKETS ) );
+    }
+
+
     /** Get a row key in format of queueId+clientId */
     public static ByteBuffer getQueueClientTransactionKey( UUID queueId, UUID clientId ) {
         ByteBuffer bytes = ByteBuffer.allocate( 32 );
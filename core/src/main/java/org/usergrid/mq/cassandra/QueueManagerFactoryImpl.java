@@ -20,9 +20,12 @@ import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.usergrid.locking.LockManager;
+import org.usergrid.mq.QueueArrivalNotifier;
 import org.usergrid.mq.QueueManager;
 import org.usergrid.mq.QueueManagerFactory;
+import org.usergrid.mq.cassandra.io.LeaseConsumerTransaction;
 import org.usergrid.persistence.cassandra.CassandraService;
 import org.usergrid.persistence.cassandra.CounterUtils;
 
@@ -44,6 +47,11 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     private CounterUtils counterUtils;
     private LockManager lockManager;
     private int lockTimeout;
+    private boolean leaseTransactions;
+    private long leaseSettleTime = LeaseConsumerTransaction.DEFAULT_SETTLE_TIME;
+    private final QueueArrivalNotifier arrivalNotifier = new QueueArrivalNotifier();
+
+    private AsyncTaskExecutor fanOutExecutor;
 
     public static final StringSerializer se = new StringSerializer();
     public static final ByteBufferSerializer be = new ByteBufferSerializer();
@@ -67,6 +75,36 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     }
 
 
+    /** Start queue transactions with lease claims instead of a lock on the consumer */
+    public void setLeaseTransactions( boolean leaseTransactions ) {
+        this.leaseTransactions = leaseTransactions;
+    }
+
+
+    /** The time a lease transaction waits for earlier claims, in milliseconds */
+    public void setLeaseSettleTime( long leaseSettleTime ) {
+        this.leaseSettleTime = leaseSettleTime;
+    }
+
+
+    /** The executor messages are posted to subscribers on, shared by all applications */
+    public void setFanOutExecutor( AsyncTaskExecutor fanOutExecutor ) {
+        this.fanOutExecutor = fanOutExecutor;
+    }
+
+
+    /** The max number of reads waiting for messages at the same time, each of them holds a request thread */
+    public void setMaxQueueWaiters( int maxQueueWaiters ) {
+        arrivalNotifier.setMaxWaiters( maxQueueWaiters );
+    }
+
+
+    /** The notifier of messages arriving on the queues of every application */
+    public QueueArrivalNotifier getArrivalNotifier() {
+        return arrivalNotifier;
+    }
+
+
     @Override
     public String getImpementationDescription() throws Exception {
         return IMPLEMENTATION_DESCRIPTION;
@@ -77,6 +115,9 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     public QueueManager getQueueManager( UUID applicationId ) {
         QueueManagerImpl qm = new QueueManagerImpl();
         qm.init( cass, counterUtils, lockManager, applicationId, lockTimeout );
+        qm.setFanOutExecutor( fanOutExecutor );
+        qm.setLeaseTransactions( leaseTransactions, leaseSettleTime );
+        qm.setArrivalNotifier( arrivalNotifier );
         return qm;
         //return applicationContext.getAutowireCapableBeanFactory()
         //		.createBean(QueueManagerImpl.class)
@@ -27,9 +27,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.usergrid.locking.LockManager;
 import org.usergrid.mq.CounterQuery;
 import org.usergrid.mq.Message;
@@ -38,6 +44,7 @@ import org.usergrid.mq.Query.CounterFilterPredicate;
 import org.usergrid.mq.QueryProcessor;
 import org.usergrid.mq.QueryProcessor.QuerySlice;
 import org.usergrid.mq.Queue;
+import org.usergrid.mq.QueueArrivalNotifier;
 import org.usergrid.mq.QueueManager;
 import org.usergrid.mq.QueueQuery;
 import org.usergrid.mq.QueueResults;
@@ -47,6 +54,7 @@ import org.usergrid.mq.cassandra.QueueIndexUpdate.QueueIndexEntry;
 import org.usergrid.mq.cassandra.io.ConsumerTransaction;
 import org.usergrid.mq.cassandra.io.EndSearch;
 import org.usergrid.mq.cassandra.io.FilterSearch;
+import org.usergrid.mq.cassandra.io.LeaseConsumerTransaction;
 import org.usergrid.mq.cassandra.io.NoTransactionSearch;
 import org.usergrid.mq.cassandra.io.QueueBounds;
 import org.usergrid.mq.cassandra.io.QueueSearch;
@@ -60,9 +68,17 @@ import org.usergrid.persistence.cassandra.CassandraService;
 import org.usergrid.persistence.cassandra.CounterUtils;
 import org.usergrid.persistence.cassandra.CounterUtils.AggregateCounterSelection;
 import org.usergrid.persistence.exceptions.TransactionNotFoundException;
+import org.usergrid.utils.JsonUtils;
 import org.usergrid.utils.UUIDUtils;
 
 import com.fasterxml.uuid.UUIDComparator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
 
 import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
 import me.prettyprint.cassandra.serializers.BytesArraySerializer;
@@ -94,6 +110,7 @@ import static org.usergrid.mq.Queue.QUEUE_CREATED;
 import static org.usergrid.mq.Queue.QUEUE_MODIFIED;
 import static org.usergrid.mq.Queue.QUEUE_NEWEST;
 import static org.usergrid.mq.Queue.QUEUE_OLDEST;
+import static org.usergrid.mq.Queue.QUEUE_SHARD_BUCKETS;
 import static org.usergrid.mq.Queue.getQueueId;
 import static org.usergrid.mq.Queue.normalizeQueuePath;
 import static org.usergrid.mq.QueuePosition.CONSUMER;
@@ -104,6 +121,8 @@ import static org.usergrid.mq.cassandra.CassandraMQUtils.addMessageToMutator;
 import static org.usergrid.mq.cassandra.CassandraMQUtils.addQueueToMutator;
 import static org.usergrid.mq.cassandra.CassandraMQUtils.deserializeMessage;
 import static org.usergrid.mq.cassandra.CassandraMQUtils.deserializeQueue;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardBucket;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardBuckets;
 import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardRowKey;
 import static org.usergrid.mq.cassandra.QueueIndexUpdate.indexValueCode;
 import static org.usergrid.mq.cassandra.QueueIndexUpdate.toIndexableValue;
@@ -140,10 +159,25 @@ public class QueueManagerImpl implements QueueManager {
     public static final String DICTIONARY_SUBSCRIBER_INDEXES = "subscriber_indexes";
     public static final String DICTIONARY_MESSAGE_INDEXES = "message_indexes";
 
+    /** The time shards of the queue inbox that hold messages */
+    public static final String DICTIONARY_SHARDS = "shards";
+
     public static final int QUEUE_SHARD_INTERVAL = 1000 * 60 * 60 * 24;
+
+    /** The max number of rows a time shard of a queue can be spread over */
+    public static final int MAX_QUEUE_SHARD_BUCKETS = 64;
+
+    /** How long a node writes with the shard buckets of a queue it read before reading them again */
+    public static final int QUEUE_SHARD_BUCKETS_CACHE_SECONDS = 60;
     public static final int INDEX_ENTRY_LIST_COUNT = 1000;
 
     public static final int DEFAULT_SEARCH_COUNT = 10000;
+
+    /** The max time a read waits for messages to arrive, in milliseconds */
+    public static final long MAX_WAIT = 60 * 1000;
+
+    /** The max number of messages posted to queues in a single mutation */
+    public static final int POST_BATCH_SIZE = 100;
     public static final int ALL_COUNT = 100000000;
 
     private UUID applicationId;
@@ -151,6 +185,22 @@ public class QueueManagerImpl implements QueueManager {
     private CounterUtils counterUtils;
     private LockManager lockManager;
     private int lockTimeout;
+    private AsyncTaskExecutor fanOutExecutor;
+    private QueueArrivalNotifier arrivalNotifier;
+    private boolean leaseTransactions;
+    private long leaseSettleTime = LeaseConsumerTransaction.DEFAULT_SETTLE_TIME;
+
+    private static final Timer fanOutTimer =
+            Metrics.newTimer( QueueManagerImpl.class, "subscriber_fan_out", TimeUnit.MILLISECONDS, TimeUnit.SECONDS );
+    private static final Meter fanOutDeliveries =
+            Metrics.newMeter( QueueManagerImpl.class, "subscriber_deliveries", "messages", TimeUnit.SECONDS );
+
+    /**
+     * The shard buckets of the queues posted to, by application and queue id.  A stale count is safe, the count is
+     * never lowered and readers always read every bucket.
+     */
+    private static final Cache<String, Integer> shardBuckets = CacheBuilder.newBuilder().maximumSize( 10000 )
+            .expireAfterWrite( QUEUE_SHARD_BUCKETS_CACHE_SECONDS, TimeUnit.SECONDS ).build();
 
     public static final StringSerializer se = new StringSerializer();
     public static final ByteBufferSerializer be = new ByteBufferSerializer();
@@ -175,6 +225,33 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    /** Set the executor to post messages to subscribers on.  If not set, they're posted on the calling thread */
+    public QueueManagerImpl setFanOutExecutor( AsyncTaskExecutor fanOutExecutor ) {
+        this.fanOutExecutor = fanOutExecutor;
+        return this;
+    }
+
+
+    /** Set the notifier of messages arriving on queues.  If not set, reads don't wait for messages */
+    public QueueManagerImpl setArrivalNotifier( QueueArrivalNotifier arrivalNotifier ) {
+        this.arrivalNotifier = arrivalNotifier;
+        return this;
+    }
+
+
+    /**
+     * Start transactions with lease claims instead of a lock on the consumer.  See {@link LeaseConsumerTransaction}.
+     *
+     * @param leaseTransactions True to read without the lock
+     * @param leaseSettleTime The time a read waits for earlier claims, in milliseconds
+     */
+    public QueueManagerImpl setLeaseTransactions( boolean leaseTransactions, long leaseSettleTime ) {
+        this.leaseTransactions = leaseTransactions;
+        this.leaseSettleTime = leaseSettleTime;
+        return this;
+    }
+
+
     @Override
     public Message getMessage( UUID messageId ) {
         SliceQuery<UUID, String, ByteBuffer> q =
@@ -201,11 +278,17 @@ public class QueueManagerImpl implements QueueManager {
 
         long shard_ts = roundLong( message.getTimestamp(), QUEUE_SHARD_INTERVAL );
 
+        int bucket = getQueueShardBucket( message.getUuid(), getCachedShardBuckets( queueId ) );
+
         logger.debug( "Adding message with id '{}' to queue '{}'", message.getUuid(), queueId );
 
-        batch.addInsertion( getQueueShardRowKey( queueId, shard_ts ), QUEUE_INBOX.getColumnFamily(),
+        batch.addInsertion( getQueueShardRowKey( queueId, shard_ts, bucket ), QUEUE_INBOX.getColumnFamily(),
                 createColumn( message.getUuid(), ByteBuffer.allocate( 0 ), timestamp, ue, be ) );
 
+        // index the shard, range reads only visit shards that hold messages
+        batch.addInsertion( bytebuffer( key( queueId, DICTIONARY_SHARDS ) ), QUEUE_DICTIONARIES.getColumnFamily(),
+                createColumn( shard_ts, ByteBuffer.allocate( 0 ), timestamp, le, be ) );
+
         long oldest_ts = Long.MAX_VALUE - getTimestampInMicros( message.getUuid() );
         batch.addInsertion( bytebuffer( queueId ), QUEUE_PROPERTIES.getColumnFamily(),
                 createColumn( QUEUE_OLDEST, message.getUuid(), oldest_ts, se, ue ) );
@@ -236,56 +319,205 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    /** Get the number of rows each time shard of the queue is spread over */
+    public int getShardBuckets( UUID queueId ) {
+        HColumn<String, ByteBuffer> column =
+                HFactory.createColumnQuery( cass.getApplicationKeyspace( applicationId ), ue, se, be )
+                        .setKey( queueId ).setName( QUEUE_SHARD_BUCKETS )
+                        .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() ).execute().get();
+
+        return getQueueShardBuckets( column == null ? null : JsonUtils.fromByteBuffer( column.getValue() ) );
+    }
+
+
+    /** Get the shard buckets of the queue, read at most once a minute per queue */
+    private int getCachedShardBuckets( final UUID queueId ) {
+        try {
+            return shardBuckets.get( applicationId + "/" + queueId, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return getShardBuckets( queueId );
+                }
+            } );
+        }
+        catch ( ExecutionException e ) {
+            throw new RuntimeException( "Unable to read the shard buckets of queue " + queueId, e.getCause() );
+        }
+    }
+
+
     @Override
     public Message postToQueue( String queuePath, Message message ) {
-        long timestamp = cass.createTimestamp();
-        Mutator<ByteBuffer> batch = createMutator( cass.getApplicationKeyspace( applicationId ), be );
+        postToQueue( queuePath, Collections.singletonList( message ) );
+        return message;
+    }
+
+
+    /**
+     * Post the messages to the queue and all of its subscribers.  Messages are written to the queue in mutations of at
+     * most {@link #POST_BATCH_SIZE} messages, then copied to the subscribers in parallel on the fan out executor.
+     */
+    @Override
+    public List<Message> postToQueue( String queuePath, List<Message> messages ) {
 
         queuePath = normalizeQueuePath( queuePath );
 
-        MessageIndexUpdate indexUpdate = new MessageIndexUpdate( message );
+        // a big batch would time out, write the messages in bounded mutations
+        List<QueuePost> posts = new ArrayList<QueuePost>( messages.size() );
 
-        batchPostToQueue( batch, queuePath, message, indexUpdate, timestamp );
+        for ( int i = 0; i < messages.size(); i += POST_BATCH_SIZE ) {
+            Mutator<ByteBuffer> batch = createMutator( cass.getApplicationKeyspace( applicationId ), be );
+
+            for ( Message message : messages.subList( i, Math.min( i + POST_BATCH_SIZE, messages.size() ) ) ) {
+                QueuePost post = new QueuePost( message, new MessageIndexUpdate( message ), cass.createTimestamp() );
+                batchPostToQueue( batch, queuePath, post.message, post.indexUpdate, post.timestamp );
+                posts.add( post );
+            }
+
+            batchExecute( batch, RETRY_COUNT );
+        }
+
+        if ( arrivalNotifier != null && !posts.isEmpty() ) {
+            arrivalNotifier.arrived( applicationId, getQueueId( queuePath ) );
+        }
+
+        List<String> subscribers = getAllSubscriberPaths( queuePath );
+
+        if ( !subscribers.isEmpty() ) {
+            fanOut( subscribers, posts );
+        }
+
+        return messages;
+    }
 
-        batchExecute( batch, RETRY_COUNT );
+
+    /** Get the paths of every subscriber of the queue */
+    private List<String> getAllSubscriberPaths( String queuePath ) {
+        List<String> paths = new ArrayList<String>();
 
         String firstSubscriberQueuePath = null;
         while ( true ) {
 
             QueueSet subscribers = getSubscribers( queuePath, firstSubscriberQueuePath, 1000 );
 
-            if ( subscribers.getQueues().isEmpty() ) {
-                break;
-            }
-
-            batch = createMutator( cass.getApplicationKeyspace( applicationId ), be );
             for ( QueueInfo q : subscribers.getQueues() ) {
-                batchPostToQueue( batch, q.getPath(), message, indexUpdate, timestamp );
-
+                paths.add( q.getPath() );
                 firstSubscriberQueuePath = q.getPath();
             }
-            batchExecute( batch, RETRY_COUNT );
 
-            if ( !subscribers.hasMore() ) {
+            if ( subscribers.getQueues().isEmpty() || !subscribers.hasMore() ) {
                 break;
             }
         }
 
-        return message;
+        return paths;
     }
 
 
-    @Override
-    public List<Message> postToQueue( String queuePath, List<Message> messages ) {
+    /**
+     * Copy the posts to every subscriber.  Each mutation holds at most {@link #POST_BATCH_SIZE} posts, the mutations
+     * are executed in parallel and we wait for all of them.
+     */
+    private void fanOut( List<String> subscribers, List<QueuePost> posts ) {
+        TimerContext timer = fanOutTimer.time();
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for ( int i = 0; i < subscribers.size(); i += POST_BATCH_SIZE ) {
+            final List<String> subscriberGroup =
+                    subscribers.subList( i, Math.min( i + POST_BATCH_SIZE, subscribers.size() ) );
+
+            int messagesPerBatch = Math.max( 1, POST_BATCH_SIZE / subscriberGroup.size() );
+
+            for ( int j = 0; j < posts.size(); j += messagesPerBatch ) {
+                final List<QueuePost> postGroup = posts.subList( j, Math.min( j + messagesPerBatch, posts.size() ) );
 
-        // Can't do this as one big batch operation because it will
-        // time out
+                tasks.add( new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Mutator<ByteBuffer> batch = createMutator( cass.getApplicationKeyspace( applicationId ), be );
 
-        for ( Message message : messages ) {
-            postToQueue( queuePath, message );
+                        for ( QueuePost post : postGroup ) {
+                            for ( String subscriber : subscriberGroup ) {
+                                batchPostToQueue( batch, subscriber, post.message, post.indexUpdate, post.timestamp );
+                            }
+                        }
+
+                        batchExecute( batch, RETRY_COUNT );
+                        fanOutDeliveries.mark( postGroup.size() * subscriberGroup.size() );
+
+                        if ( arrivalNotifier != null ) {
+                            for ( String subscriber : subscriberGroup ) {
+                                arrivalNotifier.arrived( applicationId, getQueueId( subscriber ) );
+                            }
+                        }
+                        return null;
+                    }
+                } );
+            }
         }
 
-        return messages;
+        try {
+            if ( fanOutExecutor == null || tasks.size() == 1 ) {
+                for ( Callable<Void> task : tasks ) {
+                    task.call();
+                }
+                return;
+            }
+
+            List<Future<Void>> futures = new ArrayList<Future<Void>>( tasks.size() );
+
+            for ( Callable<Void> task : tasks ) {
+                futures.add( fanOutExecutor.submit( task ) );
+            }
+
+            RuntimeException failure = null;
+
+            // wait for every batch, so a failure doesn't leave others running
+            for ( Future<Void> future : futures ) {
+                try {
+                    future.get();
+                }
+                catch ( ExecutionException e ) {
+                    logger.error( "Unable to post messages to subscribers", e.getCause() );
+                    if ( failure == null ) {
+                        failure = new RuntimeException( "Unable to post messages to subscribers", e.getCause() );
+                    }
+                }
+            }
+
+            if ( failure != null ) {
+                throw failure;
+            }
+        }
+        catch ( RuntimeException e ) {
+            throw e;
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while posting messages to subscribers", e );
+        }
+        catch ( Exception e ) {
+            throw new RuntimeException( "Unable to post messages to subscribers", e );
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+
+    /** A message that was posted, with the timestamp and index update to reuse for its subscribers */
+    private static class QueuePost {
+        private final Message message;
+        private final MessageIndexUpdate indexUpdate;
+        private final long timestamp;
+
+
+        private QueuePost( Message message, MessageIndexUpdate indexUpdate, long timestamp ) {
+            this.message = message;
+            this.indexUpdate = indexUpdate;
+            this.timestamp = timestamp;
+        }
     }
 
 
@@ -377,6 +609,11 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    /**
+     * Read from the queue.  If the query has a wait and there are no messages, wait for messages to arrive and read
+     * again, until there are messages or the wait is over.  If too many reads are already waiting, read without
+     * waiting.
+     */
     @Override
     public QueueResults getFromQueue( String queuePath, QueueQuery query ) {
 
@@ -384,6 +621,50 @@ public class QueueManagerImpl implements QueueManager {
             query = new QueueQuery();
         }
 
+        long wait = Math.min( query.getWait(), MAX_WAIT );
+
+        if ( wait <= 0 || arrivalNotifier == null ) {
+            return readFromQueue( queuePath, query );
+        }
+
+        long deadline = System.currentTimeMillis() + wait;
+
+        // subscribe before the read, so a message posted after it wakes us up
+        QueueArrivalNotifier.Waiter waiter =
+                arrivalNotifier.subscribe( applicationId, CassandraMQUtils.getQueueId( queuePath ) );
+
+        if ( waiter == null ) {
+            logger.debug( "Too many reads are waiting, reading '{}' without waiting", queuePath );
+            return readFromQueue( queuePath, query );
+        }
+
+        try {
+            QueueResults results = readFromQueue( queuePath, query );
+
+            while ( results.size() == 0 ) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if ( remaining <= 0 || !waiter.await( remaining ) ) {
+                    break;
+                }
+
+                results = readFromQueue( queuePath, query );
+            }
+
+            return results;
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return readFromQueue( queuePath, query );
+        }
+        finally {
+            waiter.close();
+        }
+    }
+
+
+    private QueueResults readFromQueue( String queuePath, QueueQuery query ) {
+
         Keyspace ko = cass.getApplicationKeyspace( applicationId );
 
         QueueSearch search = null;
@@ -393,7 +674,10 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         else if ( query.getPosition() == LAST || query.getPosition() == CONSUMER ) {
-            if ( query.getTimeout() > 0 ) {
+            if ( query.getTimeout() > 0 && leaseTransactions ) {
+                search = new LeaseConsumerTransaction( applicationId, ko, cass, leaseSettleTime );
+            }
+            else if ( query.getTimeout() > 0 ) {
                 search = new ConsumerTransaction( applicationId, ko, lockManager, cass, lockTimeout );
             }
             else {
@@ -950,6 +1234,13 @@ public class QueueManagerImpl implements QueueManager {
     public Queue updateQueue( String queuePath, Queue queue ) {
         queue.setPath( queuePath );
 
+        // messages in the buckets past a lowered count would no longer be read
+        if ( queue.getObjectProperty( QUEUE_SHARD_BUCKETS ) != null ) {
+            int buckets = getQueueShardBuckets( queue.getObjectProperty( QUEUE_SHARD_BUCKETS ) );
+            queue.setIntProperty( QUEUE_SHARD_BUCKETS, Math.max( buckets, getShardBuckets( queue.getUuid() ) ) );
+            shardBuckets.invalidate( applicationId + "/" + queue.getUuid() );
+        }
+
         UUID timestampUuid = newTimeUUID();
         long timestamp = getTimestampInMicros( timestampUuid );
 
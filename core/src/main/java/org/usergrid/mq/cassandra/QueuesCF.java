@@ -50,6 +50,12 @@ public enum QueuesCF implements CFEnum {
 
     CONSUMERS( "MQ_Consumers", "BytesType" ),
 
+    /**
+     * Lease claims of lock free transactional reads, by queue and consumer.  The column name is the message id, or the
+     * timed out transaction of a message read again, the value is the read that claimed it.
+     */
+    CONSUMER_QUEUE_CLAIMS( "MQ_Consumers_Claims", "UUIDType" ),
+
     CONSUMER_QUEUE_MESSAGES_PROPERTIES( "Consumer_Queue_Messages_Properties", "BytesType" ),
 
     COUNTERS( "MQ_Counters", "BytesType", COUNTERTYPE.getClassName() ),
@@ -32,9 +32,15 @@ import org.usergrid.mq.Message;
 import org.usergrid.mq.QueueResults;
 import org.usergrid.mq.cassandra.io.NoTransactionSearch.SearchParam;
 import org.usergrid.persistence.exceptions.QueueException;
+import org.usergrid.utils.JsonUtils;
 import org.usergrid.utils.UUIDUtils;
 
+import com.fasterxml.uuid.UUIDComparator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.ColumnSlice;
@@ -51,18 +57,23 @@ import static me.prettyprint.hector.api.factory.HFactory.createMutator;
 import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
 import static org.usergrid.mq.Queue.QUEUE_NEWEST;
 import static org.usergrid.mq.Queue.QUEUE_OLDEST;
+import static org.usergrid.mq.Queue.QUEUE_SHARD_BUCKETS;
 import static org.usergrid.mq.cassandra.CassandraMQUtils.deserializeMessage;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardBuckets;
 import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardRowKey;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardRowKeys;
 import static org.usergrid.mq.cassandra.QueueManagerImpl.ALL_COUNT;
+import static org.usergrid.mq.cassandra.QueueManagerImpl.DICTIONARY_SHARDS;
 import static org.usergrid.mq.cassandra.QueueManagerImpl.QUEUE_SHARD_INTERVAL;
 import static org.usergrid.mq.cassandra.QueueManagerImpl.se;
 import static org.usergrid.mq.cassandra.QueuesCF.CONSUMERS;
 import static org.usergrid.mq.cassandra.QueuesCF.MESSAGE_PROPERTIES;
+import static org.usergrid.mq.cassandra.QueuesCF.QUEUE_DICTIONARIES;
 import static org.usergrid.mq.cassandra.QueuesCF.QUEUE_INBOX;
 import static org.usergrid.mq.cassandra.QueuesCF.QUEUE_PROPERTIES;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.usergrid.utils.ConversionUtils.bytebuffer;
 import static org.usergrid.utils.NumberUtils.roundLong;
-import static org.usergrid.utils.UUIDUtils.MAX_TIME_UUID;
-import static org.usergrid.utils.UUIDUtils.MIN_TIME_UUID;
 import static org.usergrid.utils.UUIDUtils.getTimestampInMillis;
 
 
@@ -76,6 +87,24 @@ public abstract class AbstractSearch implements QueueSearch
 
     protected static final ByteBufferSerializer be = new ByteBufferSerializer();
 
+    protected static final LongSerializer le = new LongSerializer();
+
+    /** The max number of adjacent shards read in a single multiget */
+    public static final int SHARD_MULTIGET_SIZE = 4;
+
+    /** The min number of ids read from each row of a multiget at a time */
+    private static final int MIN_ROW_PAGE = 5;
+
+    /** The order of the columns of a queue inbox row */
+    private static final Comparator<UUID> TIME_ORDER = new UUIDComparator();
+
+    /**
+     * The first indexed shard of the queues read, by keyspace and queue id.  Shards are indexed as messages are posted
+     * to them, so the first one never moves back.  A stale value only makes reads return unindexed shards.
+     */
+    private static final Cache<String, Long> firstIndexedShards =
+            CacheBuilder.newBuilder().maximumSize( 10000 ).build();
+
     protected Keyspace ko;
 
 
@@ -192,68 +221,257 @@ public abstract class AbstractSearch implements QueueSearch
 
         long finish_ts_shard = roundLong( getTimestampInMillis( finish_uuid ), QUEUE_SHARD_INTERVAL );
 
-        long current_ts_shard = start_ts_shard;
-        if ( params.reversed )
+        List<Long> shards = getQueueShards( queueId, Math.min( start_ts_shard, finish_ts_shard ),
+                Math.max( start_ts_shard, finish_ts_shard ), params.reversed );
+
+        // the shards partition the time range, so one column range from start to finish fits all of them
+        for ( int s = 0; s < shards.size(); s += SHARD_MULTIGET_SIZE )
         {
-            current_ts_shard = finish_ts_shard;
+            List<Long> group = shards.subList( s, Math.min( s + SHARD_MULTIGET_SIZE, shards.size() ) );
+
+            List<UUID> ids = getShardRange( queueId, group, bounds.getShardBuckets(), start, finish_uuid, params );
+
+            for ( int i = 0; i < ids.size(); i++ )
+            {
+                UUID id = ids.get( i );
+
+                // skip the first one, we've already read it
+                if ( i == 0 && params.skipFirst && params.startId.equals( id ) )
+                {
+                    continue;
+                }
+
+                results.add( id );
+
+                logger.debug( "Added id '{}' to result set for queue id '{}'", id, queueId );
+
+                if ( results.size() >= params.limit )
+                {
+                    return results;
+                }
+            }
         }
 
-        while ( ( current_ts_shard >= start_ts_shard ) && ( current_ts_shard <= finish_ts_shard ) )
+        return results;
+    }
+
+
+    /**
+     * Get the time shards of the queue between the first and last shard that hold messages, in the order they're read.
+     * The shards are read from the shard index.  Shards older than the first indexed shard were written before the
+     * index, every one of them is returned.  A range of a single shard is returned without reading the index.
+     *
+     * @param queueId The queue id
+     * @param first The oldest shard to return
+     * @param last The newest shard to return
+     * @param reversed True to return the newest shard first
+     */
+    protected List<Long> getQueueShards( UUID queueId, long first, long last, boolean reversed )
+    {
+        if ( first == last )
         {
+            return Collections.singletonList( first );
+        }
+
+        ByteBuffer indexKey = bytebuffer( key( queueId, DICTIONARY_SHARDS ) );
 
-            UUID slice_start = MIN_TIME_UUID;
-            UUID slice_end = MAX_TIME_UUID;
+        long indexStart = getFirstIndexedShard( queueId, indexKey );
 
-            if ( current_ts_shard == start_ts_shard )
+        List<Long> shards = new ArrayList<Long>();
+
+        for ( long shard = first; shard <= last && shard < indexStart; shard += QUEUE_SHARD_INTERVAL )
+        {
+            shards.add( shard );
+        }
+
+        if ( last >= indexStart )
+        {
+            List<HColumn<Long, ByteBuffer>> indexed =
+                    createSliceQuery( ko, be, le, be ).setColumnFamily( QUEUE_DICTIONARIES.getColumnFamily() )
+                            .setKey( indexKey ).setRange( Math.max( first, indexStart ), last, false, ALL_COUNT )
+                            .execute().get().getColumns();
+
+            for ( HColumn<Long, ByteBuffer> column : indexed )
             {
-                slice_start = start;
+                shards.add( column.getName() );
             }
+        }
+
+        if ( reversed )
+        {
+            Collections.reverse( shards );
+        }
+
+        return shards;
+    }
+
+
+    /** Get the first shard in the index of the queue, Long.MAX_VALUE if none are indexed yet */
+    private long getFirstIndexedShard( UUID queueId, ByteBuffer indexKey )
+    {
+        String cacheKey = ko.getKeyspaceName() + "/" + queueId;
+
+        Long cached = firstIndexedShards.getIfPresent( cacheKey );
+
+        if ( cached != null )
+        {
+            return cached;
+        }
+
+        List<HColumn<Long, ByteBuffer>> firstIndexed =
+                createSliceQuery( ko, be, le, be ).setColumnFamily( QUEUE_DICTIONARIES.getColumnFamily() )
+                        .setKey( indexKey ).setRange( null, null, false, 1 ).execute().get().getColumns();
+
+        if ( firstIndexed.isEmpty() )
+        {
+            // not cached, the first message may index a shard at any time
+            return Long.MAX_VALUE;
+        }
+
+        long indexStart = firstIndexed.get( 0 ).getName();
 
-            if ( current_ts_shard == finish_ts_shard )
+        firstIndexedShards.put( cacheKey, indexStart );
+
+        return indexStart;
+    }
+
+
+    /**
+     * Read the ids in the range from adjacent time shards of the queue inbox.  The first page of every bucket of every
+     * shard is read with a single multiget, and the ids are merged back into time order.  The ids up to the last id of
+     * the fullest page are in order, rows that may hold ids before the next one are read a page at a time until the
+     * limit is in order.
+     */
+    protected List<UUID> getShardRange( UUID queueId, List<Long> shards, int buckets, UUID start, UUID finish,
+                                        SearchParam params )
+    {
+
+        int count = params.limit + 1;
+
+        if ( shards.size() == 1 && buckets <= 1 )
+        {
+            List<HColumn<UUID, ByteBuffer>> columns =
+                    getInboxRange( getQueueShardRowKey( queueId, shards.get( 0 ) ), start, finish, params.reversed,
+                            count );
+
+            List<UUID> ids = new ArrayList<UUID>( columns.size() );
+
+            for ( HColumn<UUID, ByteBuffer> column : columns )
             {
-                slice_end = finish_uuid;
+                ids.add( column.getName() );
             }
 
-            SliceQuery<ByteBuffer, UUID, ByteBuffer> q = createSliceQuery( ko, be, ue, be );
-            q.setColumnFamily( QUEUE_INBOX.getColumnFamily() );
-            q.setKey( getQueueShardRowKey( queueId, current_ts_shard ) );
-            q.setRange( slice_start, slice_end, params.reversed, params.limit + 1 );
+            return ids;
+        }
+
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>( shards.size() * buckets );
+
+        for ( Long shard : shards )
+        {
+            keys.addAll( getQueueShardRowKeys( queueId, shard, buckets ) );
+        }
+
+        // the ids of a shard are spread over its buckets, read a share of the limit from each of them
+        int pageSize = Math.min( count, Math.max( MIN_ROW_PAGE, count * 2 / Math.max( 1, buckets ) ) );
+
+        Rows<ByteBuffer, UUID, ByteBuffer> rows =
+                createMultigetSliceQuery( ko, be, ue, be ).setColumnFamily( QUEUE_INBOX.getColumnFamily() )
+                        .setKeys( keys ).setRange( start, finish, params.reversed, pageSize ).execute().get();
 
-            List<HColumn<UUID, ByteBuffer>> cassResults = q.execute().get().getColumns();
+        Comparator<UUID> order = params.reversed ? Collections.reverseOrder( TIME_ORDER ) : TIME_ORDER;
+
+        List<UUID> ids = new ArrayList<UUID>();
+
+        // the last id read from each row with a full page, they may hold more ids
+        Map<ByteBuffer, UUID> open = new HashMap<ByteBuffer, UUID>();
+
+        // the keys of the rows read are views of the response buffer, keep the keys they were read with
+        for ( ByteBuffer key : keys )
+        {
+            Row<ByteBuffer, UUID, ByteBuffer> row = rows.getByKey( key );
 
-            for ( int i = 0; i < cassResults.size(); i++ )
+            if ( row == null )
             {
-                HColumn<UUID, ByteBuffer> column = cassResults.get( i );
+                continue;
+            }
 
-                // skip the first one, we've already read it
-                if ( i == 0 && params.skipFirst && params.startId.equals( column.getName() ) )
-                {
-                    continue;
-                }
+            List<HColumn<UUID, ByteBuffer>> columns = row.getColumnSlice().getColumns();
+
+            for ( HColumn<UUID, ByteBuffer> column : columns )
+            {
+                ids.add( column.getName() );
+            }
 
-                UUID id = column.getName();
+            if ( columns.size() == pageSize )
+            {
+                open.put( key, columns.get( columns.size() - 1 ).getName() );
+            }
+        }
 
-                results.add( id );
+        Collections.sort( ids, order );
 
-                logger.debug( "Added id '{}' to result set for queue id '{}'", id, queueId );
+        while ( !open.isEmpty() )
+        {
+            ByteBuffer next = null;
+            UUID bound = null;
 
-                if ( results.size() >= params.limit )
+            for ( Map.Entry<ByteBuffer, UUID> row : open.entrySet() )
+            {
+                if ( bound == null || order.compare( row.getValue(), bound ) < 0 )
                 {
-                    return results;
+                    next = row.getKey();
+                    bound = row.getValue();
                 }
             }
 
-            if ( params.reversed )
+            // no row holds an id before the bound that wasn't read
+            if ( Collections.binarySearch( ids, bound, order ) + 1 >= count )
+            {
+                break;
+            }
+
+            open.remove( next );
+
+            List<HColumn<UUID, ByteBuffer>> columns = getInboxRange( next, bound, finish, params.reversed, pageSize + 1 );
+
+            int read = 0;
+
+            for ( HColumn<UUID, ByteBuffer> column : columns )
             {
-                current_ts_shard -= QUEUE_SHARD_INTERVAL;
+                if ( !column.getName().equals( bound ) )
+                {
+                    ids.add( column.getName() );
+                    read++;
+                }
             }
-            else
+
+            if ( read == pageSize )
             {
-                current_ts_shard += QUEUE_SHARD_INTERVAL;
+                open.put( next, columns.get( columns.size() - 1 ).getName() );
             }
+
+            Collections.sort( ids, order );
         }
 
-        return results;
+        if ( ids.size() > count )
+        {
+            return ids.subList( 0, count );
+        }
+
+        return ids;
+    }
+
+
+    /** Read a range of ids from a row of the queue inbox */
+    private List<HColumn<UUID, ByteBuffer>> getInboxRange( ByteBuffer key, UUID start, UUID finish, boolean reversed,
+                                                           int count )
+    {
+        SliceQuery<ByteBuffer, UUID, ByteBuffer> q = createSliceQuery( ko, be, ue, be );
+        q.setColumnFamily( QUEUE_INBOX.getColumnFamily() );
+        q.setKey( key );
+        q.setRange( start, finish, reversed, count );
+
+        return q.execute().get().getColumns();
     }
 
 
@@ -266,15 +484,20 @@ public abstract class AbstractSearch implements QueueSearch
     {
         try
         {
-            ColumnSlice<String, UUID> result = HFactory.createSliceQuery( ko, ue, se, ue ).setKey( queueId )
-                                                       .setColumnNames( QUEUE_NEWEST, QUEUE_OLDEST )
-                                                       .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() ).execute()
-                                                       .get();
+            ColumnSlice<String, ByteBuffer> result = HFactory.createSliceQuery( ko, ue, se, be ).setKey( queueId )
+                                                             .setColumnNames( QUEUE_NEWEST, QUEUE_OLDEST,
+                                                                     QUEUE_SHARD_BUCKETS )
+                                                             .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() )
+                                                             .execute().get();
             if ( result != null && result.getColumnByName( QUEUE_OLDEST ) != null
                     && result.getColumnByName( QUEUE_NEWEST ) != null )
             {
-                return new QueueBounds( result.getColumnByName( QUEUE_OLDEST ).getValue(),
-                        result.getColumnByName( QUEUE_NEWEST ).getValue() );
+                HColumn<String, ByteBuffer> buckets = result.getColumnByName( QUEUE_SHARD_BUCKETS );
+
+                return new QueueBounds( ue.fromByteBuffer( result.getColumnByName( QUEUE_OLDEST ).getValue() ),
+                        ue.fromByteBuffer( result.getColumnByName( QUEUE_NEWEST ).getValue() ),
+                        getQueueShardBuckets(
+                                buckets == null ? null : JsonUtils.fromByteBuffer( buckets.getValue() ) ) );
             }
         }
         catch ( Exception e )
@@ -19,7 +19,10 @@ package org.usergrid.mq.cassandra.io;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -60,6 +63,8 @@ public class ConsumerTransaction extends NoTransactionSearch
 
     private static final Logger logger = LoggerFactory.getLogger( ConsumerTransaction.class );
     private static final int MAX_READ = 10000;
+    /** Pages a read moves past when other reads claimed all of their messages */
+    private static final int MAX_PAGES = 3;
     private final LockManager lockManager;
     private final UUID applicationId;
     protected final CassandraService cass;
@@ -184,12 +189,7 @@ public class ConsumerTransaction extends NoTransactionSearch
         UUID queueId = getQueueId( queuePath );
         UUID consumerId = getConsumerId( queueId, query );
 
-        if ( query.getLimit() > MAX_READ )
-        {
-            throw new IllegalArgumentException( String.format(
-                    "You specified a size of %d, you cannot specify a size larger than %d when using transations",
-                    query.getLimit( DEFAULT_READ ), MAX_READ ) );
-        }
+        checkLimit( query );
 
         QueueResults results = null;
 
@@ -203,106 +203,198 @@ public class ConsumerTransaction extends NoTransactionSearch
                 throw new QueueException( "Unable to obtain a lock on queue '" + queuePath + "' after '" + lockTimeout + "'seconds" );
             }
 
-            long startTime = System.currentTimeMillis();
+            results = readResults( queuePath, queueId, consumerId, query );
+        }
+        catch ( UGLockException e )
+        {
+            logger.debug( "Unable to acquire lock", e );
+            throw new QueueException( "Unable to acquire lock", e );
+        }
+        finally
+        {
+            try
+            {
+                lock.unlock();
+            }
+            catch ( UGLockException e )
+            {
+                logger.debug( "Unable to release lock", e );
+                throw new QueueException( "Unable to release lock", e );
+            }
+        }
 
-            UUID startTimeUUID = UUIDUtils.newTimeUUID( startTime, 0 );
+        return results;
+    }
 
-            QueueBounds bounds = getQueueBounds( queueId );
 
-            //queue has never been written to
-            if ( bounds == null )
+    /** Check the limit of the query can be read in a transaction */
+    protected void checkLimit( QueueQuery query )
+    {
+        if ( query.getLimit() > MAX_READ )
+        {
+            throw new IllegalArgumentException( String.format(
+                    "You specified a size of %d, you cannot specify a size larger than %d when using transations",
+                    query.getLimit( DEFAULT_READ ), MAX_READ ) );
+        }
+    }
+
+
+    /**
+     * Read the messages after the consumer's position, and the messages whose transactions timed out, and start a
+     * transaction for each of them.  The caller must make sure no other read for the consumer runs at the same time,
+     * or override {@link #claim(UUID, UUID, List, Map, long)}.
+     */
+    protected QueueResults readResults( String queuePath, UUID queueId, UUID consumerId, QueueQuery query )
+    {
+        // a read that lost every message it read to concurrent reads has moved past them, so read the next page
+        for ( int i = 0; i < MAX_PAGES; i++ )
+        {
+            QueueResults results = readPage( queuePath, queueId, consumerId, query );
+
+            if ( results != null )
             {
-                return createResults( new ArrayList<Message>( 0 ), queuePath, queueId, consumerId );
+                return results;
             }
+        }
+
+        return createResults( new ArrayList<Message>( 0 ), queuePath, queueId, consumerId );
+    }
+
+
+    /**
+     * Read a page of messages and start their transactions
+     *
+     * @return The results, or null if messages were read but all of them were claimed by other reads
+     */
+    private QueueResults readPage( String queuePath, UUID queueId, UUID consumerId, QueueQuery query )
+    {
+        long startTime = System.currentTimeMillis();
 
-            // with transactional reads, we can't read into the future, set the bounds
-            // to be now
-            bounds = new QueueBounds( bounds.getOldest(), startTimeUUID );
+        UUID startTimeUUID = UUIDUtils.newTimeUUID( startTime, 0 );
 
-            SearchParam params = getParams( queueId, consumerId, query );
+        QueueBounds bounds = getQueueBounds( queueId );
 
-            List<UUID> ids = getQueueRange( queueId, bounds, params );
+        //queue has never been written to
+        if ( bounds == null )
+        {
+            return createResults( new ArrayList<Message>( 0 ), queuePath, queueId, consumerId );
+        }
 
-            // get a list of ids from the consumer.
+        // with transactional reads, we can't read into the future, set the bounds
+        // to be now
+        bounds = new QueueBounds( bounds.getOldest(), startTimeUUID, bounds.getShardBuckets() );
 
-            List<TransactionPointer> pointers = getConsumerIds( queueId, consumerId, params, startTimeUUID );
+        SearchParam params = getParams( queueId, consumerId, query );
 
-            TransactionPointer pointer = null;
+        List<UUID> ids = getQueueRange( queueId, bounds, params );
 
-            int lastTransactionIndex = -1;
+        // get a list of ids from the consumer.
 
-            for ( int i = 0; i < pointers.size(); i++ )
-            {
+        List<TransactionPointer> pointers = getConsumerIds( queueId, consumerId, params, startTimeUUID );
 
-                pointer = pointers.get( i );
+        TransactionPointer pointer = null;
 
-                int insertIndex = Collections.binarySearch( ids, pointer.expiration );
+        int lastTransactionIndex = -1;
 
-                // we're done, this message goes at the end, no point in continuing
-                // since
-                // we have our full result set
-                if ( insertIndex <= params.limit * -1 - 1 )
-                {
-                    break;
-                }
+        // the timed out transaction of each message that's read again
+        Map<UUID, UUID> redelivered = new HashMap<UUID, UUID>();
 
-                // get the insertion index into the set
-                insertIndex = ( insertIndex + 1 ) * -1;
+        for ( int i = 0; i < pointers.size(); i++ )
+        {
 
-                ids.add( insertIndex, pointer.targetMessage );
+            pointer = pointers.get( i );
 
-                lastTransactionIndex = i;
-            }
+            int insertIndex = Collections.binarySearch( ids, pointer.expiration );
 
-            // now we've merge the results, trim them to size;
-            if ( ids.size() > params.limit )
+            // we're done, this message goes at the end, no point in continuing
+            // since
+            // we have our full result set
+            if ( insertIndex <= params.limit * -1 - 1 )
             {
-                ids = ids.subList( 0, params.limit );
+                break;
             }
 
-            // load the messages
-            List<Message> messages = loadMessages( ids, params.reversed );
+            // get the insertion index into the set
+            insertIndex = ( insertIndex + 1 ) * -1;
 
-            // write our future timeouts for all these messages
-            writeTransactions( messages, query.getTimeout() + startTime, queueId, consumerId );
+            ids.add( insertIndex, pointer.targetMessage );
 
-            // remove all read transaction pointers
-            deleteTransactionPointers( pointers, lastTransactionIndex + 1, queueId, consumerId );
+            redelivered.put( pointer.targetMessage, pointer.expiration );
 
-            // return the results
-            results = createResults( messages, queuePath, queueId, consumerId );
+            lastTransactionIndex = i;
+        }
 
-            UUID lastReadTransactionPointer =
-                    lastTransactionIndex == -1 ? null : pointers.get( lastTransactionIndex ).expiration;
+        // now we've merge the results, trim them to size;
+        if ( ids.size() > params.limit )
+        {
+            ids = ids.subList( 0, params.limit );
+        }
 
-            UUID lastId = messages.size() == 0 ? null : messages.get( messages.size() - 1 ).getUuid();
+        // write our future timeouts for the messages we may return
+        Map<UUID, UUID> transactions = claim( queueId, consumerId, ids, redelivered, query.getTimeout() + startTime );
 
-            // our last read id will either be the last read transaction pointer, or
-            // the
-            // last read messages uuid, whichever is greater
-            UUID lastReadId = UUIDUtils.max( lastReadTransactionPointer, lastId );
+        // load the messages
+        List<Message> messages = loadMessages( transactions.keySet(), params.reversed );
 
-            writeClientPointer( queueId, consumerId, lastReadId );
+        for ( Message message : messages )
+        {
+            message.setTransaction( transactions.get( message.getUuid() ) );
         }
-        catch ( UGLockException e )
+
+        // remove all read transaction pointers
+        deleteTransactionPointers( pointers, lastTransactionIndex + 1, queueId, consumerId );
+
+        UUID lastReadTransactionPointer =
+                lastTransactionIndex == -1 ? null : pointers.get( lastTransactionIndex ).expiration;
+
+        UUID lastId = messages.size() == 0 ? null : messages.get( messages.size() - 1 ).getUuid();
+
+        // move past the messages other reads claimed, they're in the transactions of those reads
+        if ( transactions.size() < ids.size() )
         {
-            logger.debug( "Unable to acquire lock", e );
-            throw new QueueException( "Unable to acquire lock", e );
+            lastId = UUIDUtils.max( lastId, ids.get( ids.size() - 1 ) );
         }
-        finally
+
+        // our last read id will either be the last read transaction pointer, or
+        // the
+        // last read messages uuid, whichever is greater
+        UUID lastReadId = UUIDUtils.max( lastReadTransactionPointer, lastId );
+
+        writeClientPointer( queueId, consumerId, lastReadId );
+
+        if ( transactions.isEmpty() && !ids.isEmpty() )
         {
-            try
-            {
-                lock.unlock();
-            }
-            catch ( UGLockException e )
-            {
-                logger.debug( "Unable to release lock", e );
-                throw new QueueException( "Unable to release lock", e );
-            }
+            return null;
         }
 
-        return results;
+        // return the results
+        return createResults( messages, queuePath, queueId, consumerId );
+    }
+
+
+    /**
+     * Start a transaction for each message that was read.  The lock is held, so every message belongs to this read.
+     *
+     * @param queueId The queue id
+     * @param consumerId The consumer id
+     * @param ids The ids of the messages that were read
+     * @param redelivered The timed out transaction of each message that's read again
+     * @param futureTimeout The time the transactions expire
+     *
+     * @return The transaction of each message this read may return, in the order they were read
+     */
+    protected Map<UUID, UUID> claim( UUID queueId, UUID consumerId, List<UUID> ids, Map<UUID, UUID> redelivered,
+                                     long futureTimeout )
+    {
+        Map<UUID, UUID> transactions = createTransactions( ids, futureTimeout );
+
+        Mutator<ByteBuffer> mutator = createMutator( ko, be );
+
+        addTransactions( mutator, getQueueClientTransactionKey( queueId, consumerId ), transactions );
+
+        mutator.execute();
+
+        return transactions;
     }
 
 
@@ -395,25 +487,20 @@ public class ConsumerTransaction extends NoTransactionSearch
 
 
     /**
-     * Write the transaction timeouts
+     * Create the transaction timeouts of the messages
      *
-     * @param messages The messages to load
+     * @param ids The message ids
      * @param futureTimeout The time these message should expire
-     * @param queueId The queue UUId
-     * @param consumerId The consumer Id
+     *
+     * @return The transaction of each message, in the order of the ids
      */
-    protected void writeTransactions( List<Message> messages, final long futureTimeout, UUID queueId, UUID consumerId )
+    protected Map<UUID, UUID> createTransactions( List<UUID> ids, long futureTimeout )
     {
-
-        Mutator<ByteBuffer> mutator = createMutator( ko, be );
-
-        ByteBuffer key = getQueueClientTransactionKey( queueId, consumerId );
+        Map<UUID, UUID> transactions = new LinkedHashMap<UUID, UUID>( ids.size() );
 
         int counter = 0;
 
-        long time = cass.createTimestamp();
-
-        for ( Message message : messages )
+        for ( UUID messageId : ids )
         {
             // note we're not incrementing futureSnapshot on purpose. The uuid
             // generation should give us a sequenced unique ID for each response, even
@@ -422,20 +509,33 @@ public class ConsumerTransaction extends NoTransactionSearch
             // 10k messages in a single transaction, our millisecond will roll to the
             // next due to 10k being the max amount of 1/10 microsecond headroom. Not
             // possible to avoid this given the way time uuids are encoded.
-            UUID expirationId = UUIDUtils.newTimeUUID( futureTimeout, counter );
-            UUID messageId = message.getUuid();
+            transactions.put( messageId, UUIDUtils.newTimeUUID( futureTimeout, counter ) );
+            counter++;
+        }
 
-            logger.debug( "Writing new timeout at '{}' for message '{}'", expirationId, messageId );
+        return transactions;
+    }
 
-            mutator.addInsertion( key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(),
-                    createColumn( expirationId, messageId, time, ue, ue ) );
 
-            // add the transactionid to the message
-            message.setTransaction( expirationId );
-            counter++;
-        }
+    /**
+     * Add the writes of the transaction timeouts to the mutator
+     *
+     * @param mutator The mutator
+     * @param key The queue client transaction key
+     * @param transactions The transaction of each message
+     */
+    protected void addTransactions( Mutator<ByteBuffer> mutator, ByteBuffer key, Map<UUID, UUID> transactions )
+    {
+        long time = cass.createTimestamp();
 
-        mutator.execute();
+        for ( Map.Entry<UUID, UUID> transaction : transactions.entrySet() )
+        {
+            logger.debug( "Writing new timeout at '{}' for message '{}'", transaction.getValue(),
+                    transaction.getKey() );
+
+            mutator.addInsertion( key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(),
+                    createColumn( transaction.getValue(), transaction.getKey(), time, ue, ue ) );
+        }
     }
 
 
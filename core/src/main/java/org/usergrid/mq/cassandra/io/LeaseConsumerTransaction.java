@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mq.cassandra.io;
+
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.mq.QueueQuery;
+import org.usergrid.mq.QueueResults;
+import org.usergrid.persistence.cassandra.CassandraService;
+import org.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.cassandra.model.QuorumAllConsistencyLevelPolicy;
+import me.prettyprint.hector.api.ConsistencyLevelPolicy;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getConsumerId;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueClientTransactionKey;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueId;
+import static org.usergrid.mq.cassandra.QueuesCF.CONSUMER_QUEUE_CLAIMS;
+import static org.usergrid.mq.cassandra.QueuesCF.CONSUMER_QUEUE_TIMEOUTS;
+
+
+/**
+ * Reads from the queue and starts a transaction without taking a lock on the consumer.  Concurrent reads for the same
+ * consumer can read the same messages, so each read claims its messages before returning them.  A claim is a column
+ * written with a timestamp that decreases as time goes on, so the first claim of a message wins whatever the order the
+ * writes arrive in.  The read writes the transactions of its messages with the claims, waits for the settle time, then
+ * reads the claims back and only keeps the transactions of the messages it won.  A read that won none of its messages
+ * moves past them and reads the next page instead of returning nothing.  The settle time bounds the reads of a single
+ * reader, at 20 ms it makes about 50 reads a second.
+ * <p/>
+ * The first claim of a message always reads itself back, so a message is never dropped by every read.  If the read
+ * that won fails before returning the message, the transaction times out and the message is read again, claims expire
+ * with the transactions so they don't hide it.  A read that checks its claims before an earlier claim arrives also
+ * returns the message, so messages can be delivered twice if a claim takes longer than the settle time to write, or
+ * the clocks of the nodes differ by more than it.  That's the same at least once delivery transactions give when they
+ * time out.  Claims are written and read at quorum, so every read sees the claims written before it.
+ */
+public class LeaseConsumerTransaction extends ConsumerTransaction
+{
+
+    private static final Logger logger = LoggerFactory.getLogger( LeaseConsumerTransaction.class );
+
+    /** Default time to wait for earlier claims to arrive before reading the claims back, in milliseconds */
+    public static final long DEFAULT_SETTLE_TIME = 20;
+
+    /** Claims are written and read at quorum whatever the default consistency levels are */
+    private static final ConsistencyLevelPolicy CLAIM_CONSISTENCY = new QuorumAllConsistencyLevelPolicy();
+
+    private final long settleTime;
+
+    /** The keyspace claims are written and read in */
+    private final Keyspace claimKo;
+
+
+    public LeaseConsumerTransaction( UUID applicationId, Keyspace ko, CassandraService cass, long settleTime )
+    {
+        super( applicationId, ko, null, cass, 0 );
+        this.settleTime = settleTime;
+        this.claimKo = cass.getApplicationKeyspace( applicationId, CLAIM_CONSISTENCY );
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.usergrid.mq.cassandra.io.ConsumerTransaction#getResults(java.lang.String,
+     * org.usergrid.mq.QueueQuery)
+     */
+    @Override
+    public QueueResults getResults( String queuePath, QueueQuery query )
+    {
+
+        UUID queueId = getQueueId( queuePath );
+        UUID consumerId = getConsumerId( queueId, query );
+
+        checkLimit( query );
+
+        return readResults( queuePath, queueId, consumerId, query );
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.usergrid.mq.cassandra.io.ConsumerTransaction#claim(java.util.UUID, java.util.UUID, java.util.List,
+     * java.util.Map, long)
+     */
+    @Override
+    protected Map<UUID, UUID> claim( UUID queueId, UUID consumerId, List<UUID> ids, Map<UUID, UUID> redelivered,
+                                     long futureTimeout )
+    {
+
+        Map<UUID, UUID> transactions = createTransactions( ids, futureTimeout );
+
+        if ( ids.isEmpty() )
+        {
+            return transactions;
+        }
+
+        long claimStart = System.currentTimeMillis();
+
+        UUID leaseId = UUIDUtils.newTimeUUID();
+
+        // the earliest claim has the highest timestamp, so it's the one that's kept
+        long timestamp = Long.MAX_VALUE - cass.createTimestamp();
+
+        // once the transactions time out the messages are read again under new claims
+        int ttl = ( int ) Math.max( 1, ( futureTimeout - claimStart + 999 ) / 1000 );
+
+        ByteBuffer key = getQueueClientTransactionKey( queueId, consumerId );
+
+        UUID[] claimIds = new UUID[ids.size()];
+
+        Mutator<ByteBuffer> mutator = createMutator( claimKo, be );
+
+        for ( int i = 0; i < ids.size(); i++ )
+        {
+            // a message read again after its transaction timed out is claimed again under the transaction
+            UUID transactionId = redelivered.get( ids.get( i ) );
+            claimIds[i] = transactionId != null ? transactionId : ids.get( i );
+
+            HColumn<UUID, UUID> column = createColumn( claimIds[i], leaseId, timestamp, ue, ue );
+            column.setTtl( ttl );
+
+            mutator.addInsertion( key, CONSUMER_QUEUE_CLAIMS.getColumnFamily(), column );
+        }
+
+        // the transactions are written with the claims, so a message this read wins is read again if it fails
+        addTransactions( mutator, key, transactions );
+
+        mutator.execute();
+
+        // a claim sent before ours takes about as long to arrive
+        long wait = claimStart + settleTime - System.currentTimeMillis();
+
+        if ( wait > 0 )
+        {
+            try
+            {
+                Thread.sleep( wait );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ColumnSlice<UUID, UUID> claims =
+                createSliceQuery( claimKo, be, ue, ue ).setColumnFamily( CONSUMER_QUEUE_CLAIMS.getColumnFamily() )
+                        .setKey( key ).setColumnNames( claimIds ).execute().get();
+
+        mutator = createMutator( ko, be );
+
+        long time = cass.createTimestamp();
+
+        for ( int i = 0; i < ids.size(); i++ )
+        {
+            HColumn<UUID, UUID> claim = claims.getColumnByName( claimIds[i] );
+
+            if ( claim == null || leaseId.equals( claim.getValue() ) )
+            {
+                continue;
+            }
+
+            logger.debug( "Message '{}' was claimed by read '{}'", ids.get( i ), claim.getValue() );
+
+            UUID transactionId = transactions.remove( ids.get( i ) );
+
+            mutator.addDeletion( key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(), transactionId, ue, time );
+        }
+
+        mutator.execute();
+
+        return transactions;
+    }
+}
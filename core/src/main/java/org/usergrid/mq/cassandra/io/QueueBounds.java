@@ -9,12 +9,20 @@ public class QueueBounds
 
     private final UUID oldest;
     private final UUID newest;
+    private final int shardBuckets;
 
 
     public QueueBounds( UUID oldest, UUID newest )
+    {
+        this( oldest, newest, 1 );
+    }
+
+
+    public QueueBounds( UUID oldest, UUID newest, int shardBuckets )
     {
         this.oldest = oldest;
         this.newest = newest;
+        this.shardBuckets = shardBuckets;
     }
 
 
@@ -30,6 +38,13 @@ public class QueueBounds
     }
 
 
+    /** The number of rows each time shard of the queue is spread over */
+    public int getShardBuckets()
+    {
+        return shardBuckets;
+    }
+
+
     @Override
     public int hashCode()
     {
@@ -37,6 +52,7 @@ public class QueueBounds
         int result = 1;
         result = ( prime * result ) + ( ( newest == null ) ? 0 : newest.hashCode() );
         result = ( prime * result ) + ( ( oldest == null ) ? 0 : oldest.hashCode() );
+        result = ( prime * result ) + shardBuckets;
         return result;
     }
 
@@ -57,6 +73,10 @@ public class QueueBounds
             return false;
         }
         QueueBounds other = ( QueueBounds ) obj;
+        if ( shardBuckets != other.shardBuckets )
+        {
+            return false;
+        }
         if ( newest == null )
         {
             if ( other.newest != null )
@@ -86,6 +106,6 @@ public class QueueBounds
     @Override
     public String toString()
     {
-        return "QueueBounds [oldest=" + oldest + ", newest=" + newest + "]";
+        return "QueueBounds [oldest=" + oldest + ", newest=" + newest + ", shardBuckets=" + shardBuckets + "]";
     }
 }
@@ -17,6 +17,7 @@ package org.usergrid.persistence;
 
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -176,6 +177,19 @@ public interface EntityManager {
     public Results get( Collection<UUID> entityIds, String entityType, Class<? extends Entity> entityClass,
                         Results.Level resultsLevel ) throws Exception;
 
+    /**
+     * Iterates over a set of Entities cast to the specified class type, in the order of the ids.  The entities are
+     * loaded in chunks as the iterator advances, so large sets are never held in memory at once.  Ids of entities that
+     * don't exist are skipped.
+     *
+     * @param entityIds the entity UUIDs
+     * @param entityClass the entity class, null for dynamic entities
+     *
+     * @return an iterator of entity objects.
+     */
+    public <A extends Entity> Iterator<A> iterateEntities( Collection<UUID> entityIds, Class<A> entityClass )
+            throws Exception;
+
     /**
      * Updates the entity with the properties and values in the Entity Object.
      *
@@ -491,6 +505,19 @@ public interface EntityManager {
     public Results getConnectingEntities( UUID entityId, String connectionType, String connectedEntityType,
                                           Results.Level resultsLevel ) throws Exception;
 
+    /**
+     * Gets a page of the entities connecting to this entity.  The connection type, entity type, results level, limit
+     * and cursor are taken from the query, so large sets of connecting entities can be paged through.
+     *
+     * @param entityId the id of the entity
+     * @param query the query with the page to return
+     *
+     * @return a page of entities connecting to this one.
+     *
+     * @throws Exception the exception
+     */
+    public Results getConnectingEntities( UUID entityId, Query query ) throws Exception;
+
 
     public Results searchConnectedEntities( EntityRef connectingEntity, Query query ) throws Exception;
 
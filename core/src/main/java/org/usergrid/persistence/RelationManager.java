@@ -96,6 +96,12 @@ public interface RelationManager {
     public Results getConnectingEntities( String connectionType, String connectedEntityType,
                                           Results.Level resultsLevel ) throws Exception;
 
+    /**
+     * Get a page of the entities connecting to this one.  The connection type, entity type, results level, limit and
+     * cursor are taken from the query
+     */
+    public Results getConnectingEntities( Query query ) throws Exception;
+
     // public Results searchConnectedEntitiesForProperty(String connectionType,
     // String connectedEntityType, String propertyName,
     // Object searchStartValue, Object searchFinishValue,
@@ -61,6 +61,7 @@ import org.usergrid.persistence.schema.CollectionInfo;
 import org.usergrid.persistence.schema.DictionaryInfo;
 import org.usergrid.persistence.schema.EntityInfo;
 import org.usergrid.persistence.schema.PropertyInfo;
+import org.usergrid.persistence.schema.TypedPropertyCodec;
 import org.usergrid.utils.InflectionUtils;
 import org.usergrid.utils.JsonUtils;
 import org.usergrid.utils.MapUtils;
@@ -1676,12 +1677,30 @@ public class Schema {
             if ( Schema.getDefaultSchema().isPropertyEncrypted( entityType, propertyName ) ) {
                 bytes = decrypt( bytes );
             }
-            propertyValue = Schema.deserializePropertyValueFromJsonBinary( bytes );
+            if ( TypedPropertyCodec.isEncoded( bytes ) ) {
+                propertyValue = TypedPropertyCodec.decode( bytes );
+            }
+            else {
+                propertyValue = Schema.deserializePropertyValueFromJsonBinary( bytes );
+            }
         }
         return propertyValue;
     }
 
 
+    /**
+     * Write scalar property values with the {@link TypedPropertyCodec} instead of smile.  Both are always read, set the
+     * system property usergrid.persistence.typed_properties to false while nodes that only read smile are running
+     */
+    private static volatile boolean typedPropertyEncoding =
+            !"false".equalsIgnoreCase( System.getProperty( "usergrid.persistence.typed_properties" ) );
+
+
+    public static void setTypedPropertyEncoding( boolean typedPropertyEncoding ) {
+        Schema.typedPropertyEncoding = typedPropertyEncoding;
+    }
+
+
     public static ByteBuffer serializeEntityProperty( String entityType, String propertyName, Object propertyValue ) {
         ByteBuffer bytes = null;
         if ( PROPERTY_UUID.equals( propertyName ) ) {
@@ -1691,8 +1710,13 @@ public class Schema {
             bytes = bytebuffer( string( propertyValue ) );
         }
         else {
-            bytes = Schema.serializePropertyValueToJsonBinary( toJsonNode( propertyValue ) );
-            if ( Schema.getDefaultSchema().isPropertyEncrypted( entityType, propertyName ) ) {
+            if ( typedPropertyEncoding ) {
+                bytes = TypedPropertyCodec.encode( propertyValue );
+            }
+            if ( bytes == null ) {
+                bytes = Schema.serializePropertyValueToJsonBinary( toJsonNode( propertyValue ) );
+            }
+            if ( bytes != null && Schema.getDefaultSchema().isPropertyEncrypted( entityType, propertyName ) ) {
                 bytes.rewind();
                 bytes = encrypt( bytes );
             }
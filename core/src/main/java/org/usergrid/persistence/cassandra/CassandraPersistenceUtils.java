@@ -334,15 +334,21 @@ public class CassandraPersistenceUtils {
 
 
     public static MutationResult batchExecute( Mutator<?> m, int retries ) {
-        for ( int i = 0; i < retries; i++ ) {
-            try {
-                return m.execute();
-            }
-            catch ( Exception e ) {
-                logger.error( "Unable to execute mutation, retrying...", e );
+        try {
+            for ( int i = 0; i < retries; i++ ) {
+                try {
+                    return m.execute();
+                }
+                catch ( Exception e ) {
+                    logger.error( "Unable to execute mutation, retrying...", e );
+                }
             }
+            return m.execute();
+        }
+        finally {
+            // reads cached by the request may be stale now
+            EntityReadCache.invalidateCurrent();
         }
-        return m.execute();
     }
 
 
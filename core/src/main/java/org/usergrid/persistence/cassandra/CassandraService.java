@@ -248,22 +248,33 @@ public class CassandraService {
 
 
     public Keyspace getKeyspace( String keyspace, UUID prefix ) {
+        return getKeyspace( keyspace, prefix, consistencyLevelPolicy );
+    }
+
+
+    /** The keyspace, read and written at the consistency levels of the policy instead of the default ones */
+    public Keyspace getKeyspace( String keyspace, UUID prefix, ConsistencyLevelPolicy policy ) {
         Keyspace ko = null;
         if ( USE_VIRTUAL_KEYSPACES && ( prefix != null ) ) {
-            ko = createVirtualKeyspace( keyspace, prefix, ue, cluster, consistencyLevelPolicy,
-                    ON_FAIL_TRY_ALL_AVAILABLE, accessMap );
+            ko = createVirtualKeyspace( keyspace, prefix, ue, cluster, policy, ON_FAIL_TRY_ALL_AVAILABLE, accessMap );
         }
         else {
-            ko = HFactory.createKeyspace( keyspace, cluster, consistencyLevelPolicy, ON_FAIL_TRY_ALL_AVAILABLE,
-                    accessMap );
+            ko = HFactory.createKeyspace( keyspace, cluster, policy, ON_FAIL_TRY_ALL_AVAILABLE, accessMap );
         }
         return ko;
     }
 
 
     public Keyspace getApplicationKeyspace( UUID applicationId ) {
+        return getApplicationKeyspace( applicationId, consistencyLevelPolicy );
+    }
+
+
+    /** The keyspace of the application, read and written at the consistency levels of the policy */
+    public Keyspace getApplicationKeyspace( UUID applicationId, ConsistencyLevelPolicy policy ) {
         assert applicationId != null;
-        Keyspace ko = getKeyspace( keyspaceForApplication( applicationId ), prefixForApplication( applicationId ) );
+        Keyspace ko = getKeyspace( keyspaceForApplication( applicationId ), prefixForApplication( applicationId ),
+                policy );
         return ko;
     }
 
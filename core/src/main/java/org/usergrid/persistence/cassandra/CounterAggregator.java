@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.CounterResolution;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * Sums aggregate counter increments in memory and writes them once per window.  Increments are summed by row and
+ * minute, without a resolution.  When the window is flushed, each sum is rolled up into every resolution, and sums
+ * that land in the same row and column are merged, so a counter that's incremented many times in a window is written
+ * once per resolution instead of once per increment and resolution.
+ * <p/>
+ * Counts are only held for a window, so up to a window of counts is lost if a node dies.
+ */
+public class CounterAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger( CounterAggregator.class );
+
+    private static final long MINUTE = CounterResolution.MINUTE.interval();
+
+    private final Counter increments = Metrics.newCounter( CounterAggregator.class, "increments" );
+    private final Counter writes = Metrics.newCounter( CounterAggregator.class, "writes" );
+
+    /** Receives the merged counts when a window is flushed */
+    public interface CounterSink {
+
+        /** Increment the column of the aggregate counter row by the value */
+        void increment( UUID applicationId, String row, long column, long value );
+    }
+
+
+    private final CounterSink sink;
+
+    private final AtomicReference<Window> current = new AtomicReference<Window>( new Window() );
+
+    private final ScheduledExecutorService flushExecutor;
+
+
+    /**
+     * @param sink The sink merged counts are written to
+     * @param window The length of the window in milliseconds
+     */
+    public CounterAggregator( CounterSink sink, long window ) {
+        this.sink = sink;
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r, "CounterAggregator" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        flushExecutor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                }
+                catch ( Throwable t ) {
+                    logger.error( "Unable to flush aggregate counters", t );
+                }
+            }
+        }, window, window, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Add an increment to the window
+     *
+     * @param applicationId The application of the counter
+     * @param row The row of the counter, without the resolution
+     * @param timestamp The time of the increment in milliseconds
+     * @param value The value to add
+     */
+    public void add( UUID applicationId, String row, long timestamp, long value ) {
+        increments.inc();
+
+        Key key = new Key( applicationId, row, ( timestamp / MINUTE ) * MINUTE );
+
+        for (; ; ) {
+            Window active = current.get();
+
+            if ( active.add( key, value ) ) {
+                return;
+            }
+
+            // closed by a flush, the next window is already installed
+        }
+    }
+
+
+    /** Write every count of the current window */
+    public void flush() {
+        Window closed = current.getAndSet( new Window() );
+
+        Map<Key, AtomicLong> counts = closed.close();
+
+        if ( counts.isEmpty() ) {
+            return;
+        }
+
+        // roll up every minute into each resolution, merging the columns they share
+        Map<Key, Long> rolledUp = new HashMap<Key, Long>();
+
+        for ( Entry<Key, AtomicLong> count : counts.entrySet() ) {
+            long value = count.getValue().get();
+
+            if ( value == 0 ) {
+                continue;
+            }
+
+            Key key = count.getKey();
+
+            for ( CounterResolution resolution : CounterResolution.values() ) {
+                Key column = new Key( key.applicationId,
+                        CounterUtils.AggregateCounterSelection.rowBuilder( key.row, resolution ),
+                        resolution.round( key.timestamp ) );
+
+                Long sum = rolledUp.get( column );
+                rolledUp.put( column, sum == null ? value : sum + value );
+            }
+        }
+
+        for ( Entry<Key, Long> count : rolledUp.entrySet() ) {
+            Key key = count.getKey();
+            sink.increment( key.applicationId, key.row, key.timestamp, count.getValue() );
+        }
+
+        writes.inc( rolledUp.size() );
+
+        if ( logger.isDebugEnabled() ) {
+            logger.debug( "Flushed {} aggregate counters as {} writes", counts.size(), rolledUp.size() );
+        }
+    }
+
+
+    /** Flush the last window and stop flushing */
+    public void shutdown() {
+        flushExecutor.shutdown();
+
+        flush();
+    }
+
+
+    /** The counts of a window.  Adds share the read lock, closing takes the write lock so no add is in progress */
+    private static class Window {
+
+        private final ConcurrentHashMap<Key, AtomicLong> counts = new ConcurrentHashMap<Key, AtomicLong>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private boolean closed;
+
+
+        /** Add the value, false if the window is closed */
+        private boolean add( Key key, long value ) {
+            lock.readLock().lock();
+
+            try {
+                if ( closed ) {
+                    return false;
+                }
+
+                AtomicLong count = counts.get( key );
+
+                if ( count == null ) {
+                    AtomicLong created = new AtomicLong();
+                    count = counts.putIfAbsent( key, created );
+
+                    if ( count == null ) {
+                        count = created;
+                    }
+                }
+
+                count.addAndGet( value );
+                return true;
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+
+
+        /** Close the window, waiting for adds in progress, and get its counts */
+        private Map<Key, AtomicLong> close() {
+            lock.writeLock().lock();
+
+            try {
+                closed = true;
+                return counts;
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+
+    /** A row and column of an application */
+    private static class Key {
+
+        private final UUID applicationId;
+        private final String row;
+        private final long timestamp;
+
+
+        private Key( UUID applicationId, String row, long timestamp ) {
+            this.applicationId = applicationId;
+            this.row = row;
+            this.timestamp = timestamp;
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !( o instanceof Key ) ) {
+                return false;
+            }
+
+            Key key = ( Key ) o;
+
+            return timestamp == key.timestamp && row.equals( key.row ) && applicationId.equals( key.applicationId );
+        }
+
+
+        @Override
+        public int hashCode() {
+            int result = applicationId.hashCode();
+            result = 31 * result + row.hashCode();
+            result = 31 * result + ( int ) ( timestamp ^ ( timestamp >>> 32 ) );
+            return result;
+        }
+    }
+}
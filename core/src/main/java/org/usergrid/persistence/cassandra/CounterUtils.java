@@ -18,12 +18,15 @@ package org.usergrid.persistence.cassandra;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 
+import javax.annotation.PreDestroy;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.mq.Message;
@@ -68,12 +71,59 @@ public class CounterUtils {
 
     private Batcher batcher;
 
+    private CounterAggregator aggregator;
+
 
     public void setBatcher( Batcher batcher ) {
         this.batcher = batcher;
     }
 
 
+    /**
+     * Set the number of seconds aggregate counter increments are summed in memory before they're written, 0 to write
+     * every increment.  Only used when counters are batched
+     */
+    public void setAggregateWindow( long aggregateWindow ) {
+        if ( aggregator != null ) {
+            aggregator.shutdown();
+            aggregator = null;
+        }
+
+        if ( aggregateWindow > 0 ) {
+            aggregator = new CounterAggregator( new CounterAggregator.CounterSink() {
+                @Override
+                public void increment( UUID applicationId, String row, long column, long value ) {
+                    handleAggregateCounterRow( null, row, column, value, applicationId );
+                }
+            }, aggregateWindow * 1000 );
+        }
+    }
+
+
+    /** Write the aggregate counter increments that are summed in memory */
+    @PreDestroy
+    public void flushAggregateCounters() {
+        if ( aggregator != null ) {
+            aggregator.shutdown();
+        }
+    }
+
+
+    /**
+     * Write the aggregate counter increments that are summed in memory, and submit the batched counts, waiting for
+     * them.  Used by tools that must see their counts before they exit
+     */
+    public void flushCounters() {
+        if ( aggregator != null ) {
+            aggregator.flush();
+        }
+
+        if ( batcher != null ) {
+            batcher.flush();
+        }
+    }
+
+
     /** Set the type to 'new' ("n"), 'parallel' ("p"), 'old' ("o" - the default) If not one of the above, do nothing */
     public void setCounterType( String counterType ) {
         if ( counterType == null ) {
@@ -175,13 +225,25 @@ public class CounterUtils {
 
         public static String rowBuilder( String name, UUID userId, UUID groupId, UUID queueId, String category,
                                          CounterResolution resolution ) {
+            return rowBuilder( rowBuilder( name, userId, groupId, queueId, category ), resolution );
+        }
+
+
+        /** Build the row without the resolution */
+        public static String rowBuilder( String name, UUID userId, UUID groupId, UUID queueId, String category ) {
             StringBuilder builder = new StringBuilder( name );
             builder.append( COLON ).append( ( userId != null ? userId.toString() : STAR ) ).append( COLON )
                    .append( groupId != null ? groupId.toString() : STAR ).append( COLON )
                    .append( ( queueId != null ? queueId.toString() : STAR ) ).append( COLON )
-                   .append( ( category != null ? category : STAR ) ).append( COLON ).append( resolution.name() );
+                   .append( ( category != null ? category : STAR ) );
             return builder.toString();
         }
+
+
+        /** Add the resolution to a row built without one */
+        public static String rowBuilder( String row, CounterResolution resolution ) {
+            return row + COLON + resolution.name();
+        }
     }
 
 
@@ -230,11 +292,23 @@ public class CounterUtils {
     public void batchIncrementAggregateCounters( Mutator<ByteBuffer> m, UUID applicationId, UUID userId, UUID groupId,
                                                  UUID queueId, String category, String name, long value,
                                                  long counterTimestamp, long cassandraTimestamp ) {
-        for ( CounterResolution resolution : CounterResolution.values() ) {
-            logger.debug( "BIAC for resolution {}", resolution );
-            batchIncrementAggregateCounters( m, userId, groupId, queueId, category, resolution, name, value,
-                    counterTimestamp, applicationId );
-            logger.debug( "DONE BIAC for resolution {}", resolution );
+        Set<String> rows = getAggregateCounterRows( name, userId, groupId, queueId, category );
+
+        // summed in memory, each resolution is rolled up when the window is written
+        if ( aggregator != null && getIsCounterBatched() ) {
+            for ( String row : rows ) {
+                aggregator.add( applicationId, row, counterTimestamp, value );
+            }
+        }
+        else {
+            for ( CounterResolution resolution : CounterResolution.values() ) {
+                logger.debug( "BIAC for resolution {}", resolution );
+                for ( String row : rows ) {
+                    handleAggregateCounterRow( m, AggregateCounterSelection.rowBuilder( row, resolution ),
+                            resolution.round( counterTimestamp ), value, applicationId );
+                }
+                logger.debug( "DONE BIAC for resolution {}", resolution );
+            }
         }
         batchIncrementEntityCounter( m, applicationId, name, value, cassandraTimestamp, applicationId );
         if ( userId != null ) {
@@ -246,9 +320,14 @@ public class CounterUtils {
     }
 
 
-    private void batchIncrementAggregateCounters( Mutator<ByteBuffer> m, UUID userId, UUID groupId, UUID queueId,
-                                                  String category, CounterResolution resolution, String name,
-                                                  long value, long counterTimestamp, UUID applicationId ) {
+    /**
+     * Get the rows, without the resolution, of a counter increment.  Each prefix of the dotted name is counted in the
+     * row of every combination of the user, group, queue and category
+     */
+    private Set<String> getAggregateCounterRows( String name, UUID userId, UUID groupId, UUID queueId,
+                                                 String category ) {
+
+        Set<String> rows = new LinkedHashSet<String>();
 
         String[] segments = StringUtils.split( name, '.' );
         for ( int j = 0; j < segments.length; j++ ) {
@@ -259,39 +338,28 @@ public class CounterUtils {
             }
 
             // *:*:*:*
-            handleAggregateCounterRow( m,
-                    AggregateCounterSelection.rowBuilder( name, null, null, null, null, resolution ),
-                    resolution.round( counterTimestamp ), value, applicationId );
-            String currentRow = null;
-            HashSet<String> rowSet = new HashSet<String>( 16 );
-            for ( int i = 0; i < 16; i++ ) {
+            rows.add( AggregateCounterSelection.rowBuilder( name, null, null, null, null ) );
+
+            for ( int i = 1; i < 16; i++ ) {
 
                 boolean include_user = ( i & 0x01 ) != 0;
                 boolean include_group = ( i & 0x02 ) != 0;
                 boolean include_queue = ( i & 0x04 ) != 0;
                 boolean include_category = ( i & 0x08 ) != 0;
 
-                Object[] parameters = {
-                        include_user ? userId : null, include_group ? groupId : null, include_queue ? queueId : null,
-                        include_category ? category : null
-                };
-                int non_null = 0;
-                for ( Object p : parameters ) {
-                    if ( p != null ) {
-                        non_null++;
-                    }
-                }
-                currentRow = AggregateCounterSelection
-                        .rowBuilder( name, ( UUID ) parameters[0], ( UUID ) parameters[1], ( UUID ) parameters[2],
-                                ( String ) parameters[3], resolution );
-
-                if ( non_null > 0 && !rowSet.contains( currentRow ) ) {
-                    rowSet.add( currentRow );
-                    handleAggregateCounterRow( m, currentRow, resolution.round( counterTimestamp ), value,
-                            applicationId );
+                // the same row as one with fewer parameters
+                if ( ( include_user && userId == null ) || ( include_group && groupId == null ) || ( include_queue
+                        && queueId == null ) || ( include_category && category == null ) ) {
+                    continue;
                 }
+
+                rows.add( AggregateCounterSelection
+                        .rowBuilder( name, include_user ? userId : null, include_group ? groupId : null,
+                                include_queue ? queueId : null, include_category ? category : null ) );
             }
         }
+
+        return rows;
     }
 
 
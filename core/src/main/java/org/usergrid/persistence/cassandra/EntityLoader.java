@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+
+import static org.usergrid.persistence.cassandra.ApplicationCF.ENTITY_PROPERTIES;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.be;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.se;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.ue;
+
+
+/**
+ * Loads the property rows of entities in chunks.  The ids are split into chunks of at most chunk size, and the chunks
+ * are read concurrently on a bounded executor, so a large load is never one giant multiget.  Rows are returned in the
+ * order of the ids as the chunks complete, and at most parallelism chunks of a load are held in memory at once.
+ */
+public class EntityLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger( EntityLoader.class );
+
+    /** Default number of rows read in a single multiget */
+    public static final int DEFAULT_CHUNK_SIZE = 250;
+
+    /** Default number of chunks of a single load read ahead of the caller */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private static final Timer chunkTimer =
+            Metrics.newTimer( EntityLoader.class, "chunk_latency", TimeUnit.MILLISECONDS, TimeUnit.SECONDS );
+    private static final Histogram chunkSizes = Metrics.newHistogram( EntityLoader.class, "chunk_size" );
+
+    private final CassandraService cass;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int parallelism = DEFAULT_PARALLELISM;
+
+    private AsyncTaskExecutor executor;
+
+
+    public EntityLoader( CassandraService cass ) {
+        this.cass = cass;
+    }
+
+
+    /**
+     * Load the property rows of the entities.  The first chunk is read by the caller, the rest are read ahead of the
+     * caller on the executor.  A load of a single chunk never leaves the calling thread.
+     *
+     * @param applicationId The application of the entities
+     * @param entityIds The ids of the entities
+     *
+     * @return The rows in the order of the ids, a row has no columns if the entity doesn't exist
+     */
+    public Iterator<Row<UUID, String, ByteBuffer>> load( UUID applicationId, Collection<UUID> entityIds ) {
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+
+        List<UUID> ids = new ArrayList<UUID>( entityIds );
+
+        List<List<UUID>> chunks = new ArrayList<List<UUID>>();
+
+        for ( int i = 0; i < ids.size(); i += chunkSize ) {
+            chunks.add( ids.subList( i, Math.min( i + chunkSize, ids.size() ) ) );
+        }
+
+        return new ChunkIterator( ko, chunks );
+    }
+
+
+    /** Read the rows of a single chunk */
+    private Rows<UUID, String, ByteBuffer> loadChunk( Keyspace ko, List<UUID> ids ) throws Exception {
+        TimerContext timer = chunkTimer.time();
+
+        try {
+            return cass.getRows( ko, ENTITY_PROPERTIES, ids, ue, se, be );
+        }
+        finally {
+            timer.stop();
+            chunkSizes.update( ids.size() );
+        }
+    }
+
+
+    /** @return the timer of every chunk read */
+    public static Timer getChunkTimer() {
+        return chunkTimer;
+    }
+
+
+    /** @return the histogram of the number of rows in every chunk read */
+    public static Histogram getChunkSizes() {
+        return chunkSizes;
+    }
+
+
+    /** @param chunkSize the number of rows read in a single multiget */
+    public void setChunkSize( int chunkSize ) {
+        this.chunkSize = Math.max( 1, chunkSize );
+    }
+
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+
+    /** @param executor the executor chunks are read ahead on, shared by every load.  If not set none are read ahead */
+    public void setExecutor( AsyncTaskExecutor executor ) {
+        this.executor = executor;
+    }
+
+
+    /** @param parallelism the number of chunks of a single load read ahead of the caller */
+    public void setParallelism( int parallelism ) {
+        this.parallelism = Math.max( 1, parallelism );
+    }
+
+
+    /**
+     * Returns the rows of each chunk in order.  Keeps up to parallelism chunks in flight, and submits another each time
+     * one is consumed.
+     */
+    private class ChunkIterator implements Iterator<Row<UUID, String, ByteBuffer>> {
+
+        private final Keyspace ko;
+        private final List<List<UUID>> chunks;
+        private final LinkedList<Future<Rows<UUID, String, ByteBuffer>>> pending =
+                new LinkedList<Future<Rows<UUID, String, ByteBuffer>>>();
+
+        private int next;
+
+        private Rows<UUID, String, ByteBuffer> rows;
+        private Iterator<UUID> ids = Collections.<UUID>emptyList().iterator();
+
+
+        private ChunkIterator( Keyspace ko, List<List<UUID>> chunks ) {
+            this.ko = ko;
+            this.chunks = chunks;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            while ( !ids.hasNext() ) {
+                if ( next == chunks.size() ) {
+                    return false;
+                }
+
+                rows = nextChunk();
+                ids = chunks.get( next ).iterator();
+                next++;
+            }
+
+            return true;
+        }
+
+
+        @Override
+        public Row<UUID, String, ByteBuffer> next() {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+
+            UUID id = ids.next();
+
+            return rows == null ? null : rows.getByKey( id );
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException( "Remove is unsupported" );
+        }
+
+
+        /** Get the rows of the next chunk, waiting for them if they're being read */
+        private Rows<UUID, String, ByteBuffer> nextChunk() {
+            try {
+                if ( executor == null ) {
+                    return loadChunk( ko, chunks.get( next ) );
+                }
+
+                // nothing read ahead, read the chunk on the calling thread once the next ones are submitted
+                boolean inline = pending.isEmpty();
+
+                int submit = inline ? next + 1 : next + pending.size();
+
+                while ( pending.size() < parallelism && submit < chunks.size() ) {
+                    final List<UUID> chunk = chunks.get( submit++ );
+
+                    pending.add( executor.submit( new Callable<Rows<UUID, String, ByteBuffer>>() {
+                        @Override
+                        public Rows<UUID, String, ByteBuffer> call() throws Exception {
+                            return loadChunk( ko, chunk );
+                        }
+                    } ) );
+                }
+
+                if ( inline ) {
+                    return loadChunk( ko, chunks.get( next ) );
+                }
+
+                return pending.removeFirst().get();
+            }
+            catch ( ExecutionException e ) {
+                logger.error( "Unable to load entities", e.getCause() );
+                throw new RuntimeException( "Unable to load entities", e.getCause() );
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( "Interrupted loading entities", e );
+            }
+            catch ( RuntimeException e ) {
+                throw e;
+            }
+            catch ( Exception e ) {
+                throw new RuntimeException( "Unable to load entities", e );
+            }
+        }
+    }
+}
@@ -24,10 +24,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -38,6 +40,7 @@ import javax.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.util.Assert;
 import org.usergrid.locking.Lock;
 import org.usergrid.mq.Message;
@@ -199,6 +202,10 @@ public class EntityManagerImpl implements EntityManager {
     private CassandraService cass;
     @Resource
     private CounterUtils counterUtils;
+    @Resource
+    private EntityLoader entityLoader;
+
+    private AsyncTaskExecutor geoSearchExecutor;
 
     private boolean skipAggregateCounters;
 
@@ -221,6 +228,8 @@ public class EntityManagerImpl implements EntityManager {
         this.skipAggregateCounters = skipAggregateCounters;
         qmf = ( QueueManagerFactoryImpl ) getApplicationContext().getBean( "queueManagerFactory" );
         indexBucketLocator = ( IndexBucketLocator ) getApplicationContext().getBean( "indexBucketLocator" );
+        entityLoader = ( EntityLoader ) getApplicationContext().getBean( "entityLoader" );
+        geoSearchExecutor = ( AsyncTaskExecutor ) getApplicationContext().getBean( "geoSearchExecutor" );
         // prime the application entity for the EM
         try {
             getApplication();
@@ -302,6 +311,20 @@ public class EntityManagerImpl implements EntityManager {
     public Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
                                                  Object propertyValue, boolean force, boolean noRead,
                                                  UUID timestampUuid ) throws Exception {
+        return batchSetProperty( batch, entity, propertyName, propertyValue, force, noRead, timestampUuid, null );
+    }
+
+
+    /**
+     * Batch set property.
+     *
+     * @param prefetched The previous index entries of the entity, if they were read for several properties at once.
+     * May be null
+     */
+    public Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
+                                                 Object propertyValue, boolean force, boolean noRead,
+                                                 UUID timestampUuid, PrefetchedIndexEntries prefetched )
+            throws Exception {
 
         long timestamp = getTimestampInMicros( timestampUuid );
 
@@ -373,7 +396,7 @@ public class EntityManagerImpl implements EntityManager {
             //this call is incorrect.  The current entity is NOT the head entity
             getRelationManager( entity )
                     .batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty, noRead,
-                            timestampUuid );
+                            timestampUuid, prefetched );
         }
 
 
@@ -413,16 +436,49 @@ public class EntityManagerImpl implements EntityManager {
                                                       Map<String, Object> properties, UUID timestampUuid )
             throws Exception {
 
+        PrefetchedIndexEntries prefetched = prefetchIndexEntries( entity, properties.keySet() );
+
         for ( String propertyName : properties.keySet() ) {
             Object propertyValue = properties.get( propertyName );
 
-            batch = batchSetProperty( batch, entity, propertyName, propertyValue, timestampUuid );
+            batch = batchSetProperty( batch, entity, propertyName, propertyValue, false, false, timestampUuid,
+                    prefetched );
         }
 
         return batch;
     }
 
 
+    /**
+     * Read the previous index entries of all the indexed properties in a single slice, instead of one read per
+     * property when each index is updated.
+     *
+     * @return The prefetched entries, or null if there are fewer than 2 indexed properties
+     */
+    private PrefetchedIndexEntries prefetchIndexEntries( EntityRef entity, Collection<String> propertyNames )
+            throws Exception {
+
+        // extended properties are indexed under a different entry name
+        if ( Schema.isAssociatedEntityType( entity.getType() ) ) {
+            return null;
+        }
+
+        List<String> indexed = new ArrayList<String>( propertyNames.size() );
+
+        for ( String propertyName : propertyNames ) {
+            if ( getDefaultSchema().isPropertyIndexed( entity.getType(), propertyName ) ) {
+                indexed.add( propertyName );
+            }
+        }
+
+        if ( indexed.size() < 2 ) {
+            return null;
+        }
+
+        return PrefetchedIndexEntries.load( cass, applicationId, entity.getUuid(), indexed );
+    }
+
+
     /**
      * Batch update set.
      *
@@ -617,9 +673,19 @@ public class EntityManagerImpl implements EntityManager {
         Assert.notNull( collectionType, "collectionType is required" );
         Assert.notNull( aliasValue, "aliasValue is required" );
 
+        EntityReadCache cache = EntityReadCache.current();
+        List<Object> cacheKey = EntityReadCache.key( "alias", applicationId, ownerId, collectionType, aliasValue );
+
+        if ( cache != null && cache.contains( cacheKey ) ) {
+            return cache.get( cacheKey );
+        }
+
         Map<String, EntityRef> results = getAlias( ownerId, collectionType, Collections.singletonList( aliasValue ) );
 
         if ( results == null || results.size() == 0 ) {
+            if ( cache != null ) {
+                cache.put( cacheKey, null );
+            }
             return null;
         }
 
@@ -631,7 +697,13 @@ public class EntityManagerImpl implements EntityManager {
                             + "alias, and needs audited", new Object[] { ownerId, collectionType, aliasValue } );
         }
 
-        return results.get( aliasValue );
+        EntityRef ref = results.get( aliasValue );
+
+        if ( cache != null ) {
+            cache.put( cacheKey, ref );
+        }
+
+        return ref;
     }
 
 
@@ -997,13 +1069,27 @@ public class EntityManagerImpl implements EntityManager {
     @Metered( group = "core", name = "EntityManager_getEntityType" )
     public String getEntityType( UUID entityId ) throws Exception {
 
+        EntityReadCache cache = EntityReadCache.current();
+        List<Object> cacheKey = EntityReadCache.key( "type", applicationId, entityId );
+
+        if ( cache != null && cache.contains( cacheKey ) ) {
+            return cache.get( cacheKey );
+        }
+
+        String type = null;
+
         HColumn<String, String> column =
                 cass.getColumn( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, key( entityId ),
                         PROPERTY_TYPE, se, se );
         if ( column != null ) {
-            return column.getValue();
+            type = column.getValue();
         }
-        return null;
+
+        if ( cache != null ) {
+            cache.put( cacheKey, type );
+        }
+
+        return type;
     }
 
 
@@ -1066,10 +1152,23 @@ public class EntityManagerImpl implements EntityManager {
         Object entity_key = key( entityId );
         Map<String, Object> results = null;
 
+        EntityReadCache cache = EntityReadCache.current();
+        List<Object> cacheKey = EntityReadCache.key( "entity", applicationId, entityId );
+
+        if ( cache != null && cache.contains( cacheKey ) ) {
+            results = EntityReadCache.copyProperties( cache.<Map<String, Object>>get( cacheKey ) );
+        }
+        else {
+            results = deserializeEntityProperties(
+                    cass.getAllColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES,
+                            entity_key ) );
+
+            if ( cache != null ) {
+                cache.put( cacheKey, EntityReadCache.copyProperties( results ) );
+            }
+        }
+
         // if (entityType == null) {
-        results = deserializeEntityProperties(
-                cass.getAllColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, entity_key ) );
-        // } else {
         // Set<String> columnNames = Schema.getPropertyNames(entityType);
         // results = getColumns(getApplicationKeyspace(applicationId),
         // EntityCF.PROPERTIES, entity_key, columnNames, se, be);
@@ -1115,53 +1214,95 @@ public class EntityManagerImpl implements EntityManager {
             return entities;
         }
 
-        Map<UUID, A> resultSet = new LinkedHashMap<UUID, A>();
+        Iterator<A> loaded = iterateEntities( entityIds, entityClass );
 
-        Rows<UUID, String, ByteBuffer> results = null;
+        while ( loaded.hasNext() ) {
+            entities.add( loaded.next() );
+        }
 
-        // if (entityType == null) {
-        results =
-                cass.getRows( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, entityIds, ue, se, be );
-        // } else {
-        // Set<String> columnNames = Schema.getPropertyNames(entityType);
-        // results = getRows(getApplicationKeyspace(applicationId),
-        // EntityCF.PROPERTIES,
-        // entityIds, columnNames, ue, se, be);
-        // }
+        return entities;
+    }
 
-        if ( results != null ) {
-            for ( UUID key : entityIds ) {
-                Map<String, Object> properties = deserializeEntityProperties( results.getByKey( key ) );
 
-                if ( properties == null ) {
-                    logger.error( "Error deserializing entity with key " + key
-                            + ", entity probaby doesn't exist, where did this key come from?" );
-                    continue;
-                }
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.usergrid.persistence.EntityManager#iterateEntities(java.util.Collection, java.lang.Class)
+     */
+    @Override
+    public <A extends Entity> Iterator<A> iterateEntities( Collection<UUID> entityIds, final Class<A> entityClass )
+            throws Exception {
+
+        if ( ( entityIds == null ) || ( entityIds.size() == 0 ) ) {
+            return Collections.<A>emptyList().iterator();
+        }
+
+        final Iterator<Row<UUID, String, ByteBuffer>> rows = entityLoader.load( applicationId, entityIds );
+
+        return new Iterator<A>() {
+
+            private A next;
 
-                UUID id = uuid( properties.get( PROPERTY_UUID ) );
-                String type = string( properties.get( PROPERTY_TYPE ) );
 
-                if ( ( id == null ) || ( type == null ) ) {
-                    logger.error( "Error retrieving entity with key " + key
-                            + ", no type or id deseriazable, where did this key come from?" );
-                    continue;
+            @Override
+            public boolean hasNext() {
+                while ( next == null && rows.hasNext() ) {
+                    next = toEntity( rows.next(), entityClass );
                 }
-                A entity = EntityFactory.newEntity( id, type, entityClass );
-                entity.setProperties( properties );
 
-                resultSet.put( id, entity );
+                return next != null;
             }
 
-            for ( UUID entityId : entityIds ) {
-                A entity = resultSet.get( entityId );
-                if ( entity != null ) {
-                    entities.add( entity );
+
+            @Override
+            public A next() {
+                if ( !hasNext() ) {
+                    throw new NoSuchElementException();
                 }
+
+                A entity = next;
+                next = null;
+                return entity;
+            }
+
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException( "Remove is unsupported" );
             }
+        };
+    }
+
+
+    /** Create the entity from its property row, null if the row doesn't hold an entity */
+    private <A extends Entity> A toEntity( Row<UUID, String, ByteBuffer> row, Class<A> entityClass ) {
+        if ( row == null ) {
+            return null;
         }
 
-        return entities;
+        UUID key = row.getKey();
+
+        Map<String, Object> properties = deserializeEntityProperties( row );
+
+        if ( properties == null ) {
+            logger.error( "Error deserializing entity with key " + key
+                    + ", entity probaby doesn't exist, where did this key come from?" );
+            return null;
+        }
+
+        UUID id = uuid( properties.get( PROPERTY_UUID ) );
+        String type = string( properties.get( PROPERTY_TYPE ) );
+
+        if ( ( id == null ) || ( type == null ) ) {
+            logger.error( "Error retrieving entity with key " + key
+                    + ", no type or id deseriazable, where did this key come from?" );
+            return null;
+        }
+
+        A entity = EntityFactory.newEntity( id, type, entityClass );
+        entity.setProperties( properties );
+
+        return entity;
     }
 
 
@@ -1423,8 +1564,10 @@ public class EntityManagerImpl implements EntityManager {
         // dictionary for this entity
         Set<String> properties = getPropertyNames( entity );
         if ( properties != null ) {
+            PrefetchedIndexEntries prefetched = prefetchIndexEntries( entity, properties );
+
             for ( String propertyName : properties ) {
-                m = batchSetProperty( m, entity, propertyName, null, true, false, timestampUuid );
+                m = batchSetProperty( m, entity, propertyName, null, true, false, timestampUuid, prefetched );
             }
         }
 
@@ -1535,25 +1678,42 @@ public class EntityManagerImpl implements EntityManager {
         }
         if ( identifier.isEmail() ) {
 
-            Query query = new Query();
-            query.setEntityType( "user" );
-            query.addEqualityFilter( "email", identifier.getEmail() );
-            query.setLimit( 1 );
-            query.setResultsLevel( REFS );
+            EntityReadCache cache = EntityReadCache.current();
+            List<Object> cacheKey = EntityReadCache.key( "user", applicationId, identifier.getEmail() );
 
-            Results r = getRelationManager( ref( applicationId ) ).searchCollection( "users", query );
-            if ( r != null && r.getRef() != null ) {
-                return r.getRef();
+            if ( cache != null && cache.contains( cacheKey ) ) {
+                return cache.get( cacheKey );
             }
-            else {
-                // look-aside as it might be an email in the name field
-                return this.getAlias( applicationId, "user", identifier.getEmail() );
+
+            EntityRef user = getUserByEmail( identifier.getEmail() );
+
+            if ( cache != null ) {
+                cache.put( cacheKey, user );
             }
+
+            return user;
         }
         return null;
     }
 
 
+    private EntityRef getUserByEmail( String email ) throws Exception {
+        Query query = new Query();
+        query.setEntityType( "user" );
+        query.addEqualityFilter( "email", email );
+        query.setLimit( 1 );
+        query.setResultsLevel( REFS );
+
+        Results r = getRelationManager( ref( applicationId ) ).searchCollection( "users", query );
+        if ( r != null && r.getRef() != null ) {
+            return r.getRef();
+        }
+
+        // look-aside as it might be an email in the name field
+        return this.getAlias( applicationId, "user", email );
+    }
+
+
     @Override
     public EntityRef getGroupByIdentifier( Identifier identifier ) throws Exception {
         if ( identifier == null ) {
@@ -2251,6 +2411,26 @@ public class EntityManagerImpl implements EntityManager {
     @Override
     public Map<String, Role> getRolesWithTitles( Set<String> roleNames ) throws Exception {
 
+        EntityReadCache cache = EntityReadCache.current();
+        List<Object> cacheKey = EntityReadCache.key( "roles", applicationId,
+                roleNames == null ? null : new HashSet<String>( roleNames ) );
+
+        if ( cache != null && cache.contains( cacheKey ) ) {
+            return new HashMap<String, Role>( cache.<Map<String, Role>>get( cacheKey ) );
+        }
+
+        Map<String, Role> rolesWithTitles = loadRolesWithTitles( roleNames );
+
+        if ( cache != null ) {
+            cache.put( cacheKey, new HashMap<String, Role>( rolesWithTitles ) );
+        }
+
+        return rolesWithTitles;
+    }
+
+
+    private Map<String, Role> loadRolesWithTitles( Set<String> roleNames ) throws Exception {
+
         Map<String, Role> rolesWithTitles = new HashMap<String, Role>();
 
         Map<String, Object> nameResults = null;
@@ -2728,6 +2908,12 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    @Override
+    public Results getConnectingEntities( UUID entityId, Query query ) throws Exception {
+        return getRelationManager( ref( entityId ) ).getConnectingEntities( query );
+    }
+
+
     @Override
     public Results searchConnectedEntities( EntityRef connectingEntity, Query query ) throws Exception {
 
@@ -2808,6 +2994,12 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    /** @return the executor the cells of a geo search are read on */
+    public AsyncTaskExecutor getGeoSearchExecutor() {
+        return geoSearchExecutor;
+    }
+
+
     @SuppressWarnings( "unchecked" )
     @Override
     public Map<String, Role> getGroupRolesWithTitles( UUID groupId ) throws Exception {
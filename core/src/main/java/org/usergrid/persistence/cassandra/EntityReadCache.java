@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Caches entity reads for the length of a request.  A request that resolves the same entities, aliases and roles many
+ * times as it walks a service path reads each of them once.  The cache is bound to the thread of the request by {@link
+ * #begin()}, and is read through by the entity manager while it's bound.  Every executed write clears it, so a request
+ * always reads its own writes.
+ * <p/>
+ * Nothing is cached when no cache is bound, e.g. in tools and jobs.
+ */
+public class EntityReadCache {
+
+    private static final ThreadLocal<EntityReadCache> localCache = new ThreadLocal<EntityReadCache>();
+
+    /** Stands in for a cached null, e.g. an alias that doesn't exist */
+    private static final Object NULL = new Object();
+
+    private final Map<List<Object>, Object> values = new HashMap<List<Object>, Object>();
+
+    private int depth;
+    private int hits;
+    private int misses;
+    private int invalidations;
+
+
+    private EntityReadCache() {
+    }
+
+
+    /**
+     * Bind a cache to the current thread, or join the cache that's already bound.  Every call must be matched by a call
+     * to {@link #end()}
+     */
+    public static EntityReadCache begin() {
+        EntityReadCache cache = localCache.get();
+
+        if ( cache == null ) {
+            cache = new EntityReadCache();
+            localCache.set( cache );
+        }
+
+        cache.depth++;
+
+        return cache;
+    }
+
+
+    /** Leave the cache, it's unbound from the thread once the outermost caller leaves */
+    public void end() {
+        if ( --depth > 0 ) {
+            return;
+        }
+
+        values.clear();
+
+        if ( localCache.get() == this ) {
+            localCache.remove();
+        }
+    }
+
+
+    /** Get the cache bound to the current thread, null if there isn't one */
+    public static EntityReadCache current() {
+        return localCache.get();
+    }
+
+
+    /** Clear the cache bound to the current thread, if any.  Called after every write */
+    public static void invalidateCurrent() {
+        EntityReadCache cache = localCache.get();
+
+        if ( cache != null ) {
+            cache.invalidate();
+        }
+    }
+
+
+    /** Create the key of a value */
+    public static List<Object> key( Object... parts ) {
+        return Arrays.asList( parts );
+    }
+
+
+    /** True if the value is cached, counts a hit or a miss */
+    public boolean contains( List<Object> key ) {
+        if ( values.containsKey( key ) ) {
+            hits++;
+            return true;
+        }
+
+        misses++;
+        return false;
+    }
+
+
+    /** Get the cached value, which may be null */
+    @SuppressWarnings("unchecked")
+    public <T> T get( List<Object> key ) {
+        Object value = values.get( key );
+        return value == NULL ? null : ( T ) value;
+    }
+
+
+    /** Cache the value, which may be null */
+    public void put( List<Object> key, Object value ) {
+        values.put( key, value == null ? NULL : value );
+    }
+
+
+    /** Remove every cached value */
+    public void invalidate() {
+        if ( !values.isEmpty() ) {
+            values.clear();
+            invalidations++;
+        }
+    }
+
+
+    /** Copy entity properties, so callers never share the cached map */
+    public static Map<String, Object> copyProperties( Map<String, Object> properties ) {
+        if ( properties == null ) {
+            return null;
+        }
+
+        Map<String, Object> copy = new TreeMap<String, Object>( String.CASE_INSENSITIVE_ORDER );
+        copy.putAll( properties );
+        return copy;
+    }
+
+
+    public int getHits() {
+        return hits;
+    }
+
+
+    public int getMisses() {
+        return misses;
+    }
+
+
+    public int getInvalidations() {
+        return invalidations;
+    }
+
+
+    /** Get the hit counts, e.g. to add to the metadata of a response */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put( "hits", hits );
+        stats.put( "misses", misses );
+        stats.put( "invalidations", invalidations );
+        return stats;
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.cassandra.index.DecodedColumn;
+import org.usergrid.persistence.cassandra.index.DecodedColumnComparator;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static org.usergrid.persistence.cassandra.ApplicationCF.ENTITY_INDEX_ENTRIES;
+import static org.usergrid.persistence.cassandra.CassandraService.INDEX_ENTRY_LIST_COUNT;
+import static org.usergrid.utils.CompositeUtils.setGreaterThanEqualityFlag;
+
+
+/**
+ * The previous index entries of several properties of an entity, read from the entity's index entry ledger with a
+ * single slice.  Used when many properties of an entity are updated at once, so the index update of each property
+ * doesn't need its own read before write.
+ */
+public class PrefetchedIndexEntries {
+
+    private static final Logger logger = LoggerFactory.getLogger( PrefetchedIndexEntries.class );
+
+    private static final Counter readsSaved =
+            Metrics.newCounter( PrefetchedIndexEntries.class, "index_entry_reads_saved" );
+
+    /** The entries of every entry name that was completely read by the slice */
+    private final Map<String, List<HColumn<ByteBuffer, ByteBuffer>>> entries;
+
+    private int hits = 0;
+
+
+    private PrefetchedIndexEntries( Map<String, List<HColumn<ByteBuffer, ByteBuffer>>> entries ) {
+        this.entries = entries;
+    }
+
+
+    /**
+     * Read the index entries of all the entry names in a single slice.  The slice runs from the first to the last entry
+     * name in column order.  If the slice is truncated, the names at or after the last column read are not prefetched
+     * and the caller will read them individually
+     *
+     * @param cass The cassandra service
+     * @param applicationId The application id
+     * @param entityId The id of the entity that's being updated
+     * @param entryNames The property names that will be updated
+     */
+    public static PrefetchedIndexEntries load( CassandraService cass, UUID applicationId, UUID entityId,
+                                               Collection<String> entryNames ) throws Exception {
+
+        DecodedColumnComparator comparator = DecodedColumnComparator.getInstance( ENTITY_INDEX_ENTRIES, false );
+
+        Map<String, DecodedColumn> names = new HashMap<String, DecodedColumn>( entryNames.size() );
+
+        String first = null;
+        String last = null;
+
+        for ( String entryName : entryNames ) {
+            DecodedColumn name = comparator.decode( new DynamicComposite( entryName ).serialize() );
+
+            names.put( entryName, name );
+
+            if ( first == null || comparator.compare( name, names.get( first ) ) < 0 ) {
+                first = entryName;
+            }
+
+            if ( last == null || comparator.compare( name, names.get( last ) ) > 0 ) {
+                last = entryName;
+            }
+        }
+
+        Map<String, List<HColumn<ByteBuffer, ByteBuffer>>> entries =
+                new HashMap<String, List<HColumn<ByteBuffer, ByteBuffer>>>( names.size() );
+
+        if ( first == null ) {
+            return new PrefetchedIndexEntries( entries );
+        }
+
+        List<HColumn<ByteBuffer, ByteBuffer>> cols =
+                cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES, entityId,
+                        new DynamicComposite( first ), setGreaterThanEqualityFlag( new DynamicComposite( last ) ),
+                        INDEX_ENTRY_LIST_COUNT, false );
+
+        // if we didn't get everything, only names before the last one we saw are complete
+        DecodedColumn complete = null;
+
+        if ( cols.size() == INDEX_ENTRY_LIST_COUNT ) {
+            String lastEntryName = entryName( cols.get( cols.size() - 1 ) );
+            complete = comparator.decode( new DynamicComposite( lastEntryName ).serialize() );
+        }
+
+        for ( Map.Entry<String, DecodedColumn> name : names.entrySet() ) {
+            if ( complete == null || comparator.compare( name.getValue(), complete ) < 0 ) {
+                entries.put( name.getKey(), new ArrayList<HColumn<ByteBuffer, ByteBuffer>>() );
+            }
+        }
+
+        for ( HColumn<ByteBuffer, ByteBuffer> col : cols ) {
+            List<HColumn<ByteBuffer, ByteBuffer>> nameEntries = entries.get( entryName( col ) );
+
+            // a property in the range that we're not updating, or one that wasn't completely read
+            if ( nameEntries != null ) {
+                nameEntries.add( col );
+            }
+        }
+
+        if ( logger.isDebugEnabled() ) {
+            logger.debug( "Prefetched {} index entries for {} of {} properties of entity {}", new Object[] {
+                    cols.size(), entries.size(), names.size(), entityId
+            } );
+        }
+
+        return new PrefetchedIndexEntries( entries );
+    }
+
+
+    private static String entryName( HColumn<ByteBuffer, ByteBuffer> col ) {
+        return ( String ) DynamicComposite.fromByteBuffer( col.getName().duplicate() ).get( 0 );
+    }
+
+
+    /**
+     * Get the previous index entries of the entry name
+     *
+     * @return The entries, or null if they weren't prefetched and must be read
+     */
+    public List<HColumn<ByteBuffer, ByteBuffer>> getEntries( String entryName ) {
+        List<HColumn<ByteBuffer, ByteBuffer>> nameEntries = entries.get( entryName );
+
+        // the first hit pays for the slice, every one after it is a read we didn't make
+        if ( nameEntries != null && hits++ > 0 ) {
+            readsSaved.inc();
+        }
+
+        return nameEntries;
+    }
+
+
+    /** Get the number of reads that were saved so far by using this prefetch */
+    public int getReadsSaved() {
+        return Math.max( 0, hits - 1 );
+    }
+}
@@ -32,6 +32,7 @@ import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.util.Assert;
 import org.usergrid.persistence.CollectionRef;
 import org.usergrid.persistence.ConnectedEntityRef;
@@ -1114,11 +1115,27 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
-    @Metered(group = "core", name = "RelationManager_batchStartIndexUpdate")
     public IndexUpdate batchStartIndexUpdate( Mutator<ByteBuffer> batch, Entity entity, String entryName,
                                               Object entryValue, UUID timestampUuid, boolean schemaHasProperty,
                                               boolean isMultiValue, boolean removeListEntry, boolean fulltextIndexed,
                                               boolean skipRead ) throws Exception {
+        return batchStartIndexUpdate( batch, entity, entryName, entryValue, timestampUuid, schemaHasProperty,
+                isMultiValue, removeListEntry, fulltextIndexed, skipRead, null );
+    }
+
+
+    /**
+     * Start the index update of an entry.  Reads the previous index entries from the entity's ledger unless skipRead is
+     * set, or they were already read for this entry by a prefetch.
+     *
+     * @param prefetched The previous entries read for several properties at once, may be null
+     */
+    @Metered(group = "core", name = "RelationManager_batchStartIndexUpdate")
+    public IndexUpdate batchStartIndexUpdate( Mutator<ByteBuffer> batch, Entity entity, String entryName,
+                                              Object entryValue, UUID timestampUuid, boolean schemaHasProperty,
+                                              boolean isMultiValue, boolean removeListEntry, boolean fulltextIndexed,
+                                              boolean skipRead, PrefetchedIndexEntries prefetched )
+            throws Exception {
 
         long timestamp = getTimestampInMicros( timestampUuid );
 
@@ -1134,18 +1151,25 @@ public class RelationManagerImpl implements RelationManager {
 
             List<HColumn<ByteBuffer, ByteBuffer>> entries = null;
 
-            if ( isMultiValue && validIndexableValue( entryValue ) ) {
-                entries = cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
-                        entity.getUuid(),
-                        new DynamicComposite( entryName, indexValueCode( entryValue ), toIndexableValue( entryValue ) ),
-                        setGreaterThanEqualityFlag( new DynamicComposite( entryName, indexValueCode( entryValue ),
-                                toIndexableValue( entryValue ) ) ), INDEX_ENTRY_LIST_COUNT, false );
+            if ( prefetched != null && !isMultiValue ) {
+                entries = prefetched.getEntries( entryName );
             }
-            else {
-                entries = cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
-                        entity.getUuid(), new DynamicComposite( entryName ),
-                        setGreaterThanEqualityFlag( new DynamicComposite( entryName ) ), INDEX_ENTRY_LIST_COUNT,
-                        false );
+
+            // not read with the other properties of this entity, read them now
+            if ( entries == null ) {
+                if ( isMultiValue && validIndexableValue( entryValue ) ) {
+                    entries = cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
+                            entity.getUuid(), new DynamicComposite( entryName, indexValueCode( entryValue ),
+                            toIndexableValue( entryValue ) ),
+                            setGreaterThanEqualityFlag( new DynamicComposite( entryName, indexValueCode( entryValue ),
+                                    toIndexableValue( entryValue ) ) ), INDEX_ENTRY_LIST_COUNT, false );
+                }
+                else {
+                    entries = cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
+                            entity.getUuid(), new DynamicComposite( entryName ),
+                            setGreaterThanEqualityFlag( new DynamicComposite( entryName ) ), INDEX_ENTRY_LIST_COUNT,
+                            false );
+                }
             }
 
             if ( logger.isDebugEnabled() ) {
@@ -1244,10 +1268,18 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
-    @Metered(group = "core", name = "RelationManager_batchUpdatePropertyIndexes")
     public void batchUpdatePropertyIndexes( Mutator<ByteBuffer> batch, String propertyName, Object propertyValue,
                                             boolean entitySchemaHasProperty, boolean noRead, UUID timestampUuid )
             throws Exception {
+        batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty, noRead, timestampUuid,
+                null );
+    }
+
+
+    @Metered(group = "core", name = "RelationManager_batchUpdatePropertyIndexes")
+    public void batchUpdatePropertyIndexes( Mutator<ByteBuffer> batch, String propertyName, Object propertyValue,
+                                            boolean entitySchemaHasProperty, boolean noRead, UUID timestampUuid,
+                                            PrefetchedIndexEntries prefetched ) throws Exception {
 
         Entity entity = getHeadEntity();
 
@@ -1271,7 +1303,7 @@ public class RelationManagerImpl implements RelationManager {
 
         IndexUpdate indexUpdate = batchStartIndexUpdate( batch, entity, propertyName, propertyValue, timestampUuid,
                 entitySchemaHasProperty, false, false,
-                getDefaultSchema().isPropertyFulltextIndexed( entity.getType(), propertyName ), noRead );
+                getDefaultSchema().isPropertyFulltextIndexed( entity.getType(), propertyName ), noRead, prefetched );
 
         // Update collections
 
@@ -1983,6 +2015,17 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
+    @Override
+    public Results getConnectingEntities( Query query ) throws Exception {
+
+        if ( query == null ) {
+            query = new Query();
+        }
+
+        return getConnectingEntities( headEntity, query.getConnectionType(), query.getEntityType(), query );
+    }
+
+
     /**
      * Get all edges that are to the targetEntity
      *
@@ -1996,6 +2039,21 @@ public class RelationManagerImpl implements RelationManager {
         Query query = new Query();
         query.setResultsLevel( resultsLevel );
 
+        return getConnectingEntities( targetEntity, connectionType, connectedEntityType, query );
+    }
+
+
+    /**
+     * Get a page of the edges that are to the targetEntity
+     *
+     * @param targetEntity The target entity to search edges in
+     * @param connectionType The type of connection.  If not specified, all connections are returned
+     * @param connectedEntityType The connected entity type, if not specified all types are returned
+     * @param query The query with the results level, the limit and the cursor of the page
+     */
+    private Results getConnectingEntities( EntityRef targetEntity, String connectionType, String connectedEntityType,
+                                           Query query ) throws Exception {
+
         final ConnectionRefImpl connectionRef =
                 new ConnectionRefImpl( new SimpleEntityRef( connectedEntityType, null ), connectionType, targetEntity );
         final ConnectionResultsLoaderFactory factory = new ConnectionResultsLoaderFactory( connectionRef );
@@ -2038,6 +2096,12 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
+    /** The executor the cells of geo searches are read on, the visitors have an entity manager of their own */
+    private AsyncTaskExecutor geoSearchExecutor() {
+        return em.getGeoSearchExecutor();
+    }
+
+
     private static final UUIDIndexSliceParser UUID_PARSER = new UUIDIndexSliceParser();
 
 
@@ -2130,7 +2194,8 @@ public class RelationManagerImpl implements RelationManager {
             queryProcessor.applyCursorAndSort( slice );
 
             GeoIterator itr = new GeoIterator(
-                    new CollectionGeoSearch( em, indexBucketLocator, cass, headEntity, collection.getName() ),
+                    new CollectionGeoSearch( em, indexBucketLocator, cass, geoSearchExecutor(), headEntity,
+                            collection.getName() ),
                     query.getLimit(), slice, node.getPropertyName(),
                     new Point( node.getLattitude(), node.getLongitude() ), node.getDistance() );
 
@@ -2222,7 +2287,8 @@ public class RelationManagerImpl implements RelationManager {
             queryProcessor.applyCursorAndSort( slice );
 
             GeoIterator itr =
-                    new GeoIterator( new ConnectionGeoSearch( em, indexBucketLocator, cass, connection.getIndexId() ),
+                    new GeoIterator( new ConnectionGeoSearch( em, indexBucketLocator, cass, geoSearchExecutor(),
+                            connection.getIndexId() ),
                             query.getLimit(), slice, node.getPropertyName(),
                             new Point( node.getLattitude(), node.getLongitude() ), node.getDistance() );
 
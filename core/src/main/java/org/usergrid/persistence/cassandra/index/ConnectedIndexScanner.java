@@ -229,4 +229,13 @@ public class ConnectedIndexScanner implements IndexScanner {
     public int getPageSize() {
         return pageSize;
     }
+
+
+    /* (non-Javadoc)
+     * @see org.usergrid.persistence.cassandra.index.IndexScanner#seek(java.nio.ByteBuffer)
+     */
+    @Override
+    public void seek( ByteBuffer start ) {
+        //no op, we can't seek across connection types
+    }
 }
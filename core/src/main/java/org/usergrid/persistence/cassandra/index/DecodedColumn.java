@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.index;
+
+
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+
+import me.prettyprint.hector.api.beans.HColumn;
+
+
+/**
+ * A column whose name has been split into its composite components exactly once.  Comparing two decoded columns does
+ * not need to re-parse the composite headers, it only compares the already sliced component values.
+ */
+public class DecodedColumn {
+
+    private final HColumn<ByteBuffer, ByteBuffer> column;
+    private final ByteBuffer name;
+
+    /** The comparator of each component, null if the name could not be decoded */
+    final AbstractType<?>[] types;
+
+    /** The sliced value of each component */
+    final ByteBuffer[] values;
+
+    /** The end of component byte of each component */
+    final byte[] eocs;
+
+
+    DecodedColumn( HColumn<ByteBuffer, ByteBuffer> column, ByteBuffer name, AbstractType<?>[] types,
+                   ByteBuffer[] values, byte[] eocs ) {
+        this.column = column;
+        this.name = name;
+        this.types = types;
+        this.values = values;
+        this.eocs = eocs;
+    }
+
+
+    /** Get the column this was decoded from.  Null if only a name was decoded */
+    public HColumn<ByteBuffer, ByteBuffer> getColumn() {
+        return column;
+    }
+
+
+    /** Get the raw name of the column */
+    public ByteBuffer getName() {
+        return name;
+    }
+
+
+    /** True if the name was split into components. If false, comparisons fall back to the full comparator */
+    boolean isDecoded() {
+        return types != null;
+    }
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.index;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.usergrid.persistence.cassandra.ApplicationCF;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.TypeParser;
+
+import me.prettyprint.hector.api.beans.HColumn;
+
+
+/**
+ * Compares columns of a column family in the same order cassandra stores them.  Dynamic composite names are decoded
+ * once via {@link #decode(HColumn)}, after which each comparison only compares the sliced component values with the
+ * component's type.  Names that can't be decoded (full class name headers, differing component types) fall back to
+ * the column family comparator so the ordering is always identical to cassandra's.
+ */
+public class DecodedColumnComparator implements Comparator<DecodedColumn> {
+
+    private static final Map<ApplicationCF, DecodedColumnComparator[]> INSTANCES =
+            new ConcurrentHashMap<ApplicationCF, DecodedColumnComparator[]>();
+
+    private final AbstractType<?> cfComparator;
+    private final Map<Byte, AbstractType<?>> aliases;
+    private final boolean composite;
+    private final boolean reversed;
+
+
+    private DecodedColumnComparator( ApplicationCF cf, boolean reversed ) {
+        this.reversed = reversed;
+        this.composite = cf.isComposite();
+
+        // should never happen, this will blow up during development if this fails
+        try {
+            cfComparator = TypeParser.parse( cf.getComparator() );
+
+            if ( composite ) {
+                String comparator = cf.getComparator();
+                aliases = new TypeParser( comparator.substring( comparator.indexOf( '(' ) ) ).getAliasParameters();
+            }
+            else {
+                aliases = null;
+            }
+        }
+        catch ( Exception e ) {
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    /**
+     * Get the comparator for the column family
+     *
+     * @param cf The column family the columns are read from
+     * @param reversed True if the columns should be ordered in reverse
+     */
+    public static DecodedColumnComparator getInstance( ApplicationCF cf, boolean reversed ) {
+        DecodedColumnComparator[] comparators = INSTANCES.get( cf );
+
+        if ( comparators == null ) {
+            comparators = new DecodedColumnComparator[] {
+                    new DecodedColumnComparator( cf, false ), new DecodedColumnComparator( cf, true )
+            };
+            INSTANCES.put( cf, comparators );
+        }
+
+        return comparators[reversed ? 1 : 0];
+    }
+
+
+    /** Decode the name of the column so it can be compared without re-parsing */
+    public DecodedColumn decode( HColumn<ByteBuffer, ByteBuffer> column ) {
+        return decode( column, column.getName() );
+    }
+
+
+    /** Decode a column name, such as a seek target, that doesn't belong to a loaded column */
+    public DecodedColumn decode( ByteBuffer name ) {
+        return decode( null, name );
+    }
+
+
+    private DecodedColumn decode( HColumn<ByteBuffer, ByteBuffer> column, ByteBuffer name ) {
+
+        if ( !composite ) {
+            return new DecodedColumn( column, name, null, null, null );
+        }
+
+        ByteBuffer bb = name.duplicate();
+
+        List<AbstractType<?>> types = new ArrayList<AbstractType<?>>( 4 );
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>( 4 );
+        List<Byte> eocs = new ArrayList<Byte>( 4 );
+
+        while ( bb.hasRemaining() ) {
+            if ( bb.remaining() < 2 ) {
+                return new DecodedColumn( column, name, null, null, null );
+            }
+
+            int header = bb.getShort() & 0xFFFF;
+
+            // only aliased components are decoded, class names use the slow path
+            if ( ( header & 0x8000 ) == 0 ) {
+                return new DecodedColumn( column, name, null, null, null );
+            }
+
+            AbstractType<?> type = aliases.get( ( byte ) ( header & 0xFF ) );
+
+            if ( type == null || bb.remaining() < 2 ) {
+                return new DecodedColumn( column, name, null, null, null );
+            }
+
+            int length = bb.getShort() & 0xFFFF;
+
+            if ( bb.remaining() < length + 1 ) {
+                return new DecodedColumn( column, name, null, null, null );
+            }
+
+            ByteBuffer value = bb.slice();
+            value.limit( length );
+            bb.position( bb.position() + length );
+
+            types.add( type );
+            values.add( value );
+            eocs.add( bb.get() );
+        }
+
+        byte[] eocArray = new byte[eocs.size()];
+
+        for ( int i = 0; i < eocArray.length; i++ ) {
+            eocArray[i] = eocs.get( i );
+        }
+
+        return new DecodedColumn( column, name, types.toArray( new AbstractType<?>[types.size()] ),
+                values.toArray( new ByteBuffer[values.size()] ), eocArray );
+    }
+
+
+    @Override
+    public int compare( DecodedColumn first, DecodedColumn second ) {
+        if ( reversed ) {
+            return compareForward( second, first );
+        }
+
+        return compareForward( first, second );
+    }
+
+
+    /** Compare the two columns, mirrors the component comparison in cassandra's AbstractCompositeType */
+    private int compareForward( DecodedColumn first, DecodedColumn second ) {
+
+        if ( !first.isDecoded() || !second.isDecoded() ) {
+            return cfComparator.compare( first.getName(), second.getName() );
+        }
+
+        int size = Math.min( first.types.length, second.types.length );
+
+        for ( int i = 0; i < size; i++ ) {
+
+            // different component types are ordered by the type, let cassandra decide
+            if ( first.types[i] != second.types[i] ) {
+                return cfComparator.compare( first.getName(), second.getName() );
+            }
+
+            int cmp = first.types[i].compare( first.values[i], second.values[i] );
+
+            if ( cmp != 0 ) {
+                return cmp;
+            }
+
+            byte b1 = first.eocs[i];
+            byte b2 = second.eocs[i];
+
+            if ( b1 < 0 ) {
+                if ( b2 >= 0 ) {
+                    return -1;
+                }
+            }
+            else if ( b1 > 0 ) {
+                if ( b2 <= 0 ) {
+                    return 1;
+                }
+            }
+            else if ( b2 != 0 ) {
+                return -b2;
+            }
+        }
+
+        if ( first.types.length == second.types.length ) {
+            return 0;
+        }
+
+        return first.types.length < second.types.length ? -1 : 1;
+    }
+}
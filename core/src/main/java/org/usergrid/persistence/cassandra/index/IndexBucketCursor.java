@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.index;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.usergrid.persistence.cassandra.ApplicationCF;
+import org.usergrid.persistence.cassandra.CassandraService;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HColumn;
+
+
+/**
+ * A read cursor over a single index bucket row.  Buffers a small number of decoded columns and only goes back to
+ * cassandra for this row once the buffer has been drained by the merge.
+ */
+class IndexBucketCursor {
+
+    /** Order cursors by the column at the head of their buffers */
+    static class HeadComparator implements Comparator<IndexBucketCursor> {
+
+        private final DecodedColumnComparator comparator;
+
+
+        HeadComparator( DecodedColumnComparator comparator ) {
+            this.comparator = comparator;
+        }
+
+
+        @Override
+        public int compare( IndexBucketCursor first, IndexBucketCursor second ) {
+            return comparator.compare( first.peek(), second.peek() );
+        }
+    }
+
+
+    private final Object rowKey;
+    private final DecodedColumnComparator comparator;
+    private final ArrayDeque<DecodedColumn> buffer = new ArrayDeque<DecodedColumn>();
+    private final int maxFetchSize;
+
+    private ByteBuffer lastName;
+    private boolean exhausted;
+    private int fetchSize;
+
+
+    /**
+     * @param rowKey The bucket row key
+     * @param comparator The comparator to decode the columns with
+     * @param fetchSize The number of columns that were requested for the initial load
+     * @param maxFetchSize The max number of columns to request for a single refill
+     */
+    IndexBucketCursor( Object rowKey, DecodedColumnComparator comparator, int fetchSize, int maxFetchSize ) {
+        this.rowKey = rowKey;
+        this.comparator = comparator;
+        this.fetchSize = fetchSize;
+        this.maxFetchSize = maxFetchSize;
+    }
+
+
+    /** Add the columns from a load of this row.  The first column is skipped if it was the last one we returned */
+    void addColumns( List<HColumn<ByteBuffer, ByteBuffer>> cols, int requested ) {
+        if ( cols == null ) {
+            exhausted = true;
+            return;
+        }
+
+        exhausted = cols.size() < requested;
+
+        Iterator<HColumn<ByteBuffer, ByteBuffer>> itr = cols.iterator();
+
+        while ( itr.hasNext() ) {
+            HColumn<ByteBuffer, ByteBuffer> col = itr.next();
+
+            if ( lastName != null && lastName.equals( col.getName() ) ) {
+                continue;
+            }
+
+            buffer.add( comparator.decode( col ) );
+        }
+
+        if ( !cols.isEmpty() ) {
+            lastName = cols.get( cols.size() - 1 ).getName();
+        }
+    }
+
+
+    /**
+     * Ensure there is a column at the head of the buffer.  Only reads from cassandra if the buffer is empty and the row
+     * was not exhausted on the last read.  Every refill of the same row doubles the fetch size, up to the max.
+     *
+     * @return True if there's a column at the head of the buffer
+     */
+    boolean fill( CassandraService cass, Keyspace ko, ApplicationCF columnFamily, Object finish, boolean reversed )
+            throws Exception {
+
+        while ( buffer.isEmpty() && !exhausted ) {
+            fetchSize = Math.min( fetchSize * 2, maxFetchSize );
+
+            // +1 since the first column will be our last column
+            int requested = fetchSize + 1;
+
+            addColumns( cass.getColumns( ko, columnFamily, rowKey, lastName, finish, requested, reversed ),
+                    requested );
+        }
+
+        return !buffer.isEmpty();
+    }
+
+
+    /**
+     * Drop every column before the target.  If that drains the buffer, the row is read again starting at the target
+     * instead of after the last column we buffered
+     *
+     * @return True if there's a column at the head of the buffer
+     */
+    boolean seek( DecodedColumn target, CassandraService cass, Keyspace ko, ApplicationCF columnFamily, Object finish,
+                  boolean reversed ) throws Exception {
+
+        while ( !buffer.isEmpty() && comparator.compare( buffer.peek(), target ) < 0 ) {
+            buffer.poll();
+        }
+
+        if ( buffer.isEmpty() && !exhausted ) {
+            // the target is inclusive, don't skip the first column
+            lastName = null;
+
+            addColumns( cass.getColumns( ko, columnFamily, rowKey, target.getName(), finish, fetchSize, reversed ),
+                    fetchSize );
+        }
+
+        return fill( cass, ko, columnFamily, finish, reversed );
+    }
+
+
+    /** Get the column at the head of the buffer without removing it */
+    DecodedColumn peek() {
+        return buffer.peek();
+    }
+
+
+    /** Remove the column at the head of the buffer */
+    DecodedColumn poll() {
+        return buffer.poll();
+    }
+}
@@ -19,10 +19,11 @@ package org.usergrid.persistence.cassandra.index;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.NavigableSet;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.UUID;
 
 import org.usergrid.persistence.IndexBucketLocator;
@@ -32,19 +33,29 @@ import org.usergrid.persistence.cassandra.CassandraService;
 
 import com.yammer.metrics.annotation.Metered;
 
+import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.HColumn;
 
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.usergrid.utils.ConversionUtils.bytebuffer;
 
 
 /**
  * A simple class to make working with index buckets easier. Scans all buckets and merges the results into a single
- * column list to allow easy backwards compatibility with existing code
+ * column list to allow easy backwards compatibility with existing code.
+ * <p/>
+ * Each bucket is read through its own {@link IndexBucketCursor}.  The first load reads a small slice from every bucket
+ * in a single multiget, after that the cursors are merged with a heap and only the bucket whose buffer was drained is
+ * read again.  The cursors are kept between pages, so a page costs roughly page size columns instead of page size
+ * columns per bucket.
  *
  * @author tnine
  */
 public class IndexBucketScanner implements IndexScanner {
 
+    /** The minimum number of columns to read from each bucket on the first load */
+    private static final int MIN_BUCKET_FETCH = 2;
+
     private final CassandraService cass;
     private final IndexBucketLocator indexBucketLocator;
     private final UUID applicationId;
@@ -55,17 +66,21 @@ public class IndexBucketScanner implements IndexScanner {
     private final int pageSize;
     private final String[] indexPath;
     private final IndexType indexType;
-
-    /** Pointer to our next start read */
-    private Object start;
+    private final DecodedColumnComparator comparator;
 
     /** Set to the original value to start scanning from */
-    private Object scanStart;
+    private final Object scanStart;
+
+    /** Heap of bucket cursors that still have columns, ordered by their head column */
+    private PriorityQueue<IndexBucketCursor> cursors;
+
+    /** The last column we returned, used to drop duplicates across buckets */
+    private DecodedColumn lastReturned;
 
     /** Iterator for our results from the last page load */
-    private TreeSet<HColumn<ByteBuffer, ByteBuffer>> lastResults;
+    private Set<HColumn<ByteBuffer, ByteBuffer>> lastResults;
 
-    /** True if our last load loaded a full page size. */
+    /** True if there may be more columns to merge */
     private boolean hasMore = true;
 
 
@@ -77,13 +92,13 @@ public class IndexBucketScanner implements IndexScanner {
         this.applicationId = applicationId;
         this.keyPrefix = keyPrefix;
         this.columnFamily = columnFamily;
-        this.start = start;
         this.finish = finish;
         this.reversed = reversed;
         this.pageSize = pageSize;
         this.indexPath = indexPath;
         this.indexType = indexType;
         this.scanStart = start;
+        this.comparator = DecodedColumnComparator.getInstance( columnFamily, reversed );
     }
 
 
@@ -93,7 +108,9 @@ public class IndexBucketScanner implements IndexScanner {
     @Override
     public void reset() {
         hasMore = true;
-        start = scanStart;
+        cursors = null;
+        lastReturned = null;
+        lastResults = null;
     }
 
 
@@ -111,6 +128,40 @@ public class IndexBucketScanner implements IndexScanner {
             return false;
         }
 
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+
+        if ( cursors == null ) {
+            cursors = openCursors( ko );
+        }
+
+        Set<HColumn<ByteBuffer, ByteBuffer>> page = new LinkedHashSet<HColumn<ByteBuffer, ByteBuffer>>( pageSize );
+
+        while ( page.size() < pageSize && !cursors.isEmpty() ) {
+            IndexBucketCursor cursor = cursors.poll();
+
+            DecodedColumn col = cursor.poll();
+
+            if ( lastReturned == null || comparator.compare( lastReturned, col ) != 0 ) {
+                page.add( col.getColumn() );
+                lastReturned = col;
+            }
+
+            // only the bucket that won goes back to cassandra
+            if ( cursor.fill( cass, ko, columnFamily, finish, reversed ) ) {
+                cursors.add( cursor );
+            }
+        }
+
+        hasMore = !cursors.isEmpty();
+
+        lastResults = page;
+
+        return lastResults.size() > 0;
+    }
+
+
+    /** Read the first slice of every bucket in a single multiget and create a cursor for each non empty bucket */
+    private PriorityQueue<IndexBucketCursor> openCursors( Keyspace ko ) throws Exception {
         List<String> keys = indexBucketLocator.getBuckets( applicationId, indexType, indexPath );
 
         List<Object> cassKeys = new ArrayList<Object>( keys.size() );
@@ -119,29 +170,35 @@ public class IndexBucketScanner implements IndexScanner {
             cassKeys.add( key( keyPrefix, bucket ) );
         }
 
-        //if we skip the first we need to set the load to page size +2, since we'll discard the first
-        //and start paging at the next entity, otherwise we'll just load the page size we need
-        int selectSize = pageSize + 1;
+        // spread the page over the buckets, never read more than a page from a single bucket
+        int maxFetch = pageSize + 1;
+        int spread = ( 2 * maxFetch ) / Math.max( 1, cassKeys.size() ) + 1;
+        int fetchSize = Math.min( maxFetch, Math.max( MIN_BUCKET_FETCH, spread ) );
 
-        TreeSet<HColumn<ByteBuffer, ByteBuffer>> resultsTree = IndexMultiBucketSetLoader
-                .load( cass, columnFamily, applicationId, cassKeys, start, finish, selectSize, reversed );
+        Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results =
+                cass.multiGetColumns( ko, columnFamily, cassKeys, scanStart, finish, fetchSize, reversed );
 
-        // we loaded a full page, there might be more
-        if ( resultsTree.size() == selectSize ) {
-            hasMore = true;
+        PriorityQueue<IndexBucketCursor> heap = new PriorityQueue<IndexBucketCursor>( Math.max( 1, results.size() ),
+                new IndexBucketCursor.HeadComparator( comparator ) );
 
-            // set the bytebuffer for the next pass
-            start = resultsTree.last().getName();
+        // the keys of the rows read are views of the response buffer, the cursors read again with their own keys
+        for ( Object cassKey : cassKeys ) {
+            List<HColumn<ByteBuffer, ByteBuffer>> columns = results.get( bytebuffer( cassKey ) );
 
-            resultsTree.remove( resultsTree.last() );
-        }
-        else {
-            hasMore = false;
-        }
+            if ( columns == null ) {
+                continue;
+            }
+
+            IndexBucketCursor cursor = new IndexBucketCursor( cassKey, comparator, fetchSize, maxFetch );
+
+            cursor.addColumns( columns, fetchSize );
 
-        lastResults = resultsTree;
+            if ( cursor.peek() != null ) {
+                heap.add( cursor );
+            }
+        }
 
-        return lastResults != null && lastResults.size() > 0;
+        return heap;
     }
 
 
@@ -164,11 +221,12 @@ public class IndexBucketScanner implements IndexScanner {
     @Override
     public boolean hasNext() {
 
-        // We've either 1) paged everything we should and have 1 left from our
-        // "next page" pointer
-        // Our currently buffered results don't exist or don't have a next. Try to
-        // load them again if they're less than the page size
-        if ( lastResults == null && hasMore ) {
+        if ( lastResults != null ) {
+            return true;
+        }
+
+        // Our currently buffered results don't exist. Try to merge the next page from the cursors
+        if ( hasMore ) {
             try {
                 return load();
             }
@@ -188,8 +246,8 @@ public class IndexBucketScanner implements IndexScanner {
      */
     @Override
     @Metered(group = "core", name = "IndexBucketScanner_load")
-    public NavigableSet<HColumn<ByteBuffer, ByteBuffer>> next() {
-        NavigableSet<HColumn<ByteBuffer, ByteBuffer>> returnVal = lastResults;
+    public Set<HColumn<ByteBuffer, ByteBuffer>> next() {
+        Set<HColumn<ByteBuffer, ByteBuffer>> returnVal = lastResults;
 
         lastResults = null;
 
@@ -208,6 +266,40 @@ public class IndexBucketScanner implements IndexScanner {
     }
 
 
+    /* (non-Javadoc)
+     * @see org.usergrid.persistence.cassandra.index.IndexScanner#seek(java.nio.ByteBuffer)
+     */
+    @Override
+    public void seek( ByteBuffer start ) {
+
+        // nothing read yet, or nothing left to read
+        if ( cursors == null || cursors.isEmpty() ) {
+            return;
+        }
+
+        DecodedColumn target = comparator.decode( start );
+
+        PriorityQueue<IndexBucketCursor> seeked =
+                new PriorityQueue<IndexBucketCursor>( cursors.size(), new IndexBucketCursor.HeadComparator( comparator ) );
+
+        try {
+            Keyspace ko = cass.getApplicationKeyspace( applicationId );
+
+            for ( IndexBucketCursor cursor : cursors ) {
+                if ( cursor.seek( target, cass, ko, columnFamily, finish, reversed ) ) {
+                    seeked.add( cursor );
+                }
+            }
+        }
+        catch ( Exception e ) {
+            throw new RuntimeException( "Error seeking indexbucket scanner", e );
+        }
+
+        cursors = seeked;
+        hasMore = !cursors.isEmpty();
+    }
+
+
     /* (non-Javadoc)
      * @see org.usergrid.persistence.cassandra.index.IndexScanner#getPageSize()
      */
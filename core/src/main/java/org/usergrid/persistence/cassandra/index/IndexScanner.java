@@ -35,4 +35,10 @@ public interface IndexScanner
     public void reset();
 
     public int getPageSize();
+
+    /**
+     * Hint that no columns before start will be needed.  Pages that have not been loaded yet will begin at or after
+     * start.  Scanners that can't seek may ignore this, callers must still filter the columns they don't want
+     */
+    public void seek( ByteBuffer start );
 }
@@ -91,4 +91,13 @@ public class NoOpIndexScanner implements IndexScanner {
     public int getPageSize() {
         return 0;
     }
+
+
+    /* (non-Javadoc)
+     * @see org.usergrid.persistence.cassandra.index.IndexScanner#seek(java.nio.ByteBuffer)
+     */
+    @Override
+    public void seek( ByteBuffer start ) {
+        //no op
+    }
 }
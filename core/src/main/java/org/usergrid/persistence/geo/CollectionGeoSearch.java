@@ -12,6 +12,8 @@ import org.usergrid.persistence.IndexBucketLocator;
 import org.usergrid.persistence.cassandra.CassandraService;
 import org.usergrid.persistence.geo.model.Point;
 
+import org.springframework.core.task.AsyncTaskExecutor;
+
 import me.prettyprint.hector.api.beans.HColumn;
 
 import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
@@ -30,7 +32,13 @@ public class CollectionGeoSearch extends GeoIndexSearcher {
 
     public CollectionGeoSearch( EntityManager entityManager, IndexBucketLocator locator, CassandraService cass,
                                 EntityRef headEntity, String collectionName ) {
-        super( entityManager, locator, cass );
+        this( entityManager, locator, cass, null, headEntity, collectionName );
+    }
+
+
+    public CollectionGeoSearch( EntityManager entityManager, IndexBucketLocator locator, CassandraService cass,
+                                AsyncTaskExecutor executor, EntityRef headEntity, String collectionName ) {
+        super( entityManager, locator, cass, executor );
         this.collectionName = collectionName;
         this.headEntity = headEntity;
     }
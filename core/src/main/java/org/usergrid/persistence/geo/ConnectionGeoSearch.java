@@ -11,6 +11,8 @@ import org.usergrid.persistence.IndexBucketLocator;
 import org.usergrid.persistence.cassandra.CassandraService;
 import org.usergrid.persistence.geo.model.Point;
 
+import org.springframework.core.task.AsyncTaskExecutor;
+
 import me.prettyprint.hector.api.beans.HColumn;
 
 import static org.usergrid.persistence.Schema.INDEX_CONNECTIONS;
@@ -29,7 +31,13 @@ public class ConnectionGeoSearch extends GeoIndexSearcher {
 
     public ConnectionGeoSearch( EntityManager entityManager, IndexBucketLocator locator, CassandraService cass,
                                 UUID connectionId ) {
-        super( entityManager, locator, cass );
+        this( entityManager, locator, cass, null, connectionId );
+    }
+
+
+    public ConnectionGeoSearch( EntityManager entityManager, IndexBucketLocator locator, CassandraService cass,
+                                AsyncTaskExecutor executor, UUID connectionId ) {
+        super( entityManager, locator, cass, executor );
 
         this.connectionId = connectionId;
     }
@@ -10,6 +10,9 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +26,7 @@ import org.usergrid.persistence.geo.model.Point;
 import org.usergrid.persistence.geo.model.Tuple;
 
 import org.apache.commons.lang.StringUtils;
+import org.springframework.core.task.AsyncTaskExecutor;
 
 import me.prettyprint.cassandra.serializers.DoubleSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
@@ -49,10 +53,22 @@ public abstract class GeoIndexSearcher {
     /** Max number of records to read+parse from cass per tile */
     private static final int MAX_FETCH_SIZE = 1000;
 
+    /** How much larger the search box is than the search distance */
+    private static final double BOX_MARGIN = 1.001;
+
+    /**
+     * Meters added to the search box, the law of cosines used for distances is off by a few meters between points
+     * that are very close
+     */
+    private static final double BOX_SLACK = 100;
+
     protected final EntityManager em;
     protected final IndexBucketLocator locator;
     protected final CassandraService cass;
 
+    /** The executor the cells of a ring are read on, null to read them on the calling thread */
+    protected final AsyncTaskExecutor executor;
+
 
     /**
      * @param entityManager
@@ -63,9 +79,16 @@ public abstract class GeoIndexSearcher {
      * @param distance
      */
     public GeoIndexSearcher( EntityManager entityManager, IndexBucketLocator locator, CassandraService cass ) {
+        this( entityManager, locator, cass, null );
+    }
+
+
+    public GeoIndexSearcher( EntityManager entityManager, IndexBucketLocator locator, CassandraService cass,
+                             AsyncTaskExecutor executor ) {
         this.em = entityManager;
         this.locator = locator;
         this.cass = cass;
+        this.executor = executor;
     }
 
 
@@ -126,11 +149,12 @@ public abstract class GeoIndexSearcher {
         int noDirection[] = { 0, 0 };
         List<Tuple<int[], Double>> sortedEdgesDistances = Arrays.asList( new Tuple<int[], Double>( noDirection, 0d ) );
         boolean done = false;
-        UUID lastReturned = null;
 
         while ( !curGeocells.isEmpty() && entityLocations.size() < maxResults ) {
             closestPossibleNextResultDist = sortedEdgesDistances.get( 0 ).getSecond();
-            if ( maxDistance > 0 && closestPossibleNextResultDist > maxDistance ) {
+
+            // nothing in the next cells can be closer than the k-th result, or within the max distance
+            if ( closestPossibleNextResultDist > searchRadius( maxDistance, entityLocations, maxResults ) ) {
                 break;
             }
 
@@ -138,81 +162,26 @@ public abstract class GeoIndexSearcher {
             curTempUnique.removeAll( searchedCells );
             curGeocellsUnique = new ArrayList<String>( curTempUnique );
 
-            Set<HColumn<ByteBuffer, ByteBuffer>> queryResults = null;
-
-            lastReturned = null;
-
-            // we need to keep searching everything in our tiles until we don't get
-            // any more results, then we'll have the closest points and can move on
-            // do the next tiles
-            do {
-                queryResults = doSearch( curGeocellsUnique, lastReturned, searchPoint, propertyName, MAX_FETCH_SIZE );
-
-                if ( logger.isDebugEnabled() ) {
-                    logger.debug( "fetch complete for: {}", StringUtils.join( curGeocellsUnique, ", " ) );
-                }
-
-                searchedCells.addAll( curGeocells );
-
-                // Begin storing distance from the search result entity to the
-                // search center along with the search result itself, in a tuple.
-
-                // Merge new_results into results
-                for ( HColumn<ByteBuffer, ByteBuffer> column : queryResults ) {
-
-                    DynamicComposite composite = DynamicComposite.fromByteBuffer( column.getName() );
-
-                    UUID uuid = composite.get( 0, UUIDSerializer.get() );
-
-                    lastReturned = uuid;
-
-                    String type = composite.get( 1, StringSerializer.get() );
-                    UUID timestampUuid = composite.get( 2, UUIDSerializer.get() );
-                    composite = DynamicComposite.fromByteBuffer( column.getValue() );
-                    Double latitude = composite.get( 0, DoubleSerializer.get() );
-                    Double longitude = composite.get( 1, DoubleSerializer.get() );
+            // read every cell of the ring at once, each cell keeps its own closest results
+            List<CellResults> cellResults =
+                    searchCells( curGeocellsUnique, searchPoint, propertyName, minDistance, maxDistance, minMatch,
+                            maxResults );
 
-                    EntityLocationRef entityLocation =
-                            new EntityLocationRef( type, uuid, timestampUuid, latitude, longitude );
-
-                    double distance = entityLocation.calcDistance( searchPoint );
-
-                    // discard, it's too close or too far, of closer than the minimum we
-                    // should match, skip it
-                    if ( distance < minDistance || ( maxDistance != 0 && distance > maxDistance ) || ( minMatch != null
-                            && COMP.compare( entityLocation, minMatch ) <= 0 ) ) {
-                        continue;
-                    }
-
-                    int index = Collections.binarySearch( entityLocations, entityLocation, COMP );
-
-                    // already in the index
-                    if ( index > -1 ) {
-                        continue;
-                    }
+            if ( logger.isDebugEnabled() ) {
+                logger.debug( "fetch complete for: {}", StringUtils.join( curGeocellsUnique, ", " ) );
+            }
 
-                    // set the insert index
-                    index = ( index + 1 ) * -1;
+            searchedCells.addAll( curGeocells );
 
-                    // no point in adding it
-                    if ( index >= maxResults ) {
-                        continue;
-                    }
+            int read = 0;
 
-                    // results.add(index, entity);
-                    // distances.add(index, distance);
-                    entityLocations.add( index, entityLocation );
+            for ( CellResults cell : cellResults ) {
+                read += cell.read;
 
-                    /**
-                     * Discard an additional entries as we iterate to avoid holding them
-                     * all in ram
-                     */
-                    while ( entityLocations.size() > maxResults ) {
-                        entityLocations.remove( entityLocations.size() - 1 );
-                    }
+                for ( EntityLocationRef entityLocation : cell.locations ) {
+                    addLocation( entityLocations, entityLocation, maxResults );
                 }
             }
-            while ( queryResults != null && queryResults.size() == MAX_FETCH_SIZE );
 
             /**
              * We've searched everything and have a full set, we want to return the
@@ -225,7 +194,7 @@ public abstract class GeoIndexSearcher {
 
             sortedEdgesDistances = GeocellUtils.distanceSortedEdges( curGeocells, searchPoint );
 
-            if ( queryResults.size() == 0 || curGeocells.size() == 4 ) {
+            if ( read == 0 || curGeocells.size() == 4 ) {
         /*
          * Either no results (in which case we optimize by not looking at
          * adjacents, go straight to the parent) or we've searched 4 adjacent
@@ -314,6 +283,180 @@ public abstract class GeoIndexSearcher {
     }
 
 
+    /** Search the cells, concurrently on the executor if there is one and there's more than one cell */
+    private List<CellResults> searchCells( List<String> cells, final Point searchPoint, final String propertyName,
+                                           final double minDistance, final double maxDistance,
+                                           final EntityLocationRef minMatch, final int maxResults ) throws Exception {
+
+        List<CellResults> results = new ArrayList<CellResults>( cells.size() );
+
+        if ( executor == null || cells.size() == 1 ) {
+            for ( String cell : cells ) {
+                results.add( searchCell( cell, searchPoint, propertyName, minDistance, maxDistance, minMatch,
+                        maxResults ) );
+            }
+
+            return results;
+        }
+
+        List<Future<CellResults>> searches = new ArrayList<Future<CellResults>>( cells.size() );
+
+        for ( final String cell : cells ) {
+            searches.add( executor.submit( new Callable<CellResults>() {
+                @Override
+                public CellResults call() throws Exception {
+                    return searchCell( cell, searchPoint, propertyName, minDistance, maxDistance, minMatch,
+                            maxResults );
+                }
+            } ) );
+        }
+
+        try {
+            for ( Future<CellResults> future : searches ) {
+                results.add( future.get() );
+            }
+        }
+        catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof Exception ) {
+                throw ( Exception ) e.getCause();
+            }
+            throw e;
+        }
+        finally {
+            // a failed search doesn't need the rest of the ring
+            for ( Future<CellResults> future : searches ) {
+                future.cancel( true );
+            }
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Read every page of the cell, and keep the closest max results locations that match.  Columns outside the box
+     * around the search point that holds the max distance, or the distance of the k-th closest location once there are
+     * max results, are skipped before they're deserialized.
+     */
+    private CellResults searchCell( String cell, Point searchPoint, String propertyName, double minDistance,
+                                    double maxDistance, EntityLocationRef minMatch, int maxResults )
+            throws Exception {
+
+        CellResults results = new CellResults();
+
+        TreeSet<HColumn<ByteBuffer, ByteBuffer>> columns;
+        UUID lastReturned = null;
+
+        double boxRadius = Double.MAX_VALUE;
+        SearchBox box = null;
+
+        do {
+            columns = doSearch( Collections.singletonList( cell ), lastReturned, searchPoint, propertyName,
+                    MAX_FETCH_SIZE );
+
+            results.read += columns.size();
+
+            for ( HColumn<ByteBuffer, ByteBuffer> column : columns ) {
+
+                double radius = searchRadius( maxDistance, results.locations, maxResults );
+
+                if ( radius != boxRadius ) {
+                    boxRadius = radius;
+                    box = SearchBox.around( searchPoint, radius );
+                }
+
+                if ( box != null && !box.contains( column.getValue() ) ) {
+                    continue;
+                }
+
+                // parsing consumes the buffer, the column is read again for the next page
+                DynamicComposite composite = DynamicComposite.fromByteBuffer( column.getValue().duplicate() );
+                Double latitude = composite.get( 0, DoubleSerializer.get() );
+                Double longitude = composite.get( 1, DoubleSerializer.get() );
+
+                double distance = GeocellUtils.distance( new Point( latitude, longitude ), searchPoint );
+
+                // discard, it's too close or too far
+                if ( distance < minDistance || distance > radius ) {
+                    continue;
+                }
+
+                composite = DynamicComposite.fromByteBuffer( column.getName().duplicate() );
+
+                UUID uuid = composite.get( 0, UUIDSerializer.get() );
+                String type = composite.get( 1, StringSerializer.get() );
+                UUID timestampUuid = composite.get( 2, UUIDSerializer.get() );
+
+                EntityLocationRef entityLocation =
+                        new EntityLocationRef( type, uuid, timestampUuid, latitude, longitude );
+                entityLocation.calcDistance( searchPoint );
+
+                // closer than the minimum we should match, skip it
+                if ( minMatch != null && COMP.compare( entityLocation, minMatch ) <= 0 ) {
+                    continue;
+                }
+
+                addLocation( results.locations, entityLocation, maxResults );
+            }
+
+            if ( !columns.isEmpty() ) {
+                lastReturned = DynamicComposite.fromByteBuffer( columns.last().getName().duplicate() )
+                                               .get( 0, UUIDSerializer.get() );
+            }
+        }
+        while ( columns.size() == MAX_FETCH_SIZE );
+
+        return results;
+    }
+
+
+    /**
+     * Get the distance a location must be within to be in the results.  That's the distance of the k-th closest
+     * location once there are max results, else the max distance
+     */
+    private static double searchRadius( double maxDistance, List<EntityLocationRef> entityLocations,
+                                        int maxResults ) {
+        double radius = maxDistance > 0 ? maxDistance : Double.MAX_VALUE;
+
+        if ( entityLocations.size() >= maxResults && maxResults > 0 ) {
+            radius = Math.min( radius, entityLocations.get( maxResults - 1 ).getDistance() );
+        }
+
+        return radius;
+    }
+
+
+    /** Add the location to the locations sorted by distance, keeping at most max results */
+    private static void addLocation( List<EntityLocationRef> entityLocations, EntityLocationRef entityLocation,
+                                     int maxResults ) {
+
+        int index = Collections.binarySearch( entityLocations, entityLocation, COMP );
+
+        // already in the index
+        if ( index > -1 ) {
+            return;
+        }
+
+        // set the insert index
+        index = ( index + 1 ) * -1;
+
+        // no point in adding it
+        if ( index >= maxResults ) {
+            return;
+        }
+
+        entityLocations.add( index, entityLocation );
+
+        /**
+         * Discard an additional entries as we iterate to avoid holding them
+         * all in ram
+         */
+        while ( entityLocations.size() > maxResults ) {
+            entityLocations.remove( entityLocations.size() - 1 );
+        }
+    }
+
+
     protected TreeSet<HColumn<ByteBuffer, ByteBuffer>> query( Object key, List<String> curGeocellsUnique,
                                                               Point searchPoint, UUID startId, int count )
             throws Exception {
@@ -350,6 +493,132 @@ public abstract class GeoIndexSearcher {
                                                                           int pageSize ) throws Exception;
 
 
+    /** The closest locations found in a cell, and the number of columns read */
+    private static class CellResults {
+
+        private final List<EntityLocationRef> locations = new ArrayList<EntityLocationRef>();
+        private int read;
+    }
+
+
+    /**
+     * A latitude and longitude box around a point that holds every point within a distance of it.  Locations are
+     * checked against it from the bytes of the index column value, a dynamic composite of the latitude and longitude.
+     */
+    static class SearchBox {
+
+        private final double minLat;
+        private final double maxLat;
+        private final double minLon;
+        private final double maxLon;
+        private final boolean checkLon;
+
+
+        private SearchBox( double minLat, double maxLat, double minLon, double maxLon, boolean checkLon ) {
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+            this.checkLon = checkLon;
+        }
+
+
+        /** Get the box around the point, null if the distance is too large to bound */
+        static SearchBox around( Point point, double distance ) {
+            if ( distance == Double.MAX_VALUE ) {
+                return null;
+            }
+
+            // a little larger, so rounding never excludes a point on the edge
+            double angle = ( distance * BOX_MARGIN + BOX_SLACK ) / GeocellUtils.RADIUS;
+
+            if ( angle >= Math.PI / 2 ) {
+                return null;
+            }
+
+            double lat = Math.toRadians( point.getLat() );
+            double minLat = lat - angle;
+            double maxLat = lat + angle;
+
+            // the box holds a pole, every longitude is within the distance
+            if ( minLat <= -Math.PI / 2 || maxLat >= Math.PI / 2 ) {
+                return new SearchBox( Math.toDegrees( minLat ), Math.toDegrees( maxLat ), 0, 0, false );
+            }
+
+            double deltaLon = Math.asin( Math.sin( angle ) / Math.cos( lat ) );
+            double minLon = point.getLon() - Math.toDegrees( deltaLon );
+            double maxLon = point.getLon() + Math.toDegrees( deltaLon );
+
+            // don't bother wrapping around the antimeridian
+            boolean checkLon = minLon >= -180 && maxLon <= 180;
+
+            return new SearchBox( Math.toDegrees( minLat ), Math.toDegrees( maxLat ), minLon, maxLon, checkLon );
+        }
+
+
+        /** True if the location in the column value may be in the box */
+        boolean contains( ByteBuffer value ) {
+            double lat = readDouble( value, 0 );
+            double lon = readDouble( value, 1 );
+
+            // not what we expected, let the distance check decide
+            if ( Double.isNaN( lat ) || Double.isNaN( lon ) ) {
+                return true;
+            }
+
+            if ( lat < minLat || lat > maxLat ) {
+                return false;
+            }
+
+            return !checkLon || ( lon >= minLon && lon <= maxLon );
+        }
+
+
+        /**
+         * Read a double component of a dynamic composite without deserializing it.  Each component is a type header,
+         * either an alias or the length and name of the type, then the length and bytes of the value, then the end of
+         * component byte.
+         *
+         * @return The double, or NaN if the component isn't a double
+         */
+        static double readDouble( ByteBuffer composite, int component ) {
+            ByteBuffer bytes = composite.duplicate();
+
+            for ( int i = 0; ; i++ ) {
+                if ( bytes.remaining() < 2 ) {
+                    return Double.NaN;
+                }
+
+                int header = bytes.getShort() & 0xFFFF;
+
+                // not an alias, skip the type name
+                if ( ( header & 0x8000 ) == 0 ) {
+                    if ( bytes.remaining() < header ) {
+                        return Double.NaN;
+                    }
+                    bytes.position( bytes.position() + header );
+                }
+
+                if ( bytes.remaining() < 2 ) {
+                    return Double.NaN;
+                }
+
+                int length = bytes.getShort() & 0xFFFF;
+
+                if ( bytes.remaining() < length + 1 ) {
+                    return Double.NaN;
+                }
+
+                if ( i == component ) {
+                    return length == 8 ? bytes.getDouble() : Double.NaN;
+                }
+
+                bytes.position( bytes.position() + length + 1 );
+            }
+        }
+    }
+
+
     public static class SearchResults {
 
         public final List<EntityLocationRef> entityLocations;
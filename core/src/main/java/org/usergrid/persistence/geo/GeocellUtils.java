@@ -68,7 +68,8 @@ public final class GeocellUtils {
     private static final int[] SOUTHWEST = new int[] { -1, -1 };
     private static final int[] WEST = new int[] { -1, 0 };
 
-    private static final int RADIUS = 6378135;
+    /** The radius of the earth in meters, as used by {@link #distance(Point, Point)} */
+    static final int RADIUS = 6378135;
 
 
     private GeocellUtils() {
@@ -110,6 +110,15 @@ public class QuerySlice {
     }
 
 
+    /**
+     * Return true if this slice matches a single value.  The columns of an equality slice only differ by the entity
+     * uuid, so they are returned in uuid order
+     */
+    public boolean isEquality() {
+        return start != null && start.isInclusive() && start.equals( finish );
+    }
+
+
     /**
      * Return true if we have a cursor and it's empty. This means that we've already returned all possible values from
      * this slice range with our existing data in a previous invocation of search
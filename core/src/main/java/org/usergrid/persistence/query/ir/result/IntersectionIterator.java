@@ -16,22 +16,39 @@
 package org.usergrid.persistence.query.ir.result;
 
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
 import org.usergrid.persistence.cassandra.CursorCache;
+import org.usergrid.utils.UUIDUtils;
 
 import com.google.common.collect.Sets;
 
 
 /**
- * An iterator that unions 1 or more subsets. It makes the assuming that sub iterators iterate from min(uuid) to
- * max(uuid)
+ * An iterator that intersects 1 or more subsets.  When every sub iterator returns its columns in uuid order, the
+ * subsets are intersected with a sorted merge that only ever seeks the sub iterators forward.  Otherwise each root
+ * page is intersected with a full pass over the other iterators.
  *
  * @author tnine
  */
-public class IntersectionIterator extends MultiIterator {
+public class IntersectionIterator extends MultiIterator implements SeekableResultIterator {
+
+    /** Cursors over each iterator for the sorted merge. The first is the root iterator */
+    private List<ColumnCursor> cursors;
+
+    /** True if the root should be moved past its last match before merging */
+    private boolean advanceRoot;
+
+    /** True when one of the sorted iterators has no more columns */
+    private boolean exhausted;
+
+    /** The uuid we've been asked to seek to by our parent */
+    private UUID seekTarget;
 
 
     /**
@@ -52,6 +69,41 @@ public class IntersectionIterator extends MultiIterator {
         for ( ResultIterator itr : iterators ) {
             itr.reset();
         }
+
+        cursors = null;
+        advanceRoot = false;
+        exhausted = false;
+        seekTarget = null;
+    }
+
+
+    /* (non-Javadoc)
+     * @see org.usergrid.persistence.query.ir.result.SeekableResultIterator#isUUIDOrdered()
+     */
+    @Override
+    public boolean isUUIDOrdered() {
+        if ( iterators.isEmpty() ) {
+            return false;
+        }
+
+        for ( ResultIterator itr : iterators ) {
+            if ( !( itr instanceof SeekableResultIterator ) || !( ( SeekableResultIterator ) itr ).isUUIDOrdered() ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /* (non-Javadoc)
+     * @see org.usergrid.persistence.query.ir.result.SeekableResultIterator#seek(java.util.UUID)
+     */
+    @Override
+    public void seek( UUID uuid ) {
+        if ( seekTarget == null || UUIDUtils.compare( uuid, seekTarget ) > 0 ) {
+            seekTarget = uuid;
+        }
     }
 
 
@@ -84,12 +136,84 @@ public class IntersectionIterator extends MultiIterator {
             return itr.next();
         }
 
+        // we can merge without rescanning
+        if ( isUUIDOrdered() ) {
+            return sortedMerge();
+        }
+
         // begin our tree merge of the iterators
 
         return merge();
     }
 
 
+    /**
+     * Leapfrog the cursors.  Every cursor is seeked to the largest uuid any cursor is on, until they all agree.  No
+     * iterator is ever reset, so each one is read at most once
+     */
+    private Set<ScanColumn> sortedMerge() {
+
+        Set<ScanColumn> results = new LinkedHashSet<ScanColumn>( pageSize );
+
+        if ( cursors == null ) {
+            cursors = new ArrayList<ColumnCursor>( iterators.size() );
+
+            for ( ResultIterator itr : iterators ) {
+                ColumnCursor cursor = new ColumnCursor( ( SeekableResultIterator ) itr );
+
+                exhausted |= !cursor.next();
+
+                cursors.add( cursor );
+            }
+        }
+
+        //we deferred moving the root past the last match so its page would still hold it when the cursor is built
+        if ( advanceRoot && !exhausted ) {
+            advanceRoot = false;
+            exhausted = !cursors.get( 0 ).next();
+        }
+
+        while ( !exhausted && results.size() < pageSize ) {
+
+            UUID max = seekTarget;
+
+            for ( ColumnCursor cursor : cursors ) {
+                if ( max == null || UUIDUtils.compare( cursor.current.getUUID(), max ) > 0 ) {
+                    max = cursor.current.getUUID();
+                }
+            }
+
+            boolean matched = true;
+
+            for ( ColumnCursor cursor : cursors ) {
+                if ( !cursor.seek( max ) ) {
+                    exhausted = true;
+                    break;
+                }
+
+                matched &= UUIDUtils.compare( cursor.current.getUUID(), max ) == 0;
+            }
+
+            if ( exhausted || !matched ) {
+                continue;
+            }
+
+            ColumnCursor root = cursors.get( 0 );
+
+            results.add( root.current );
+
+            if ( results.size() == pageSize ) {
+                advanceRoot = true;
+                break;
+            }
+
+            exhausted = !root.next();
+        }
+
+        return results;
+    }
+
+
     private Set<ScanColumn> merge() {
 
         Set<ScanColumn> results = new LinkedHashSet<ScanColumn>();
@@ -161,4 +285,53 @@ public class IntersectionIterator extends MultiIterator {
             itr.finalizeCursor( cache, lastLoaded );
         }
     }
+
+
+    /** Walks the columns of a uuid ordered iterator one at a time, across its pages */
+    private static class ColumnCursor {
+
+        private final SeekableResultIterator iterator;
+        private Iterator<ScanColumn> page;
+        private ScanColumn current;
+
+
+        private ColumnCursor( SeekableResultIterator iterator ) {
+            this.iterator = iterator;
+        }
+
+
+        /** Move to the next column, loading the next page if required.  False if there are no more columns */
+        private boolean next() {
+            while ( page == null || !page.hasNext() ) {
+                if ( !iterator.hasNext() ) {
+                    current = null;
+                    return false;
+                }
+
+                page = iterator.next().iterator();
+            }
+
+            current = page.next();
+
+            return true;
+        }
+
+
+        /** Move forward to the first column >= uuid.  False if there are no more columns */
+        private boolean seek( UUID uuid ) {
+            while ( current != null && UUIDUtils.compare( current.getUUID(), uuid ) < 0 ) {
+
+                //let the iterator skip what it can before we load its next page
+                if ( !page.hasNext() ) {
+                    iterator.seek( uuid );
+                }
+
+                if ( !next() ) {
+                    return false;
+                }
+            }
+
+            return current != null;
+        }
+    }
 }
@@ -124,6 +124,8 @@ public abstract class MergeIterator implements ResultIterator {
         }
         //clean up the last pointer
         last = null;
+        //drop any page we advanced to, such as the empty set at the end, so the next pass advances again
+        next = null;
         //reset in the child iterators
         doReset();
     }
@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -151,11 +152,16 @@ public class OrderByIterator extends MergeIterator {
     }
 
 
-    /** A Sorted set with a max size. When a new entry is added, the max is removed */
+    /**
+     * A Sorted set with a max size. When a new entry is added, the max is removed.  Candidates still in the set are not
+     * loaded again, and only the columns of entities still in the set are retained, so memory is bounded by the max
+     * size regardless of how many candidates are scanned
+     */
     public static final class SortedEntitySet extends TreeSet<Entity> {
 
         private final int maxSize;
         private final Map<UUID, ScanColumn> cursorVal = new HashMap<UUID, ScanColumn>();
+        private final Map<UUID, ScanColumn> pending = new LinkedHashMap<UUID, ScanColumn>();
         private final EntityManager em;
         private final List<String> fields;
         private final Entity minEntity;
@@ -182,6 +188,11 @@ public class OrderByIterator extends MergeIterator {
                 return false;
             }
 
+            // we're full and this sorts after our last element, it can never be in the results
+            if ( size() >= maxSize && comparator.compare( entity, last() ) >= 0 ) {
+                return false;
+            }
+
             boolean added = super.add( entity );
 
             while ( size() > maxSize ) {
@@ -197,11 +208,20 @@ public class OrderByIterator extends MergeIterator {
 
         /** add the id to be loaded, and the dynamiccomposite column that belongs with it */
         public void add( ScanColumn col ) {
-            cursorVal.put( col.getUUID(), col );
+            //we've already loaded and sorted this candidate
+            if ( cursorVal.containsKey( col.getUUID() ) ) {
+                return;
+            }
+
+            pending.put( col.getUUID(), col );
         }
 
 
         private Entity getPartialEntity( UUID minEntityId ) {
+            if ( minEntityId == null ) {
+                return null;
+            }
+
             List<Entity> entities;
 
             try {
@@ -220,16 +240,27 @@ public class OrderByIterator extends MergeIterator {
         }
 
 
+        /** Load the candidates added since the last load, and sort them into the set */
         public void load() {
+            if ( pending.isEmpty() ) {
+                return;
+            }
+
             try {
-                for ( Entity e : em.getPartialEntities( cursorVal.keySet(), fields ) ) {
-                    add( e );
+                for ( Entity e : em.getPartialEntities( pending.keySet(), fields ) ) {
+                    ScanColumn col = pending.get( e.getUuid() );
+
+                    if ( add( e ) ) {
+                        cursorVal.put( e.getUuid(), col );
+                    }
                 }
             }
             catch ( Exception e ) {
                 logger.error( "Unable to load partial entities", e );
                 throw new RuntimeException( e );
             }
+
+            pending.clear();
         }
 
 
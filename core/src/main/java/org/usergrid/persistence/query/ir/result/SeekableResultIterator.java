@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.query.ir.result;
+
+
+import java.util.UUID;
+
+
+/**
+ * A result iterator that can return its columns in ascending uuid order.  When it does, an intersection can move it
+ * forward to a uuid instead of resetting it and reading every page again.
+ */
+public interface SeekableResultIterator extends ResultIterator {
+
+    /** True if every page is returned in ascending uuid order, and each page only contains uuids after the last page */
+    public boolean isUUIDOrdered();
+
+    /**
+     * Move the iterator forward so the next page contains no uuids before the given uuid.  Only valid when {@link
+     * #isUUIDOrdered()} is true.  Never moves the iterator backwards
+     */
+    public void seek( UUID uuid );
+}
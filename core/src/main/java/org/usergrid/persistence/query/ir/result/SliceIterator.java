@@ -29,7 +29,10 @@ import org.usergrid.persistence.cassandra.CursorCache;
 import org.usergrid.persistence.cassandra.index.IndexScanner;
 import org.usergrid.persistence.exceptions.QueryIterationException;
 import org.usergrid.persistence.query.ir.QuerySlice;
+import org.usergrid.persistence.query.ir.QuerySlice.RangeValue;
+import org.usergrid.utils.UUIDUtils;
 
+import me.prettyprint.hector.api.beans.DynamicComposite;
 import me.prettyprint.hector.api.beans.HColumn;
 
 
@@ -38,7 +41,7 @@ import me.prettyprint.hector.api.beans.HColumn;
  *
  * @author tnine
  */
-public class SliceIterator implements ResultIterator {
+public class SliceIterator implements SeekableResultIterator {
 
     private static final Logger logger = LoggerFactory.getLogger( SliceIterator.class );
 
@@ -59,6 +62,9 @@ public class SliceIterator implements ResultIterator {
      * we don't have to reload from cass */
     private int pagesLoaded = 0;
 
+    /** The uuid we've been asked to seek to.  Columns before it are discarded */
+    private UUID seekTarget;
+
 
     /**
      * @param scanner The scanner to use to read the cols
@@ -73,7 +79,6 @@ public class SliceIterator implements ResultIterator {
         this.skipFirst = skipFirst;
         this.pageSize = scanner.getPageSize();
         this.cols = new LinkedHashMap<UUID, ScanColumn>( this.pageSize );
-        this.parsedCols = new LinkedHashSet<ScanColumn>( this.pageSize );
     }
 
 
@@ -104,13 +109,28 @@ public class SliceIterator implements ResultIterator {
 
 
     private boolean load() {
-        if ( !scanner.hasNext() ) {
-            return false;
+
+        //keep loading if everything in a page was discarded, there may be more in the next page
+        while ( scanner.hasNext() ) {
+            if ( loadPage() ) {
+                lastResult = parsedCols;
+                return true;
+            }
         }
 
-        Iterator<HColumn<ByteBuffer, ByteBuffer>> results = scanner.next().iterator();
+        return false;
+    }
 
-        cols.clear();
+
+    /**
+     * Load the next page of the scanner.  Each page gets a set of its own, the sets already returned may still be
+     * read by our parent, such as a union's view of its children's pages
+     *
+     * @return True if any column of the page was kept
+     */
+    private boolean loadPage() {
+
+        Iterator<HColumn<ByteBuffer, ByteBuffer>> results = scanner.next().iterator();
 
         /**
          * Skip the first value, it's from the previous cursor
@@ -119,7 +139,9 @@ public class SliceIterator implements ResultIterator {
             results.next();
         }
 
-        parsedCols.clear();
+        pagesLoaded++;
+
+        Set<ScanColumn> page = new LinkedHashSet<ScanColumn>( pageSize );
 
         while ( results.hasNext() ) {
 
@@ -132,16 +154,28 @@ public class SliceIterator implements ResultIterator {
                 continue;
             }
 
-            cols.put( parsed.getUUID(), parsed );
-            parsedCols.add( parsed );
+            //skip this value, we've been asked to seek past it
+            if ( seekTarget != null && UUIDUtils.compare( parsed.getUUID(), seekTarget ) < 0 ) {
+                continue;
+            }
+
+            page.add( parsed );
         }
 
+        //keep the columns of the last page we returned for the cursor
+        if ( page.isEmpty() ) {
+            return false;
+        }
 
-        pagesLoaded++;
+        cols.clear();
 
-        lastResult = parsedCols;
+        for ( ScanColumn col : page ) {
+            cols.put( col.getUUID(), col );
+        }
+
+        parsedCols = page;
 
-        return lastResult != null && lastResult.size() > 0;
+        return true;
     }
 
 
@@ -176,6 +210,8 @@ public class SliceIterator implements ResultIterator {
      */
     @Override
     public void reset() {
+        seekTarget = null;
+
         // Do nothing, we'll just return the first page again
         if ( pagesLoaded == 1 ) {
             lastResult = parsedCols;
@@ -185,6 +221,38 @@ public class SliceIterator implements ResultIterator {
     }
 
 
+    /* (non-Javadoc)
+     * @see org.usergrid.persistence.query.ir.result.SeekableResultIterator#isUUIDOrdered()
+     */
+    @Override
+    public boolean isUUIDOrdered() {
+        //an equality slice only varies by uuid.  Reversed slices are in descending order
+        return slice.isEquality() && !slice.isReversed();
+    }
+
+
+    /* (non-Javadoc)
+     * @see org.usergrid.persistence.query.ir.result.SeekableResultIterator#seek(java.util.UUID)
+     */
+    @Override
+    public void seek( UUID uuid ) {
+        if ( seekTarget != null && UUIDUtils.compare( uuid, seekTarget ) <= 0 ) {
+            return;
+        }
+
+        seekTarget = uuid;
+
+        //we can only move the scanner once it's past the cursor, and it has no page we haven't returned
+        if ( pagesLoaded == 0 || lastResult != null ) {
+            return;
+        }
+
+        RangeValue start = slice.getStart();
+
+        scanner.seek( new DynamicComposite( start.getCode(), start.getValue(), uuid ).serialize() );
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -8,11 +8,13 @@ import java.util.Set;
 import java.util.UUID;
 
 import org.usergrid.persistence.cassandra.CursorCache;
+import org.usergrid.utils.UUIDUtils;
 
 
 /** Simple iterator that just returns UUIDs that are set into it */
-public class StaticIdIterator implements ResultIterator {
+public class StaticIdIterator implements SeekableResultIterator {
 
+    private final UUID id;
     private final Set<ScanColumn> ids;
 
     private boolean returnedOnce = false;
@@ -22,6 +24,8 @@ public class StaticIdIterator implements ResultIterator {
      *
      */
     public StaticIdIterator( UUID id ) {
+        this.id = id;
+
         final ScanColumn col = new UUIDIndexSliceParser.UUIDColumn( id, ByteBuffer.allocate( 0 ) );
 
         ids = Collections.singleton( col );
@@ -40,6 +44,21 @@ public class StaticIdIterator implements ResultIterator {
     }
 
 
+    @Override
+    public boolean isUUIDOrdered() {
+        return true;
+    }
+
+
+    @Override
+    public void seek( UUID uuid ) {
+        //our only value is before the target, there's nothing left to return
+        if ( UUIDUtils.compare( id, uuid ) < 0 ) {
+            returnedOnce = true;
+        }
+    }
+
+
     @Override
     public Iterator<Set<ScanColumn>> iterator() {
         return this;
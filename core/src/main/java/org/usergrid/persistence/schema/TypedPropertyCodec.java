@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.schema;
+
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+
+/**
+ * Compact typed encoding of scalar property values, so they're written and read without building a json tree and
+ * running a smile parser per value.  An encoded value starts with a version byte, which smile encoded values never do
+ * since they always start with the smile header, followed by a type byte and the value:
+ * <p/>
+ * <ul> <li>long: zig zag encoded var int</li> <li>double: 8 bytes</li> <li>true, false: nothing</li> <li>uuid: 16
+ * bytes</li> <li>string: utf-8 bytes</li> </ul>
+ * <p/>
+ * Values decode to the same objects the smile round trip produced. Integers are widened to longs, and strings that
+ * are uuids are stored as uuids, since the smile reader converted them.
+ */
+public class TypedPropertyCodec {
+
+    /** First byte of every typed value.  Smile values start with ':' */
+    public static final byte VERSION_1 = 0x01;
+
+    private static final byte TYPE_LONG = 'L';
+    private static final byte TYPE_DOUBLE = 'D';
+    private static final byte TYPE_TRUE = 'T';
+    private static final byte TYPE_FALSE = 'F';
+    private static final byte TYPE_UUID = 'U';
+    private static final byte TYPE_STRING = 'S';
+
+    private static final int UUID_STRING_LENGTH = 36;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+
+    private TypedPropertyCodec() {
+    }
+
+
+    /** True if the bytes were encoded with this codec */
+    public static boolean isEncoded( ByteBuffer bytes ) {
+        return bytes != null && bytes.remaining() > 1 && bytes.get( bytes.position() ) == VERSION_1;
+    }
+
+
+    /** Encode the value, returns null if the value can't be encoded */
+    public static ByteBuffer encode( Object value ) {
+
+        if ( value instanceof String ) {
+            String string = ( String ) value;
+
+            UUID uuid = toUUID( string );
+            if ( uuid != null ) {
+                return encodeUUID( uuid );
+            }
+
+            byte[] utf8 = string.getBytes( UTF8 );
+            ByteBuffer bytes = header( TYPE_STRING, utf8.length );
+            bytes.put( utf8 );
+            return flip( bytes );
+        }
+
+        if ( value instanceof UUID ) {
+            return encodeUUID( ( UUID ) value );
+        }
+
+        if ( value instanceof Boolean ) {
+            return flip( header( ( Boolean ) value ? TYPE_TRUE : TYPE_FALSE, 0 ) );
+        }
+
+        if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof BigInteger ) {
+            // BigIntegers were narrowed to longs on read as well
+            long zigZag = zigZag( ( ( Number ) value ).longValue() );
+            ByteBuffer bytes = header( TYPE_LONG, varLongSize( zigZag ) );
+            writeVarLong( bytes, zigZag );
+            return flip( bytes );
+        }
+
+        if ( value instanceof Double || value instanceof Float ) {
+            ByteBuffer bytes = header( TYPE_DOUBLE, 8 );
+            bytes.putDouble( ( ( Number ) value ).doubleValue() );
+            return flip( bytes );
+        }
+
+        return null;
+    }
+
+
+    /** Decode the value, the bytes must be encoded with this codec */
+    public static Object decode( ByteBuffer bytes ) {
+        ByteBuffer bb = bytes.duplicate();
+
+        byte version = bb.get();
+        if ( version != VERSION_1 ) {
+            throw new IllegalArgumentException( "Unknown property encoding version " + version );
+        }
+
+        byte type = bb.get();
+
+        switch ( type ) {
+            case TYPE_LONG:
+                return unZigZag( readVarLong( bb ) );
+            case TYPE_DOUBLE:
+                return bb.getDouble();
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_UUID:
+                return new UUID( bb.getLong(), bb.getLong() );
+            case TYPE_STRING:
+                if ( bb.hasArray() ) {
+                    return new String( bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), UTF8 );
+                }
+                byte[] utf8 = new byte[bb.remaining()];
+                bb.get( utf8 );
+                return new String( utf8, UTF8 );
+            default:
+                throw new IllegalArgumentException( "Unknown property type " + type );
+        }
+    }
+
+
+    private static ByteBuffer encodeUUID( UUID uuid ) {
+        ByteBuffer bytes = header( TYPE_UUID, 16 );
+        bytes.putLong( uuid.getMostSignificantBits() );
+        bytes.putLong( uuid.getLeastSignificantBits() );
+        return flip( bytes );
+    }
+
+
+    private static ByteBuffer header( byte type, int valueLength ) {
+        ByteBuffer bytes = ByteBuffer.allocate( 2 + valueLength );
+        bytes.put( VERSION_1 );
+        bytes.put( type );
+        return bytes;
+    }
+
+
+    private static ByteBuffer flip( ByteBuffer bytes ) {
+        bytes.flip();
+        return bytes;
+    }
+
+
+    /** Same check the smile reader made on every string, done once on write instead */
+    private static UUID toUUID( String string ) {
+        if ( string.length() != UUID_STRING_LENGTH ) {
+            return null;
+        }
+
+        try {
+            return UUID.fromString( string );
+        }
+        catch ( IllegalArgumentException e ) {
+            return null;
+        }
+    }
+
+
+    private static long zigZag( long value ) {
+        return ( value << 1 ) ^ ( value >> 63 );
+    }
+
+
+    private static long unZigZag( long value ) {
+        return ( value >>> 1 ) ^ -( value & 1 );
+    }
+
+
+    private static int varLongSize( long value ) {
+        int size = 1;
+        while ( ( value & ~0x7FL ) != 0 ) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+
+    private static void writeVarLong( ByteBuffer bytes, long value ) {
+        while ( ( value & ~0x7FL ) != 0 ) {
+            bytes.put( ( byte ) ( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+        bytes.put( ( byte ) value );
+    }
+
+
+    private static long readVarLong( ByteBuffer bytes ) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = bytes.get();
+            value |= ( long ) ( b & 0x7F ) << shift;
+            shift += 7;
+        }
+        while ( ( b & 0x80 ) != 0 );
+
+        return value;
+    }
+}
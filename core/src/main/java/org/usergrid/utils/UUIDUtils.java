@@ -21,11 +21,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.fasterxml.uuid.EthernetAddress;
 import com.fasterxml.uuid.UUIDComparator;
 
 import static com.fasterxml.uuid.impl.UUIDUtil.BYTE_OFFSET_CLOCK_HI;
@@ -45,75 +43,71 @@ import static org.usergrid.utils.ConversionUtils.uuid;
 
 public class UUIDUtils {
     private static final Logger LOG = LoggerFactory.getLogger( UUIDUtils.class );
-    private static final int[] MICROS = new int[1000];
 
+    public static final UUID MIN_TIME_UUID = UUID.fromString( "00000000-0000-1000-8000-000000000000" );
 
-    static {
-        for ( int x = 0; x < 1000; x++ ) {
-            MICROS[x] = x * 10;
-        }
-    }
+    public static final UUID MAX_TIME_UUID = UUID.fromString( "ffffffff-ffff-1fff-bfff-ffffffffffff" );
 
+    public static final UUID ZERO_UUID = new UUID( 0, 0 );
 
-    private static ReentrantLock tsLock = new ReentrantLock( true );
+    private static final long KCLOCK_OFFSET = 0x01b21dd213814000L;
+    private static final long KCLOCK_MULTIPLIER_L = 10000L;
 
-    public static final UUID MIN_TIME_UUID = UUID.fromString( "00000000-0000-1000-8000-000000000000" );
+    /** Number of 1/10 microsecond ticks in a microsecond, every uuid from newTimeUUID() gets its own microsecond */
+    private static final long TICKS_PER_MICRO = 10L;
 
-    public static final UUID MAX_TIME_UUID = UUID.fromString( "ffffffff-ffff-1fff-bfff-ffffffffffff" );
+    /** Number of microseconds handed out for a caller provided timestamp before they wrap */
+    private static final int CUSTOM_MICROS = 1000;
 
-    public static final UUID ZERO_UUID = new UUID( 0, 0 );
+    /**
+     * If the last issued timestamp is further ahead of the clock than this, the clock was set back.  Keep counting up
+     * from the last timestamp instead of waiting for the clock to catch up
+     */
+    private static final long CLOCK_SKEW_TICKS = 2 * KCLOCK_MULTIPLIER_L;
+
+    /** The last timestamp issued by newTimeUUID(), in 1/10 microseconds since the epoch */
+    private static final AtomicLong lastTicks = new AtomicLong( 0 );
 
-    private static long timestampMillisNow = System.currentTimeMillis();
+    private static final AtomicInteger customMicrosPointer = new AtomicInteger( 0 );
 
-    private static AtomicInteger currentMicrosPoint = new AtomicInteger( 0 );
-    private static AtomicInteger customMicrosPointer = new AtomicInteger( 0 );
+    /** Random node and clock sequence bits, per thread so generating a uuid doesn't contend on a shared seed */
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
 
 
     /**
      * Return the "next" UUID in micro second resolution. <b>WARNING</b>: this is designed to return the next unique
-     * timestamped UUID for this JVM. Depending on velocity of the call, this method may block internally to insure that
-     * "now" is kept in sync with the UUIDs being generated by this call.
+     * timestamped UUID for this JVM. Depending on velocity of the call, this method may wait for the clock to ensure
+     * that "now" is kept in sync with the UUIDs being generated by this call.
      * <p/>
-     * In other words, we will intentionally burn CPU insuring that this method is not executed more than 10k -1 times
-     * per millisecond and guarantee that those microseconds held within are sequential.
+     * Each UUID claims the next microsecond with a compare and set on the last issued timestamp, so no lock is held
+     * and UUIDs are ordered across threads.  Once every microsecond of the current millisecond was claimed, callers
+     * yield until the clock moves on instead of getting ahead of it.
      * <p/>
      * If we did not do this, you would get <b>timestamp collision</b> even though the UUIDs will technically be
      * 'unique.'
      */
     public static java.util.UUID newTimeUUID() {
-        // get & inc counter, but roll on 1k (because we divide by 10 on retrieval)
-        // if count + currentMicro > 1k, block and roll
-        tsLock.lock();
-        long ts = System.currentTimeMillis();
-        if ( ts > timestampMillisNow ) {
-            timestampMillisNow = ts;
-            currentMicrosPoint.set( 0 );
-        }
-        int pointer = currentMicrosPoint.getAndIncrement();
-        try {
-            if ( pointer > 990 ) {
-                TimeUnit.MILLISECONDS.sleep( 1L );
+        while ( true ) {
+            long now = System.currentTimeMillis() * KCLOCK_MULTIPLIER_L;
+            long last = lastTicks.get();
+            long next = Math.max( now, last + TICKS_PER_MICRO );
+            long ahead = next - now;
+
+            // this millisecond is used up, wait for the next one
+            if ( ahead >= KCLOCK_MULTIPLIER_L && ahead < CLOCK_SKEW_TICKS ) {
+                Thread.yield();
+                continue;
             }
-        }
-        catch ( Exception ex ) {
-            ex.printStackTrace();
-        }
-        finally {
-            tsLock.unlock();
-        }
-        return newTimeUUID( ts, MICROS[pointer] );
-    }
-
-
-    private static final long KCLOCK_OFFSET = 0x01b21dd213814000L;
-    private static final long KCLOCK_MULTIPLIER_L = 10000L;
-
-    private static final Random CLOCK_SEQ_RANDOM = new Random();
 
-
-    // 14 bits of randomness
-    private static int getRandomClockSequence() {
-        return CLOCK_SEQ_RANDOM.nextInt() & 0x3FFF;
+            if ( lastTicks.compareAndSet( last, next ) ) {
+                return newTimeUUIDFromTicks( next );
+            }
+        }
     }
 
 
@@ -158,6 +152,27 @@ public class UUIDUtils {
     }
 
 
+    /**
+     * Build a version 1 UUID straight from the longs, the same layout setTimestamp writes, with a random multicast
+     * node and clock sequence
+     *
+     * @param ticks The timestamp in 1/10 microseconds since the epoch
+     */
+    private static UUID newTimeUUIDFromTicks( long ticks ) {
+        long timestamp = ticks + KCLOCK_OFFSET;
+
+        // time low, time mid, version 1 and time high
+        long msb = ( timestamp << 32 ) | ( ( timestamp >>> 16 ) & 0xFFFF0000L ) | ( ( timestamp >>> 48 ) & 0x0FFFL )
+                | 0x1000L;
+
+        // variant, 14 bits of clock sequence and a 47 bit random node with the multicast bit set, same as
+        // EthernetAddress.constructMulticastAddress
+        long lsb = ( RANDOM.get().nextLong() & 0x3FFFFFFFFFFFFFFFL ) | 0x8000000000000000L | 0x0000010000000000L;
+
+        return new UUID( msb, lsb );
+    }
+
+
     /**
      * Generate a timeuuid with the given timestamp in milliseconds and the time offset. Useful when you need to
      * generate sequential UUIDs for the same period in time. I.E
@@ -179,13 +194,7 @@ public class UUIDUtils {
             return newTimeUUID();
         }
 
-        byte[] uuidBytes = new byte[16];
-        // 47 bits of randomness
-        EthernetAddress eth = EthernetAddress.constructMulticastAddress();
-        eth.toByteArray( uuidBytes, 10 );
-        setTimestamp( ts, uuidBytes, getRandomClockSequence(), timeoffset );
-
-        return uuid( uuidBytes );
+        return newTimeUUIDFromTicks( ts * KCLOCK_MULTIPLIER_L + timeoffset );
     }
 
 
@@ -195,17 +204,8 @@ public class UUIDUtils {
      * with the same timestamp, you will have non-unique temporal values stored in your UUID.
      */
     public static UUID newTimeUUID( long ts ) {
-        tsLock.lock();
-        int pointer = customMicrosPointer.getAndIncrement();
-        try {
-            if ( pointer > 990 ) {
-                customMicrosPointer.set( 0 );
-            }
-        }
-        finally {
-            tsLock.unlock();
-        }
-        return newTimeUUID( ts, MICROS[pointer] );
+        int pointer = ( customMicrosPointer.getAndIncrement() & Integer.MAX_VALUE ) % CUSTOM_MICROS;
+        return newTimeUUID( ts, ( int ) ( pointer * TICKS_PER_MICRO ) );
     }
 
 
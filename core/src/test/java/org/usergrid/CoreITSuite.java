@@ -4,6 +4,7 @@ package org.usergrid;
 import org.junit.ClassRule;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import org.usergrid.batch.job.ActivityFanOutIT;
 import org.usergrid.cassandra.CassandraResource;
 import org.usergrid.cassandra.Concurrent;
 import org.usergrid.locking.cassandra.HectorLockManagerIT;
@@ -25,7 +26,8 @@ import org.usergrid.system.UsergridSystemMonitorIT;
 @Suite.SuiteClasses({
         HectorLockManagerIT.class, UsergridSystemMonitorIT.class, CollectionIT.class, CounterIT.class,
         EntityConnectionsIT.class, EntityDictionaryIT.class, EntityManagerIT.class, GeoIT.class, IndexIT.class,
-        MessagesIT.class, PermissionsIT.class, PathQueryIT.class, EntityManagerFactoryImplIT.class
+        MessagesIT.class, PermissionsIT.class, PathQueryIT.class, EntityManagerFactoryImplIT.class,
+        ActivityFanOutIT.class
 })
 @Concurrent()
 public class CoreITSuite {
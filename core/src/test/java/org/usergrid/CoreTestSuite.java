@@ -28,6 +28,7 @@ import org.usergrid.persistence.SchemaTest;
 import org.usergrid.persistence.UtilsTest;
 import org.usergrid.persistence.cassandra.QueryProcessorTest;
 import org.usergrid.persistence.cassandra.SimpleIndexBucketLocatorImplTest;
+import org.usergrid.persistence.cassandra.index.DecodedColumnComparatorTest;
 import org.usergrid.persistence.query.ir.result.IntersectionIteratorTest;
 import org.usergrid.persistence.query.ir.result.SubtractionIteratorTest;
 import org.usergrid.persistence.query.ir.result.UnionIteratorTest;
@@ -41,7 +42,8 @@ import org.usergrid.persistence.query.tree.StringLiteralTest;
         ZookeeperLockManagerTest.class, QueuePathsTest.class, QueryProcessorTest.class,
         SimpleIndexBucketLocatorImplTest.class, EntityTest.class, QueryTest.class, QueryUtilsTest.class,
         SchemaTest.class, UtilsTest.class, IntersectionIteratorTest.class, SubtractionIteratorTest.class,
-        UnionIteratorTest.class, GrammarTreeTest.class, LongLiteralTest.class, StringLiteralTest.class
+        UnionIteratorTest.class, GrammarTreeTest.class, LongLiteralTest.class, StringLiteralTest.class,
+        DecodedColumnComparatorTest.class
 })
 @Concurrent()
 public class CoreTestSuite {}
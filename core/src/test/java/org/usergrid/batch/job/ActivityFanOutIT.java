@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.batch.job;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.AbstractCoreIT;
+import org.usergrid.CoreITSuite;
+import org.usergrid.batch.JobExecution;
+import org.usergrid.cassandra.Concurrent;
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.EntityRef;
+import org.usergrid.persistence.Results;
+import org.usergrid.persistence.entities.Activity;
+import org.usergrid.persistence.entities.Group;
+import org.usergrid.persistence.entities.JobData;
+import org.usergrid.persistence.entities.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
+
+
+/** Fan outs to more recipients than a page holds */
+@Concurrent()
+public class ActivityFanOutIT extends AbstractCoreIT {
+
+    private static final int PAGE_SIZE = 10;
+
+    /** More than two pages, the last one partial */
+    private static final int RECIPIENTS = PAGE_SIZE * 2 + 5;
+
+
+    /** Without a scheduler every page is delivered inline */
+    @Test
+    public void distributeEveryPage() throws Exception {
+        EntityManager em = app.getEm();
+
+        User owner = createUser( em, "distribute-owner" );
+        List<User> followers = new ArrayList<User>();
+
+        for ( int i = 0; i < RECIPIENTS; i++ ) {
+            User follower = createUser( em, "distribute-follower" + i );
+            em.createConnection( follower, "following", owner );
+            followers.add( follower );
+        }
+
+        Activity activity = createActivity( em, owner );
+
+        JobData data =
+                ActivityFanOutJob.connectingJobData( app.getId(), owner, activity, "following", User.ENTITY_TYPE );
+
+        ActivityFanOutJob.distribute( em, null, data, activity, PAGE_SIZE );
+
+        assertNull( data.getProperty( "cursor" ) );
+
+        for ( User follower : followers ) {
+            assertFeed( em, follower, activity );
+        }
+
+        // the owner doesn't follow itself
+        assertEquals( 0, feed( em, owner ).size() );
+    }
+
+
+    /** The job reads the members a page at a time and writes each page in batches */
+    @Test
+    public void jobDeliversEveryPage() throws Exception {
+        EntityManager em = app.getEm();
+
+        Group group = new Group();
+        group.setPath( "fanout-job" );
+        group = em.create( group );
+
+        List<User> members = new ArrayList<User>();
+
+        for ( int i = 0; i < RECIPIENTS; i++ ) {
+            User member = createUser( em, "job-member" + i );
+            em.addToCollection( group, "users", member );
+            members.add( member );
+        }
+
+        Activity activity = createActivity( em, group );
+
+        JobData data = runJob( ActivityFanOutJob.collectionJobData( app.getId(), group, activity, "users" ) );
+
+        assertNull( data.getProperty( "cursor" ) );
+        assertEquals( RECIPIENTS, ( ( Number ) data.getProperty( "delivered" ) ).intValue() );
+
+        for ( User member : members ) {
+            assertFeed( em, member, activity );
+        }
+    }
+
+
+    /** A job that's restarted delivers from the saved cursor, the pages before it aren't written again */
+    @Test
+    public void jobResumesFromCursor() throws Exception {
+        EntityManager em = app.getEm();
+
+        User owner = createUser( em, "resume-owner" );
+
+        for ( int i = 0; i < RECIPIENTS; i++ ) {
+            em.createConnection( createUser( em, "resume-follower" + i ), "following", owner );
+        }
+
+        Activity activity = createActivity( em, owner );
+
+        JobData data =
+                ActivityFanOutJob.connectingJobData( app.getId(), owner, activity, "following", User.ENTITY_TYPE );
+
+        // the first page was delivered before the job was interrupted
+        Results first = ActivityFanOutJob.getRecipients( em, data, PAGE_SIZE );
+        ActivityFanOutJob.setCursor( data, first.getCursor() );
+
+        data = runJob( data );
+
+        assertEquals( RECIPIENTS - PAGE_SIZE, ( ( Number ) data.getProperty( "delivered" ) ).intValue() );
+
+        List<EntityRef> all = ActivityFanOutJob.getRecipients( em,
+                ActivityFanOutJob.connectingJobData( app.getId(), owner, activity, "following", User.ENTITY_TYPE ),
+                RECIPIENTS ).getRefs();
+
+        assertEquals( RECIPIENTS, all.size() );
+
+        for ( int i = 0; i < all.size(); i++ ) {
+            int expected = i < PAGE_SIZE ? 0 : 1;
+            assertEquals( expected, feed( em, all.get( i ) ).size() );
+        }
+    }
+
+
+    /** Run the job with small pages and batches, and return the job data it saved */
+    private JobData runJob( JobData data ) throws Exception {
+        EntityManager jobEm = setup.getEmf().getEntityManager( MANAGEMENT_APPLICATION_ID );
+        final JobData saved = jobEm.create( data );
+
+        ActivityFanOutJob job = CoreITSuite.cassandraResource.getBean( ActivityFanOutJob.class );
+
+        job.setPageSize( PAGE_SIZE );
+        job.setBatchSize( 3 );
+
+        try {
+            job.doJob( execution( saved ) );
+        }
+        finally {
+            job.setPageSize( ActivityFanOutJob.DEFAULT_PAGE_SIZE );
+            job.setBatchSize( ActivityFanOutJob.DEFAULT_BATCH_SIZE );
+        }
+
+        return jobEm.get( saved.getUuid(), JobData.class );
+    }
+
+
+    /** An execution of the job data, heartbeats are ignored */
+    private static JobExecution execution( final JobData data ) {
+        return ( JobExecution ) Proxy.newProxyInstance( JobExecution.class.getClassLoader(), new Class<?>[] {
+                JobExecution.class
+        }, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy, Method method, Object[] args ) {
+                if ( "getJobData".equals( method.getName() ) ) {
+                    return data;
+                }
+                return null;
+            }
+        } );
+    }
+
+
+    private static User createUser( EntityManager em, String username ) throws Exception {
+        User user = new User();
+        user.setUsername( username );
+        user.setEmail( username + "@usergrid.com" );
+        return em.create( user );
+    }
+
+
+    private static Activity createActivity( EntityManager em, Entity owner ) throws Exception {
+        return em.create( Activity.newActivity( "post", "fan out", "to every page", null, owner, null, null,
+                null, null ) );
+    }
+
+
+    private static List<UUID> feed( EntityManager em, EntityRef owner ) throws Exception {
+        return em.getCollection( owner, ActivityFanOutJob.FEED, null, RECIPIENTS, Results.Level.IDS, false )
+                 .getIds();
+    }
+
+
+    /** The activity is in the feed exactly once */
+    private static void assertFeed( EntityManager em, Entity owner, Activity activity ) throws Exception {
+        List<UUID> feed = feed( em, owner );
+
+        assertEquals( 1, feed.size() );
+        assertEquals( activity.getUuid(), feed.get( 0 ) );
+    }
+}
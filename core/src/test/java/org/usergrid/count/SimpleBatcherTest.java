@@ -16,12 +16,24 @@
 package org.usergrid.count;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import org.usergrid.count.common.Count;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 
 /** Unit test for simple SimpleBatcher. */
@@ -48,4 +60,148 @@ public class SimpleBatcherTest {
         simpleBatcher.add( new Count( "Counter", "k1", "c4", 1 ) );
         assertEquals( 1, simpleBatcher.getBatchSubmissionCount() );
     }
+
+
+    @Test
+    public void testCountsAggregated() {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+
+        SimpleBatcher simpleBatcher = new SimpleBatcher();
+        simpleBatcher.setBatchSubmitter( submitter );
+        simpleBatcher.setBatchSize( 4 );
+        simpleBatcher.add( new Count( "Counter", "k1", "c1", 1 ) );
+        simpleBatcher.add( new Count( "Counter", "k1", "c3", 2 ) );
+        simpleBatcher.add( new Count( "Counter", "k1", "c3", 3 ) );
+        simpleBatcher.add( new Count( "Counter", "k1", "c3", 4 ) );
+
+        assertEquals( 1, submitter.submitted.size() );
+
+        Map<Object, Long> values = new HashMap<Object, Long>();
+        for ( Count count : submitter.submitted.get( 0 ) ) {
+            values.put( count.getColumnName(), count.getValue() );
+        }
+
+        assertEquals( 2, values.size() );
+        assertEquals( Long.valueOf( 1 ), values.get( "c1" ) );
+        assertEquals( Long.valueOf( 9 ), values.get( "c3" ) );
+    }
+
+
+    @Test
+    public void testIntervalTrigger() {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+
+        SimpleBatcher simpleBatcher = new SimpleBatcher();
+        simpleBatcher.setBatchSubmitter( submitter );
+        simpleBatcher.setBatchSize( 100 );
+
+        // nothing to submit
+        simpleBatcher.flushInterval();
+        assertEquals( 0, simpleBatcher.getBatchSubmissionCount() );
+
+        simpleBatcher.add( new Count( "Counter", "k1", "c1", 1 ) );
+        simpleBatcher.add( new Count( "Counter", "k1", "c1", 1 ) );
+
+        simpleBatcher.flushInterval();
+        assertEquals( 1, simpleBatcher.getBatchSubmissionCount() );
+        assertEquals( 2, submitter.submitted.get( 0 ).iterator().next().getValue() );
+
+        // the next batch still accepts counts
+        simpleBatcher.add( new Count( "Counter", "k1", "c1", 1 ) );
+        simpleBatcher.flushInterval();
+        assertEquals( 2, simpleBatcher.getBatchSubmissionCount() );
+    }
+
+
+    @Test
+    public void testFlushWaitsForSubmissions() {
+        final FutureTask<Void> submission = new FutureTask<Void>( new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null );
+
+        CapturingSubmitter submitter = new CapturingSubmitter() {
+            @Override
+            public Future<?> submit( Collection<Count> counts ) {
+                super.submit( counts );
+
+                // completes on another thread, flush has to wait for it
+                new Thread( submission ).start();
+                return submission;
+            }
+        };
+
+        SimpleBatcher simpleBatcher = new SimpleBatcher();
+        simpleBatcher.setBatchSubmitter( submitter );
+        simpleBatcher.setBatchSize( 100 );
+
+        simpleBatcher.add( new Count( "Counter", "k1", "c1", 1 ) );
+        simpleBatcher.flush();
+
+        assertEquals( 1, submitter.submitted.size() );
+        assertTrue( submission.isDone() );
+    }
+
+
+    /** Adds racing the interval close, every add that finds a batch full or closed waits for the next one */
+    @Test
+    public void testConcurrentAddsKeepEveryCount() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+
+        final SimpleBatcher simpleBatcher = new SimpleBatcher();
+        simpleBatcher.setBatchSubmitter( new CapturingSubmitter() {
+            @Override
+            public Future<?> submit( Collection<Count> counts ) {
+                for ( Count count : counts ) {
+                    total.addAndGet( count.getValue() );
+                }
+                return null;
+            }
+        } );
+        simpleBatcher.setBatchSize( 7 );
+
+        final int threads = 8;
+        final int adds = 2000;
+
+        final CountDownLatch done = new CountDownLatch( threads );
+
+        for ( int i = 0; i < threads; i++ ) {
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    for ( int j = 0; j < adds; j++ ) {
+                        simpleBatcher.add( new Count( "Counter", "k1", "c" + ( j % 3 ), 1 ) );
+                    }
+                    done.countDown();
+                }
+            } ).start();
+        }
+
+        while ( !done.await( 1, TimeUnit.MILLISECONDS ) ) {
+            simpleBatcher.flushInterval();
+        }
+
+        simpleBatcher.flush();
+
+        assertEquals( threads * adds, total.get() );
+    }
+
+
+    static class CapturingSubmitter implements BatchSubmitter {
+
+        final List<Collection<Count>> submitted = new ArrayList<Collection<Count>>();
+
+
+        @Override
+        public Future<?> submit( Collection<Count> counts ) {
+            submitted.add( counts );
+            return null;
+        }
+
+
+        @Override
+        public void shutdown() {
+        }
+    }
 }
@@ -16,8 +16,14 @@
 package org.usergrid.mq;
 
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
@@ -25,12 +31,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.AbstractCoreIT;
 import org.usergrid.cassandra.Concurrent;
+import org.usergrid.mq.cassandra.QueueManagerImpl;
 import org.usergrid.utils.JsonUtils;
 
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.usergrid.mq.cassandra.CassandraMQUtils.getQueueId;
+import static org.usergrid.mq.cassandra.QueueManagerImpl.DICTIONARY_SHARDS;
+import static org.usergrid.mq.cassandra.QueueManagerImpl.QUEUE_SHARD_INTERVAL;
+import static org.usergrid.mq.cassandra.QueuesCF.QUEUE_DICTIONARIES;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.usergrid.utils.ConversionUtils.bytebuffer;
+import static org.usergrid.utils.NumberUtils.roundLong;
+import static org.usergrid.utils.UUIDUtils.getTimestampInMillis;
 
 
 @Concurrent()
@@ -38,6 +59,10 @@ public class MessagesIT extends AbstractCoreIT {
     private static final Logger LOG = LoggerFactory.getLogger( MessagesIT.class );
 
 
+    private static final ByteBufferSerializer be = new ByteBufferSerializer();
+    private static final LongSerializer le = new LongSerializer();
+
+
     public MessagesIT() {
         super();
     }
@@ -203,6 +228,209 @@ public class MessagesIT extends AbstractCoreIT {
     }
 
 
+    @Test
+    public void testShardBuckets() throws Exception {
+        QueueManager qm = app.getQm();
+
+        String queuePath = "/foo/buckets";
+
+        // written to the single bucket before the queue was bucketed
+        for ( int i = 0; i < 5; i++ ) {
+            Message message = new Message();
+            message.setIntProperty( "index", i );
+            qm.postToQueue( queuePath, message );
+        }
+
+        Queue queue = new Queue( queuePath );
+        queue.setIntProperty( Queue.QUEUE_SHARD_BUCKETS, 8 );
+        qm.updateQueue( queuePath, queue );
+
+        for ( int i = 5; i < 30; i++ ) {
+            Message message = new Message();
+            message.setIntProperty( "index", i );
+            qm.postToQueue( queuePath, message );
+        }
+
+        // lowering the count is ignored, the messages in the other buckets would be lost
+        queue = new Queue( queuePath );
+        queue.setIntProperty( Queue.QUEUE_SHARD_BUCKETS, 2 );
+        qm.updateQueue( queuePath, queue );
+
+        assertEquals( 8, qm.getQueue( queuePath ).getIntProperty( Queue.QUEUE_SHARD_BUCKETS ) );
+
+        int expected = 0;
+
+        for ( int i = 0; i < 5; i++ ) {
+            QueueQuery query = new QueueQuery().withConsumer( "bucketConsumer" );
+            query.setLimit( 7 );
+
+            QueueResults messages = qm.getFromQueue( queuePath, query );
+
+            for ( Message message : messages.getMessages() ) {
+                assertEquals( expected++, message.getIntProperty( "index" ) );
+            }
+        }
+
+        assertEquals( 30, expected );
+    }
+
+
+    @Test
+    public void testShardIndex() throws Exception {
+        QueueManager qm = app.getQm();
+
+        String queuePath = "/foo/shards";
+
+        List<UUID> posted = postToShards( qm, queuePath, new int[] { 30, 1, 0 }, 3 );
+
+        // only the shards that hold messages are indexed
+        Keyspace ko = setup.getCassSvc().getApplicationKeyspace( app.getId() );
+
+        List<HColumn<Long, ByteBuffer>> shards =
+                createSliceQuery( ko, be, le, be ).setColumnFamily( QUEUE_DICTIONARIES.getColumnFamily() )
+                        .setKey( bytebuffer( key( getQueueId( queuePath ), DICTIONARY_SHARDS ) ) )
+                        .setRange( null, null, false, 100 ).execute().get().getColumns();
+
+        assertEquals( 3, shards.size() );
+
+        for ( int i = 0; i < 3; i++ ) {
+            long timestamp = getTimestampInMillis( posted.get( i * 3 ) );
+            assertEquals( roundLong( timestamp, QUEUE_SHARD_INTERVAL ), shards.get( i ).getName().longValue() );
+        }
+
+        assertEquals( posted, readAll( qm, queuePath, "shardConsumer" ) );
+    }
+
+
+    @Test
+    public void testReversedShards() throws Exception {
+        QueueManager qm = app.getQm();
+
+        String queuePath = "/foo/reversed";
+
+        Queue queue = new Queue( queuePath );
+        queue.setIntProperty( Queue.QUEUE_SHARD_BUCKETS, 8 );
+        qm.updateQueue( queuePath, queue );
+
+        List<UUID> posted = postToShards( qm, queuePath, new int[] { 2, 1, 0 }, 10 );
+
+        assertEquals( posted, readAll( qm, queuePath, "reversedConsumer" ) );
+
+        // from the end, the newest shard is read first and the reads page back through the older ones
+        List<UUID> read = new ArrayList<UUID>();
+        UUID last = null;
+
+        for ( int i = 0; i < 10; i++ ) {
+            QueueQuery query = new QueueQuery().withPosition( QueuePosition.END ).withLastMessageId( last );
+            query.setLimit( 7 );
+
+            QueueResults messages = qm.getFromQueue( queuePath, query );
+
+            if ( messages.size() == 0 ) {
+                break;
+            }
+
+            for ( Message message : messages.getMessages() ) {
+                read.add( message.getUuid() );
+            }
+
+            last = messages.getLast();
+        }
+
+        Collections.reverse( posted );
+
+        assertEquals( posted, read );
+    }
+
+
+    /** Post messages to the queue in the shards of the given days ago, returns their ids in time order */
+    private List<UUID> postToShards( QueueManager qm, String queuePath, int[] daysAgo, int perShard ) {
+        long now = System.currentTimeMillis();
+
+        List<UUID> posted = new ArrayList<UUID>();
+
+        for ( int days : daysAgo ) {
+            for ( int i = 0; i < perShard; i++ ) {
+                Message message = new Message();
+                message.setTimestamp( now - days * ( long ) QUEUE_SHARD_INTERVAL - 1000 + i );
+                message.setIntProperty( "index", posted.size() );
+                qm.postToQueue( queuePath, message );
+
+                posted.add( message.getUuid() );
+            }
+        }
+
+        return posted;
+    }
+
+
+    /** Read the queue as the consumer until it's empty */
+    private List<UUID> readAll( QueueManager qm, String queuePath, String consumer ) {
+        return readAll( qm, queuePath, consumer, 4 );
+    }
+
+
+    private List<UUID> readAll( QueueManager qm, String queuePath, String consumer, int pageSize ) {
+        List<UUID> read = new ArrayList<UUID>();
+
+        for ( int i = 0; i < 20; i++ ) {
+            QueueQuery query = new QueueQuery().withConsumer( consumer );
+            query.setLimit( pageSize );
+
+            QueueResults messages = qm.getFromQueue( queuePath, query );
+
+            if ( messages.size() == 0 ) {
+                break;
+            }
+
+            for ( Message message : messages.getMessages() ) {
+                read.add( message.getUuid() );
+            }
+        }
+
+        return read;
+    }
+
+
+    /** More messages and subscribers than a single mutation holds, every subscriber gets every message once */
+    @Test
+    public void testSubscriberFanOut() throws Exception {
+        QueueManager qm = app.getQm();
+
+        String publisherPath = "/fanout/";
+
+        int subscriberCount = 7;
+
+        for ( int i = 0; i < subscriberCount; i++ ) {
+            qm.subscribeToQueue( publisherPath, "/fanout/subscriber" + i + "/" );
+        }
+
+        List<Message> messages = new ArrayList<Message>();
+
+        for ( int i = 0; i < QueueManagerImpl.POST_BATCH_SIZE * 2 + 50; i++ ) {
+            Message message = new Message();
+            message.setIntProperty( "index", i );
+            messages.add( message );
+        }
+
+        List<UUID> posted = new ArrayList<UUID>();
+
+        for ( Message message : qm.postToQueue( publisherPath, messages ) ) {
+            posted.add( message.getUuid() );
+        }
+
+        assertEquals( messages.size(), posted.size() );
+        assertEquals( posted, readAll( qm, publisherPath, "publisherConsumer", 100 ) );
+
+        for ( int i = 0; i < subscriberCount; i++ ) {
+            List<UUID> read = readAll( qm, "/fanout/subscriber" + i + "/", "subscriberConsumer", 100 );
+
+            assertEquals( "subscriber " + i, posted.size(), read.size() );
+            assertEquals( "subscriber " + i, new HashSet<UUID>( posted ), new HashSet<UUID>( read ) );
+        }
+    }
+
+
     @Test
     public void testTransactions() throws Exception {
         QueueManager qm = app.getQm();
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mq;
+
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.cassandra.Concurrent;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class QueueArrivalNotifierTest {
+
+    private final UUID applicationId = UUID.randomUUID();
+    private final UUID queueId = UUID.randomUUID();
+
+
+    @Test
+    public void arrivalWakesWaiter() throws Exception {
+        final QueueArrivalNotifier notifier = new QueueArrivalNotifier();
+
+        QueueArrivalNotifier.Waiter waiter = notifier.subscribe( applicationId, queueId );
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep( 100 );
+                }
+                catch ( InterruptedException e ) {
+                    return;
+                }
+                notifier.arrived( applicationId, queueId );
+            }
+        }.start();
+
+        long start = System.currentTimeMillis();
+
+        try {
+            assertTrue( waiter.await( 10000 ) );
+            assertTrue( System.currentTimeMillis() - start < 10000 );
+        }
+        finally {
+            waiter.close();
+        }
+    }
+
+
+    @Test
+    public void arrivalBeforeWaitIsNotMissed() throws Exception {
+        QueueArrivalNotifier notifier = new QueueArrivalNotifier();
+
+        QueueArrivalNotifier.Waiter waiter = notifier.subscribe( applicationId, queueId );
+
+        // posted between the read and the wait
+        notifier.arrived( applicationId, queueId );
+
+        assertTrue( waiter.await( 0 ) );
+
+        // already seen
+        assertFalse( waiter.await( 10 ) );
+
+        waiter.close();
+    }
+
+
+    @Test
+    public void otherQueuesDontWake() throws Exception {
+        QueueArrivalNotifier notifier = new QueueArrivalNotifier();
+
+        QueueArrivalNotifier.Waiter waiter = notifier.subscribe( applicationId, queueId );
+
+        notifier.arrived( applicationId, UUID.randomUUID() );
+        notifier.arrived( UUID.randomUUID(), queueId );
+
+        assertFalse( waiter.await( 10 ) );
+
+        waiter.close();
+
+        // closed subscriptions are replaced
+        waiter = notifier.subscribe( applicationId, queueId );
+        notifier.notifyLocal( QueueArrivalNotifier.getKey( applicationId, queueId ) );
+
+        assertTrue( waiter.await( 10 ) );
+
+        waiter.close();
+    }
+
+
+    @Test
+    public void waitersAreBounded() throws Exception {
+        QueueArrivalNotifier notifier = new QueueArrivalNotifier();
+        notifier.setMaxWaiters( 2 );
+
+        QueueArrivalNotifier.Waiter first = notifier.subscribe( applicationId, queueId );
+        QueueArrivalNotifier.Waiter second = notifier.subscribe( applicationId, UUID.randomUUID() );
+
+        assertNotNull( first );
+        assertNotNull( second );
+
+        // full, the reader doesn't wait
+        assertNull( notifier.subscribe( applicationId, queueId ) );
+
+        // closing twice only frees one
+        first.close();
+        first.close();
+
+        QueueArrivalNotifier.Waiter third = notifier.subscribe( applicationId, queueId );
+
+        assertNotNull( third );
+        assertNull( notifier.subscribe( applicationId, queueId ) );
+
+        second.close();
+        third.close();
+    }
+}
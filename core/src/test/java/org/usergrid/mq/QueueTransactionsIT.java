@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mq;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.AbstractCoreIT;
+import org.usergrid.cassandra.Concurrent;
+import org.usergrid.mq.cassandra.QueueManagerImpl;
+import org.usergrid.mq.cassandra.io.LeaseConsumerTransaction;
+
+import static org.junit.Assert.assertEquals;
+
+
+/** Compares transactional reads with a lock on the consumer to reads with lease claims, with concurrent readers */
+@Concurrent()
+public class QueueTransactionsIT extends AbstractCoreIT {
+    private static final Logger LOG = LoggerFactory.getLogger( QueueTransactionsIT.class );
+
+    private static final int MESSAGES = 500;
+    private static final int READERS = 4;
+    private static final int READ_SIZE = 10;
+    private static final long MAX_TIME = 5 * 60 * 1000;
+
+
+    @Test
+    public void lockTransactions() throws Exception {
+        int delivered = consume( "/transactions/lock", false );
+
+        // the lock serializes the reads, every message is read once
+        assertEquals( MESSAGES, delivered );
+    }
+
+
+    @Test
+    public void leaseTransactions() throws Exception {
+        int delivered = consume( "/transactions/lease", true );
+
+        // a message is read twice only if a claim is slower than the settle time
+        assertEquals( MESSAGES, delivered );
+    }
+
+
+    /** Read every message of the queue with concurrent readers, returns the number of deliveries */
+    private int consume( final String queuePath, boolean lease ) throws Exception {
+        final QueueManagerImpl qm = ( QueueManagerImpl ) app.getQm();
+        qm.setLeaseTransactions( lease, LeaseConsumerTransaction.DEFAULT_SETTLE_TIME );
+
+        List<Message> messages = new ArrayList<Message>( MESSAGES );
+
+        for ( int i = 0; i < MESSAGES; i++ ) {
+            Message message = new Message();
+            message.setIntProperty( "index", i );
+            messages.add( message );
+        }
+
+        qm.postToQueue( queuePath, messages );
+
+        final ConcurrentHashMap<UUID, Boolean> received = new ConcurrentHashMap<UUID, Boolean>();
+        final AtomicInteger deliveries = new AtomicInteger();
+        final AtomicInteger reads = new AtomicInteger();
+        final long deadline = System.currentTimeMillis() + MAX_TIME;
+
+        List<Callable<Void>> readers = new ArrayList<Callable<Void>>( READERS );
+
+        for ( int i = 0; i < READERS; i++ ) {
+            readers.add( new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    QueueQuery query = new QueueQuery();
+                    query.setTimeout( 60000 );
+                    query.setLimit( READ_SIZE );
+
+                    while ( received.size() < MESSAGES && System.currentTimeMillis() < deadline ) {
+                        QueueResults results = qm.getFromQueue( queuePath, query );
+                        reads.incrementAndGet();
+
+                        for ( Message message : results.getMessages() ) {
+                            received.put( message.getUuid(), Boolean.TRUE );
+                            deliveries.incrementAndGet();
+                        }
+                    }
+
+                    return null;
+                }
+            } );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( READERS );
+
+        long start = System.currentTimeMillis();
+
+        try {
+            for ( Future<Void> future : executor.invokeAll( readers ) ) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        long elapsed = Math.max( 1, System.currentTimeMillis() - start );
+
+        LOG.info( "{} transactions: {} messages in {} reads by {} readers in {} ms, {} messages/s", new Object[] {
+                lease ? "Lease" : "Lock", received.size(), reads.get(), READERS, elapsed,
+                received.size() * 1000L / elapsed
+        } );
+
+        assertEquals( MESSAGES, received.size() );
+
+        return deliveries.get();
+    }
+}
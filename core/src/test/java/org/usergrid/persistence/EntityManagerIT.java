@@ -16,6 +16,7 @@
 package org.usergrid.persistence;
 
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -30,16 +31,26 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.AbstractCoreIT;
+import org.usergrid.CoreITSuite;
 import org.usergrid.cassandra.Concurrent;
 import org.usergrid.persistence.Results.Level;
+import org.usergrid.persistence.cassandra.CassandraService;
+import org.usergrid.persistence.cassandra.EntityLoader;
+import org.usergrid.persistence.cassandra.PrefetchedIndexEntries;
 import org.usergrid.persistence.entities.Group;
 import org.usergrid.persistence.entities.User;
 import org.usergrid.utils.UUIDUtils;
 
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static java.util.Arrays.asList;
+import static org.usergrid.persistence.cassandra.CassandraService.INDEX_ENTRY_LIST_COUNT;
 import static org.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
 
 
@@ -560,4 +571,171 @@ public class EntityManagerIT extends AbstractCoreIT {
         //Not an owner
         assertFalse( em.isCollectionMember( createdUser2, "devices", createdDevice ) );
     }
+
+
+    @Test
+    public void testIterateEntities() throws Exception {
+        LOG.info( "EntityManagerIT.testIterateEntities" );
+
+        UUID applicationId = setup.createApplication( "testOrganization", "testIterateEntities" );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+
+        // more than a single chunk, with an id that doesn't exist in the middle
+        int size = EntityLoader.DEFAULT_CHUNK_SIZE * 2 + 10;
+
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for ( int i = 0; i < size; i++ ) {
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            properties.put( "name", "thing" + i );
+
+            ids.add( em.create( "thing", properties ).getUuid() );
+
+            if ( i == EntityLoader.DEFAULT_CHUNK_SIZE ) {
+                ids.add( UUIDUtils.newTimeUUID() );
+            }
+        }
+
+        Iterator<DynamicEntity> entities = em.iterateEntities( ids, DynamicEntity.class );
+
+        int i = 0;
+        while ( entities.hasNext() ) {
+            DynamicEntity thing = entities.next();
+            assertEquals( "unexpected name", "thing" + i, thing.getProperty( "name" ) );
+            i++;
+        }
+
+        assertEquals( "entities unfound entity name count incorrect", size, i );
+
+        Results results = em.get( ids, Results.Level.CORE_PROPERTIES );
+
+        assertEquals( size, results.size() );
+        assertEquals( "thing" + ( size - 1 ), results.getEntities().get( size - 1 ).getProperty( "name" ) );
+    }
+
+
+    @Test
+    public void testUpdatePrefetchedIndexEntries() throws Exception {
+        LOG.info( "EntityManagerIT.testUpdatePrefetchedIndexEntries" );
+
+        UUID applicationId = setup.createApplication( "testOrganization", "testUpdatePrefetchedIndexEntries" );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put( "name", "prefetched" );
+        properties.put( "color", "red" );
+        properties.put( "shape", "round" );
+        properties.put( "size", "small" );
+
+        Entity thing = em.create( "thing", properties );
+
+        // every entry of the properties fits in one slice
+        PrefetchedIndexEntries prefetched =
+                PrefetchedIndexEntries.load( getCassandraService(), applicationId, thing.getUuid(),
+                        asList( "color", "shape", "size" ) );
+
+        assertEntries( prefetched.getEntries( "color" ), "red" );
+        assertEntries( prefetched.getEntries( "shape" ), "round" );
+        assertEntries( prefetched.getEntries( "size" ), "small" );
+
+        // the first property pays for the slice
+        assertEquals( 2, prefetched.getReadsSaved() );
+
+        properties = new LinkedHashMap<String, Object>();
+        properties.put( "color", "blue" );
+        properties.put( "shape", "square" );
+        properties.put( "size", "large" );
+
+        em.updateProperties( thing, properties );
+
+        assertFound( em, "color", "red", false );
+        assertFound( em, "shape", "round", false );
+        assertFound( em, "size", "small", false );
+
+        assertFound( em, "color", "blue", true );
+        assertFound( em, "shape", "square", true );
+        assertFound( em, "size", "large", true );
+        assertFound( em, "name", "prefetched", true );
+
+        // the previous entries were removed from the entity's ledger, only the new ones are left
+        prefetched = PrefetchedIndexEntries.load( getCassandraService(), applicationId, thing.getUuid(),
+                asList( "color", "shape", "size" ) );
+
+        assertEntries( prefetched.getEntries( "color" ), "blue" );
+        assertEntries( prefetched.getEntries( "shape" ), "square" );
+        assertEntries( prefetched.getEntries( "size" ), "large" );
+    }
+
+
+    @Test
+    public void testUpdateTruncatedPrefetch() throws Exception {
+        LOG.info( "EntityManagerIT.testUpdateTruncatedPrefetch" );
+
+        UUID applicationId = setup.createApplication( "testOrganization", "testUpdateTruncatedPrefetch" );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+
+        // a property between the updated ones with more entries than a slice returns
+        Map<String, Object> middle = new LinkedHashMap<String, Object>();
+
+        for ( int i = 0; i < INDEX_ENTRY_LIST_COUNT + 10; i++ ) {
+            middle.put( "key" + i, i );
+        }
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put( "alpha", "first" );
+        properties.put( "middle", middle );
+        properties.put( "zeta", "last" );
+
+        Entity thing = em.create( "thing", properties );
+
+        PrefetchedIndexEntries prefetched =
+                PrefetchedIndexEntries.load( getCassandraService(), applicationId, thing.getUuid(),
+                        asList( "alpha", "zeta" ) );
+
+        // the slice ends in the middle property, so the entries after it are read on their own
+        assertEntries( prefetched.getEntries( "alpha" ), "first" );
+        assertNull( prefetched.getEntries( "zeta" ) );
+        assertEquals( 0, prefetched.getReadsSaved() );
+
+        properties = new LinkedHashMap<String, Object>();
+        properties.put( "alpha", "second" );
+        properties.put( "zeta", "end" );
+
+        em.updateProperties( thing, properties );
+
+        assertFound( em, "alpha", "first", false );
+        assertFound( em, "zeta", "last", false );
+
+        assertFound( em, "alpha", "second", true );
+        assertFound( em, "zeta", "end", true );
+        assertFound( em, "middle.key5", 5, true );
+    }
+
+
+    private CassandraService getCassandraService() {
+        return CoreITSuite.cassandraResource.getBean( CassandraService.class );
+    }
+
+
+    /** Check the property has index entries, and every one of them is for the value */
+    private void assertEntries( List<HColumn<ByteBuffer, ByteBuffer>> entries, Object value ) {
+        assertNotNull( entries );
+        assertFalse( entries.isEmpty() );
+
+        for ( HColumn<ByteBuffer, ByteBuffer> entry : entries ) {
+            assertEquals( value, DynamicComposite.fromByteBuffer( entry.getName().duplicate() ).get( 2 ) );
+        }
+    }
+
+
+    /** Check whether the thing is found by the value of the property */
+    private void assertFound( EntityManager em, String propertyName, Object value, boolean found ) throws Exception {
+        Results results = em.searchCollection( em.getApplicationRef(), "things",
+                new Query().addEqualityFilter( propertyName, value ) );
+
+        assertEquals( propertyName + " = " + value, found ? 1 : 0, results.size() );
+    }
 }
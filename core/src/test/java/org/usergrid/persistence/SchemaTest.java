@@ -16,16 +16,22 @@
 package org.usergrid.persistence;
 
 
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.entities.SampleEntity;
+import org.usergrid.persistence.schema.TypedPropertyCodec;
 
 import io.baas.Simple;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.usergrid.utils.JsonUtils.mapToFormattedJsonString;
@@ -89,6 +95,40 @@ public class SchemaTest {
     }
 
 
+    /** Typed values read back as the same objects as values written as smile, and smile values still read */
+    @Test
+    public void typedPropertyEncoding() throws Exception {
+        Object[] values = {
+                "a string", "", "\u00e9t\u00e9", UUID.randomUUID(), UUID.randomUUID().toString(), true, false, 0L,
+                -1L, Long.MAX_VALUE, Long.MIN_VALUE, 42, ( short ) 7, 1.5d, 2.5f, -0.0d, new BigInteger( "12345" )
+        };
+
+        for ( Object value : values ) {
+            Schema.setTypedPropertyEncoding( false );
+            ByteBuffer smile = Schema.serializeEntityProperty( "thing", "value", value );
+
+            Schema.setTypedPropertyEncoding( true );
+            ByteBuffer typed = Schema.serializeEntityProperty( "thing", "value", value );
+
+            assertTrue( TypedPropertyCodec.isEncoded( typed ) );
+            assertFalse( TypedPropertyCodec.isEncoded( smile ) );
+
+            Object expected = Schema.deserializeEntityProperty( "thing", "value", smile );
+            Object actual = Schema.deserializeEntityProperty( "thing", "value", typed );
+
+            assertEquals( value.toString(), expected, actual );
+            assertEquals( value.toString(), expected.getClass(), actual.getClass() );
+        }
+
+        // anything else is still written as smile
+        Schema.setTypedPropertyEncoding( true );
+        ByteBuffer list = Schema.serializeEntityProperty( "thing", "value", Arrays.asList( 1, 2 ) );
+
+        assertFalse( TypedPropertyCodec.isEncoded( list ) );
+        assertEquals( Arrays.asList( 1L, 2L ), Schema.deserializeEntityProperty( "thing", "value", list ) );
+    }
+
+
     @Test
     public void hasPropertyTyped() {
         assertFalse( Schema.getDefaultSchema().hasProperty( "user", "" ) );
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.cassandra.Concurrent;
+import org.usergrid.persistence.CounterResolution;
+import org.usergrid.persistence.cassandra.CounterUtils.AggregateCounterSelection;
+import org.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class CounterAggregatorTest {
+
+    private static final long WINDOW = 60 * 60 * 1000;
+
+
+    @Test
+    public void rollsUpResolutions() {
+        RecordingSink sink = new RecordingSink();
+        CounterAggregator aggregator = new CounterAggregator( sink, WINDOW );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        String row = AggregateCounterSelection.rowBuilder( "visits", null, null, null, null );
+
+        long day = CounterResolution.DAY.round( System.currentTimeMillis() );
+        long minute = day + CounterResolution.MINUTE.interval();
+
+        // two in the first minute of the day, one in the second
+        aggregator.add( appId, row, day + 100, 1 );
+        aggregator.add( appId, row, day + 200, 2 );
+        aggregator.add( appId, row, minute + 100, 4 );
+
+        aggregator.shutdown();
+
+        assertEquals( 3, sink.get( appId, row, CounterResolution.MINUTE, day ) );
+        assertEquals( 4, sink.get( appId, row, CounterResolution.MINUTE, minute ) );
+        assertEquals( 7, sink.get( appId, row, CounterResolution.HOUR, day ) );
+        assertEquals( 7, sink.get( appId, row, CounterResolution.DAY, day ) );
+        assertEquals( 7, sink.get( appId, row, CounterResolution.ALL, 1 ) );
+
+        // every resolution is written once per column, not once per increment
+        assertEquals( CounterResolution.values().length + 1, sink.writes );
+    }
+
+
+    @Test
+    public void flushesWindow() {
+        RecordingSink sink = new RecordingSink();
+        CounterAggregator aggregator = new CounterAggregator( sink, WINDOW );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        String row = AggregateCounterSelection.rowBuilder( "clicks", null, null, null, "ads" );
+
+        aggregator.add( appId, row, 0, 5 );
+        aggregator.flush();
+
+        assertEquals( 5, sink.get( appId, row, CounterResolution.ALL, 1 ) );
+
+        // the next window starts empty
+        sink.counts.clear();
+        aggregator.flush();
+
+        assertTrue( sink.counts.isEmpty() );
+
+        aggregator.shutdown();
+    }
+
+
+    private static class RecordingSink implements CounterAggregator.CounterSink {
+
+        private final Map<String, Long> counts = new HashMap<String, Long>();
+        private int writes;
+
+
+        @Override
+        public void increment( UUID applicationId, String row, long column, long value ) {
+            String key = applicationId + "/" + row + "@" + column;
+            Long count = counts.get( key );
+            counts.put( key, count == null ? value : count + value );
+            writes++;
+        }
+
+
+        public long get( UUID applicationId, String row, CounterResolution resolution, long column ) {
+            Long count = counts.get(
+                    applicationId + "/" + AggregateCounterSelection.rowBuilder( row, resolution ) + "@" + column );
+            return count == null ? 0 : count;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra;
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.cassandra.Concurrent;
+import org.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class EntityReadCacheTest {
+
+    @Test
+    public void boundToRequest() {
+        assertNull( EntityReadCache.current() );
+
+        EntityReadCache cache = EntityReadCache.begin();
+        assertSame( cache, EntityReadCache.current() );
+
+        // nested requests share the cache
+        EntityReadCache nested = EntityReadCache.begin();
+        assertSame( cache, nested );
+
+        nested.end();
+        assertSame( cache, EntityReadCache.current() );
+
+        cache.end();
+        assertNull( EntityReadCache.current() );
+    }
+
+
+    @Test
+    public void hitsAndMisses() {
+        EntityReadCache cache = EntityReadCache.begin();
+
+        try {
+            UUID appId = UUIDUtils.newTimeUUID();
+            List<Object> key = EntityReadCache.key( "alias", appId, "user", "bob" );
+
+            assertFalse( cache.contains( key ) );
+
+            // missing values are cached too
+            cache.put( key, null );
+
+            assertTrue( cache.contains( key ) );
+            assertNull( cache.get( key ) );
+
+            assertTrue( cache.contains( EntityReadCache.key( "alias", appId, "user", "bob" ) ) );
+            assertFalse( cache.contains( EntityReadCache.key( "alias", appId, "user", "alice" ) ) );
+
+            assertEquals( 2, cache.getHits() );
+            assertEquals( 2, cache.getMisses() );
+        }
+        finally {
+            cache.end();
+        }
+    }
+
+
+    @Test
+    public void writesInvalidate() {
+        EntityReadCache cache = EntityReadCache.begin();
+
+        try {
+            List<Object> key = EntityReadCache.key( "type", UUIDUtils.newTimeUUID(), UUIDUtils.newTimeUUID() );
+            cache.put( key, "user" );
+
+            EntityReadCache.invalidateCurrent();
+
+            assertFalse( cache.contains( key ) );
+            assertEquals( 1, cache.getInvalidations() );
+        }
+        finally {
+            cache.end();
+        }
+
+        // no cache is bound, nothing to do
+        EntityReadCache.invalidateCurrent();
+    }
+
+
+    @Test
+    public void copyProperties() {
+        Map<String, Object> properties = new TreeMap<String, Object>( String.CASE_INSENSITIVE_ORDER );
+        properties.put( "name", "bob" );
+
+        Map<String, Object> copy = EntityReadCache.copyProperties( properties );
+
+        assertNotSame( properties, copy );
+        assertEquals( "bob", copy.get( "NAME" ) );
+
+        copy.put( "name", "alice" );
+        assertEquals( "bob", properties.get( "name" ) );
+
+        assertNull( EntityReadCache.copyProperties( null ) );
+    }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.cassandra.index;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.persistence.cassandra.ApplicationCF;
+import org.usergrid.utils.UUIDUtils;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.TypeParser;
+
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class DecodedColumnComparatorTest {
+
+    private static final ByteBufferSerializer be = ByteBufferSerializer.get();
+    private static final StringSerializer se = StringSerializer.get();
+    private static final LongSerializer le = LongSerializer.get();
+    private static final UUIDSerializer ue = UUIDSerializer.get();
+
+
+    @Test
+    public void sameOrderAsCassandra() throws Exception {
+
+        AbstractType<?> cassandra = TypeParser.parse( ApplicationCF.ENTITY_INDEX.getComparator() );
+
+        DecodedColumnComparator forward = DecodedColumnComparator.getInstance( ApplicationCF.ENTITY_INDEX, false );
+        DecodedColumnComparator reverse = DecodedColumnComparator.getInstance( ApplicationCF.ENTITY_INDEX, true );
+
+        Random random = new Random( 1 );
+
+        List<DecodedColumn> forwardCols = new ArrayList<DecodedColumn>();
+        List<DecodedColumn> reverseCols = new ArrayList<DecodedColumn>();
+
+        for ( int i = 0; i < 200; i++ ) {
+            DynamicComposite composite = new DynamicComposite();
+
+            switch ( random.nextInt( 3 ) ) {
+                case 0:
+                    composite.addComponent( "value" + random.nextInt( 20 ), se );
+                    break;
+                case 1:
+                    composite.addComponent( ( long ) random.nextInt( 20 ), le );
+                    break;
+                default:
+                    composite.addComponent( UUIDUtils.minTimeUUID( random.nextInt( 20 ) ), ue );
+            }
+
+            // some with a uuid suffix, some with an equality flag
+            if ( random.nextBoolean() ) {
+                composite.addComponent( UUIDUtils.minTimeUUID( random.nextInt( 5 ) ), ue );
+            }
+            else {
+                composite.setEquality( random.nextBoolean() ? ComponentEquality.GREATER_THAN_EQUAL :
+                                       ComponentEquality.LESS_THAN_EQUAL );
+            }
+
+            HColumn<ByteBuffer, ByteBuffer> col =
+                    HFactory.createColumn( composite.serialize(), ByteBuffer.allocate( 0 ), be, be );
+
+            forwardCols.add( forward.decode( col ) );
+            reverseCols.add( reverse.decode( col ) );
+        }
+
+        for ( int i = 0; i < forwardCols.size(); i++ ) {
+            for ( int j = 0; j < forwardCols.size(); j++ ) {
+                ByteBuffer first = forwardCols.get( i ).getName();
+                ByteBuffer second = forwardCols.get( j ).getName();
+
+                int expected = Integer.signum( cassandra.compare( first, second ) );
+
+                assertEquals( expected,
+                        Integer.signum( forward.compare( forwardCols.get( i ), forwardCols.get( j ) ) ) );
+                assertEquals( -expected,
+                        Integer.signum( reverse.compare( reverseCols.get( i ), reverseCols.get( j ) ) ) );
+            }
+        }
+    }
+
+
+    @Test
+    public void nonCompositeColumnFamily() {
+        DecodedColumnComparator comparator = DecodedColumnComparator.getInstance( ApplicationCF.ENTITY_ID_SETS, false );
+
+        UUID first = UUIDUtils.minTimeUUID( 1 );
+        UUID second = UUIDUtils.minTimeUUID( 2 );
+
+        DecodedColumn firstCol =
+                comparator.decode( HFactory.createColumn( ue.toByteBuffer( first ), ByteBuffer.allocate( 0 ), be, be ) );
+        DecodedColumn secondCol =
+                comparator.decode( HFactory.createColumn( ue.toByteBuffer( second ), ByteBuffer.allocate( 0 ), be, be ) );
+
+        assertEquals( -1, Integer.signum( comparator.compare( firstCol, secondCol ) ) );
+        assertEquals( 1, Integer.signum( comparator.compare( secondCol, firstCol ) ) );
+        assertEquals( 0, comparator.compare( firstCol, firstCol ) );
+    }
+}
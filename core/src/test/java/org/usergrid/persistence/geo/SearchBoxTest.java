@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.geo;
+
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.usergrid.persistence.geo.GeoIndexSearcher.SearchBox;
+import org.usergrid.persistence.geo.model.Point;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class SearchBoxTest {
+
+
+    @Test
+    public void readDouble() {
+        ByteBuffer value = location( 37.776753, -122.407846 );
+        int position = value.position();
+
+        assertEquals( 37.776753, SearchBox.readDouble( value, 0 ), 0 );
+        assertEquals( -122.407846, SearchBox.readDouble( value, 1 ), 0 );
+
+        // past the last component
+        assertTrue( Double.isNaN( SearchBox.readDouble( value, 2 ) ) );
+
+        // the value is read from a copy
+        assertEquals( position, value.position() );
+    }
+
+
+    @Test
+    public void readDoubleOfOtherTypes() {
+        ByteBuffer value = new DynamicComposite( "lat", 1.0 ).serialize();
+
+        assertTrue( Double.isNaN( SearchBox.readDouble( value, 0 ) ) );
+        assertEquals( 1.0, SearchBox.readDouble( value, 1 ), 0 );
+
+        assertTrue( Double.isNaN( SearchBox.readDouble( ByteBuffer.allocate( 0 ), 0 ) ) );
+    }
+
+
+    @Test
+    public void readDoubleOfTruncatedValue() {
+        ByteBuffer value = location( 10, 20 );
+
+        for ( int length = 0; length < value.remaining(); length++ ) {
+            ByteBuffer truncated = value.duplicate();
+            truncated.limit( truncated.position() + length );
+
+            double lon = SearchBox.readDouble( truncated, 1 );
+
+            assertTrue( Double.isNaN( lon ) || lon == 20 );
+        }
+    }
+
+
+    @Test
+    public void unbounded() {
+        assertNull( SearchBox.around( new Point( 0, 0 ), Double.MAX_VALUE ) );
+
+        // a quarter of the earth around, the box would hold every longitude
+        assertNull( SearchBox.around( new Point( 0, 0 ), Math.PI / 2 * GeocellUtils.RADIUS ) );
+    }
+
+
+    @Test
+    public void pruning() {
+        SearchBox box = SearchBox.around( new Point( 37.776753, -122.407846 ), 10000 );
+
+        assertTrue( box.contains( location( 37.776753, -122.407846 ) ) );
+        assertTrue( box.contains( location( 37.8, -122.4 ) ) );
+
+        assertFalse( box.contains( location( 38.776753, -122.407846 ) ) );
+        assertFalse( box.contains( location( 37.776753, -121.407846 ) ) );
+        assertFalse( box.contains( location( -37.776753, 57.592154 ) ) );
+
+        // not a location, left to the distance check
+        assertTrue( box.contains( new DynamicComposite( "lat", "lon" ).serialize() ) );
+    }
+
+
+    @Test
+    public void antimeridian() {
+        SearchBox box = SearchBox.around( new Point( 0, 179.9 ), 50000 );
+
+        // across the antimeridian, about 22km away
+        assertTrue( box.contains( location( 0, -179.9 ) ) );
+        assertTrue( box.contains( location( 0.1, 180 ) ) );
+
+        // the latitude still prunes
+        assertFalse( box.contains( location( 1, -179.9 ) ) );
+
+        box = SearchBox.around( new Point( 0, -179.9 ), 50000 );
+
+        assertTrue( box.contains( location( 0, 179.9 ) ) );
+        assertFalse( box.contains( location( -1, 179.9 ) ) );
+    }
+
+
+    @Test
+    public void poles() {
+        SearchBox box = SearchBox.around( new Point( 89.9, 0 ), 50000 );
+
+        // across the north pole, about 22km away
+        assertTrue( box.contains( location( 89.9, 180 ) ) );
+        assertTrue( box.contains( location( 90, 0 ) ) );
+        assertFalse( box.contains( location( 89, 90 ) ) );
+
+        box = SearchBox.around( new Point( -89.9, 45 ), 50000 );
+
+        assertTrue( box.contains( location( -89.9, -135 ) ) );
+        assertTrue( box.contains( location( -90, 0 ) ) );
+        assertFalse( box.contains( location( -89, 45 ) ) );
+    }
+
+
+    /** No location within the distance of the point is ever pruned */
+    @Test
+    public void neverPrunesWithinDistance() {
+        Point[] points = {
+                new Point( 0, 0 ), new Point( 45, 90 ), new Point( -60, -120 ), new Point( 0, 179.95 ),
+                new Point( 0, -179.95 ), new Point( 89.95, 10 ), new Point( -89.95, -10 ), new Point( 70, 179.5 )
+        };
+
+        double[] distances = { 100, 10000, 100000, 1000000 };
+
+        for ( Point point : points ) {
+            for ( double distance : distances ) {
+                SearchBox box = SearchBox.around( point, distance );
+
+                if ( box == null ) {
+                    continue;
+                }
+
+                for ( double lat = -90; lat <= 90; lat += 1 ) {
+                    for ( double lon = -180; lon <= 180; lon += 1 ) {
+                        check( box, point, distance, lat, lon );
+                    }
+                }
+
+                // close to the point, finer than the grid
+                for ( double lat = -0.05; lat <= 0.05; lat += 0.001 ) {
+                    for ( double lon = -0.05; lon <= 0.05; lon += 0.001 ) {
+                        check( box, point, distance, clamp( point.getLat() + lat ), wrap( point.getLon() + lon ) );
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static void check( SearchBox box, Point point, double distance, double lat, double lon ) {
+        if ( GeocellUtils.distance( new Point( lat, lon ), point ) <= distance ) {
+            assertTrue( lat + "," + lon + " is within " + distance + " of " + point.getLat() + "," + point.getLon(),
+                    box.contains( location( lat, lon ) ) );
+        }
+    }
+
+
+    private static double clamp( double lat ) {
+        return Math.max( -90, Math.min( 90, lat ) );
+    }
+
+
+    private static double wrap( double lon ) {
+        if ( lon > 180 ) {
+            return lon - 360;
+        }
+        if ( lon < -180 ) {
+            return lon + 360;
+        }
+        return lon;
+    }
+
+
+    private static ByteBuffer location( double lat, double lon ) {
+        return new EntityLocationRef( ( String ) null, null, lat, lon ).getColumnValue().serialize();
+    }
+}
@@ -48,7 +48,7 @@ public class InOrderIterator implements ResultIterator {
     @Override
     public Iterator<Set<ScanColumn>> iterator() {
         if ( iterator == null ) {
-            reset();
+            start();
         }
 
         return this;
@@ -63,7 +63,7 @@ public class InOrderIterator implements ResultIterator {
     @Override
     public boolean hasNext() {
         if ( iterator == null ) {
-            reset();
+            start();
         }
 
         return iterator.hasNext();
@@ -78,7 +78,7 @@ public class InOrderIterator implements ResultIterator {
     @Override
     public Set<ScanColumn> next() {
         if ( iterator == null ) {
-            reset();
+            start();
         }
 
         return new LinkedHashSet<ScanColumn>( iterator.next() );
@@ -90,7 +90,25 @@ public class InOrderIterator implements ResultIterator {
      */
     @Override
     public void reset() {
-        this.iterator = Iterables.partition( uuids, pageSize ).iterator();
+        start();
+    }
+
+
+    /** Start iterating from the first page */
+    private void start() {
+        start( uuids );
+    }
+
+
+    /** Start iterating from the first page of the columns */
+    protected void start( Iterable<ScanColumn> columns ) {
+        this.iterator = Iterables.partition( columns, pageSize ).iterator();
+    }
+
+
+    /** Get every column that was added, in the order it was added */
+    protected Set<ScanColumn> getColumns() {
+        return uuids;
     }
 
 
@@ -18,6 +18,7 @@ package org.usergrid.persistence.query.ir.result;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -291,6 +292,173 @@ public class IntersectionIteratorTest {
     }
 
 
+    /** Tests that sorted iterators are intersected across pages without ever resetting a child */
+    @Test
+    public void sortedIntersectionNoReset() {
+
+        int size = 1000;
+
+        SortedInOrderIterator first = new SortedInOrderIterator( 10 );
+        SortedInOrderIterator second = new SortedInOrderIterator( 7 );
+        SortedInOrderIterator third = new SortedInOrderIterator( 13 );
+
+        List<UUID> results = new ArrayList<UUID>();
+
+        for ( int i = 0; i < size; i++ ) {
+            UUID id = UUIDUtils.minTimeUUID( i );
+
+            first.add( id );
+
+            if ( i % 3 == 0 ) {
+                second.add( id );
+            }
+
+            if ( i % 5 == 0 ) {
+                third.add( id );
+            }
+
+            if ( i % 15 == 0 ) {
+                results.add( id );
+            }
+        }
+
+        IntersectionIterator intersection = new IntersectionIterator( 10 );
+        intersection.addIterator( first );
+        intersection.addIterator( second );
+        intersection.addIterator( third );
+
+        assertTrue( intersection.isUUIDOrdered() );
+
+        Iterator<UUID> expected = results.iterator();
+
+        while ( intersection.hasNext() ) {
+            Set<ScanColumn> page = intersection.next();
+
+            assertTrue( page.size() <= 10 );
+
+            for ( ScanColumn col : page ) {
+                assertTrue( expected.hasNext() );
+                assertEquals( expected.next(), col.getUUID() );
+            }
+        }
+
+        assertFalse( expected.hasNext() );
+
+        assertEquals( 0, first.getResetCount() );
+        assertEquals( 0, second.getResetCount() );
+        assertEquals( 0, third.getResetCount() );
+
+        //seeks that cross a page boundary are pushed down to the child
+        assertTrue( second.getSeekCount() > 0 );
+    }
+
+
+    /** Tests the test iterator only moves forward when it's seeked */
+    @Test
+    public void sortedSeek() {
+
+        SortedInOrderIterator iterator = new SortedInOrderIterator( 10 );
+
+        for ( int i = 0; i < 100; i++ ) {
+            iterator.add( UUIDUtils.minTimeUUID( i ) );
+        }
+
+        assertEquals( UUIDUtils.minTimeUUID( 0 ), iterator.next().iterator().next().getUUID() );
+
+        iterator.seek( UUIDUtils.minTimeUUID( 55 ) );
+
+        Set<ScanColumn> page = iterator.next();
+
+        assertEquals( 10, page.size() );
+        assertEquals( UUIDUtils.minTimeUUID( 55 ), page.iterator().next().getUUID() );
+
+        //seeking backwards doesn't return the page again
+        iterator.seek( UUIDUtils.minTimeUUID( 5 ) );
+
+        assertEquals( UUIDUtils.minTimeUUID( 65 ), iterator.next().iterator().next().getUUID() );
+
+        assertEquals( 2, iterator.getSeekCount() );
+    }
+
+
+    /** Tests that a single unsorted iterator falls back to the scanning intersection */
+    @Test
+    public void mixedSortedUnsorted() {
+
+        UUID id1 = UUIDUtils.minTimeUUID( 1 );
+        UUID id2 = UUIDUtils.minTimeUUID( 2 );
+        UUID id3 = UUIDUtils.minTimeUUID( 3 );
+
+        SortedInOrderIterator first = new SortedInOrderIterator( 100 );
+        first.add( id1, id2, id3 );
+
+        InOrderIterator second = new InOrderIterator( 100 );
+        second.add( id3, id1 );
+
+        IntersectionIterator intersection = new IntersectionIterator( 100 );
+        intersection.addIterator( first );
+        intersection.addIterator( second );
+
+        assertFalse( intersection.isUUIDOrdered() );
+
+        Iterator<ScanColumn> union = intersection.next().iterator();
+
+        assertEquals( id1, union.next().getUUID() );
+        assertEquals( id3, union.next().getUUID() );
+        assertFalse( union.hasNext() );
+    }
+
+
+    /** Tests that a sorted intersection joined to every page of an unsorted root is read again after each reset */
+    @Test
+    public void sortedChildOfUnsortedRoot() {
+
+        InOrderIterator root = new InOrderIterator( 10 );
+        SortedInOrderIterator second = new SortedInOrderIterator( 100 );
+        SortedInOrderIterator third = new SortedInOrderIterator( 100 );
+
+        Set<UUID> results = new LinkedHashSet<UUID>();
+
+        for ( int i = 0; i < 50; i++ ) {
+            UUID id = UUIDUtils.minTimeUUID( i );
+
+            root.add( id );
+
+            if ( i % 2 == 0 ) {
+                second.add( id );
+            }
+
+            if ( i % 3 == 0 ) {
+                third.add( id );
+            }
+
+            if ( i % 6 == 0 ) {
+                results.add( id );
+            }
+        }
+
+        IntersectionIterator child = new IntersectionIterator( 100 );
+        child.addIterator( second );
+        child.addIterator( third );
+
+        IntersectionIterator intersection = new IntersectionIterator( 10 );
+        intersection.addIterator( root );
+        intersection.addIterator( child );
+
+        assertFalse( intersection.isUUIDOrdered() );
+
+        Set<UUID> returned = new LinkedHashSet<UUID>();
+
+        while ( intersection.hasNext() ) {
+            for ( ScanColumn col : intersection.next() ) {
+                returned.add( col.getUUID() );
+            }
+        }
+
+        assertEquals( results, returned );
+    }
+
+
     private void reverse( UUID[] array ) {
 
         UUID temp = null;
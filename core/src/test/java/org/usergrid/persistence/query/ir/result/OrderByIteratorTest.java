@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.query.ir.result;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.persistence.DynamicEntity;
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.EntityPropertyComparator;
+import org.usergrid.persistence.query.ir.result.OrderByIterator.SortedEntitySet;
+import org.usergrid.utils.UUIDUtils;
+
+import org.apache.commons.collections.comparators.ComparatorChain;
+
+import static org.junit.Assert.assertEquals;
+import static org.usergrid.persistence.query.ir.result.IteratorHelper.uuidColumn;
+
+
+public class OrderByIteratorTest {
+
+
+    /** Candidates in the set are not loaded again by a later page, the rejected ones still can't get in */
+    @Test
+    public void keptCandidatesLoadedOnce() {
+        Map<UUID, Entity> entities = new HashMap<UUID, Entity>();
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for ( int i = 0; i < 6; i++ ) {
+            UUID id = UUIDUtils.minTimeUUID( i + 1 );
+            Entity entity = new DynamicEntity( "thing", id );
+            entity.setProperty( "rank", i );
+
+            entities.put( id, entity );
+            ids.add( id );
+        }
+
+        List<UUID> requested = new ArrayList<UUID>();
+
+        SortedEntitySet set = new SortedEntitySet( comparator(), entityManager( entities, requested ),
+                Arrays.asList( "rank", "uuid" ), 2, null );
+
+        // the first page fills the set and rejects the others
+        for ( UUID id : ids ) {
+            set.add( uuidColumn( id ) );
+        }
+        set.load();
+
+        assertEquals( 6, requested.size() );
+
+        // the same candidates again, only the rejected ones are loaded
+        for ( UUID id : ids ) {
+            set.add( uuidColumn( id ) );
+        }
+        set.load();
+
+        assertEquals( 10, requested.size() );
+        assertEquals( ids.subList( 2, 6 ), requested.subList( 6, 10 ) );
+
+        Iterator<ScanColumn> results = set.toIds().iterator();
+
+        assertEquals( ids.get( 0 ), results.next().getUUID() );
+        assertEquals( ids.get( 1 ), results.next().getUUID() );
+    }
+
+
+    private static ComparatorChain comparator() {
+        ComparatorChain chain = new ComparatorChain();
+        chain.addComparator( new EntityPropertyComparator( "rank", false ) );
+        chain.addComparator( new EntityPropertyComparator( "uuid", false ) );
+        return chain;
+    }
+
+
+    /** An entity manager that only loads partial entities from the map, and records the ids it was asked for */
+    private static EntityManager entityManager( final Map<UUID, Entity> entities, final List<UUID> requested ) {
+        return ( EntityManager ) Proxy.newProxyInstance( EntityManager.class.getClassLoader(), new Class<?>[] {
+                EntityManager.class
+        }, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy, Method method, Object[] args ) {
+                if ( !"getPartialEntities".equals( method.getName() ) ) {
+                    throw new UnsupportedOperationException( method.getName() );
+                }
+
+                List<Entity> loaded = new ArrayList<Entity>();
+
+                for ( UUID id : ( Collection<UUID> ) args[0] ) {
+                    requested.add( id );
+                    loaded.add( entities.get( id ) );
+                }
+
+                return loaded;
+            }
+        } );
+    }
+}
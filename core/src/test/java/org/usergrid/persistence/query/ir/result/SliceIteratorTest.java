@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.persistence.query.ir.result;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.persistence.cassandra.index.IndexScanner;
+import org.usergrid.persistence.query.ir.QuerySlice;
+import org.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.usergrid.persistence.query.ir.result.IteratorHelper.uuidColumn;
+
+
+public class SliceIteratorTest {
+
+
+    @Test
+    public void pagesAreNotReused() {
+
+        UUID id1 = UUIDUtils.minTimeUUID( 1 );
+        UUID id2 = UUIDUtils.minTimeUUID( 2 );
+        UUID id3 = UUIDUtils.minTimeUUID( 3 );
+        UUID id4 = UUIDUtils.minTimeUUID( 4 );
+
+        PageScanner scanner = new PageScanner( 2 );
+        scanner.addPage( id1, id2 );
+        scanner.addPage( id3, id4 );
+
+        SliceIterator iter = new SliceIterator( new QuerySlice( "test", 0 ), scanner, new UUIDIndexSliceParser(),
+                false );
+
+        assertTrue( iter.hasNext() );
+        Set<ScanColumn> first = iter.next();
+
+        assertTrue( iter.hasNext() );
+        Set<ScanColumn> second = iter.next();
+
+        assertFalse( iter.hasNext() );
+
+        // loading the second page must leave the first one as it was returned
+        assertEquals( 2, first.size() );
+        assertTrue( first.contains( uuidColumn( id1 ) ) );
+        assertTrue( first.contains( uuidColumn( id2 ) ) );
+
+        assertEquals( 2, second.size() );
+        assertTrue( second.contains( uuidColumn( id3 ) ) );
+        assertTrue( second.contains( uuidColumn( id4 ) ) );
+    }
+
+
+    @Test
+    public void unionOfSlices() {
+
+        UUID id1 = UUIDUtils.minTimeUUID( 1 );
+        UUID id2 = UUIDUtils.minTimeUUID( 2 );
+        UUID id3 = UUIDUtils.minTimeUUID( 3 );
+        UUID id4 = UUIDUtils.minTimeUUID( 4 );
+        UUID id5 = UUIDUtils.minTimeUUID( 5 );
+        UUID id6 = UUIDUtils.minTimeUUID( 6 );
+
+        PageScanner firstScanner = new PageScanner( 2 );
+        firstScanner.addPage( id1, id3 );
+        firstScanner.addPage( id5 );
+
+        PageScanner secondScanner = new PageScanner( 2 );
+        secondScanner.addPage( id2, id4 );
+        secondScanner.addPage( id6 );
+
+        UnionIterator union = new UnionIterator( 100 );
+        union.addIterator(
+                new SliceIterator( new QuerySlice( "first", 0 ), firstScanner, new UUIDIndexSliceParser(), false ) );
+        union.addIterator(
+                new SliceIterator( new QuerySlice( "second", 1 ), secondScanner, new UUIDIndexSliceParser(),
+                        false ) );
+
+        Set<ScanColumn> results = new LinkedHashSet<ScanColumn>();
+
+        while ( union.hasNext() ) {
+            results.addAll( union.next() );
+        }
+
+        assertEquals( 6, results.size() );
+        assertTrue( results.contains( uuidColumn( id1 ) ) );
+        assertTrue( results.contains( uuidColumn( id2 ) ) );
+        assertTrue( results.contains( uuidColumn( id3 ) ) );
+        assertTrue( results.contains( uuidColumn( id4 ) ) );
+        assertTrue( results.contains( uuidColumn( id5 ) ) );
+        assertTrue( results.contains( uuidColumn( id6 ) ) );
+    }
+
+
+    /** A scanner over pages of uuid columns held in memory */
+    private static class PageScanner implements IndexScanner {
+
+        private final List<Set<HColumn<ByteBuffer, ByteBuffer>>> pages =
+                new ArrayList<Set<HColumn<ByteBuffer, ByteBuffer>>>();
+        private final int pageSize;
+        private int index;
+
+
+        private PageScanner( int pageSize ) {
+            this.pageSize = pageSize;
+        }
+
+
+        private void addPage( UUID... ids ) {
+            Set<HColumn<ByteBuffer, ByteBuffer>> page = new LinkedHashSet<HColumn<ByteBuffer, ByteBuffer>>();
+
+            for ( UUID id : ids ) {
+                page.add( createColumn( UUIDSerializer.get().toByteBuffer( id ), ByteBuffer.allocate( 0 ),
+                        ByteBufferSerializer.get(), ByteBufferSerializer.get() ) );
+            }
+
+            pages.add( page );
+        }
+
+
+        @Override
+        public void reset() {
+            index = 0;
+        }
+
+
+        @Override
+        public int getPageSize() {
+            return pageSize;
+        }
+
+
+        @Override
+        public void seek( ByteBuffer start ) {
+        }
+
+
+        @Override
+        public Iterator<Set<HColumn<ByteBuffer, ByteBuffer>>> iterator() {
+            return this;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            return index < pages.size();
+        }
+
+
+        @Override
+        public Set<HColumn<ByteBuffer, ByteBuffer>> next() {
+            return pages.get( index++ );
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.usergrid.persistence.query.ir.result;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Ignore;
+import org.usergrid.utils.UUIDUtils;
+
+
+/**
+ * Simple iterator for testing that iterates UUIDs in the order returned, and reports that they're in uuid order.  The
+ * UUIDs must be added in uuid order.  Counts how many times it was reset so tests can assert it was never rescanned
+ */
+@Ignore("not a test")
+public class SortedInOrderIterator extends InOrderIterator implements SeekableResultIterator {
+
+    private int resetCount;
+    private int seekCount;
+
+    /** The last uuid returned, a seek never moves before it */
+    private UUID last;
+
+
+    public SortedInOrderIterator( int pageSize ) {
+        super( pageSize );
+    }
+
+
+    @Override
+    public void reset() {
+        resetCount++;
+        last = null;
+        super.reset();
+    }
+
+
+    @Override
+    public Set<ScanColumn> next() {
+        Set<ScanColumn> page = super.next();
+
+        for ( ScanColumn col : page ) {
+            last = col.getUUID();
+        }
+
+        return page;
+    }
+
+
+    @Override
+    public boolean isUUIDOrdered() {
+        return true;
+    }
+
+
+    @Override
+    public void seek( UUID uuid ) {
+        seekCount++;
+
+        List<ScanColumn> remaining = new ArrayList<ScanColumn>();
+
+        for ( ScanColumn col : getColumns() ) {
+            if ( last != null && UUIDUtils.compare( col.getUUID(), last ) <= 0 ) {
+                continue;
+            }
+
+            if ( UUIDUtils.compare( col.getUUID(), uuid ) >= 0 ) {
+                remaining.add( col );
+            }
+        }
+
+        // the next page starts at the first uuid >= the seek
+        start( remaining );
+    }
+
+
+    public int getResetCount() {
+        return resetCount;
+    }
+
+
+    public int getSeekCount() {
+        return seekCount;
+    }
+}
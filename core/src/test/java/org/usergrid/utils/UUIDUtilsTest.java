@@ -220,6 +220,56 @@ public class UUIDUtilsTest {
     }
 
 
+    /**
+     * Every thread's uuids are increasing and no microsecond is handed out twice across threads.  Logs the throughput
+     * for each thread count, which should hold up as threads are added since there's no lock to queue on
+     */
+    @Test
+    public void concurrentScaling() throws Exception {
+        final int count = 50000;
+
+        for ( int threads = 1; threads <= 8; threads *= 2 ) {
+            ExecutorService exec = Executors.newFixedThreadPool( threads );
+            List<Future<List<UUID>>> jobs = new ArrayList<Future<List<UUID>>>( threads );
+
+            long start = System.nanoTime();
+
+            for ( int i = 0; i < threads; i++ ) {
+                jobs.add( exec.submit( new Callable<List<UUID>>() {
+                    @Override
+                    public List<UUID> call() throws Exception {
+                        List<UUID> uuids = new ArrayList<UUID>( count );
+                        for ( int x = 0; x < count; x++ ) {
+                            uuids.add( newTimeUUID() );
+                        }
+                        return uuids;
+                    }
+                } ) );
+            }
+
+            Set<Long> micros = new HashSet<Long>( threads * count );
+
+            for ( Future<List<UUID>> job : jobs ) {
+                long last = 0;
+
+                for ( UUID uuid : job.get() ) {
+                    assertTrue( "UUID out of order", uuid.timestamp() > last );
+                    last = uuid.timestamp();
+
+                    assertTrue( "Microsecond already used", micros.add( UUIDUtils.getTimestampInMicros( uuid ) ) );
+                }
+            }
+
+            long elapsed = System.nanoTime() - start;
+            exec.shutdown();
+
+            LOG.info( "{} threads generated {} uuids in {} ms", new Object[] {
+                    threads, threads * count, TimeUnit.NANOSECONDS.toMillis( elapsed )
+            } );
+        }
+    }
+
+
     @Test
     public void timeUUIDOrderingRolls() {
 
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mongo;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.persistence.Query;
+
+
+/**
+ * The open cursors of a client connection, keyed by the mongo cursor id.  A cursor holds the query and the usergrid
+ * cursor of the next page, so a page is only read when the client asks for it with OP_GET_MORE.  Cursors that haven't
+ * been read for the idle timeout are expired, and the least recently read cursor is dropped once the connection has
+ * too many open.
+ */
+public class CursorRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger( CursorRegistry.class );
+
+    /** Mongo times out idle cursors after 10 minutes */
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    public static final int DEFAULT_MAX_CURSORS = 100;
+
+    private final long idleTimeout;
+
+    private final Map<Long, Cursor> cursors;
+
+    private long nextId = 1;
+
+
+    public CursorRegistry() {
+        this( DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_CURSORS );
+    }
+
+
+    public CursorRegistry( long idleTimeout, final int maxCursors ) {
+        this.idleTimeout = idleTimeout;
+
+        // access ordered, the eldest entry is the least recently read cursor
+        this.cursors = new LinkedHashMap<Long, Cursor>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Long, Cursor> eldest ) {
+                if ( size() > maxCursors ) {
+                    logger.info( "Too many open cursors, dropping cursor {}", eldest.getKey() );
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Open a cursor
+     *
+     * @param applicationId The application of the query
+     * @param collectionName The collection queried
+     * @param query The query, it's reused for every page
+     * @param cursor The usergrid cursor of the next page
+     * @param returned The number of documents returned with the first page
+     *
+     * @return The mongo cursor id, never 0
+     */
+    public synchronized long open( UUID applicationId, String collectionName, Query query, String cursor,
+                                   int returned ) {
+        expire();
+
+        long id = nextId++;
+
+        cursors.put( id, new Cursor( id, applicationId, collectionName, query, cursor, returned ) );
+
+        return id;
+    }
+
+
+    /** Get the cursor with the id, null if it was never opened, is exhausted, killed or expired */
+    public synchronized Cursor get( long cursorId ) {
+        expire();
+
+        Cursor cursor = cursors.get( cursorId );
+
+        if ( cursor != null ) {
+            cursor.touch();
+        }
+
+        return cursor;
+    }
+
+
+    /** Close the cursor with the id */
+    public synchronized void kill( long cursorId ) {
+        cursors.remove( cursorId );
+    }
+
+
+    /** Close every cursor, the connection is closed */
+    public synchronized void clear() {
+        cursors.clear();
+    }
+
+
+    public synchronized int size() {
+        return cursors.size();
+    }
+
+
+    /** Remove the cursors that have been idle for longer than the timeout */
+    private void expire() {
+        long now = System.currentTimeMillis();
+
+        for ( Iterator<Cursor> it = cursors.values().iterator(); it.hasNext(); ) {
+            Cursor cursor = it.next();
+
+            // access ordered, the rest were read more recently
+            if ( now - cursor.lastAccess <= idleTimeout ) {
+                break;
+            }
+
+            logger.info( "Expiring idle cursor {}", cursor.id );
+            it.remove();
+        }
+    }
+
+
+    /** The state of an open cursor */
+    public static class Cursor {
+
+        private final long id;
+        private final UUID applicationId;
+        private final String collectionName;
+        private final Query query;
+        private String cursor;
+        private int returned;
+        private long lastAccess;
+
+
+        private Cursor( long id, UUID applicationId, String collectionName, Query query, String cursor,
+                        int returned ) {
+            this.id = id;
+            this.applicationId = applicationId;
+            this.collectionName = collectionName;
+            this.query = query;
+            this.cursor = cursor;
+            this.returned = returned;
+            touch();
+        }
+
+
+        public long getId() {
+            return id;
+        }
+
+
+        public UUID getApplicationId() {
+            return applicationId;
+        }
+
+
+        public String getCollectionName() {
+            return collectionName;
+        }
+
+
+        public Query getQuery() {
+            return query;
+        }
+
+
+        /** The usergrid cursor of the next page */
+        public String getCursor() {
+            return cursor;
+        }
+
+
+        /** The number of documents returned so far */
+        public int getReturned() {
+            return returned;
+        }
+
+
+        /** Move the cursor past a page */
+        public void advance( String cursor, int returned ) {
+            this.cursor = cursor;
+            this.returned += returned;
+        }
+
+
+        private void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
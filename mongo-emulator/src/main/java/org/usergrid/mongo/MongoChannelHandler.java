@@ -17,6 +17,7 @@ package org.usergrid.mongo;
 
 
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
@@ -25,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import org.usergrid.management.ManagementService;
 import org.usergrid.mongo.protocol.Message;
 import org.usergrid.mongo.protocol.OpCrud;
+import org.usergrid.mongo.protocol.OpKillCursors;
 import org.usergrid.mongo.protocol.OpReply;
 import org.usergrid.persistence.EntityManagerFactory;
 import org.usergrid.services.ServiceManagerFactory;
@@ -44,6 +46,9 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
     private final ManagementService management;
     private final SessionsSecurityManager securityManager;
 
+    /** The open cursors of this connection */
+    private final CursorRegistry cursors = new CursorRegistry();
+
     Subject subject = null;
 
 
@@ -83,6 +88,11 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
     }
 
 
+    public CursorRegistry getCursors() {
+        return cursors;
+    }
+
+
     @Override
     public void messageReceived( ChannelHandlerContext ctx, MessageEvent e ) {
 
@@ -125,6 +135,13 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
     }
 
 
+    @Override
+    public void channelClosed( ChannelHandlerContext ctx, ChannelStateEvent e ) throws Exception {
+        cursors.clear();
+        super.channelClosed( ctx, e );
+    }
+
+
     @Override
     public void exceptionCaught( ChannelHandlerContext ctx, ExceptionEvent e ) {
         logger.warn( "Unexpected exception from downstream.", e.getCause() );
@@ -138,6 +155,14 @@ public class MongoChannelHandler extends SimpleChannelUpstreamHandler {
             return ( ( OpCrud ) message ).doOp( this, ctx, e );
         }
 
+        // kill cursors never returns a response in mongo
+        if ( message instanceof OpKillCursors ) {
+            for ( Long cursorId : ( ( OpKillCursors ) message ).getCursorIDs() ) {
+                cursors.kill( cursorId );
+            }
+            return null;
+        }
+
         OpReply reply = new OpReply( message );
         return reply;
     }
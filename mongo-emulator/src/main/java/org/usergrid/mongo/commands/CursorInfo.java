@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mongo.commands;
+
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.usergrid.mongo.MongoChannelHandler;
+import org.usergrid.mongo.protocol.OpQuery;
+import org.usergrid.mongo.protocol.OpReply;
+
+import static org.usergrid.utils.MapUtils.entry;
+import static org.usergrid.utils.MapUtils.map;
+
+
+/** The open cursors, only those of the connection asking since cursors are kept per connection */
+public class CursorInfo extends MongoCommand {
+
+    @Override
+    public OpReply execute( MongoChannelHandler handler, ChannelHandlerContext ctx, MessageEvent e, OpQuery opQuery ) {
+        int open = handler.getCursors().size();
+
+        OpReply reply = new OpReply( opQuery );
+        reply.addDocument( map( entry( "totalOpen", open ), entry( "clientCursors_size", open ), entry( "timedOut", 0 ),
+                entry( "ok", 1.0 ) ) );
+        return reply;
+    }
+}
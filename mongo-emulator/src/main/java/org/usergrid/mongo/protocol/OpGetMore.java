@@ -22,11 +22,22 @@ import java.nio.ByteBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usergrid.mongo.CursorRegistry;
 import org.usergrid.mongo.MongoChannelHandler;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.Query;
+import org.usergrid.persistence.Results;
+
+import static org.usergrid.utils.MapUtils.entry;
+import static org.usergrid.utils.MapUtils.map;
 
 
 public class OpGetMore extends OpCrud {
 
+    private static final Logger logger = LoggerFactory.getLogger( OpGetMore.class );
+
     int numberToReturn;
     long cursorID;
 
@@ -96,7 +107,50 @@ public class OpGetMore extends OpCrud {
      */
     @Override
     public OpReply doOp( MongoChannelHandler handler, ChannelHandlerContext ctx, MessageEvent messageEvent ) {
-        return new OpReply( this );
+        OpReply reply = new OpReply( this );
+
+        CursorRegistry cursors = handler.getCursors();
+        CursorRegistry.Cursor cursor = cursors.get( cursorID );
+
+        if ( cursor == null ) {
+            reply.setResponseFlags( reply.getResponseFlags() | OpReply.CURSOR_NOT_FOUND );
+            return reply;
+        }
+
+        reply.setStartingFrom( cursor.getReturned() );
+
+        try {
+            Query query = cursor.getQuery();
+            query.setLimit( numberToReturn > 0 ? numberToReturn : OpQuery.DEFAULT_BATCH_SIZE );
+            query.setCursor( cursor.getCursor() );
+
+            EntityManager em = handler.getEmf().getEntityManager( cursor.getApplicationId() );
+
+            Results results = em.searchCollection( em.getApplicationRef(), cursor.getCollectionName(), query );
+
+            OpQuery.addDocuments( reply, results );
+
+            // the last batch closes the cursor
+            if ( results.getCursor() == null ) {
+                cursors.kill( cursorID );
+            }
+            else {
+                cursor.advance( results.getCursor(), reply.getNumberReturned() );
+                reply.setCursorID( cursorID );
+            }
+        }
+        catch ( Exception ex ) {
+            logger.error( "Unable to read the next batch of cursor {}", cursorID, ex );
+            cursors.kill( cursorID );
+
+            // drop whatever was read, an empty reply would look like the end of the results to the client
+            reply = new OpReply( this );
+            reply.setResponseFlags( reply.getResponseFlags() | OpReply.QUERY_FAILURE );
+            reply.addDocument( map( entry( "$err", "Unable to read the next batch of cursor " + cursorID + ": " + ex
+                    .getMessage() ), entry( "ok", 0.0 ) ) );
+        }
+
+        return reply;
     }
 
 
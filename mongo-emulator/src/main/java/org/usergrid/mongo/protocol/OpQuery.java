@@ -61,6 +61,9 @@ public class OpQuery extends OpCrud {
 
     private static final Logger logger = LoggerFactory.getLogger( OpQuery.class );
 
+    /** The number of documents returned in a batch when the client doesn't ask for a number */
+    static final int DEFAULT_BATCH_SIZE = 30;
+
     int flags;
     int numberToSkip;
     int numberToReturn;
@@ -385,46 +388,32 @@ public class OpQuery extends OpCrud {
             return reply;
         }
 
-        int count = getNumberToReturn();
-        if ( count <= 0 ) {
-            count = 30;
+        // a negative number, or 1, asks for a single batch and no cursor
+        boolean singleBatch = numberToReturn < 0 || numberToReturn == 1;
+
+        int count = Math.abs( getNumberToReturn() );
+        if ( count == 0 ) {
+            count = DEFAULT_BATCH_SIZE;
         }
 
         EntityManager em = handler.getEmf().getEntityManager( application.getId() );
 
         try {
-            Results results = null;
             Query q = MongoQueryParser.toNativeQuery( query, returnFieldSelector, numberToReturn );
-            if ( q != null ) {
-                results = em.searchCollection( em.getApplicationRef(), getCollectionName(), q );
-            }
-            else {
-                results = em.getCollection( em.getApplicationRef(), getCollectionName(), null, count,
-                        Results.Level.ALL_PROPERTIES, false );
+            if ( q == null ) {
+                q = new Query();
             }
-            if ( !results.isEmpty() ) {
-                for ( Entity entity : results.getEntities() ) {
-
-                    Object savedId = entity.getProperty( "_id" );
-                    Object mongoId = null;
-
-                    //try to parse it into an ObjectId
-                    if ( savedId == null ) {
-                        mongoId = entity.getUuid();
-                    }
-                    else {
-                        try {
-                            mongoId = new ObjectId( savedId.toString() );
-                            //it's not a mongo Id, use it as is
-                        }
-                        catch ( IllegalArgumentException iae ) {
-                            mongoId = savedId;
-                        }
-                    }
-
-                    reply.addDocument( map( entry( "_id", mongoId ), toJsonMap( entity ),
-                            entry( Schema.PROPERTY_UUID, entity.getUuid().toString() ) ) );
-                }
+            q.setLimit( count );
+
+            Results results = em.searchCollection( em.getApplicationRef(), getCollectionName(), q );
+
+            addDocuments( reply, results );
+
+            // keep the query and the usergrid cursor, the next batch is read when the client asks for it
+            if ( !singleBatch && results.getCursor() != null ) {
+                reply.setCursorID( handler.getCursors()
+                                          .open( application.getId(), getCollectionName(), q, results.getCursor(),
+                                                  reply.getNumberReturned() ) );
             }
         }
         catch ( Exception ex ) {
@@ -434,6 +423,37 @@ public class OpQuery extends OpCrud {
     }
 
 
+    /** Add the entities of the results to the reply as mongo documents */
+    static void addDocuments( OpReply reply, Results results ) {
+        if ( results.isEmpty() ) {
+            return;
+        }
+
+        for ( Entity entity : results.getEntities() ) {
+
+            Object savedId = entity.getProperty( "_id" );
+            Object mongoId = null;
+
+            //try to parse it into an ObjectId
+            if ( savedId == null ) {
+                mongoId = entity.getUuid();
+            }
+            else {
+                try {
+                    mongoId = new ObjectId( savedId.toString() );
+                    //it's not a mongo Id, use it as is
+                }
+                catch ( IllegalArgumentException iae ) {
+                    mongoId = savedId;
+                }
+            }
+
+            reply.addDocument( map( entry( "_id", mongoId ), toJsonMap( entity ),
+                    entry( Schema.PROPERTY_UUID, entity.getUuid().toString() ) ) );
+        }
+    }
+
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
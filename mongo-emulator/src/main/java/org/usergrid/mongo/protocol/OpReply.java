@@ -31,6 +31,12 @@ import org.usergrid.mongo.utils.BSONUtils;
 
 public class OpReply extends Message {
 
+    /** Response flag set when the cursor of an OP_GET_MORE isn't open */
+    public static final int CURSOR_NOT_FOUND = 1;
+
+    /** Response flag set when the query failed, the only document of the reply holds the $err */
+    public static final int QUERY_FAILURE = 2;
+
     int responseFlags = 8;
     long cursorID;
     int startingFrom;
@@ -337,4 +337,60 @@ public class BasicMongoTest extends AbstractMongoTest {
 
         assertEquals( 0, results.size() );
     }
+
+
+    @Test
+    public void cursorTest() throws Exception {
+
+        DB db = getDb();
+
+        // cursors are kept per connection, keep using the same one
+        db.requestStart();
+
+        int count = 95;
+
+        List<DBObject> docs = new ArrayList<DBObject>( count );
+
+        for ( int i = 0; i < count; i++ ) {
+            BasicDBObject doc = new BasicDBObject();
+
+            doc.put( "index", i );
+
+            docs.add( doc );
+        }
+
+        WriteResult result = db.getCollection( "cursortests" ).insert( docs );
+
+        assertNull( result.getLastError().getErrorMessage() );
+
+        // read past the first batch, the rest are read with OP_GET_MORE
+        DBCursor cursor = db.getCollection( "cursortests" ).find().batchSize( 10 );
+
+        int read = 0;
+
+        while ( cursor.hasNext() ) {
+            int index = new BasicDBObject( cursor.next().toMap() ).getInt( "index" );
+
+            assertEquals( read, index );
+
+            read++;
+        }
+
+        assertEquals( count, read );
+
+        // close a cursor that still has batches, it's killed on the server
+        cursor = db.getCollection( "cursortests" ).find().batchSize( 10 );
+
+        assertTrue( cursor.hasNext() );
+        cursor.next();
+
+        assertEquals( 1, db.command( "cursorInfo" ).getInt( "totalOpen" ) );
+
+        cursor.close();
+
+        // the exhausted cursor closed itself and the other was killed
+        assertEquals( 0, db.command( "cursorInfo" ).getInt( "totalOpen" ) );
+
+        db.requestDone();
+    }
 }
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.mongo;
+
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.usergrid.persistence.Query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class CursorRegistryTest {
+
+    private static final UUID APP_ID = UUID.randomUUID();
+
+
+    @Test
+    public void openAndKill() {
+        CursorRegistry cursors = new CursorRegistry();
+
+        long first = cursors.open( APP_ID, "things", new Query(), "cursor1", 10 );
+        long second = cursors.open( APP_ID, "things", new Query(), "cursor2", 10 );
+
+        assertTrue( first != 0 );
+        assertTrue( first != second );
+        assertEquals( 2, cursors.size() );
+
+        CursorRegistry.Cursor cursor = cursors.get( first );
+        assertEquals( "cursor1", cursor.getCursor() );
+
+        cursor.advance( "cursor3", 5 );
+        assertEquals( "cursor3", cursors.get( first ).getCursor() );
+        assertEquals( 15, cursors.get( first ).getReturned() );
+
+        cursors.kill( first );
+        assertNull( cursors.get( first ) );
+        assertEquals( 1, cursors.size() );
+
+        cursors.clear();
+        assertEquals( 0, cursors.size() );
+    }
+
+
+    @Test
+    public void idleExpiry() throws InterruptedException {
+        CursorRegistry cursors = new CursorRegistry( 200, 10 );
+
+        long idle = cursors.open( APP_ID, "things", new Query(), "cursor1", 10 );
+        long read = cursors.open( APP_ID, "things", new Query(), "cursor2", 10 );
+
+        Thread.sleep( 120 );
+
+        // reading a cursor keeps it open
+        assertNotNull( cursors.get( read ) );
+
+        Thread.sleep( 120 );
+
+        assertNull( cursors.get( idle ) );
+        assertNotNull( cursors.get( read ) );
+        assertEquals( 1, cursors.size() );
+    }
+
+
+    @Test
+    public void leastRecentlyReadEvicted() {
+        CursorRegistry cursors = new CursorRegistry( CursorRegistry.DEFAULT_IDLE_TIMEOUT, 2 );
+
+        long first = cursors.open( APP_ID, "things", new Query(), "cursor1", 10 );
+        long second = cursors.open( APP_ID, "things", new Query(), "cursor2", 10 );
+
+        // the second cursor is now the least recently read
+        assertNotNull( cursors.get( first ) );
+
+        long third = cursors.open( APP_ID, "things", new Query(), "cursor3", 10 );
+
+        assertEquals( 2, cursors.size() );
+        assertNull( cursors.get( second ) );
+        assertNotNull( cursors.get( first ) );
+        assertNotNull( cursors.get( third ) );
+    }
+}
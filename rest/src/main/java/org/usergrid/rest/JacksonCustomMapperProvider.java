@@ -17,7 +17,9 @@ package org.usergrid.rest;
 
 
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
 
@@ -41,21 +43,42 @@ public class JacksonCustomMapperProvider implements ContextResolver<ObjectMapper
 
     public final static Annotations[] BASIC_ANNOTATIONS = { Annotations.JACKSON };
     MapperConfigurator _mapperConfig;
+    MapperConfigurator _prettyMapperConfig;
+
+    @Context
+    UriInfo uriInfo;
 
 
     public JacksonCustomMapperProvider() {
         logger.info( "JacksonCustomMapperProvider installed" );
         _mapperConfig = new MapperConfigurator( new ObjectMapper(), BASIC_ANNOTATIONS );
         _mapperConfig.setAnnotationsToUse( BASIC_ANNOTATIONS );
-        // do configuration of mapper here
-        _mapperConfig.configure( SerializationConfig.Feature.INDENT_OUTPUT, true );
+        // do configuration of mapper here, output is compact unless a request asks for pretty=true
+        _mapperConfig.configure( SerializationConfig.Feature.INDENT_OUTPUT, false );
         _mapperConfig.configure( SerializationConfig.Feature.WRITE_DATES_AS_TIMESTAMPS, false );
+
+        _prettyMapperConfig = new MapperConfigurator( new ObjectMapper(), BASIC_ANNOTATIONS );
+        _prettyMapperConfig.setAnnotationsToUse( BASIC_ANNOTATIONS );
+        _prettyMapperConfig.configure( SerializationConfig.Feature.INDENT_OUTPUT, true );
+        _prettyMapperConfig.configure( SerializationConfig.Feature.WRITE_DATES_AS_TIMESTAMPS, false );
     }
 
 
     @Override
     public ObjectMapper getContext( Class<?> aClass ) {
-        return _mapperConfig.getConfiguredMapper();
+        return isPretty() ? _prettyMapperConfig.getConfiguredMapper() : _mapperConfig.getConfiguredMapper();
+    }
+
+
+    /** True if the current request asks for indented output */
+    private boolean isPretty() {
+        try {
+            return uriInfo != null && "true".equalsIgnoreCase( uriInfo.getQueryParameters().getFirst( "pretty" ) );
+        }
+        catch ( IllegalStateException e ) {
+            // not in the scope of a request
+            return false;
+        }
     }
 
 
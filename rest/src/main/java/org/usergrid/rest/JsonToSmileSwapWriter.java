@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.rest;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.Providers;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+
+import com.sun.jersey.api.json.JSONWithPadding;
+
+
+/**
+ * A writer that will unwrap the value of a JSONWithPadding for requests that accept "application/x-jackson-smile",
+ * since a jsonp callback can't wrap a binary response.  The value is written as smile with the mapper used for json.
+ */
+@Provider
+@Produces( JsonToSmileSwapWriter.APPLICATION_SMILE )
+public class JsonToSmileSwapWriter implements MessageBodyWriter<JSONWithPadding> {
+
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+    public static final MediaType APPLICATION_SMILE_TYPE = MediaType.valueOf( APPLICATION_SMILE );
+
+    private static final SmileFactory smileFactory = new SmileFactory();
+
+    @Context
+    Providers providers;
+
+
+    @Override
+    public boolean isWriteable( final Class<?> type, final Type genericType, final Annotation[] annotations,
+                                final MediaType mediaType ) {
+
+        return JSONWithPadding.class.isAssignableFrom( type ) && isSmile( mediaType );
+    }
+
+
+    @Override
+    public long getSize( final JSONWithPadding jsonWithPadding, final Class<?> type, final Type genericType,
+                         final Annotation[] annotations, final MediaType mediaType ) {
+        return -1;
+    }
+
+
+    @Override
+    public void writeTo( final JSONWithPadding jsonWithPadding, final Class<?> type, final Type genericType,
+                         final Annotation[] annotations, final MediaType mediaType,
+                         final MultivaluedMap<String, Object> httpHeaders, final OutputStream entityStream )
+            throws IOException, WebApplicationException {
+
+        Object entity = jsonWithPadding.getJsonSource();
+
+        if ( entity instanceof GenericEntity ) {
+            entity = ( ( GenericEntity ) entity ).getEntity();
+        }
+
+        JsonGenerator generator = smileFactory.createJsonGenerator( entityStream, JsonEncoding.UTF8 );
+
+        try {
+            getMapper().writeValue( generator, entity );
+        }
+        finally {
+            // flushes without closing the response stream
+            generator.flush();
+        }
+    }
+
+
+    private ObjectMapper getMapper() {
+        ContextResolver<ObjectMapper> resolver =
+                providers.getContextResolver( ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE );
+
+        ObjectMapper mapper = resolver != null ? resolver.getContext( ObjectMapper.class ) : null;
+
+        return mapper != null ? mapper : new ObjectMapper();
+    }
+
+
+    static boolean isSmile( MediaType mediaType ) {
+        return mediaType != null && APPLICATION_SMILE_TYPE.isCompatible( mediaType ) && !mediaType.isWildcardType()
+                && !mediaType.isWildcardSubtype();
+    }
+}
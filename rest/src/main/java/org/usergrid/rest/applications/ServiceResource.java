@@ -16,10 +16,14 @@
 package org.usergrid.rest.applications;
 
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -40,6 +44,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.PathSegment;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.slf4j.Logger;
@@ -50,8 +55,10 @@ import org.springframework.stereotype.Component;
 import org.usergrid.persistence.Entity;
 import org.usergrid.persistence.EntityManager;
 import org.usergrid.persistence.Query;
+import org.usergrid.persistence.cassandra.EntityReadCache;
 import org.usergrid.rest.AbstractContextResource;
 import org.usergrid.rest.ApiResponse;
+import org.usergrid.rest.JsonToSmileSwapWriter;
 import org.usergrid.rest.applications.assets.AssetsResource;
 import org.usergrid.rest.security.annotations.RequireApplicationAccess;
 import org.usergrid.security.oauth.AccessInfo;
@@ -63,6 +70,8 @@ import org.usergrid.services.ServiceRequest;
 import org.usergrid.services.ServiceResults;
 import org.usergrid.services.assets.data.AssetUtils;
 import org.usergrid.services.assets.data.BinaryStore;
+import org.usergrid.services.assets.data.ByteRange;
+import org.usergrid.services.assets.data.FileRegion;
 import org.usergrid.utils.InflectionUtils;
 
 import org.apache.commons.lang.StringUtils;
@@ -96,6 +105,10 @@ public class ServiceResource extends AbstractContextResource {
     private static final Logger LOG = LoggerFactory.getLogger( ServiceResource.class );
     private static final String FILE_FIELD_NAME = "file";
 
+    /** Not in the JAX-RS 1.1 Response.Status enum */
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
     @Autowired
     private BinaryStore binaryStore;
 
@@ -240,6 +253,7 @@ public class ServiceResource extends AbstractContextResource {
         LOG.debug( "ServiceResource.executeServiceRequest" );
 
         boolean tree = "true".equalsIgnoreCase( ui.getQueryParameters().getFirst( "tree" ) );
+        boolean debug = "true".equalsIgnoreCase( ui.getQueryParameters().getFirst( "debug" ) );
         boolean collectionGet = false;
         if ( action == ServiceAction.GET ) {
             collectionGet = ( getServiceParameters().size() == 1 && InflectionUtils
@@ -256,6 +270,9 @@ public class ServiceResource extends AbstractContextResource {
             if ( results.getServiceMetadata() != null ) {
                 response.setMetadata( results.getServiceMetadata() );
             }
+            if ( debug && r.getReadCache() != null ) {
+                addReadCacheStats( response, r.getReadCache() );
+            }
             Query query = r.getLastQuery();
             if ( query != null ) {
                 if ( query.hasSelectSubjects() ) {
@@ -279,8 +296,21 @@ public class ServiceResource extends AbstractContextResource {
     }
 
 
+    /** Add the hit counts of the read cache of the request to the metadata of the response */
+    private void addReadCacheStats( ApiResponse response, EntityReadCache readCache ) {
+        Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+
+        if ( response.getMetadata() != null ) {
+            metadata.putAll( response.getMetadata() );
+        }
+
+        metadata.put( "readCache", readCache.getStats() );
+        response.setMetadata( metadata );
+    }
+
+
     @GET
-    @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_HTML})
+    @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_HTML, JsonToSmileSwapWriter.APPLICATION_SMILE})
     @RequireApplicationAccess
     public JSONWithPadding executeGet( @Context UriInfo ui,
                                        @QueryParam("callback") @DefaultValue("callback") String callback )
@@ -581,7 +611,8 @@ public class ServiceResource extends AbstractContextResource {
     @Produces(MediaType.WILDCARD)
     public Response executeStreamGet( @Context UriInfo ui, @PathParam("entityId") PathSegment entityId,
                                       @HeaderParam("range") String rangeHeader,
-                                      @HeaderParam("if-modified-since") String modifiedSince ) throws Exception {
+                                      @HeaderParam("if-modified-since") String modifiedSince,
+                                      @HeaderParam("if-none-match") String ifNoneMatch ) throws Exception {
 
         LOG.debug( "ServiceResource.executeStreamGet" );
 
@@ -595,66 +626,99 @@ public class ServiceResource extends AbstractContextResource {
         LOG.info( "In AssetsResource.findAsset with id: {}, range: {}, modifiedSince: {}",
                 new Object[] { entityId, rangeHeader, modifiedSince } );
 
+        return buildBinaryResponse( entity, rangeHeader, modifiedSince, ifNoneMatch );
+    }
+
+
+    /**
+     * Build the response that sends the binary data of the entity.  Honors a single byte range, If-None-Match and
+     * If-Modified-Since.  Data stored in a local file is transferred straight from the file channel.
+     */
+    protected Response buildBinaryResponse( Entity entity, String rangeHeader, String modifiedSince,
+                                            String ifNoneMatch ) throws Exception {
+
+        if ( entity == null ) {
+            return Response.status( Response.Status.NOT_FOUND ).build();
+        }
+
         Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( entity );
+        Long lastModified = ( Long ) fileMetadata.get( AssetUtils.LAST_MODIFIED );
+        String eTag = AssetUtils.getETag( fileMetadata );
 
-        // return a 302 if not modified
-        Date modified = AssetUtils.fromIfModifiedSince( modifiedSince );
-        if ( modified != null ) {
-            Long lastModified = ( Long ) fileMetadata.get( AssetUtils.LAST_MODIFIED );
-            if ( lastModified - modified.getTime() < 0 ) {
+        // return a 304 if not modified, If-None-Match takes precedence over If-Modified-Since
+        if ( isNotBlank( ifNoneMatch ) ) {
+            if ( AssetUtils.matchesIfNoneMatch( ifNoneMatch, eTag ) ) {
+                return Response.notModified( eTag ).build();
+            }
+        }
+        else {
+            Date modified = AssetUtils.fromIfModifiedSince( modifiedSince );
+            if ( modified != null && lastModified - modified.getTime() < 0 ) {
                 return Response.status( Response.Status.NOT_MODIFIED ).build();
             }
         }
 
-        boolean range = StringUtils.isNotBlank( rangeHeader );
-        long start = 0, end = 0, contentLength = 0;
-        InputStream inputStream;
+        Number contentLength = ( Number ) fileMetadata.get( AssetUtils.CONTENT_LENGTH );
 
-        if ( range ) { // honor range request, calculate start & end
+        // without the length we can't resolve the range, send everything
+        ByteRange range = contentLength == null ? null : ByteRange.parse( rangeHeader, contentLength.longValue() );
 
-            String rangeValue = rangeHeader.trim().substring( "bytes=".length() );
-            contentLength = ( Long ) fileMetadata.get( AssetUtils.CONTENT_LENGTH );
-            end = contentLength - 1;
-            if ( rangeValue.startsWith( "-" ) ) {
-                start = contentLength - 1 - Long.parseLong( rangeValue.substring( "-".length() ) );
-            }
-            else {
-                String[] startEnd = rangeValue.split( "-" );
-                long parsedStart = Long.parseLong( startEnd[0] );
-                if ( parsedStart > start && parsedStart < end ) {
-                    start = parsedStart;
-                }
-                if ( startEnd.length > 1 ) {
-                    long parsedEnd = Long.parseLong( startEnd[1] );
-                    if ( parsedEnd > start && parsedEnd < end ) {
-                        end = parsedEnd;
+        if ( range != null && !range.isSatisfiable() ) {
+            return Response.status( HTTP_RANGE_NOT_SATISFIABLE ).header( "Content-Range", range.getContentRange() )
+                           .build();
+        }
+
+        Object body = null;
+        long length = -1;
+
+        if ( contentLength != null ) {
+            long offset = range == null ? 0 : range.getStart();
+            long count = range == null ? contentLength.longValue() : range.getLength();
+
+            final FileRegion region = binaryStore.readRegion( getApplicationId(), entity, offset, count );
+
+            if ( region != null ) {
+                length = region.getCount();
+                body = new StreamingOutput() {
+                    @Override
+                    public void write( OutputStream output ) throws IOException {
+                        // closes the region when done
+                        region.transferTo( Channels.newChannel( output ) );
                     }
-                }
+                };
             }
-
-            inputStream = binaryStore.read( getApplicationId(), entity, start, end - start );
         }
-        else { // no range
 
-            inputStream = binaryStore.read( getApplicationId(), entity );
+        if ( body == null ) {
+            if ( range != null ) {
+                body = binaryStore.read( getApplicationId(), entity, range.getStart(), range.getLength() );
+                length = range.getLength();
+            }
+            else {
+                body = binaryStore.read( getApplicationId(), entity );
+            }
         }
 
         // return 404 if not found
-        if ( inputStream == null ) {
+        if ( body == null ) {
             return Response.status( Response.Status.NOT_FOUND ).build();
         }
 
-        Long lastModified = ( Long ) fileMetadata.get( AssetUtils.LAST_MODIFIED );
         Response.ResponseBuilder responseBuilder =
-                Response.ok( inputStream ).type( ( String ) fileMetadata.get( AssetUtils.CONTENT_TYPE ) )
-                        .lastModified( new Date( lastModified ) );
+                Response.status( range == null ? Response.Status.OK.getStatusCode() : HTTP_PARTIAL_CONTENT )
+                        .entity( body ).type( ( String ) fileMetadata.get( AssetUtils.CONTENT_TYPE ) )
+                        .lastModified( new Date( lastModified ) ).header( "Accept-Ranges", "bytes" );
+
+        if ( eTag != null ) {
+            responseBuilder.tag( eTag );
+        }
 
-        if ( fileMetadata.get( AssetUtils.E_TAG ) != null ) {
-            responseBuilder.tag( ( String ) fileMetadata.get( AssetUtils.E_TAG ) );
+        if ( length >= 0 ) {
+            responseBuilder.header( "Content-Length", length );
         }
 
-        if ( range ) {
-            responseBuilder.header( "Content-Range", "bytes " + start + "-" + end + "/" + contentLength );
+        if ( range != null ) {
+            responseBuilder.header( "Content-Range", range.getContentRange() );
         }
 
         return responseBuilder.build();
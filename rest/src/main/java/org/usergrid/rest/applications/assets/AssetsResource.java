@@ -2,7 +2,6 @@ package org.usergrid.rest.applications.assets;
 
 
 import java.io.InputStream;
-import java.util.Date;
 import java.util.Map;
 import java.util.UUID;
 
@@ -32,9 +31,7 @@ import org.usergrid.persistence.entities.Asset;
 import org.usergrid.rest.AbstractContextResource;
 import org.usergrid.rest.applications.ServiceResource;
 import org.usergrid.rest.security.annotations.RequireApplicationAccess;
-import org.usergrid.services.assets.data.AssetUtils;
 import org.usergrid.services.assets.data.BinaryStore;
-import org.usergrid.utils.StringUtils;
 
 import com.sun.jersey.api.json.JSONWithPadding;
 import com.sun.jersey.core.header.FormDataContentDisposition;
@@ -140,48 +137,15 @@ public class AssetsResource extends ServiceResource {
     @Path("{entityId: [A-Fa-f0-9]{8}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{4}-[A-Fa-f0-9]{12}}/data")
     public Response findAsset( @Context UriInfo ui, @QueryParam("callback") @DefaultValue("callback") String callback,
                                @PathParam("entityId") PathSegment entityId, @HeaderParam("range") String range,
-                               @HeaderParam("if-modified-since") String modifiedSince ) throws Exception {
+                               @HeaderParam("if-modified-since") String modifiedSince,
+                               @HeaderParam("if-none-match") String ifNoneMatch ) throws Exception {
         UUID assetId = UUID.fromString( entityId.getPath() );
         logger.info( "In AssetsResource.findAsset with id: {}, range: {}, modifiedSince: {}",
                 new Object[] { assetId, range, modifiedSince } );
         EntityManager em = emf.getEntityManager( getApplicationId() );
 
         Asset asset = em.get( assetId, Asset.class );
-        Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( asset );
-
-        // todo: use fileMetadata
-        // return a 302 if not modified
-        Date moded = AssetUtils.fromIfModifiedSince( modifiedSince );
-        if ( moded != null ) {
-            if ( asset.getModified() - moded.getTime() < 0 ) {
-                return Response.status( Response.Status.NOT_MODIFIED ).build();
-            }
-        }
-
-        InputStream is;
-        if ( StringUtils.isBlank( range ) ) {
-            is = binaryStore.read( getApplicationId(), asset );
-        }
-        else {
-            // TODO range parser
-            is = binaryStore.read( getApplicationId(), asset );
-        }
-        if ( is == null ) {
-            return Response.status( Response.Status.NOT_FOUND ).build();
-        }
-
-        logger.info( "AssetResource.findAsset read inputStream, composing response" );
-        Response.ResponseBuilder responseBuilder =
-                Response.ok( is ).type( fileMetadata.get( "content-type" ).toString() )
-                        .lastModified( new Date( asset.getModified() ) );
-        if ( fileMetadata.get( AssetUtils.E_TAG ) != null ) {
-            responseBuilder.tag( ( String ) fileMetadata.get( AssetUtils.E_TAG ) );
-        }
-        if ( StringUtils.isNotBlank( range ) ) {
-            logger.info( "Range header was not blank, sending back Content-Range" );
-            // TODO build content range header if needed
-            //responseBuilder.header("Content-Range", );
-        }
-        return responseBuilder.build();
+
+        return buildBinaryResponse( asset, range, modifiedSince, ifNoneMatch );
     }
 }
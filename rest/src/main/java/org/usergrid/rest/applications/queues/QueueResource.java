@@ -128,6 +128,10 @@ public class QueueResource extends AbstractContextResource {
     }
 
 
+    /**
+     * Read from the queue, or list the queues if there's no queue path.  With a wait parameter a read that finds no
+     * messages waits up to that many milliseconds for messages to be posted, instead of the client polling.
+     */
     @GET
     public JSONWithPadding executeGet( @Context UriInfo ui, @QueryParam("start") String firstQueuePath,
                                        @QueryParam("limit") @DefaultValue("10") int limit,
@@ -20,15 +20,20 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.usergrid.cassandra.Concurrent;
 import org.usergrid.rest.AbstractRestIT;
+import org.usergrid.rest.JsonToSmileSwapWriter;
 import org.usergrid.rest.TestContextSetup;
 import org.usergrid.utils.JsonUtils;
 import org.usergrid.utils.UUIDUtils;
@@ -49,6 +54,9 @@ import org.apache.http.params.BasicHttpParams;
 import org.apache.http.util.EntityUtils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.usergrid.utils.MapUtils.hashMap;
 
 
@@ -291,6 +299,111 @@ public class ContentTypeResourceIT extends AbstractRestIT {
     }
 
 
+    /** Responses are compact unless pretty=true, and binary smile when it's accepted */
+    @Test
+    public void compactPrettyAndSmileGet() throws Exception {
+        Map<String, String> data = hashMap( "name", "Solitaire4" );
+
+        DefaultHttpClient client = new DefaultHttpClient();
+
+        HttpHost host = new HttpHost( super.getBaseURI().getHost(), super.getBaseURI().getPort() );
+
+        HttpPost post = new HttpPost( String.format( "/%s/%s/games", context.getOrgUuid(), context.getAppUuid() ) );
+        post.setEntity( new StringEntity( JsonUtils.mapToJsonString( data ) ) );
+        post.setHeader( HttpHeaders.AUTHORIZATION, "Bearer " + context.getActiveUser().getToken() );
+        post.setHeader( HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON );
+
+        HttpResponse rsp = client.execute( host, post );
+        EntityUtils.consume( rsp.getEntity() );
+
+        assertEquals( 200, rsp.getStatusLine().getStatusCode() );
+
+        String path = String.format( "/%s/%s/games/Solitaire4", context.getOrgUuid(), context.getAppUuid() );
+
+        HttpGet get = new HttpGet( path );
+        get.setHeader( HttpHeaders.AUTHORIZATION, "Bearer " + context.getActiveUser().getToken() );
+        get.setHeader( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+
+        rsp = client.execute( host, get );
+
+        assertEquals( 200, rsp.getStatusLine().getStatusCode() );
+        String compact = EntityUtils.toString( rsp.getEntity() );
+        assertFalse( compact.contains( "\n" ) );
+
+        get = new HttpGet( path + "?pretty=true" );
+        get.setHeader( HttpHeaders.AUTHORIZATION, "Bearer " + context.getActiveUser().getToken() );
+        get.setHeader( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+
+        rsp = client.execute( host, get );
+
+        assertEquals( 200, rsp.getStatusLine().getStatusCode() );
+        String pretty = EntityUtils.toString( rsp.getEntity() );
+        assertTrue( pretty.contains( "\n" ) );
+
+        get = new HttpGet( path );
+        get.setHeader( HttpHeaders.AUTHORIZATION, "Bearer " + context.getActiveUser().getToken() );
+        get.setHeader( HttpHeaders.ACCEPT, JsonToSmileSwapWriter.APPLICATION_SMILE );
+
+        rsp = client.execute( host, get );
+
+        assertEquals( 200, rsp.getStatusLine().getStatusCode() );
+        assertEquals( JsonToSmileSwapWriter.APPLICATION_SMILE,
+                rsp.getFirstHeader( HttpHeaders.CONTENT_TYPE ).getValue() );
+
+        JsonNode node = new ObjectMapper( new SmileFactory() ).readTree( EntityUtils.toByteArray( rsp.getEntity() ) );
+        assertEquals( "Solitaire4", node.get( "entities" ).get( 0 ).get( "name" ).getTextValue() );
+    }
+
+
+    /** Responses are gzipped when the client accepts it, and not otherwise */
+    @Test
+    public void gzipGet() throws Exception {
+        Map<String, String> data = hashMap( "name", "Solitaire5" );
+
+        DefaultHttpClient client = new DefaultHttpClient();
+
+        HttpHost host = new HttpHost( super.getBaseURI().getHost(), super.getBaseURI().getPort() );
+
+        HttpPost post = new HttpPost( String.format( "/%s/%s/games", context.getOrgUuid(), context.getAppUuid() ) );
+        post.setEntity( new StringEntity( JsonUtils.mapToJsonString( data ) ) );
+        post.setHeader( HttpHeaders.AUTHORIZATION, "Bearer " + context.getActiveUser().getToken() );
+        post.setHeader( HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON );
+
+        HttpResponse rsp = client.execute( host, post );
+        EntityUtils.consume( rsp.getEntity() );
+
+        assertEquals( 200, rsp.getStatusLine().getStatusCode() );
+
+        String path = String.format( "/%s/%s/games/Solitaire5", context.getOrgUuid(), context.getAppUuid() );
+
+        HttpGet get = new HttpGet( path );
+        get.setHeader( HttpHeaders.AUTHORIZATION, "Bearer " + context.getActiveUser().getToken() );
+        get.setHeader( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+        get.setHeader( HttpHeaders.ACCEPT_ENCODING, "gzip" );
+
+        rsp = client.execute( host, get );
+
+        assertEquals( 200, rsp.getStatusLine().getStatusCode() );
+        assertEquals( "gzip", rsp.getFirstHeader( HttpHeaders.CONTENT_ENCODING ).getValue() );
+        assertEquals( MediaType.APPLICATION_JSON, rsp.getFirstHeader( HttpHeaders.CONTENT_TYPE ).getValue() );
+
+        JsonNode node = new ObjectMapper().readTree( new GZIPInputStream( rsp.getEntity().getContent() ) );
+        assertEquals( "Solitaire5", node.get( "entities" ).get( 0 ).get( "name" ).getTextValue() );
+
+        get = new HttpGet( path );
+        get.setHeader( HttpHeaders.AUTHORIZATION, "Bearer " + context.getActiveUser().getToken() );
+        get.setHeader( HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON );
+
+        rsp = client.execute( host, get );
+
+        assertEquals( 200, rsp.getStatusLine().getStatusCode() );
+        assertNull( rsp.getFirstHeader( HttpHeaders.CONTENT_ENCODING ) );
+
+        node = new ObjectMapper().readTree( EntityUtils.toString( rsp.getEntity() ) );
+        assertEquals( "Solitaire5", node.get( "entities" ).get( 0 ).get( "name" ).getTextValue() );
+    }
+
+
     private void printResponse( HttpResponse rsp ) throws ParseException, IOException {
         HttpEntity entity = rsp.getEntity();
 
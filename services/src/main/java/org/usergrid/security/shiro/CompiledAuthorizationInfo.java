@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.security.shiro;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.authz.permission.PermissionResolver;
+
+
+/**
+ * Authorization info that resolves and indexes its permissions the first time they're checked, instead of resolving
+ * every string permission on each check.  Lives as long as the authorization info, so it's cached along with it.
+ */
+public class CompiledAuthorizationInfo extends SimpleAuthorizationInfo {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient volatile CompiledPermissions compiled;
+
+
+    public CompiledAuthorizationInfo() {
+    }
+
+
+    /** Get the compiled permissions, they're built on the first call after the permissions were modified */
+    public CompiledPermissions getCompiledPermissions( PermissionResolver resolver ) {
+        CompiledPermissions permissions = compiled;
+
+        if ( permissions == null ) {
+            List<Permission> resolved = new ArrayList<Permission>();
+
+            if ( getStringPermissions() != null ) {
+                for ( String permission : getStringPermissions() ) {
+                    resolved.add( resolver.resolvePermission( permission ) );
+                }
+            }
+
+            if ( getObjectPermissions() != null ) {
+                resolved.addAll( getObjectPermissions() );
+            }
+
+            permissions = new CompiledPermissions( resolved );
+            compiled = permissions;
+        }
+
+        return permissions;
+    }
+
+
+    @Override
+    public void setStringPermissions( Set<String> stringPermissions ) {
+        super.setStringPermissions( stringPermissions );
+        compiled = null;
+    }
+
+
+    @Override
+    public void addStringPermission( String permission ) {
+        super.addStringPermission( permission );
+        compiled = null;
+    }
+
+
+    @Override
+    public void addStringPermissions( Collection<String> permissions ) {
+        super.addStringPermissions( permissions );
+        compiled = null;
+    }
+
+
+    @Override
+    public void setObjectPermissions( Set<Permission> objectPermissions ) {
+        super.setObjectPermissions( objectPermissions );
+        compiled = null;
+    }
+
+
+    @Override
+    public void addObjectPermission( Permission permission ) {
+        super.addObjectPermission( permission );
+        compiled = null;
+    }
+
+
+    @Override
+    public void addObjectPermissions( Collection<Permission> permissions ) {
+        super.addObjectPermissions( permissions );
+        compiled = null;
+    }
+}
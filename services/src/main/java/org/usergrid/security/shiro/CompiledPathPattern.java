@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.security.shiro;
+
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.util.StringUtils;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+
+/**
+ * An ant style path pattern that is tokenized and compiled once.  Matches exactly like {@link
+ * org.springframework.util.AntPathMatcher#match(String, String)}, which tokenizes the pattern and compiles a regex for
+ * every wildcard segment on each call.
+ */
+public class CompiledPathPattern {
+
+    private static final String SEPARATOR = "/";
+
+    private static final String DOUBLE_WILDCARD = "**";
+
+    /** Same as AntPathStringMatcher, matches ?, * and {variable} in a segment */
+    private static final Pattern GLOB_PATTERN =
+            Pattern.compile( "\\?|\\*|\\{((?:\\{[^/]+?\\}|[^/{}]|\\\\[{}])+?)\\}" );
+
+    private static final LoadingCache<String, CompiledPathPattern> PATTERNS =
+            CacheBuilder.newBuilder().maximumSize( 10000 ).build( new CacheLoader<String, CompiledPathPattern>() {
+                public CompiledPathPattern load( String pattern ) {
+                    return new CompiledPathPattern( pattern );
+                }
+            } );
+
+    private final String pattern;
+    private final String[] dirs;
+
+    /** The compiled regex of each segment, null if the segment is matched literally */
+    private final Pattern[] regexes;
+
+
+    private CompiledPathPattern( String pattern ) {
+        this.pattern = pattern;
+        this.dirs = StringUtils.tokenizeToStringArray( pattern, SEPARATOR );
+        this.regexes = new Pattern[dirs.length];
+
+        for ( int i = 0; i < dirs.length; i++ ) {
+            if ( !DOUBLE_WILDCARD.equals( dirs[i] ) && GLOB_PATTERN.matcher( dirs[i] ).find() ) {
+                regexes[i] = createRegex( dirs[i] );
+            }
+        }
+    }
+
+
+    /** Get the compiled pattern, patterns are compiled once and then cached */
+    public static CompiledPathPattern get( String pattern ) {
+        return PATTERNS.getUnchecked( pattern );
+    }
+
+
+    /** True if the string contains wildcards, same as AntPathMatcher.isPattern */
+    public static boolean isPattern( String path ) {
+        return path.indexOf( '*' ) != -1 || path.indexOf( '?' ) != -1;
+    }
+
+
+    private static Pattern createRegex( String segment ) {
+        StringBuilder regex = new StringBuilder();
+        Matcher m = GLOB_PATTERN.matcher( segment );
+        int end = 0;
+
+        while ( m.find() ) {
+            regex.append( quote( segment, end, m.start() ) );
+            String match = m.group();
+
+            if ( "?".equals( match ) ) {
+                regex.append( '.' );
+            }
+            else if ( "*".equals( match ) ) {
+                regex.append( ".*" );
+            }
+            else {
+                int colonIdx = match.indexOf( ':' );
+                if ( colonIdx == -1 ) {
+                    regex.append( "(.*)" );
+                }
+                else {
+                    regex.append( '(' ).append( match.substring( colonIdx + 1, match.length() - 1 ) ).append( ')' );
+                }
+            }
+
+            end = m.end();
+        }
+
+        regex.append( quote( segment, end, segment.length() ) );
+
+        return Pattern.compile( regex.toString() );
+    }
+
+
+    private static String quote( String s, int start, int end ) {
+        if ( start == end ) {
+            return "";
+        }
+        return Pattern.quote( s.substring( start, end ) );
+    }
+
+
+    private boolean matchDir( int patIdx, String pathDir ) {
+        if ( regexes[patIdx] == null ) {
+            return dirs[patIdx].equals( pathDir );
+        }
+        return regexes[patIdx].matcher( pathDir ).matches();
+    }
+
+
+    private boolean remainingAreDoubleWildcards( int start, int end ) {
+        for ( int i = start; i <= end; i++ ) {
+            if ( !DOUBLE_WILDCARD.equals( dirs[i] ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** Match the path against this pattern, the same algorithm as AntPathMatcher.doMatch with a full match */
+    public boolean matches( String path ) {
+        if ( path.startsWith( SEPARATOR ) != pattern.startsWith( SEPARATOR ) ) {
+            return false;
+        }
+
+        String[] pathDirs = StringUtils.tokenizeToStringArray( path, SEPARATOR );
+
+        int patIdxStart = 0;
+        int patIdxEnd = dirs.length - 1;
+        int pathIdxStart = 0;
+        int pathIdxEnd = pathDirs.length - 1;
+
+        // match all elements up to the first **
+        while ( patIdxStart <= patIdxEnd && pathIdxStart <= pathIdxEnd ) {
+            if ( DOUBLE_WILDCARD.equals( dirs[patIdxStart] ) ) {
+                break;
+            }
+            if ( !matchDir( patIdxStart, pathDirs[pathIdxStart] ) ) {
+                return false;
+            }
+            patIdxStart++;
+            pathIdxStart++;
+        }
+
+        if ( pathIdxStart > pathIdxEnd ) {
+            // path is exhausted, only match if the rest of the pattern is * or **
+            if ( patIdxStart > patIdxEnd ) {
+                return pattern.endsWith( SEPARATOR ) ? path.endsWith( SEPARATOR ) : !path.endsWith( SEPARATOR );
+            }
+            if ( patIdxStart == patIdxEnd && dirs[patIdxStart].equals( "*" ) && path.endsWith( SEPARATOR ) ) {
+                return true;
+            }
+            return remainingAreDoubleWildcards( patIdxStart, patIdxEnd );
+        }
+        else if ( patIdxStart > patIdxEnd ) {
+            // path is not exhausted, but the pattern is
+            return false;
+        }
+
+        // match all elements after the last **
+        while ( patIdxStart <= patIdxEnd && pathIdxStart <= pathIdxEnd ) {
+            if ( DOUBLE_WILDCARD.equals( dirs[patIdxEnd] ) ) {
+                break;
+            }
+            if ( !matchDir( patIdxEnd, pathDirs[pathIdxEnd] ) ) {
+                return false;
+            }
+            patIdxEnd--;
+            pathIdxEnd--;
+        }
+
+        if ( pathIdxStart > pathIdxEnd ) {
+            return remainingAreDoubleWildcards( patIdxStart, patIdxEnd );
+        }
+
+        // find each run of segments between two ** in the remaining path
+        while ( patIdxStart != patIdxEnd && pathIdxStart <= pathIdxEnd ) {
+            int patIdxTmp = -1;
+            for ( int i = patIdxStart + 1; i <= patIdxEnd; i++ ) {
+                if ( DOUBLE_WILDCARD.equals( dirs[i] ) ) {
+                    patIdxTmp = i;
+                    break;
+                }
+            }
+
+            if ( patIdxTmp == patIdxStart + 1 ) {
+                // '**/**' situation, so skip one
+                patIdxStart++;
+                continue;
+            }
+
+            int patLength = patIdxTmp - patIdxStart - 1;
+            int strLength = pathIdxEnd - pathIdxStart + 1;
+            int foundIdx = -1;
+
+            strLoop:
+            for ( int i = 0; i <= strLength - patLength; i++ ) {
+                for ( int j = 0; j < patLength; j++ ) {
+                    if ( !matchDir( patIdxStart + j + 1, pathDirs[pathIdxStart + i + j] ) ) {
+                        continue strLoop;
+                    }
+                }
+                foundIdx = pathIdxStart + i;
+                break;
+            }
+
+            if ( foundIdx == -1 ) {
+                return false;
+            }
+
+            patIdxStart = patIdxTmp;
+            pathIdxStart = foundIdx + patLength;
+        }
+
+        return remainingAreDoubleWildcards( patIdxStart, patIdxEnd );
+    }
+
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.security.shiro;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.authz.Permission;
+
+
+/**
+ * The granted permissions of a subject, resolved once and indexed by their domain and application id.  A permission
+ * check only evaluates the permissions granted on the application of the checked permission, plus the ones that can't
+ * be indexed because they use wildcards or substitutions in those parts.
+ */
+public class CompiledPermissions {
+
+    private static final String ME = "/me/";
+    private static final String USER = "${user}";
+
+    /** Shiro's WildcardPermission tokens are protected, these match them */
+    private static final String WILDCARD_TOKEN = "*";
+    private static final String PART_DIVIDER_TOKEN = ":";
+
+    /** Permissions keyed by domain and application id */
+    private final Map<String, List<Permission>> indexed = new HashMap<String, List<Permission>>();
+
+    /** Permissions that could imply a permission on any application */
+    private final List<Permission> unindexed = new ArrayList<Permission>();
+
+    private final int size;
+
+
+    public CompiledPermissions( Collection<Permission> permissions ) {
+        for ( Permission permission : permissions ) {
+            List<String> keys = grantedKeys( permission );
+
+            if ( keys == null ) {
+                unindexed.add( permission );
+                continue;
+            }
+
+            for ( String key : keys ) {
+                List<Permission> keyed = indexed.get( key );
+
+                if ( keyed == null ) {
+                    keyed = new ArrayList<Permission>();
+                    indexed.put( key, keyed );
+                }
+
+                keyed.add( permission );
+            }
+        }
+
+        size = permissions.size();
+    }
+
+
+    /** True if any of the granted permissions implies the permission */
+    public boolean implies( Permission permission ) {
+        for ( Permission granted : unindexed ) {
+            if ( granted.implies( permission ) ) {
+                return true;
+            }
+        }
+
+        String key = checkedKey( permission );
+
+        // can't be looked up, check everything we didn't check above
+        if ( key == null ) {
+            for ( List<Permission> keyed : indexed.values() ) {
+                for ( Permission granted : keyed ) {
+                    if ( granted.implies( permission ) ) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        List<Permission> keyed = indexed.get( key );
+
+        if ( keyed != null ) {
+            for ( Permission granted : keyed ) {
+                if ( granted.implies( permission ) ) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+    /** Get the number of granted permissions */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Get the keys a granted permission is indexed under.  Null if it has to be evaluated for every check, because its
+     * domain or application id is a wildcard, a pattern or a path
+     */
+    private static List<String> grantedKeys( Permission permission ) {
+        if ( !( permission instanceof CustomPermission ) ) {
+            return null;
+        }
+
+        List<Set<String>> parts = ( ( CustomPermission ) permission ).getParts();
+
+        if ( parts.size() < 3 ) {
+            return null;
+        }
+
+        List<String> keys = new ArrayList<String>();
+
+        for ( String domain : parts.get( 0 ) ) {
+            if ( !isLiteral( domain ) ) {
+                return null;
+            }
+
+            for ( String applicationId : parts.get( 2 ) ) {
+                if ( !isLiteral( applicationId ) ) {
+                    return null;
+                }
+
+                keys.add( key( domain, applicationId ) );
+            }
+        }
+
+        return keys;
+    }
+
+
+    /** Get the key to look up the permissions that could imply the checked one.  Null if it can't be looked up */
+    private static String checkedKey( Permission permission ) {
+        if ( !( permission instanceof CustomPermission ) ) {
+            return null;
+        }
+
+        List<Set<String>> parts = ( ( CustomPermission ) permission ).getParts();
+
+        if ( parts.size() < 3 || parts.get( 0 ).size() != 1 || parts.get( 2 ).size() != 1 ) {
+            return null;
+        }
+
+        String domain = parts.get( 0 ).iterator().next();
+        String applicationId = parts.get( 2 ).iterator().next();
+
+        // paths are normalized before they're compared, don't bother
+        if ( CustomPermission.isPath( domain ) || CustomPermission.isPath( applicationId ) ) {
+            return null;
+        }
+
+        return key( domain, applicationId );
+    }
+
+
+    /** True if the value can only be equal to itself, ignoring case */
+    private static boolean isLiteral( String value ) {
+        return !value.equals( WILDCARD_TOKEN ) && !CompiledPathPattern.isPattern( value )
+                && !CustomPermission.isPath( value ) && !value.contains( USER ) && !value.contains( ME );
+    }
+
+
+    private static String key( String domain, String applicationId ) {
+        return domain.toLowerCase() + PART_DIVIDER_TOKEN + applicationId.toLowerCase();
+    }
+}
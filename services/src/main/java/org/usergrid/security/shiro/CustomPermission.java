@@ -16,11 +16,11 @@
 package org.usergrid.security.shiro;
 
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.springframework.util.AntPathMatcher;
 import org.usergrid.management.UserInfo;
 import org.usergrid.security.shiro.utils.SubjectUtils;
 
@@ -35,10 +35,11 @@ public class CustomPermission extends WildcardPermission {
      */
     private static final String ME = "/me/";
 
-    static AntPathMatcher matcher = new AntPathMatcher();
-
     private static final long serialVersionUID = 1L;
 
+    /** The parts with every part after the application id normalized as paths, built on first use */
+    private transient volatile List<Set<String>> pathParts;
+
 
     public CustomPermission() {
     }
@@ -60,6 +61,24 @@ public class CustomPermission extends WildcardPermission {
     }
 
 
+    /** Get the parts of an application permission, all the parts from the third onwards are normalized as paths */
+    List<Set<String>> getPathParts() {
+        List<Set<String>> parts = pathParts;
+
+        if ( parts == null ) {
+            parts = new ArrayList<Set<String>>( getParts() );
+
+            for ( int i = 3; i < parts.size(); i++ ) {
+                parts.set( i, makePaths( parts.get( i ) ) );
+            }
+
+            pathParts = parts;
+        }
+
+        return parts;
+    }
+
+
     @Override
     public boolean implies( Permission p ) {
         // By default only supports comparisons with other
@@ -72,28 +91,28 @@ public class CustomPermission extends WildcardPermission {
 
         List<Set<String>> otherParts = wp.getParts();
 
-        boolean isApp = false;
+        // if we know we're doing an application compare then make sure all the
+        // parts from the third onwards are normalized as paths
+        boolean isApp = !otherParts.isEmpty() && otherParts.get( 0 ).contains( "applications" );
+
+        List<Set<String>> parts = getParts();
+
+        if ( isApp ) {
+            otherParts = wp.getPathParts();
+            parts = getPathParts();
+        }
+
         int i = 0;
         for ( Set<String> otherPart : otherParts ) {
             // If this permission has less parts than the other permission,
             // everything after the number of parts contained
             // in this permission is automatically implied, so return true
-            if ( ( getParts().size() - 1 ) < i ) {
+            if ( ( parts.size() - 1 ) < i ) {
                 return true;
             }
             else {
-                if ( ( i == 0 ) && otherPart.contains( "applications" ) ) {
-                    isApp = true;
-                }
                 // this part is the permission, the other part is the challenger
-                Set<String> part = getParts().get( i );
-                // if we know we're doing an application compare
-                // then make sure all the parts from the third onwards
-                // are normalized as paths
-                if ( isApp && ( i > 2 ) ) {
-                    part = makePaths( part );
-                    otherPart = makePaths( otherPart );
-                }
+                Set<String> part = parts.get( i );
                 if ( !part.contains( WILDCARD_TOKEN ) && !partContainsPart( part, otherPart ) ) {
                     return false;
                 }
@@ -181,11 +200,11 @@ public class CustomPermission extends WildcardPermission {
             p1 = makePath( p1 );
             p2 = makePath( p2 );
         }
-        if ( matcher.isPattern( p1 ) ) {
-            if ( matcher.match( p1, p2 ) ) {
+        if ( CompiledPathPattern.isPattern( p1 ) ) {
+            if ( CompiledPathPattern.get( p1 ).matches( p2 ) ) {
                 return true;
             }
-            if ( matcher.match( normalizeIfPath( p1 ), normalizeIfPath( p2 ) ) ) {
+            if ( CompiledPathPattern.get( normalizeIfPath( p1 ) ).matches( normalizeIfPath( p2 ) ) ) {
                 return true;
             }
             return false;
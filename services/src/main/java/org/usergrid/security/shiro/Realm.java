@@ -66,6 +66,7 @@ import org.apache.shiro.authc.SimpleAuthenticationInfo;
 import org.apache.shiro.authc.credential.AllowAllCredentialsMatcher;
 import org.apache.shiro.authc.credential.CredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
 import org.apache.shiro.authz.permission.PermissionResolver;
 import org.apache.shiro.cache.CacheManager;
@@ -225,7 +226,7 @@ public class Realm extends AuthorizingRealm {
 
     @Override
     protected AuthorizationInfo doGetAuthorizationInfo( PrincipalCollection principals ) {
-        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+        SimpleAuthorizationInfo info = new CompiledAuthorizationInfo();
 
         Map<UUID, String> organizationSet = HashBiMap.create();
         Map<UUID, String> applicationSet = HashBiMap.create();
@@ -533,6 +534,20 @@ public class Realm extends AuthorizingRealm {
     }
 
 
+    /** Check the permission against the compiled permissions of the authorization info */
+    @Override
+    public boolean isPermitted( PrincipalCollection principals, Permission permission ) {
+        AuthorizationInfo info = getAuthorizationInfo( principals );
+
+        if ( info instanceof CompiledAuthorizationInfo ) {
+            return ( ( CompiledAuthorizationInfo ) info ).getCompiledPermissions( getPermissionResolver() )
+                                                         .implies( permission );
+        }
+
+        return super.isPermitted( principals, permission );
+    }
+
+
     @Override
     public boolean supports( AuthenticationToken token ) {
         return token instanceof PrincipalCredentialsToken;
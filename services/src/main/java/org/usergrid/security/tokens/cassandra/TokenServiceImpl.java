@@ -3,11 +3,20 @@ package org.usergrid.security.tokens.cassandra;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +37,11 @@ import org.usergrid.security.tokens.exceptions.InvalidTokenException;
 import org.usergrid.utils.JsonUtils;
 import org.usergrid.utils.UUIDUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
 import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
 import me.prettyprint.cassandra.serializers.LongSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
@@ -69,6 +83,10 @@ public class TokenServiceImpl implements TokenService {
     public static final String PROPERTIES_AUTH_TOKEN_EXPIRES_FROM_LAST_USE =
             "usergrid.auth.token_expires_from_last_use";
     public static final String PROPERTIES_AUTH_TOKEN_REFRESH_REUSES_ID = "usergrid.auth.token_refresh_reuses_id";
+    public static final String PROPERTIES_AUTH_TOKEN_CACHE_SIZE = "usergrid.auth.token_cache_size";
+    public static final String PROPERTIES_AUTH_TOKEN_CACHE_TTL = "usergrid.auth.token_cache_ttl";
+    public static final String PROPERTIES_AUTH_TOKEN_ACCESS_FLUSH_INTERVAL =
+            "usergrid.auth.token_access_flush_interval";
 
     private static final String TOKEN_UUID = "uuid";
     private static final String TOKEN_TYPE = "type";
@@ -86,6 +104,10 @@ public class TokenServiceImpl implements TokenService {
     private static final ByteBufferSerializer BUFF_SER = ByteBufferSerializer.get();
     private static final StringSerializer STR_SER = StringSerializer.get();
 
+    private static final Counter cacheHits = Metrics.newCounter( TokenServiceImpl.class, "token_cache_hits" );
+    private static final Counter cacheMisses = Metrics.newCounter( TokenServiceImpl.class, "token_cache_misses" );
+    private static final Counter accessFlushes = Metrics.newCounter( TokenServiceImpl.class, "token_access_flushes" );
+
     private static final HashSet<String> TOKEN_PROPERTIES = new HashSet<String>();
 
 
@@ -124,6 +146,13 @@ public class TokenServiceImpl implements TokenService {
     // Long-lived token is good for 7 days
     public static final long LONG_TOKEN_AGE = 7 * 24 * 60 * 60 * 1000;
 
+    public static final long DEFAULT_TOKEN_CACHE_SIZE = 10000;
+
+    // a token revoked on another node is still accepted here for at most this long
+    public static final long DEFAULT_TOKEN_CACHE_TTL = 10 * 1000;
+
+    public static final long DEFAULT_TOKEN_ACCESS_FLUSH_INTERVAL = 10 * 1000;
+
     String tokenSecretSalt = TOKEN_SECRET_SALT;
 
     long maxPersistenceTokenAge = LONG_TOKEN_AGE;
@@ -143,12 +172,34 @@ public class TokenServiceImpl implements TokenService {
 
     protected EntityManagerFactory emf;
 
+    long tokenAccessFlushInterval = DEFAULT_TOKEN_ACCESS_FLUSH_INTERVAL;
+
+    /** The tokens read on this node, keyed by token uuid */
+    private Cache<UUID, TokenInfo> tokenCache = buildTokenCache( DEFAULT_TOKEN_CACHE_SIZE, DEFAULT_TOKEN_CACHE_TTL );
+
+    /**
+     * The tokens revoked on this node.  A request that read the token before it was revoked must neither cache it again
+     * nor write its access, that would bring back the columns of the deleted token
+     */
+    private Cache<UUID, Boolean> revokedTokens =
+            buildTokenCache( DEFAULT_TOKEN_CACHE_SIZE, DEFAULT_TOKEN_CACHE_TTL );
+
+    /** The tokens that were accessed since the last flush.  Many accesses of a token are a single write */
+    private final ConcurrentHashMap<UUID, PendingAccess> pendingAccesses = new ConcurrentHashMap<UUID, PendingAccess>();
+
+    private ScheduledExecutorService flushExecutor;
+
 
     public TokenServiceImpl() {
 
     }
 
 
+    private static <V> Cache<UUID, V> buildTokenCache( long size, long ttl ) {
+        return CacheBuilder.newBuilder().maximumSize( size ).expireAfterWrite( ttl, TimeUnit.MILLISECONDS ).build();
+    }
+
+
     long getExpirationProperty( String name, long default_expiration ) {
         long expires = Long.parseLong(
                 properties.getProperty( "usergrid.auth.token." + name + ".expires", "" + default_expiration ) );
@@ -189,6 +240,18 @@ public class TokenServiceImpl implements TokenService {
             setExpirationFromProperties( "offline" );
 
             tokenSecretSalt = properties.getProperty( PROPERTIES_AUTH_TOKEN_SECRET_SALT, TOKEN_SECRET_SALT );
+
+            long cacheSize = Long.parseLong(
+                    properties.getProperty( PROPERTIES_AUTH_TOKEN_CACHE_SIZE, "" + DEFAULT_TOKEN_CACHE_SIZE ) );
+            long cacheTtl = Long.parseLong(
+                    properties.getProperty( PROPERTIES_AUTH_TOKEN_CACHE_TTL, "" + DEFAULT_TOKEN_CACHE_TTL ) );
+
+            tokenCache = buildTokenCache( cacheSize, cacheTtl );
+            revokedTokens = buildTokenCache( cacheSize, cacheTtl );
+
+            tokenAccessFlushInterval = Long.parseLong(
+                    properties.getProperty( PROPERTIES_AUTH_TOKEN_ACCESS_FLUSH_INTERVAL,
+                            "" + DEFAULT_TOKEN_ACCESS_FLUSH_INTERVAL ) );
         }
     }
 
@@ -242,38 +305,198 @@ public class TokenServiceImpl implements TokenService {
             return null;
         }
 
-        TokenInfo tokenInfo = getTokenInfo( uuid );
+        checkNotRevoked( uuid );
 
-        if ( tokenInfo == null ) {
-            return null;
+        long now = currentTimeMillis();
+
+        TokenInfo cached = tokenCache.getIfPresent( uuid );
+
+        // the columns of the token have expired, don't hand out our copy
+        if ( cached != null && isExpired( cached, now ) ) {
+            tokenCache.invalidate( uuid );
+            cached = null;
         }
 
-        //update the token
-        long now = currentTimeMillis();
+        if ( cached != null ) {
+            cacheHits.inc();
+        }
+        else {
+            cacheMisses.inc();
 
-        long maxTokenTtl = getMaxTtl( TokenCategory.getFromBase64String( token ), tokenInfo.getPrincipal() );
+            cached = getTokenInfo( uuid );
 
-        Mutator<UUID> batch = createMutator( cassandra.getSystemKeyspace(), UUIDSerializer.get() );
+            if ( cached == null ) {
+                return null;
+            }
+
+            tokenCache.put( uuid, cached );
+        }
+
+        TokenInfo tokenInfo;
 
-        HColumn<String, Long> col =
-                createColumn( TOKEN_ACCESSED, now, calcTokenTime( tokenInfo.getExpiration( maxTokenTtl ) ),
-                        StringSerializer.get(), LongSerializer.get() );
-        batch.addInsertion( uuid, TOKENS_CF, col );
+        //update the token, the write is deferred to the next flush
+        synchronized ( cached ) {
+            long inactive = now - cached.getAccessed();
+            if ( inactive > cached.getInactive() ) {
+                cached.setInactive( inactive );
+            }
+
+            tokenInfo = new TokenInfo( uuid, cached.getType(), cached.getCreated(), cached.getAccessed(),
+                    cached.getInactive(), cached.getDuration(), cached.getPrincipal(), cached.getState() );
 
-        long inactive = now - tokenInfo.getAccessed();
-        if ( inactive > tokenInfo.getInactive() ) {
-            col = createColumn( TOKEN_INACTIVE, inactive, calcTokenTime( tokenInfo.getExpiration( maxTokenTtl ) ),
-                    StringSerializer.get(), LongSerializer.get() );
-            batch.addInsertion( uuid, TOKENS_CF, col );
-            tokenInfo.setInactive( inactive );
+            cached.setAccessed( now );
         }
 
-        batch.execute();
+        pendingAccesses.put( uuid, new PendingAccess( cached, TokenCategory.getFromBase64String( token ) ) );
+
+        // revoked while we were reading it, take back what we cached and queued
+        if ( revokedTokens.getIfPresent( uuid ) != null ) {
+            pendingAccesses.remove( uuid );
+            tokenCache.invalidate( uuid );
+            throw new InvalidTokenException( "Token has been revoked" );
+        }
 
         return tokenInfo;
     }
 
 
+    private void checkNotRevoked( UUID uuid ) throws InvalidTokenException {
+        if ( revokedTokens.getIfPresent( uuid ) != null ) {
+            throw new InvalidTokenException( "Token has been revoked" );
+        }
+    }
+
+
+    /** True if the columns of the token have reached their ttl */
+    private static boolean isExpired( TokenInfo tokenInfo, long now ) {
+        long duration = tokenInfo.getDuration();
+        return duration > 0 && tokenInfo.getCreated() < now - duration;
+    }
+
+
+    /** A token access that hasn't been written yet */
+    private static class PendingAccess {
+
+        private final TokenInfo tokenInfo;
+        private final TokenCategory tokenCategory;
+
+
+        private PendingAccess( TokenInfo tokenInfo, TokenCategory tokenCategory ) {
+            this.tokenInfo = tokenInfo;
+            this.tokenCategory = tokenCategory;
+        }
+    }
+
+
+    /** Start the background flush of the token accesses */
+    @PostConstruct
+    public synchronized void init() {
+        flushExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r, "TokenAccessFlusher" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        flushExecutor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushAccesses();
+                }
+                catch ( Throwable t ) {
+                    logger.error( "Unable to flush token accesses", t );
+                }
+            }
+        }, tokenAccessFlushInterval, tokenAccessFlushInterval, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Write the accessed and inactive times of every token accessed since the last flush in a single batch.  Exposed
+     * for testing purposes, this is invoked on a schedule
+     */
+    public void flushAccesses() throws Exception {
+        if ( pendingAccesses.isEmpty() ) {
+            return;
+        }
+
+        Mutator<UUID> batch = createMutator( cassandra.getSystemKeyspace(), UUIDSerializer.get() );
+
+        Map<UUID, PendingAccess> flushed = new HashMap<UUID, PendingAccess>();
+
+        for ( UUID uuid : pendingAccesses.keySet() ) {
+            PendingAccess access = pendingAccesses.remove( uuid );
+
+            // the token is gone, writing the access would bring back some of its columns
+            if ( access == null || revokedTokens.getIfPresent( uuid ) != null ) {
+                continue;
+            }
+
+            flushed.put( uuid, access );
+
+            long accessed;
+            long inactive;
+
+            synchronized ( access.tokenInfo ) {
+                accessed = access.tokenInfo.getAccessed();
+                inactive = access.tokenInfo.getInactive();
+            }
+
+            long maxTokenTtl = getMaxTtl( access.tokenCategory, access.tokenInfo.getPrincipal() );
+            int ttl = calcTokenTime( access.tokenInfo.getExpiration( maxTokenTtl ) );
+
+            batch.addInsertion( uuid, TOKENS_CF,
+                    createColumn( TOKEN_ACCESSED, accessed, ttl, StringSerializer.get(), LongSerializer.get() ) );
+            batch.addInsertion( uuid, TOKENS_CF,
+                    createColumn( TOKEN_INACTIVE, inactive, ttl, StringSerializer.get(), LongSerializer.get() ) );
+        }
+
+        if ( flushed.isEmpty() ) {
+            return;
+        }
+
+        try {
+            batch.execute();
+        }
+        catch ( RuntimeException e ) {
+            // try again on the next flush, unless the token was accessed again in the meantime
+            for ( Map.Entry<UUID, PendingAccess> access : flushed.entrySet() ) {
+                pendingAccesses.putIfAbsent( access.getKey(), access.getValue() );
+            }
+
+            throw e;
+        }
+
+        accessFlushes.inc( flushed.size() );
+
+        logger.debug( "Flushed the accesses of {} tokens", flushed.size() );
+    }
+
+
+    /** Write the outstanding token accesses and stop the background flush */
+    @PreDestroy
+    public synchronized void shutdown() throws Exception {
+        if ( flushExecutor != null ) {
+            flushExecutor.shutdown();
+            flushExecutor = null;
+        }
+
+        flushAccesses();
+    }
+
+
+    /** Drop the token from this node's cache and discard its outstanding access, it's being deleted */
+    private void evictToken( UUID tokenId ) {
+        // marked first, a request that reads the token from here on sees it and backs out
+        revokedTokens.put( tokenId, Boolean.TRUE );
+        pendingAccesses.remove( tokenId );
+        tokenCache.invalidate( tokenId );
+    }
+
+
     /** Get the max ttl per app. This is null safe,and will return the default in the case of missing data */
     private long getMaxTtl( TokenCategory tokenCategory, AuthPrincipalInfo principal ) throws Exception {
 
@@ -321,6 +544,7 @@ public class TokenServiceImpl implements TokenService {
         Mutator<ByteBuffer> batch = createMutator( cassandra.getSystemKeyspace(), BUFF_SER );
 
         for ( UUID tokenId : tokenIds ) {
+            evictToken( tokenId );
             batch.addDeletion( bytebuffer( tokenId ), TOKENS_CF );
         }
 
@@ -341,8 +565,9 @@ public class TokenServiceImpl implements TokenService {
 
         TokenInfo info;
 
+        // read without recording an access, there's nothing left to write it to
         try {
-            info = getTokenInfo( token );
+            info = getTokenInfo( getUUIDForToken( token ) );
         }
         catch ( Exception e ) {
             logger.error( "Unable to find token with the specified value ignoring request.  Value : {}", token );
@@ -351,6 +576,8 @@ public class TokenServiceImpl implements TokenService {
 
         UUID tokenId = info.getUuid();
 
+        evictToken( tokenId );
+
         Mutator<ByteBuffer> batch = createMutator( cassandra.getSystemKeyspace(), BUFF_SER );
 
         // clean up the link in the principal -> token index if the principal is
@@ -67,6 +67,9 @@ public class ServiceManager {
     public static final String COM_PACKAGE_PREFIX = "com.usergrid.services";
     public static final String SERVICE_PACKAGE_PREFIXES = "usergird.service.packages";
 
+    /** False to read every entity from cassandra each time a request needs it */
+    public static final String SERVICE_READ_CACHE = "usergrid.service.readcache";
+
     public static final String APPLICATION_REQUESTS = "application.requests";
     public static final String APPLICATION_REQUESTS_PER = APPLICATION_REQUESTS + ".";
     public static final String IMPL = "Impl";
@@ -82,6 +85,8 @@ public class ServiceManager {
 
     private Properties properties;
 
+    private boolean readCacheEnabled = true;
+
     // search for commercial packages first for SaaS version
     public static String[] package_prefixes = {
             COM_PACKAGE_PREFIX, OSS_PACKAGE_PREFIX
@@ -113,6 +118,7 @@ public class ServiceManager {
             if ( !StringUtils.isEmpty( packages ) ) {
                 setServicePackagePrefixes( packages );
             }
+            readCacheEnabled = !"false".equalsIgnoreCase( properties.getProperty( SERVICE_READ_CACHE ) );
         }
         return this;
     }
@@ -428,4 +434,10 @@ public class ServiceManager {
     public Properties getProperties() {
         return properties;
     }
+
+
+    /** True if entity reads are cached for the length of each request */
+    public boolean isReadCacheEnabled() {
+        return readCacheEnabled;
+    }
 }
@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.EntityRef;
 import org.usergrid.persistence.Query;
+import org.usergrid.persistence.cassandra.EntityReadCache;
 import org.usergrid.services.ServiceParameter.QueryParameter;
 import org.usergrid.services.ServiceResults.Type;
 
@@ -59,6 +60,8 @@ public class ServiceRequest {
     private final ServicePayload payload;
     private final List<ServiceParameter> originalParameters;
 
+    private EntityReadCache readCache;
+
     // return results_set, result_entity, new_service, param_list, properties
 
 
@@ -189,7 +192,15 @@ public class ServiceRequest {
     }
 
 
+    /**
+     * Execute the request.  Entity reads are cached until the request and every request it invokes complete, so an
+     * entity, alias or role is read once however many services look it up.
+     */
     public ServiceResults execute() throws Exception {
+        if ( services.isReadCacheEnabled() ) {
+            readCache = EntityReadCache.begin();
+        }
+
         try {
             return execute( null );
         }
@@ -198,6 +209,17 @@ public class ServiceRequest {
             logger.debug( debugString(), e );
             throw e;
         }
+        finally {
+            if ( readCache != null ) {
+                readCache.end();
+            }
+        }
+    }
+
+
+    /** Get the read cache of the last execution, null if reads weren't cached */
+    public EntityReadCache getReadCache() {
+        return readCache;
     }
 
 
@@ -53,6 +53,59 @@ public class AssetUtils {
     }
 
 
+    /**
+     * The entity tag of the binary data. The stored etag if there is one, otherwise one derived from the length and
+     * last modified time of the data, so clients can revalidate without the data being read.  Null if neither is
+     * known
+     */
+    public static String getETag( Map<String, Object> fileMetadata ) {
+        Object eTag = fileMetadata.get( E_TAG );
+        if ( eTag != null ) {
+            return eTag.toString();
+        }
+
+        Object length = fileMetadata.get( CONTENT_LENGTH );
+        Object lastModified = fileMetadata.get( LAST_MODIFIED );
+        if ( !( length instanceof Number ) || !( lastModified instanceof Number ) ) {
+            return null;
+        }
+
+        return Long.toHexString( ( ( Number ) lastModified ).longValue() ) + "-" + Long
+                .toHexString( ( ( Number ) length ).longValue() );
+    }
+
+
+    /** True if the If-None-Match header matches the entity tag, so the response should be a 304 */
+    public static boolean matchesIfNoneMatch( String headerValue, String eTag ) {
+        if ( StringUtils.isEmpty( headerValue ) || eTag == null ) {
+            return false;
+        }
+
+        for ( String candidate : headerValue.split( "," ) ) {
+            candidate = candidate.trim();
+
+            if ( "*".equals( candidate ) ) {
+                return true;
+            }
+
+            // weak comparison, a weak tag matches its strong version
+            if ( candidate.startsWith( "W/" ) ) {
+                candidate = candidate.substring( 2 );
+            }
+
+            if ( candidate.length() > 1 && candidate.startsWith( "\"" ) && candidate.endsWith( "\"" ) ) {
+                candidate = candidate.substring( 1, candidate.length() - 1 );
+            }
+
+            if ( eTag.equals( candidate ) ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
     /** side-effect: sets file-metadata on the entity if not present */
     public static Map<String, Object> getFileMetadata( Entity entity ) {
         Map<String, Object> metadata = ( Map<String, Object> ) entity.getProperty( AssetUtils.FILE_METADATA );
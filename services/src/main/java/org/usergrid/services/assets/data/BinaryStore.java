@@ -19,9 +19,16 @@ public interface BinaryStore {
     /** read the entity's file data from the store */
     InputStream read( UUID appId, Entity entity ) throws IOException;
 
-    /** read partial data from the store */
+    /** read partial data from the store, length bytes starting at offset */
     InputStream read( UUID appId, Entity entity, long offset, long length ) throws IOException;
 
+    /**
+     * read partial data from the store as a region of a local file, so it can be sent a buffer at a time with a
+     * transfer from the file channel. returns null if the data isn't stored in a local file, callers should fall back
+     * to reading it as a stream.
+     */
+    FileRegion readRegion( UUID appId, Entity entity, long offset, long length ) throws IOException;
+
     /** delete the entity data from the store. */
     void delete( UUID appId, Entity entity );
 }
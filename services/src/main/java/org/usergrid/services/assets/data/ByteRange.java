@@ -0,0 +1,124 @@
+package org.usergrid.services.assets.data;
+
+
+import org.apache.commons.lang.StringUtils;
+
+
+/** A single byte range of a Range request header, resolved against the length of the binary data */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+    private final long total;
+
+
+    private ByteRange( long start, long end, long total ) {
+        this.start = start;
+        this.end = end;
+        this.total = total;
+    }
+
+
+    /**
+     * Parse the Range header.  Returns null if the header should be ignored and the whole data returned, i.e. it's
+     * blank, malformed, uses another unit or asks for more than one range.  Check {@link #isSatisfiable()} before
+     * using the range, a satisfiable range is clamped to the length of the data.
+     *
+     * @param header The value of the Range header
+     * @param total The length of the data
+     */
+    public static ByteRange parse( String header, long total ) {
+        if ( StringUtils.isBlank( header ) ) {
+            return null;
+        }
+
+        String value = header.trim();
+
+        if ( !value.startsWith( BYTES_UNIT ) ) {
+            return null;
+        }
+
+        value = value.substring( BYTES_UNIT.length() ).trim();
+
+        int dash = value.indexOf( '-' );
+
+        if ( dash == -1 || value.indexOf( ',' ) != -1 ) {
+            return null;
+        }
+
+        String first = value.substring( 0, dash ).trim();
+        String last = value.substring( dash + 1 ).trim();
+
+        try {
+            // bytes=-500 is the last 500 bytes
+            if ( first.length() == 0 ) {
+                long suffix = Long.parseLong( last );
+
+                if ( suffix <= 0 ) {
+                    return new ByteRange( total, total - 1, total );
+                }
+
+                return new ByteRange( Math.max( 0, total - suffix ), total - 1, total );
+            }
+
+            long start = Long.parseLong( first );
+
+            // bytes=500- is everything from 500 on, unsatisfiable if 500 is past the end
+            if ( last.length() == 0 ) {
+                return start < 0 ? null : new ByteRange( start, Math.max( start, total - 1 ), total );
+            }
+
+            long end = Long.parseLong( last );
+
+            if ( start < 0 || end < start ) {
+                return null;
+            }
+
+            return new ByteRange( start, Math.min( end, total - 1 ), total );
+        }
+        catch ( NumberFormatException e ) {
+            return null;
+        }
+    }
+
+
+    /** False if the range starts past the end of the data, the request should be answered with a 416 */
+    public boolean isSatisfiable() {
+        return start < total && start <= end;
+    }
+
+
+    /** The first byte of the range */
+    public long getStart() {
+        return start;
+    }
+
+
+    /** The last byte of the range, inclusive */
+    public long getEnd() {
+        return end;
+    }
+
+
+    /** The number of bytes in the range */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+
+    /** The value of the Content-Range header of the response */
+    public String getContentRange() {
+        if ( !isSatisfiable() ) {
+            return "bytes */" + total;
+        }
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+
+    @Override
+    public String toString() {
+        return getContentRange();
+    }
+}
@@ -0,0 +1,101 @@
+package org.usergrid.services.assets.data;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * A region of a file that's sent with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so only the
+ * bytes of the region are read and never more than a small buffer of them is held at once.  The transfer is only done
+ * by the OS without copying when the target is a file or socket channel, a channel wrapping a stream such as a
+ * servlet response is written through a buffer.  The channel is closed once the region has been transferred, or when
+ * the region is closed.
+ */
+public class FileRegion implements Closeable {
+
+    /** The number of transfers in a row that may send nothing before we give up on the target */
+    private static final int MAX_STALLS = 10;
+
+    /** The longest we wait for the target before trying again */
+    private static final long MAX_BACKOFF_MS = 100;
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+
+
+    public FileRegion( FileChannel channel, long position, long count ) {
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+
+    /** The position of the region in the file */
+    public long getPosition() {
+        return position;
+    }
+
+
+    /** The number of bytes in the region */
+    public long getCount() {
+        return count;
+    }
+
+
+    /** Transfer the whole region to the target and close the channel, whether or not the transfer succeeded */
+    public void transferTo( WritableByteChannel target ) throws IOException {
+        try {
+            long transferred = 0;
+            int stalls = 0;
+
+            // transferTo may send less than asked for, e.g. to a non-blocking socket
+            while ( transferred < count ) {
+                long sent = channel.transferTo( position + transferred, count - transferred, target );
+
+                if ( sent > 0 ) {
+                    transferred += sent;
+                    stalls = 0;
+                    continue;
+                }
+
+                // the file was truncated under us
+                if ( position + transferred >= channel.size() ) {
+                    throw new IOException( "File region ended after " + transferred + " of " + count + " bytes" );
+                }
+
+                if ( ++stalls > MAX_STALLS ) {
+                    throw new IOException(
+                            "Target accepted nothing after " + MAX_STALLS + " tries, sent " + transferred + " of "
+                                    + count + " bytes" );
+                }
+
+                backoff( stalls );
+            }
+        }
+        finally {
+            close();
+        }
+    }
+
+
+    private static void backoff( int stalls ) throws InterruptedIOException {
+        try {
+            Thread.sleep( Math.min( 1L << stalls, MAX_BACKOFF_MS ) );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting to send the file region" );
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
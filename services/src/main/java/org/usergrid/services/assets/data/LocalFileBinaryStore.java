@@ -5,12 +5,16 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.UUID;
 
 import org.usergrid.persistence.Entity;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
 
 /** A binary store implementation using the local file system */
@@ -61,13 +65,43 @@ public class LocalFileBinaryStore implements BinaryStore {
 
     @Override
     public InputStream read( UUID appId, Entity entity ) throws IOException {
-        return read( appId, entity, 0, FileUtils.ONE_MB * 5 );
+        return new BufferedInputStream( FileUtils.openInputStream( path( appId, entity ) ) );
     }
 
 
     @Override
     public InputStream read( UUID appId, Entity entity, long offset, long length ) throws IOException {
-        return new BufferedInputStream( FileUtils.openInputStream( path( appId, entity ) ) );
+        InputStream in = FileUtils.openInputStream( path( appId, entity ) );
+
+        try {
+            IOUtils.skipFully( in, offset );
+        }
+        catch ( IOException e ) {
+            IOUtils.closeQuietly( in );
+            throw e;
+        }
+
+        return new BufferedInputStream( new BoundedInputStream( in, length ) );
+    }
+
+
+    @Override
+    public FileRegion readRegion( UUID appId, Entity entity, long offset, long length ) throws IOException {
+        File file = path( appId, entity );
+
+        if ( !file.isFile() ) {
+            return null;
+        }
+
+        FileChannel channel = new RandomAccessFile( file, "r" ).getChannel();
+        long size = channel.size();
+
+        if ( offset > size ) {
+            channel.close();
+            throw new IOException( "Offset " + offset + " is past the end of " + file );
+        }
+
+        return new FileRegion( channel, offset, Math.min( length, size - offset ) );
     }
 
 
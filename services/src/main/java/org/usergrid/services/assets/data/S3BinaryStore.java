@@ -177,7 +177,7 @@ public class S3BinaryStore implements BinaryStore {
             blob = blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ) );
         }
         else {
-            GetOptions options = GetOptions.Builder.range( offset, length );
+            GetOptions options = GetOptions.Builder.range( offset, offset + length - 1 );
             blob = blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ), options );
         }
         if ( blob == null || blob.getPayload() == null ) {
@@ -193,6 +193,13 @@ public class S3BinaryStore implements BinaryStore {
     }
 
 
+    /** The data is in S3, not in a local file */
+    @Override
+    public FileRegion readRegion( UUID appId, Entity entity, long offset, long length ) throws IOException {
+        return null;
+    }
+
+
     @Override
     public void delete( UUID appId, Entity entity ) {
         BlobStore blobStore = getContext().getBlobStore();
@@ -16,14 +16,14 @@
 package org.usergrid.services.groups.activities;
 
 
-import java.util.List;
 import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.usergrid.batch.job.ActivityFanOutJob;
 import org.usergrid.persistence.Entity;
 import org.usergrid.persistence.EntityRef;
-import org.usergrid.persistence.Results;
+import org.usergrid.persistence.entities.JobData;
 import org.usergrid.services.ServiceContext;
 import org.usergrid.services.ServiceResults;
 import org.usergrid.services.generic.GenericCollectionService;
@@ -64,11 +64,11 @@ public class ActivitiesService extends GenericCollectionService {
         if ( activity == null ) {
             return;
         }
-        em.addToCollection( group, "feed", activity );
-        Results r = em.getCollection( group, "users", null, 10000, Results.Level.REFS, false );
-        List<EntityRef> refs = r.getRefs();
-        if ( refs != null ) {
-            em.addToCollections( refs, "feed", activity );
-        }
+        em.addToCollection( group, ActivityFanOutJob.FEED, activity );
+
+        JobData fanOut = ActivityFanOutJob.collectionJobData( sm.getApplicationId(), group, activity, "users" );
+
+        ActivityFanOutJob.distribute( em, sm.getSchedulerService(), fanOut, activity,
+                ActivityFanOutJob.DEFAULT_INLINE_SIZE );
     }
 }
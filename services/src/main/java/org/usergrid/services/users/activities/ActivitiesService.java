@@ -17,17 +17,17 @@ package org.usergrid.services.users.activities;
 
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.usergrid.batch.job.ActivityFanOutJob;
 import org.usergrid.persistence.Entity;
 import org.usergrid.persistence.EntityRef;
-import org.usergrid.persistence.Results;
 import org.usergrid.persistence.entities.Activity;
 import org.usergrid.persistence.entities.Activity.ActivityObject;
+import org.usergrid.persistence.entities.JobData;
 import org.usergrid.persistence.entities.User;
 import org.usergrid.services.ServiceContext;
 import org.usergrid.services.ServicePayload;
@@ -132,11 +132,12 @@ public class ActivitiesService extends GenericCollectionService {
         if ( activity == null ) {
             return;
         }
-        em.addToCollection( user, "feed", activity );
-        Results r = em.getConnectingEntities( user.getUuid(), "following", User.ENTITY_TYPE, Results.Level.REFS );
-        List<EntityRef> refs = r.getRefs();
-        if ( refs != null ) {
-            em.addToCollections( refs, "feed", activity );
-        }
+        em.addToCollection( user, ActivityFanOutJob.FEED, activity );
+
+        JobData fanOut = ActivityFanOutJob
+                .connectingJobData( sm.getApplicationId(), user, activity, "following", User.ENTITY_TYPE );
+
+        ActivityFanOutJob.distribute( em, sm.getSchedulerService(), fanOut, activity,
+                ActivityFanOutJob.DEFAULT_INLINE_SIZE );
     }
 }
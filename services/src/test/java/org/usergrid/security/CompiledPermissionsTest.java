@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.security;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.AntPathMatcher;
+import org.usergrid.security.shiro.CompiledPathPattern;
+import org.usergrid.security.shiro.CompiledPermissions;
+import org.usergrid.security.shiro.CustomPermission;
+import org.usergrid.utils.UUIDUtils;
+
+import org.apache.shiro.authz.Permission;
+
+import static org.junit.Assert.assertEquals;
+
+
+/** Checks the compiled matchers agree with the original ones, and compares how long both take */
+public class CompiledPermissionsTest {
+
+    private static final Logger logger = LoggerFactory.getLogger( CompiledPermissionsTest.class );
+
+    private static final String[] PATTERNS = {
+            "/**", "/*", "/foo", "/foo/", "/foo/*", "/foo/**", "/foo/bar/*", "/foo/bar/**", "/foo/*/baz",
+            "/foo/**/baz", "/foo/**/bar/**/baz", "/foo/b?r", "/foo/b*", "/foo/*bar*/baz", "/foo/{name}", "/**/baz",
+            "/**/**/baz", "foo/*", "/users/*/roles/**"
+    };
+
+    private static final String[] PATHS = {
+            "/", "/foo", "/foo/", "/foo/bar", "/foo/bar/", "/foo/bar/baz", "/foo/bar/baz/", "/foo/bor",
+            "/foo/xbarx/baz", "/foo/a/b/bar/c/d/baz", "/foo/baz", "/foo/123/bar", "/bar/baz", "foo/bar",
+            "/users/fred/roles", "/users/fred/roles/admin/users", "/foo//bar"
+    };
+
+
+    @Test
+    public void pathPatternsMatchAntPatterns() {
+        AntPathMatcher matcher = new AntPathMatcher();
+
+        for ( String pattern : PATTERNS ) {
+            for ( String path : PATHS ) {
+                assertEquals( pattern + " " + path, matcher.match( pattern, path ),
+                        CompiledPathPattern.get( pattern ).matches( path ) );
+            }
+        }
+    }
+
+
+    @Test
+    public void compiledPermissionsMatchPermissions() {
+        Random random = new Random( 1 );
+
+        List<UUID> applications = new ArrayList<UUID>();
+        for ( int i = 0; i < 5; i++ ) {
+            applications.add( UUIDUtils.newTimeUUID() );
+        }
+
+        List<Permission> granted = grantedPermissions( random, applications, 200 );
+        CompiledPermissions compiled = new CompiledPermissions( granted );
+
+        for ( int i = 0; i < 1000; i++ ) {
+            Permission checked = checkedPermission( random, applications );
+
+            boolean expected = false;
+            for ( Permission permission : granted ) {
+                if ( permission.implies( checked ) ) {
+                    expected = true;
+                    break;
+                }
+            }
+
+            assertEquals( checked.toString(), expected, compiled.implies( checked ) );
+        }
+    }
+
+
+    @Test
+    public void benchmark() {
+        Random random = new Random( 1 );
+
+        List<UUID> applications = new ArrayList<UUID>();
+        for ( int i = 0; i < 20; i++ ) {
+            applications.add( UUIDUtils.newTimeUUID() );
+        }
+
+        List<String> grantedStrings = grantedPermissionStrings( random, applications, 500 );
+
+        List<Permission> checks = new ArrayList<Permission>();
+        for ( int i = 0; i < 2000; i++ ) {
+            checks.add( checkedPermission( random, applications ) );
+        }
+
+        // what a check used to cost, resolve every permission and evaluate all of them
+        long start = System.nanoTime();
+        int linearPermitted = 0;
+
+        for ( Permission checked : checks ) {
+            for ( String grantedString : grantedStrings ) {
+                if ( new CustomPermission( grantedString ).implies( checked ) ) {
+                    linearPermitted++;
+                    break;
+                }
+            }
+        }
+
+        long linear = System.nanoTime() - start;
+
+        start = System.nanoTime();
+
+        List<Permission> granted = new ArrayList<Permission>();
+        for ( String grantedString : grantedStrings ) {
+            granted.add( new CustomPermission( grantedString ) );
+        }
+
+        CompiledPermissions compiled = new CompiledPermissions( granted );
+        int compiledPermitted = 0;
+
+        for ( Permission checked : checks ) {
+            if ( compiled.implies( checked ) ) {
+                compiledPermitted++;
+            }
+        }
+
+        long indexed = System.nanoTime() - start;
+
+        assertEquals( linearPermitted, compiledPermitted );
+
+        logger.info( "{} checks against {} permissions: linear {} ms, compiled {} ms", new Object[] {
+                checks.size(), granted.size(), linear / 1000000, indexed / 1000000
+        } );
+    }
+
+
+    private static List<Permission> grantedPermissions( Random random, List<UUID> applications, int count ) {
+        List<Permission> permissions = new ArrayList<Permission>( count );
+
+        for ( String permission : grantedPermissionStrings( random, applications, count ) ) {
+            permissions.add( new CustomPermission( permission ) );
+        }
+
+        return permissions;
+    }
+
+
+    private static List<String> grantedPermissionStrings( Random random, List<UUID> applications, int count ) {
+        String[] operations = { "get", "put", "post", "delete", "get,put", "*" };
+        String[] paths = {
+                "/users/*", "/users/**", "/users/me/**", "/users/${user}/activities/*", "/groups/*/users/*",
+                "/devices/**", "/assets/*", "/*", "/**", "/rolenames"
+        };
+
+        List<String> permissions = new ArrayList<String>( count );
+
+        for ( int i = 0; i < count; i++ ) {
+            String application = random.nextInt( 20 ) == 0 ? "*" : applications
+                    .get( random.nextInt( applications.size() ) ).toString();
+
+            permissions.add( "applications:" + operations[random.nextInt( operations.length )] + ":" + application + ":"
+                    + paths[random.nextInt( paths.length )] );
+        }
+
+        return permissions;
+    }
+
+
+    private static Permission checkedPermission( Random random, List<UUID> applications ) {
+        String[] operations = { "get", "put", "post", "delete" };
+        String[] paths = {
+                "/users/fred", "/users/fred/activities/123", "/groups/a/users/b", "/devices/d/x/y", "/assets/a/data",
+                "/rolenames", "/things", "/"
+        };
+
+        return new CustomPermission(
+                "applications:" + operations[random.nextInt( operations.length )] + ":" + applications
+                        .get( random.nextInt( applications.size() ) ) + ":" + paths[random.nextInt( paths.length )] );
+    }
+}
@@ -1,8 +1,10 @@
 package org.usergrid.security.tokens;
 
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
@@ -28,10 +30,17 @@ import org.usergrid.security.tokens.exceptions.ExpiredTokenException;
 import org.usergrid.security.tokens.exceptions.InvalidTokenException;
 import org.usergrid.utils.UUIDUtils;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import me.prettyprint.hector.api.beans.HColumn;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.usergrid.persistence.cassandra.CassandraService.TOKENS_CF;
+import static org.usergrid.utils.ConversionUtils.getLong;
 
 
 @Concurrent()
@@ -437,4 +446,91 @@ public class TokenServiceIT {
 
         assertTrue( invalidTokenException );
     }
+
+
+    @Test
+    public void tokenCacheHit() throws Exception {
+        AuthPrincipalInfo adminPrincipal =
+                new AuthPrincipalInfo( AuthPrincipalType.ADMIN_USER, UUIDUtils.newTimeUUID(), UUIDUtils.newTimeUUID() );
+
+        String token = setup.getTokenSvc().createToken( TokenCategory.ACCESS, null, adminPrincipal, null, 0 );
+
+        Counter hits = Metrics.newCounter( TokenServiceImpl.class, "token_cache_hits" );
+        Counter misses = Metrics.newCounter( TokenServiceImpl.class, "token_cache_misses" );
+
+        long missesBefore = misses.count();
+        TokenInfo first = setup.getTokenSvc().getTokenInfo( token );
+        assertTrue( misses.count() > missesBefore );
+
+        long hitsBefore = hits.count();
+        TokenInfo second = setup.getTokenSvc().getTokenInfo( token );
+        assertTrue( hits.count() > hitsBefore );
+
+        assertEquals( first.getUuid(), second.getUuid() );
+        assertEquals( first.getCreated(), second.getCreated() );
+
+        // every read hands out a copy, the accessed time of the first read is its own
+        assertTrue( second.getAccessed() >= first.getAccessed() );
+    }
+
+
+    @Test
+    public void tokenAccessFlush() throws Exception {
+        AuthPrincipalInfo adminPrincipal =
+                new AuthPrincipalInfo( AuthPrincipalType.ADMIN_USER, UUIDUtils.newTimeUUID(), UUIDUtils.newTimeUUID() );
+
+        TokenServiceImpl tokenService = ( TokenServiceImpl ) setup.getTokenSvc();
+
+        String token = tokenService.createToken( TokenCategory.ACCESS, null, adminPrincipal, null, 0 );
+
+        TokenInfo tokenInfo = tokenService.getTokenInfo( token );
+        long created = getAccessedColumn( tokenInfo.getUuid() );
+
+        Thread.sleep( 10 );
+
+        // the access is only written by the flush
+        tokenService.getTokenInfo( token );
+        assertEquals( created, getAccessedColumn( tokenInfo.getUuid() ) );
+
+        tokenService.flushAccesses();
+        assertTrue( getAccessedColumn( tokenInfo.getUuid() ) > created );
+    }
+
+
+    @Test
+    public void revokedTokenAccessNotFlushed() throws Exception {
+        AuthPrincipalInfo adminPrincipal =
+                new AuthPrincipalInfo( AuthPrincipalType.ADMIN_USER, UUIDUtils.newTimeUUID(), UUIDUtils.newTimeUUID() );
+
+        TokenServiceImpl tokenService = ( TokenServiceImpl ) setup.getTokenSvc();
+
+        String token = tokenService.createToken( TokenCategory.ACCESS, null, adminPrincipal, null, 0 );
+
+        // queue an access, then revoke the token before it's written
+        TokenInfo tokenInfo = tokenService.getTokenInfo( token );
+        tokenService.revokeToken( token );
+        tokenService.flushAccesses();
+
+        assertTrue( setup.getCassSvc().getAllColumns( setup.getCassSvc().getSystemKeyspace(), TOKENS_CF,
+                tokenInfo.getUuid() ).isEmpty() );
+
+        boolean invalidTokenException = false;
+
+        try {
+            tokenService.getTokenInfo( token );
+        }
+        catch ( InvalidTokenException ite ) {
+            invalidTokenException = true;
+        }
+
+        assertTrue( invalidTokenException );
+    }
+
+
+    private long getAccessedColumn( UUID tokenId ) throws Exception {
+        HColumn<String, ByteBuffer> column =
+                setup.getCassSvc().getColumn( setup.getCassSvc().getSystemKeyspace(), TOKENS_CF, tokenId, "accessed" );
+
+        return getLong( column.getValue() );
+    }
 }
@@ -0,0 +1,75 @@
+package org.usergrid.services.assets.data;
+
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+
+public class ByteRangeTest {
+
+    @Test
+    public void startAndEnd() {
+        ByteRange range = ByteRange.parse( "bytes=100-199", 1000 );
+
+        assertTrue( range.isSatisfiable() );
+        assertEquals( 100, range.getStart() );
+        assertEquals( 199, range.getEnd() );
+        assertEquals( 100, range.getLength() );
+        assertEquals( "bytes 100-199/1000", range.getContentRange() );
+    }
+
+
+    @Test
+    public void openEnded() {
+        ByteRange range = ByteRange.parse( "bytes=900-", 1000 );
+
+        assertEquals( 900, range.getStart() );
+        assertEquals( 999, range.getEnd() );
+    }
+
+
+    @Test
+    public void suffix() {
+        ByteRange range = ByteRange.parse( "bytes=-100", 1000 );
+
+        assertEquals( 900, range.getStart() );
+        assertEquals( 999, range.getEnd() );
+
+        range = ByteRange.parse( "bytes=-5000", 1000 );
+
+        assertEquals( 0, range.getStart() );
+        assertEquals( 1000, range.getLength() );
+    }
+
+
+    @Test
+    public void endClamped() {
+        ByteRange range = ByteRange.parse( "bytes=500-5000", 1000 );
+
+        assertEquals( 999, range.getEnd() );
+        assertEquals( 500, range.getLength() );
+    }
+
+
+    @Test
+    public void unsatisfiable() {
+        ByteRange range = ByteRange.parse( "bytes=1000-", 1000 );
+
+        assertFalse( range.isSatisfiable() );
+        assertEquals( "bytes */1000", range.getContentRange() );
+    }
+
+
+    @Test
+    public void ignored() {
+        assertNull( ByteRange.parse( null, 1000 ) );
+        assertNull( ByteRange.parse( "items=0-10", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=0-10,20-30", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=10-5", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=a-b", 1000 ) );
+    }
+}
@@ -0,0 +1,110 @@
+package org.usergrid.services.assets.data;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+
+public class FileRegionTest {
+
+    private File file;
+
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile( "region", ".bin" );
+
+        FileOutputStream out = new FileOutputStream( file );
+        try {
+            out.write( "0123456789".getBytes( "US-ASCII" ) );
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+
+    @Test
+    public void transferClosesChannel() throws IOException {
+        FileChannel channel = new RandomAccessFile( file, "r" ).getChannel();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new FileRegion( channel, 2, 5 ).transferTo( Channels.newChannel( out ) );
+
+        assertEquals( "23456", out.toString( "US-ASCII" ) );
+        assertFalse( channel.isOpen() );
+    }
+
+
+    @Test
+    public void truncatedFile() throws IOException {
+        FileChannel channel = new RandomAccessFile( file, "r" ).getChannel();
+
+        try {
+            new FileRegion( channel, 5, 10 ).transferTo( Channels.newChannel( new ByteArrayOutputStream() ) );
+            fail( "the region is past the end of the file" );
+        }
+        catch ( IOException e ) {
+            assertTrue( e.getMessage().contains( "5 of 10" ) );
+        }
+
+        assertFalse( channel.isOpen() );
+    }
+
+
+    @Test
+    public void stalledTarget() throws IOException {
+        FileChannel channel = new RandomAccessFile( file, "r" ).getChannel();
+
+        // a target that never accepts anything, like a full non-blocking socket
+        WritableByteChannel stalled = new WritableByteChannel() {
+            @Override
+            public int write( ByteBuffer src ) {
+                return 0;
+            }
+
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try {
+            new FileRegion( channel, 0, 10 ).transferTo( stalled );
+            fail( "the target never accepted anything" );
+        }
+        catch ( IOException e ) {
+            assertTrue( e.getMessage().contains( "0 of 10" ) );
+        }
+
+        assertFalse( channel.isOpen() );
+    }
+}
@@ -17,17 +17,26 @@ package org.usergrid.tools;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.management.OrganizationInfo;
@@ -43,16 +52,72 @@ import org.usergrid.tools.bean.ExportOrg;
 import org.usergrid.utils.JsonUtils;
 
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
 
 import com.google.common.collect.BiMap;
 
 
+/**
+ * Exports organizations, applications and their collections to json files that can be read by {@link Import}.
+ * <p/>
+ * Every collection is split into ranges by the time of its entity ids, and the ranges are read concurrently by a pool
+ * of threads in pages of -pageSize entities.  Each range is streamed to its own part files, which are appended in order
+ * to the application and collections files once the range is done, so only a page of a range is held in memory.  Pass
+ * -compress to gzip the files.
+ */
 public class Export extends ExportingToolBase {
 
     static final Logger logger = LoggerFactory.getLogger( Export.class );
 
+    private static final String THREADS_ARG = "threads";
+
+    private static final String RANGES_ARG = "ranges";
+
+    private static final String PAGE_SIZE_ARG = "pageSize";
+
+    private static final int DEFAULT_THREADS = 4;
+
+    /** The number of collection member ids read at a time */
+    private static final int MEMBER_PAGE_SIZE = 1000;
+
+    /** Writes the part files, shared by every thread */
+    private static final ObjectMapper mapper = new ObjectMapper();
+
     JsonFactory jsonFactory = new JsonFactory();
 
+    private ExecutorService executor;
+
+    private File partsDir;
+
+    private int ranges;
+
+    private int pageSize;
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Options options = super.createOptions();
+
+        Option threads = OptionBuilder.hasArg().withDescription( "number of ranges read at a time -threads" )
+                                      .create( THREADS_ARG );
+
+        Option ranges = OptionBuilder.hasArg().withDescription( "ranges to split each collection into -ranges" )
+                                     .create( RANGES_ARG );
+
+        Option pageSize = OptionBuilder.hasArg().withDescription( "entities read per page -pageSize" )
+                                       .create( PAGE_SIZE_ARG );
+
+        options.addOption( threads );
+        options.addOption( ranges );
+        options.addOption( pageSize );
+
+        return options;
+    }
+
 
     @Override
     public void runTool( CommandLine line ) throws Exception {
@@ -69,19 +134,36 @@ public class Export extends ExportingToolBase {
         outputDir = createOutputParentDir();
         logger.info( "Export directory: " + outputDir.getAbsolutePath() );
 
-        // Export organizations separately.
-        exportOrganizations();
+        int threads = Integer.parseInt( line.getOptionValue( THREADS_ARG, String.valueOf( DEFAULT_THREADS ) ) );
+        ranges = Integer.parseInt( line.getOptionValue( RANGES_ARG, String.valueOf( threads ) ) );
 
-        // Loop through the organizations
-        Map<UUID, String> organizations = getOrgs();
-        for ( Entry<UUID, String> organization : organizations.entrySet() ) {
+        // a page holds the last entity of the page before it, so it needs room for at least one more
+        pageSize = Math.max( 2, Integer.parseInt(
+                line.getOptionValue( PAGE_SIZE_ARG, String.valueOf( MAX_ENTITY_FETCH ) ) ) );
 
-            if ( organization.equals( properties.getProperty( "usergrid.test-account.organization" ) ) ) {
-                // Skip test data from being exported.
-                continue;
-            }
+        partsDir = createDir( new File( outputDir, ".parts." + startTime ).getPath() );
+
+        executor = Executors.newFixedThreadPool( threads );
+
+        try {
+            // Export organizations separately.
+            exportOrganizations();
+
+            // Loop through the organizations
+            Map<UUID, String> organizations = getOrgs();
+            for ( Entry<UUID, String> organization : organizations.entrySet() ) {
 
-            exportApplicationsForOrg( organization );
+                if ( organization.equals( properties.getProperty( "usergrid.test-account.organization" ) ) ) {
+                    // Skip test data from being exported.
+                    continue;
+                }
+
+                exportApplicationsForOrg( organization );
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            partsDir.delete();
         }
     }
 
@@ -170,34 +252,39 @@ public class Export extends ExportingToolBase {
 
             // Loop through the collections. This is the only way to loop
             // through the entities in the application (former namespace).
-            for ( String collectionName : metadata.keySet() ) {
-
-                Query query = new Query();
-                query.setLimit( MAX_ENTITY_FETCH );
-                query.setResultsLevel( Results.Level.ALL_PROPERTIES );
+            List<RangeExport> exports = new ArrayList<RangeExport>();
 
-                Results entities = em.searchCollection( em.getApplicationRef(), collectionName, query );
-
-                while ( entities.size() > 0 ) {
+            for ( String collectionName : metadata.keySet() ) {
+                List<UUID> bounds = splitByTime( em, collectionName, ranges );
 
-                    for ( Entity entity : entities ) {
-                        // Export the entity first and later the collections for
-                        // this entity.
-                        jg.writeObject( entity );
-                        echo( entity );
+                for ( int i = 0; i <= bounds.size(); i++ ) {
+                    UUID start = i == 0 ? null : bounds.get( i - 1 );
+                    UUID end = i == bounds.size() ? null : bounds.get( i );
 
-                        saveCollectionMembers( collectionsJg, em, application.getValue(), entity );
-                    }
+                    exports.add( new RangeExport( application, collectionName, start, end,
+                            new File( partsDir, String.format( "%s.%d", application.getKey(), exports.size() ) ) ) );
+                }
+            }
 
-                    //we're done
-                    if ( entities.getCursor() == null ) {
-                        break;
-                    }
+            List<Future<RangeExport>> futures = new ArrayList<Future<RangeExport>>( exports.size() );
 
+            for ( RangeExport export : exports ) {
+                futures.add( executor.submit( export ) );
+            }
 
-                    query.setCursor( entities.getCursor() );
+            try {
+                // the ranges are appended in order, so the files are written as if the collections were read serially
+                for ( Future<RangeExport> future : futures ) {
+                    future.get().copyTo( jg, collectionsJg );
+                }
+            }
+            finally {
+                for ( Future<RangeExport> future : futures ) {
+                    future.cancel( true );
+                }
 
-                    entities = em.searchCollection( em.getApplicationRef(), collectionName, query );
+                for ( RangeExport export : exports ) {
+                    export.delete();
                 }
             }
 
@@ -238,14 +325,30 @@ public class Export extends ExportingToolBase {
             // Start collection array.
             jg.writeStartArray();
 
-            Results collectionMembers = em.getCollection( entity, collectionName, null, 100000, Level.IDS, false );
+            // page through the members, only a page of ids is held at a time
+            Query query = new Query();
+            query.setLimit( MEMBER_PAGE_SIZE );
+            query.setResultsLevel( Level.IDS );
 
-            List<UUID> entityIds = collectionMembers.getIds();
+            Results collectionMembers = em.searchCollection( entity, collectionName, query );
 
-            if ( ( entityIds != null ) && !entityIds.isEmpty() ) {
-                for ( UUID childEntityUUID : entityIds ) {
-                    jg.writeObject( childEntityUUID.toString() );
+            while ( collectionMembers.size() > 0 ) {
+
+                List<UUID> entityIds = collectionMembers.getIds();
+
+                if ( entityIds != null ) {
+                    for ( UUID childEntityUUID : entityIds ) {
+                        jg.writeObject( childEntityUUID.toString() );
+                    }
                 }
+
+                if ( collectionMembers.getCursor() == null ) {
+                    break;
+                }
+
+                query.setCursor( collectionMembers.getCursor() );
+
+                collectionMembers = em.searchCollection( entity, collectionName, query );
             }
 
             // End collection array.
@@ -428,4 +531,135 @@ public class Export extends ExportingToolBase {
     // write end object
     // ...... more objects
     //
+
+
+    /** A part file written by a single thread, compact and never compressed */
+    private JsonGenerator getPartGenerator( File file ) throws IOException {
+        JsonGenerator jg = jsonFactory.createJsonGenerator( openOutputStream( file ), JsonEncoding.UTF8 );
+        jg.setCodec( mapper );
+        return jg;
+    }
+
+
+    /**
+     * Exports a range of a collection, from the start id up to but not including the end id.  The entities are written
+     * to one part file as an array, and their collections to another as an object keyed by entity id.
+     */
+    private class RangeExport implements Callable<RangeExport> {
+
+        private final UUID appId;
+
+        private final String appName;
+
+        private final String collectionName;
+
+        private final UUID start;
+
+        private final UUID end;
+
+        private final File entitiesFile;
+
+        private final File collectionsFile;
+
+        private long count;
+
+
+        private RangeExport( Entry<UUID, String> application, String collectionName, UUID start, UUID end,
+                             File part ) {
+            this.appId = application.getKey();
+            this.appName = application.getValue();
+            this.collectionName = collectionName;
+            this.start = start;
+            this.end = end;
+            this.entitiesFile = new File( part.getPath() + ".entities.json" );
+            this.collectionsFile = new File( part.getPath() + ".collections.json" );
+        }
+
+
+        @Override
+        public RangeExport call() throws Exception {
+            EntityManager em = emf.getEntityManager( appId );
+
+            JsonGenerator entitiesJg = getPartGenerator( entitiesFile );
+            JsonGenerator collectionsJg = getPartGenerator( collectionsFile );
+
+            try {
+                entitiesJg.writeStartArray();
+                collectionsJg.writeStartObject();
+
+                export( em, entitiesJg, collectionsJg );
+
+                entitiesJg.writeEndArray();
+                collectionsJg.writeEndObject();
+            }
+            finally {
+                entitiesJg.close();
+                collectionsJg.close();
+            }
+
+            return this;
+        }
+
+
+        private void export( final EntityManager em, final JsonGenerator entitiesJg,
+                             final JsonGenerator collectionsJg ) throws Exception {
+
+            visitRange( em, collectionName, start, end, null, pageSize, new RangeVisitor() {
+                @Override
+                public void visit( Entity entity ) throws Exception {
+                    // Export the entity first and later the collections for
+                    // this entity.
+                    entitiesJg.writeObject( entity );
+                    echo( entity );
+
+                    saveCollectionMembers( collectionsJg, em, appName, entity );
+
+                    count++;
+                }
+            } );
+        }
+
+
+        /** Append the parts to the application and collections files */
+        private void copyTo( JsonGenerator jg, JsonGenerator collectionsJg ) throws IOException {
+            JsonParser jp = jsonFactory.createJsonParser( openInputStream( entitiesFile ) );
+
+            try {
+                jp.nextToken(); // START_ARRAY
+
+                while ( jp.nextToken() != JsonToken.END_ARRAY ) {
+                    jg.copyCurrentStructure( jp );
+                }
+            }
+            finally {
+                jp.close();
+            }
+
+            jp = jsonFactory.createJsonParser( openInputStream( collectionsFile ) );
+
+            try {
+                jp.nextToken(); // START_OBJECT
+
+                // copies the entity id and its collections
+                while ( jp.nextToken() == JsonToken.FIELD_NAME ) {
+                    collectionsJg.copyCurrentStructure( jp );
+                }
+            }
+            finally {
+                jp.close();
+            }
+
+            delete();
+
+            logger.info( "Exported {} entities of collection: {} for app id: {}", new Object[] {
+                    count, collectionName, appId
+            } );
+        }
+
+
+        private void delete() {
+            entitiesFile.delete();
+            collectionsFile.delete();
+        }
+    }
 }
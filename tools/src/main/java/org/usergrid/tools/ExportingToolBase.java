@@ -14,10 +14,19 @@
 package org.usergrid.tools;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
@@ -47,8 +56,15 @@ public abstract class ExportingToolBase extends ToolBase {
     /** Output dir option: -outputDir */
     protected static final String OUTPUT_DIR = "outputDir";
 
+    /** Compress option: -compress */
+    protected static final String COMPRESS = "compress";
+
+    /** The suffix of compressed files */
+    protected static final String GZIP_SUFFIX = ".gz";
+
     protected String baseOutputDirName = "export";
     protected UUID orgId;
+    protected boolean compress;
     JsonFactory jsonFactory = new JsonFactory();
     protected long startTime = System.currentTimeMillis();
 
@@ -61,9 +77,11 @@ public abstract class ExportingToolBase extends ToolBase {
 
         Option outputDir = OptionBuilder.hasArg().withDescription( "output file name -outputDir" ).create( OUTPUT_DIR );
         Option orgId = OptionBuilder.hasArg().withDescription( "Use a specific organization -orgId" ).create( "orgId" );
+        Option compress = OptionBuilder.withDescription( "gzip the output files -compress" ).create( COMPRESS );
 
         options.addOption( outputDir );
         options.addOption( orgId );
+        options.addOption( compress );
 
         return options;
     }
@@ -76,6 +94,8 @@ public abstract class ExportingToolBase extends ToolBase {
         if ( hasOutputDir ) {
             baseOutputDirName = line.getOptionValue( OUTPUT_DIR );
         }
+
+        compress = line.hasOption( COMPRESS );
     }
 
 
@@ -160,6 +180,10 @@ public abstract class ExportingToolBase extends ToolBase {
         str.append( startTime );
         str.append( ".json" );
 
+        if ( compress ) {
+            str.append( GZIP_SUFFIX );
+        }
+
         String outputFileName = str.toString();
 
         logger.info( "Creating output filename:" + outputFileName );
@@ -174,10 +198,34 @@ public abstract class ExportingToolBase extends ToolBase {
 
 
     protected JsonGenerator getJsonGenerator( File outFile ) throws IOException {
-        PrintWriter out = new PrintWriter( outFile, "UTF-8" );
+        PrintWriter out = new PrintWriter( new OutputStreamWriter( openOutputStream( outFile ), "UTF-8" ) );
         JsonGenerator jg = jsonFactory.createJsonGenerator( out );
         jg.setPrettyPrinter( new DefaultPrettyPrinter() );
         jg.setCodec( new ObjectMapper() );
         return jg;
     }
+
+
+    /** Open a buffered stream to the file, gzipped if the file name ends with .gz */
+    protected static OutputStream openOutputStream( File outFile ) throws IOException {
+        OutputStream out = new FileOutputStream( outFile );
+
+        if ( outFile.getName().endsWith( GZIP_SUFFIX ) ) {
+            return new GZIPOutputStream( out, 64 * 1024 );
+        }
+
+        return new BufferedOutputStream( out, 64 * 1024 );
+    }
+
+
+    /** Open a buffered stream from the file, gunzipped if the file name ends with .gz */
+    protected static InputStream openInputStream( File inFile ) throws IOException {
+        InputStream in = new FileInputStream( inFile );
+
+        if ( inFile.getName().endsWith( GZIP_SUFFIX ) ) {
+            return new GZIPInputStream( in, 64 * 1024 );
+        }
+
+        return new BufferedInputStream( in, 64 * 1024 );
+    }
 }
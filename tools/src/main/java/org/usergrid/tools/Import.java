@@ -17,12 +17,24 @@ package org.usergrid.tools;
 
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParser;
@@ -30,17 +42,22 @@ import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.usergrid.management.ApplicationInfo;
 import org.usergrid.management.OrganizationInfo;
 import org.usergrid.management.UserInfo;
 import org.usergrid.persistence.Entity;
 import org.usergrid.persistence.EntityManager;
-import org.usergrid.persistence.EntityRef;
+import org.usergrid.persistence.Results;
+import org.usergrid.persistence.Schema;
+import org.usergrid.persistence.cassandra.CassandraService;
+import org.usergrid.persistence.cassandra.CounterUtils;
+import org.usergrid.persistence.cassandra.EntityManagerImpl;
 import org.usergrid.persistence.entities.Application;
 import org.usergrid.persistence.exceptions.ApplicationAlreadyExistsException;
 import org.usergrid.persistence.exceptions.DuplicateUniquePropertyExistsException;
+import org.usergrid.persistence.schema.CollectionInfo;
 import org.usergrid.tools.bean.ExportOrg;
-import org.usergrid.utils.JsonUtils;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
@@ -48,24 +65,63 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.io.filefilter.PrefixFileFilter;
 
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
 import static org.usergrid.persistence.Schema.PROPERTY_TYPE;
 import static org.usergrid.persistence.Schema.PROPERTY_UUID;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
+import static org.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
 import static org.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
+import static org.usergrid.utils.UUIDUtils.newTimeUUID;
 
 
+/**
+ * Imports the files written by {@link Export}.  Each file is read by a streaming parser, which queues the entities and
+ * collection members it reads in batches on a bounded queue.  A pool of writers takes the batches off the queue and
+ * writes each batch with a single mutator.  With -dryRun nothing is written, the files are read and the throughput is
+ * reported.
+ */
 public class Import extends ToolBase {
 
     private static final Logger logger = LoggerFactory.getLogger( Import.class );
 
+    public static final ByteBufferSerializer be = new ByteBufferSerializer();
+
     /** Input directory where the .json export files are */
     static final String INPUT_DIR = "inputDir";
 
+    static final String WORKERS = "workers";
+
+    static final String BATCH_SIZE = "batchSize";
+
+    static final String DRY_RUN = "dryRun";
+
+    static final int DEFAULT_WORKERS = 8;
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** Batches that can wait on the queue for each writer */
+    static final int QUEUED_BATCHES = 2;
+
+    /** Items between progress reports */
+    static final int REPORT_INTERVAL = 10000;
+
     static File importDir;
 
     static final String DEFAULT_INPUT_DIR = "export";
 
     JsonFactory jsonFactory = new JsonFactory();
 
+    CounterUtils counterUtils;
+
+    int workers = DEFAULT_WORKERS;
+
+    int batchSize = DEFAULT_BATCH_SIZE;
+
+    boolean dryRun;
+
 
     @Override
     @SuppressWarnings("static-access")
@@ -80,15 +136,36 @@ public class Import extends ToolBase {
                 OptionBuilder.withDescription( "Print on the console an echo of the content written to the file" )
                              .create( VERBOSE );
 
+        Option workersOption =
+                OptionBuilder.hasArg().withDescription( "Number of writers, default " + DEFAULT_WORKERS + " -workers" )
+                             .create( WORKERS );
+
+        Option batchSizeOption = OptionBuilder.hasArg().withDescription(
+                "Entities written by a single mutator, default " + DEFAULT_BATCH_SIZE + " -batchSize" )
+                                              .create( BATCH_SIZE );
+
+        Option dryRunOption =
+                OptionBuilder.withDescription( "Read the files and report the throughput without writing -dryRun" )
+                             .create( DRY_RUN );
+
         Options options = new Options();
         options.addOption( hostOption );
         options.addOption( inputDir );
         options.addOption( verbose );
+        options.addOption( workersOption );
+        options.addOption( batchSizeOption );
+        options.addOption( dryRunOption );
 
         return options;
     }
 
 
+    @Autowired
+    public void setCounterUtils( CounterUtils counterUtils ) {
+        this.counterUtils = counterUtils;
+    }
+
+
     @Override
     public void runTool( CommandLine line ) throws Exception {
         startSpring();
@@ -97,6 +174,14 @@ public class Import extends ToolBase {
 
         openImportDirectory( line );
 
+        workers = Integer.parseInt( line.getOptionValue( WORKERS, String.valueOf( DEFAULT_WORKERS ) ) );
+        batchSize = Integer.parseInt( line.getOptionValue( BATCH_SIZE, String.valueOf( DEFAULT_BATCH_SIZE ) ) );
+        dryRun = line.hasOption( DRY_RUN );
+
+        if ( dryRun ) {
+            logger.info( "Dry run, nothing will be written" );
+        }
+
         importOrganizations();
 
         importApplications();
@@ -104,9 +189,10 @@ public class Import extends ToolBase {
         importCollections();
 
         //forces the counters to flush
-        logger.info( "Sleeping 30 seconds for batcher" );
-
-        Thread.sleep( 35000 );
+        if ( counterUtils != null ) {
+            logger.info( "Flushing counters" );
+            counterUtils.flushCounters();
+        }
     }
 
 
@@ -148,6 +234,19 @@ public class Import extends ToolBase {
 
         Application application = jp.readValueAs( Application.class );
 
+        if ( dryRun ) {
+            EntityPipeline pipeline = new EntityPipeline( null, null );
+
+            while ( jp.nextValue() != JsonToken.END_ARRAY ) {
+                @SuppressWarnings("unchecked") Map<String, Object> entityProps = jp.readValueAs( HashMap.class );
+                pipeline.add( entityProps );
+            }
+
+            pipeline.finish();
+            jp.close();
+            return;
+        }
+
         @SuppressWarnings("unchecked") String orgName =
                 ( ( Map<String, String> ) application.getMetadata( "organization" ) ).get( "value" );
 
@@ -228,31 +327,19 @@ public class Import extends ToolBase {
         }
 
 
+        EntityPipeline pipeline = new EntityPipeline( appId, ( EntityManagerImpl ) em );
+
         while ( jp.nextValue() != JsonToken.END_ARRAY ) {
             @SuppressWarnings("unchecked") Map<String, Object> entityProps = jp.readValueAs( HashMap.class );
-            // Import/create the entity
-            UUID uuid = getId( entityProps );
-            String type = getType( entityProps );
-
-            try {
-                em.create( uuid, type, entityProps );
-            }
-            catch ( DuplicateUniquePropertyExistsException de ) {
-                logger.error( "Unable to create entity.  It appears to be a duplicate", de );
-                continue;
-            }
-
-            if ( em.get( uuid ) == null ) {
-                logger.error( "Holy hell, we wrote an entity and it's missing.  Entity Id was {} and type is {}", uuid,
-                        type );
-                System.exit( 1 );
-            }
-
-            logger.info( "Counts {}", JsonUtils.mapToFormattedJsonString( em.getApplicationCounters() ) );
 
             echo( entityProps );
+
+            // Import/create the entity
+            pipeline.add( entityProps );
         }
 
+        pipeline.finish();
+
         logger.info( "----- End of application:" + application.getName() );
         jp.close();
     }
@@ -315,6 +402,11 @@ public class Import extends ToolBase {
 
         echo( acc );
 
+        if ( dryRun ) {
+            jp.close();
+            return;
+        }
+
         //check if the org exists, if it does, what do we do
         OrganizationInfo org = managementService.getOrganizationByName( acc.getName() );
 
@@ -339,8 +431,9 @@ public class Import extends ToolBase {
     }
 
 
+    /** Files exported with -compress are gunzipped as they're read */
     private JsonParser getJsonParserForFile( File organizationFile ) throws Exception {
-        JsonParser jp = jsonFactory.createJsonParser( organizationFile );
+        JsonParser jp = jsonFactory.createJsonParser( ExportingToolBase.openInputStream( organizationFile ) );
         jp.setCodec( new ObjectMapper() );
         return jp;
     }
@@ -366,6 +459,11 @@ public class Import extends ToolBase {
         // Retrieve the namepsace for this collection. It's part of the name
         String applicationName = getApplicationFromColllection( collectionFileName );
 
+        if ( dryRun ) {
+            importCollectionFile( collectionFileName, new OwnerPipeline( null ) );
+            return;
+        }
+
         UUID appId = emf.lookupApplication( applicationName );
 
         //no org in path, this is a pre public beta so we need to create the new path
@@ -418,6 +516,14 @@ public class Import extends ToolBase {
             return;
         }
 
+        EntityManagerImpl em = ( EntityManagerImpl ) emf.getEntityManager( appId );
+
+        importCollectionFile( collectionFileName, new OwnerPipeline( em ) );
+    }
+
+
+    /** Read the collection members, connections and dictionary entries of a collections file onto the pipeline */
+    private void importCollectionFile( String collectionFileName, OwnerPipeline pipeline ) throws Exception {
         File collectionFile = new File( importDir, collectionFileName );
 
         logger.info( "Loading collections file: " + collectionFile.getAbsolutePath() );
@@ -426,27 +532,26 @@ public class Import extends ToolBase {
 
         jp.nextToken(); // START_OBJECT this is the outter hashmap
 
-
-        EntityManager em = emf.getEntityManager( appId );
-
         while ( jp.nextToken() != JsonToken.END_OBJECT ) {
-            importEntitysStuff( jp, em );
+            readOwner( jp, pipeline );
         }
 
+        pipeline.finish();
+
         logger.info( "----- End of collections -----" );
         jp.close();
     }
 
 
     /**
-     * Imports the entity's connecting references (collections and connections)
+     * Reads the entity's connecting references (collections and connections) and dictionaries onto the pipeline one
+     * at a time, so a collection of any size is never held in memory
      *
      * @param jp JsonPrser pointing to the beginning of the object.
      */
-    private void importEntitysStuff( JsonParser jp, EntityManager em ) throws Exception {
+    private void readOwner( JsonParser jp, OwnerPipeline pipeline ) throws Exception {
         // The entity that owns the collections
-        String entityOwnerId = jp.getCurrentName();
-        EntityRef ownerEntityRef = em.getRef( UUID.fromString( entityOwnerId ) );
+        UUID ownerId = UUID.fromString( jp.getCurrentName() );
 
         jp.nextToken(); // start object
 
@@ -454,52 +559,43 @@ public class Import extends ToolBase {
         while ( jp.nextToken() != JsonToken.END_OBJECT ) {
             String collectionName = jp.getCurrentName();
 
-            if ( collectionName.equals( "connections" ) ) {
+            jp.nextToken();
 
-                jp.nextToken(); // START_OBJECT
-                while ( jp.nextToken() != JsonToken.END_OBJECT ) {
-                    String connectionType = jp.getCurrentName();
-
-                    jp.nextToken(); // START_ARRAY
-                    while ( jp.nextToken() != JsonToken.END_ARRAY ) {
-                        String entryId = jp.getText();
-                        EntityRef entryRef = em.getRef( UUID.fromString( entryId ) );
-                        // Store in DB
-                        em.createConnection( ownerEntityRef, connectionType, entryRef );
-                    }
-                }
-            }
-            else if ( collectionName.equals( "dictionaries" ) ) {
+            if ( collectionName.equals( "connections" ) || collectionName.equals( "dictionaries" ) ) {
+                boolean connections = collectionName.equals( "connections" );
 
-                jp.nextToken(); // START_OBJECT
+                // an object of connection types or dictionary names
                 while ( jp.nextToken() != JsonToken.END_OBJECT ) {
-
-
-                    String dictionaryName = jp.getCurrentName();
+                    String name = jp.getCurrentName();
 
                     jp.nextToken();
 
-                    @SuppressWarnings("unchecked") Map<String, Object> dictionary = jp.readValueAs( HashMap.class );
+                    if ( connections ) {
+                        while ( jp.nextToken() != JsonToken.END_ARRAY ) {
+                            pipeline.add( Relation.connection( ownerId, name, UUID.fromString( jp.getText() ) ) );
+                        }
+                    }
+                    else {
+                        while ( jp.nextToken() != JsonToken.END_OBJECT ) {
+                            String key = jp.getCurrentName();
+
+                            jp.nextToken();
 
-                    em.addMapToDictionary( ownerEntityRef, dictionaryName, dictionary );
+                            pipeline.add( Relation.dictionary( ownerId, name, key, jp.readValueAs( Object.class ) ) );
+                        }
+                    }
                 }
             }
-
             else {
                 // Regular collections
-
-                jp.nextToken(); // START_ARRAY
                 while ( jp.nextToken() != JsonToken.END_ARRAY ) {
-                    String entryId = jp.getText();
-                    EntityRef entryRef = em.getRef( UUID.fromString( entryId ) );
-
-                    // store it
-                    em.addToCollection( ownerEntityRef, collectionName, entryRef );
+                    pipeline.add( Relation.member( ownerId, collectionName, UUID.fromString( jp.getText() ) ) );
                 }
             }
         }
     }
 
+
     /**
      * Extract a application name from a collectionsFileName in the way:
      * collections.<a_name_space_name>.TIMESTAMP.json
@@ -542,4 +638,378 @@ public class Import extends ToolBase {
         logger.info( "Importing from:" + importDir.getAbsolutePath() );
         logger.info( "Status. Exists: " + importDir.exists() + " - Readable: " + importDir.canRead() );
     }
+
+
+    /**
+     * Queues the items read by the parser in batches, and writes the batches on a pool of writers.  The queue is
+     * bounded, so the parser waits when the writers fall behind.
+     */
+    private abstract class Pipeline<T> {
+
+        private final List<T> end = new ArrayList<T>();
+
+        private final String name;
+
+        private final BlockingQueue<List<T>> queue = new ArrayBlockingQueue<List<T>>( workers * QUEUED_BATCHES );
+
+        private final ExecutorService executor = Executors.newFixedThreadPool( workers );
+
+        private final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        private final AtomicLong written = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private final long started = System.currentTimeMillis();
+
+        private List<T> batch = new ArrayList<T>( batchSize );
+
+        private long read;
+
+
+        protected Pipeline( final String name ) {
+            this.name = name;
+
+            for ( int i = 0; i < workers; i++ ) {
+                futures.add( executor.submit( new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for ( List<T> next = queue.take(); next != end; next = queue.take() ) {
+                            try {
+                                written.addAndGet( dryRun ? next.size() : write( next ) );
+                            }
+                            catch ( Exception e ) {
+                                logger.error( "Unable to write a batch of " + name, e );
+                                failed.addAndGet( next.size() );
+                            }
+                        }
+
+                        return null;
+                    }
+                } ) );
+            }
+        }
+
+
+        /** Add an item, queues the batch once it's full */
+        public void add( T item ) throws InterruptedException {
+            batch.add( item );
+
+            if ( batch.size() >= batchSize ) {
+                queue.put( batch );
+                batch = new ArrayList<T>( batchSize );
+            }
+
+            if ( ++read % REPORT_INTERVAL == 0 ) {
+                report( "Read" );
+            }
+        }
+
+
+        /** Queue the last batch, and wait for the writers to write everything */
+        public void finish() throws Exception {
+            if ( !batch.isEmpty() ) {
+                queue.put( batch );
+            }
+
+            for ( int i = 0; i < workers; i++ ) {
+                queue.put( end );
+            }
+
+            try {
+                for ( Future<Void> future : futures ) {
+                    future.get();
+                }
+            }
+            finally {
+                executor.shutdown();
+            }
+
+            report( "Finished" );
+        }
+
+
+        private void report( String status ) {
+            long elapsed = Math.max( 1, System.currentTimeMillis() - started );
+
+            logger.info( "{} {}: read {}, written {}, failed {}, {} written per second", new Object[] {
+                    status, name, read, written.get(), failed.get(), written.get() * 1000 / elapsed
+            } );
+        }
+
+
+        /**
+         * Write a batch
+         *
+         * @return the number of items written
+         */
+        protected abstract int write( List<T> batch ) throws Exception;
+    }
+
+
+    /**
+     * Creates the entities of an application, each batch is written by a single mutator.  The writers only check unique
+     * properties against what's already written, so entities that repeat a unique value of an earlier entity in the
+     * same batch are dropped.
+     */
+    private class EntityPipeline extends Pipeline<Map<String, Object>> {
+
+        private final UUID appId;
+
+        private final EntityManagerImpl em;
+
+
+        private EntityPipeline( UUID appId, EntityManagerImpl em ) {
+            super( "entities" );
+            this.appId = appId;
+            this.em = em;
+        }
+
+
+        /** Drop the entities that repeat a unique property value of another entity in the batch */
+        private List<Map<String, Object>> withoutDuplicates( List<Map<String, Object>> batch ) {
+            List<Map<String, Object>> entities = new ArrayList<Map<String, Object>>( batch.size() );
+            Map<Object, UUID> uniqueValues = new HashMap<Object, UUID>();
+
+            for ( Map<String, Object> entityProps : batch ) {
+                String type = getType( entityProps );
+                UUID id = getId( entityProps );
+
+                List<Object> keys = new ArrayList<Object>();
+                boolean duplicate = false;
+
+                for ( Entry<String, Object> property : entityProps.entrySet() ) {
+                    if ( ( property.getValue() == null ) || !Schema.getDefaultSchema()
+                                                                   .isPropertyUnique( type, property.getKey() ) ) {
+                        continue;
+                    }
+
+                    Object key = key( type, property.getKey(), property.getValue() );
+                    UUID existing = uniqueValues.get( key );
+
+                    if ( ( existing != null ) && !existing.equals( id ) ) {
+                        logger.error( "Unable to create entity {}.  Its {} '{}' is also used by entity {}",
+                                new Object[] { id, property.getKey(), property.getValue(), existing } );
+                        duplicate = true;
+                        break;
+                    }
+
+                    keys.add( key );
+                }
+
+                if ( duplicate ) {
+                    continue;
+                }
+
+                for ( Object key : keys ) {
+                    uniqueValues.put( key, id );
+                }
+
+                entities.add( entityProps );
+            }
+
+            return entities;
+        }
+
+
+        @Override
+        protected int write( List<Map<String, Object>> batch ) throws Exception {
+            List<Map<String, Object>> entities = withoutDuplicates( batch );
+
+            for (; ; ) {
+                if ( entities.isEmpty() ) {
+                    return 0;
+                }
+
+                Mutator<ByteBuffer> m = createMutator( cass.getApplicationKeyspace( appId ), be );
+
+                int i = 0;
+
+                try {
+                    for ( ; i < entities.size(); i++ ) {
+                        Map<String, Object> entityProps = entities.get( i );
+
+                        em.batchCreate( m, getType( entityProps ), null, entityProps, getId( entityProps ),
+                                newTimeUUID() );
+                    }
+
+                    batchExecute( m, CassandraService.RETRY_COUNT );
+
+                    return entities.size();
+                }
+                catch ( DuplicateUniquePropertyExistsException de ) {
+                    logger.error( "Unable to create entity.  It appears to be a duplicate", de );
+
+                    // the duplicate may have added part of its columns, write the rest of the batch without it
+                    m.discardPendingMutations();
+                    entities.remove( i );
+                }
+            }
+        }
+    }
+
+
+    /** A collection member, connection or dictionary entry of an entity */
+    private static class Relation {
+
+        private enum Kind {
+            MEMBER, CONNECTION, DICTIONARY
+        }
+
+        private final Kind kind;
+
+        private final UUID ownerId;
+
+        /** The collection, connection type or dictionary */
+        private final String name;
+
+        /** The collection member or connected entity */
+        private final UUID targetId;
+
+        private final String key;
+
+        private final Object value;
+
+
+        private Relation( Kind kind, UUID ownerId, String name, UUID targetId, String key, Object value ) {
+            this.kind = kind;
+            this.ownerId = ownerId;
+            this.name = name;
+            this.targetId = targetId;
+            this.key = key;
+            this.value = value;
+        }
+
+
+        private static Relation member( UUID ownerId, String collectionName, UUID memberId ) {
+            return new Relation( Kind.MEMBER, ownerId, collectionName, memberId, null, null );
+        }
+
+
+        private static Relation connection( UUID ownerId, String connectionType, UUID connectedId ) {
+            return new Relation( Kind.CONNECTION, ownerId, connectionType, connectedId, null, null );
+        }
+
+
+        private static Relation dictionary( UUID ownerId, String dictionaryName, String key, Object value ) {
+            return new Relation( Kind.DICTIONARY, ownerId, dictionaryName, null, key, value );
+        }
+    }
+
+
+    /**
+     * Adds a batch of collection members and dictionary entries with a single mutator, connections are created one at
+     * a time.  The owners and members of a batch are loaded with one read each.
+     */
+    private class OwnerPipeline extends Pipeline<Relation> {
+
+        private final EntityManagerImpl em;
+
+
+        private OwnerPipeline( EntityManagerImpl em ) {
+            super( "collections" );
+            this.em = em;
+        }
+
+
+        @Override
+        protected int write( List<Relation> batch ) throws Exception {
+            Set<UUID> ownerIds = new LinkedHashSet<UUID>();
+            Set<UUID> memberIds = new LinkedHashSet<UUID>();
+
+            for ( Relation relation : batch ) {
+                ownerIds.add( relation.ownerId );
+
+                if ( relation.kind == Relation.Kind.MEMBER ) {
+                    memberIds.add( relation.targetId );
+                }
+            }
+
+            Map<UUID, Entity> owners = getEntities( ownerIds );
+
+            // the members are loaded with their properties, since the collection indexes them
+            Map<UUID, Entity> members = getEntities( memberIds );
+
+            Mutator<ByteBuffer> m = createMutator( cass.getApplicationKeyspace( em.getApplicationId() ), be );
+            UUID timestampUuid = newTimeUUID();
+
+            int written = 0;
+
+            for ( Relation relation : batch ) {
+                Entity owner = owners.get( relation.ownerId );
+
+                if ( owner == null ) {
+                    logger.error( "Unable to find entity {}, skipping its {} {}",
+                            new Object[] { relation.ownerId, relation.name, relation.kind } );
+                    continue;
+                }
+
+                switch ( relation.kind ) {
+                    case MEMBER:
+                        Entity member = members.get( relation.targetId );
+
+                        if ( ( member == null ) || !addToCollection( m, owner, relation.name, member,
+                                timestampUuid ) ) {
+                            continue;
+                        }
+                        break;
+
+                    case CONNECTION:
+                        em.createConnection( owner, relation.name, em.getRef( relation.targetId ) );
+                        break;
+
+                    case DICTIONARY:
+                        em.batchUpdateDictionary( m, owner, relation.name, relation.key, relation.value, false,
+                                timestampUuid );
+                        break;
+                }
+
+                written++;
+            }
+
+            batchExecute( m, CassandraService.RETRY_COUNT );
+
+            return written;
+        }
+
+
+        /**
+         * Add the member to the collection of the owner, and the owner to the linked collection of the member
+         *
+         * @return false if the member isn't of the type of the collection
+         */
+        private boolean addToCollection( Mutator<ByteBuffer> m, Entity owner, String collectionName, Entity member,
+                                         UUID timestampUuid ) throws Exception {
+
+            CollectionInfo collection = Schema.getDefaultSchema().getCollection( owner.getType(), collectionName );
+
+            if ( ( collection != null ) && !collection.getType().equals( member.getType() ) ) {
+                return false;
+            }
+
+            em.getRelationManager( owner ).batchAddToCollection( m, collectionName, member, timestampUuid );
+
+            if ( ( collection != null ) && ( collection.getLinkedCollection() != null ) ) {
+                em.getRelationManager( member )
+                  .batchAddToCollection( m, collection.getLinkedCollection(), owner, timestampUuid );
+            }
+
+            return true;
+        }
+
+
+        private Map<UUID, Entity> getEntities( Collection<UUID> ids ) throws Exception {
+            Map<UUID, Entity> entities = new HashMap<UUID, Entity>();
+
+            if ( ids.isEmpty() ) {
+                return entities;
+            }
+
+            for ( Entity entity : em.get( ids, Results.Level.ALL_PROPERTIES ).getEntities() ) {
+                entities.put( entity.getUuid(), entity );
+            }
+
+            return entities;
+        }
+    }
 }
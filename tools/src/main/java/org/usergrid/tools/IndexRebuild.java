@@ -16,20 +16,32 @@
 package org.usergrid.tools;
 
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.usergrid.persistence.Entity;
 import org.usergrid.persistence.EntityManager;
-import org.usergrid.persistence.Query;
-import org.usergrid.persistence.Results;
-import org.usergrid.persistence.entities.Application;
 import org.usergrid.persistence.exceptions.DuplicateUniquePropertyExistsException;
 import org.usergrid.utils.UUIDUtils;
 
@@ -37,6 +49,9 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.util.concurrent.RateLimiter;
 
 import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
 
@@ -44,6 +59,10 @@ import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
 /**
  * This is a utility to load all entities in an application and re-save them, this forces the secondary indexing to be
  * updated.
+ * <p/>
+ * Each collection is split into ranges of entity ids by the time of the ids, and the ranges are re-saved concurrently
+ * by a pool of workers.  The last id re-saved in every range is written to a checkpoint file after each page, so a
+ * run that's stopped resumes where it left off.  Pass -reset to discard the checkpoints and start over.
  *
  * @author tnine
  */
@@ -59,6 +78,23 @@ public class IndexRebuild extends ToolBase {
      */
     private static final String COLLECTION_ARG = "col";
 
+    private static final String WORKERS_ARG = "workers";
+
+    private static final String RANGES_ARG = "ranges";
+
+    private static final String RATE_ARG = "rate";
+
+    private static final String CHECKPOINT_ARG = "checkpoint";
+
+    private static final String RESET_ARG = "reset";
+
+    private static final int DEFAULT_WORKERS = 4;
+
+    private static final String DEFAULT_CHECKPOINT = "indexrebuild.checkpoint";
+
+    /** Seconds between progress reports */
+    private static final int REPORT_INTERVAL = 30;
+
     /**
      *
      */
@@ -68,6 +104,14 @@ public class IndexRebuild extends ToolBase {
 
     private static final Logger logger = LoggerFactory.getLogger( IndexRebuild.class );
 
+    private Checkpoints checkpoints;
+
+    private RateLimiter rateLimiter;
+
+    private final AtomicLong saved = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
 
     @Override
     @SuppressWarnings("static-access")
@@ -83,11 +127,36 @@ public class IndexRebuild extends ToolBase {
         Option collectionOption = OptionBuilder.withArgName( COLLECTION_ARG ).hasArg().isRequired( false )
                                                .withDescription( "colleciton name" ).create( COLLECTION_ARG );
 
+        Option workersOption = OptionBuilder.withArgName( WORKERS_ARG ).hasArg().isRequired( false )
+                                            .withDescription( "Number of workers, default " + DEFAULT_WORKERS )
+                                            .create( WORKERS_ARG );
+
+        Option rangesOption = OptionBuilder.withArgName( RANGES_ARG ).hasArg().isRequired( false )
+                                           .withDescription( "Number of ranges per collection, default the workers" )
+                                           .create( RANGES_ARG );
+
+        Option rateOption = OptionBuilder.withArgName( RATE_ARG ).hasArg().isRequired( false )
+                                         .withDescription( "Maximum entities re-saved per second, default unlimited" )
+                                         .create( RATE_ARG );
+
+        Option checkpointOption = OptionBuilder.withArgName( CHECKPOINT_ARG ).hasArg().isRequired( false )
+                                               .withDescription( "Checkpoint file, default " + DEFAULT_CHECKPOINT )
+                                               .create( CHECKPOINT_ARG );
+
+        Option resetOption =
+                OptionBuilder.isRequired( false ).withDescription( "Discard the checkpoints and start over" )
+                             .create( RESET_ARG );
+
 
         Options options = new Options();
         options.addOption( hostOption );
         options.addOption( appOption );
         options.addOption( collectionOption );
+        options.addOption( workersOption );
+        options.addOption( rangesOption );
+        options.addOption( rateOption );
+        options.addOption( checkpointOption );
+        options.addOption( resetOption );
 
         return options;
     }
@@ -103,24 +172,84 @@ public class IndexRebuild extends ToolBase {
     public void runTool( CommandLine line ) throws Exception {
         startSpring();
 
-        logger.info( "Starting index rebuild" );
+        int workers = Integer.parseInt( line.getOptionValue( WORKERS_ARG, String.valueOf( DEFAULT_WORKERS ) ) );
+        int ranges = Integer.parseInt( line.getOptionValue( RANGES_ARG, String.valueOf( workers ) ) );
+        double rate = Double.parseDouble( line.getOptionValue( RATE_ARG, "0" ) );
 
-        /**
-         * Goes through each app id specified
-         */
-        for ( UUID appId : getAppIds( line ) ) {
+        checkpoints = new Checkpoints( new File( line.getOptionValue( CHECKPOINT_ARG, DEFAULT_CHECKPOINT ) ),
+                line.hasOption( RESET_ARG ) );
+
+        if ( rate > 0 ) {
+            rateLimiter = RateLimiter.create( rate );
+        }
 
-            logger.info( "Reindexing for app id: {}", appId );
+        logger.info( "Starting index rebuild with {} workers, {} ranges per collection", workers, ranges );
 
-            Set<String> collections = getCollections( line, appId );
+        ExecutorService executor = Executors.newFixedThreadPool( workers );
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
 
-            for ( String collection : collections ) {
+        final long started = System.currentTimeMillis();
 
-                reindex( appId, collection );
+        reporter.scheduleAtFixedRate( new Runnable() {
+            @Override
+            public void run() {
+                reportProgress( started );
+            }
+        }, REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.SECONDS );
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        try {
+            /**
+             * Goes through each app id specified
+             */
+            for ( UUID appId : getAppIds( line ) ) {
+
+                logger.info( "Reindexing for app id: {}", appId );
+
+                Set<String> collections = getCollections( line, appId );
+
+                for ( String collection : collections ) {
+
+                    for ( RangeWorker worker : planRanges( appId, collection, ranges ) ) {
+                        futures.add( executor.submit( worker ) );
+                    }
+                }
+            }
+
+            int failed = 0;
+
+            /**
+             * Wait for all ranges to complete
+             */
+            for ( Future<Void> future : futures ) {
+                try {
+                    future.get();
+                }
+                catch ( Exception e ) {
+                    logger.error( "Unable to reindex range", e );
+                    failed++;
+                }
+            }
+
+            reportProgress( started );
+
+            if ( failed > 0 ) {
+                logger.error( "{} ranges failed, run again to resume them", failed );
+            }
+            else {
+                logger.info( "Finished index rebuild" );
             }
         }
+        finally {
+            reporter.shutdownNow();
+            executor.shutdown();
 
-        logger.info( "Finished index rebuild" );
+            // ranges still run if planning failed, let them checkpoint before we exit
+            while ( !executor.awaitTermination( REPORT_INTERVAL, TimeUnit.SECONDS ) ) {
+                logger.info( "Waiting for the running ranges to finish" );
+            }
+        }
     }
 
 
@@ -166,41 +295,266 @@ public class IndexRebuild extends ToolBase {
     }
 
 
-    /** The application id. The collection name. */
-    private void reindex( UUID appId, String collectionName ) throws Exception {
-        logger.info( "Reindexing collection: {} for app id: {}", collectionName, appId );
-
+    /**
+     * Split the collection into ranges.  The time between the first and last entity is split evenly, the first range is
+     * open at the start and the last is open at the end, so entities created during the run are re-saved too.  Ranges
+     * of a resumed run are read from the checkpoints, so every range keeps its bounds.
+     */
+    private List<RangeWorker> planRanges( UUID appId, String collectionName, int count ) throws Exception {
         EntityManager em = emf.getEntityManager( appId );
-        Application app = em.getApplication();
 
-        // search for all orgs
+        total.addAndGet( em.getApplicationCollectionSize( collectionName ) );
+
+        List<UUID> bounds = checkpoints.getBounds( appId, collectionName );
+
+        if ( bounds == null ) {
+            // ids that aren't time based can't be split by time, re-save them in one range
+            bounds = splitByTime( em, collectionName, count );
+
+            checkpoints.setBounds( appId, collectionName, bounds );
+        }
+
+        logger.info( "Reindexing collection: {} for app id: {} in {} ranges", new Object[] {
+                collectionName, appId, bounds.size() + 1
+        } );
+
+        List<RangeWorker> workers = new ArrayList<RangeWorker>();
+
+        for ( int i = 0; i <= bounds.size(); i++ ) {
+            UUID start = i == 0 ? null : bounds.get( i - 1 );
+            UUID end = i == bounds.size() ? null : bounds.get( i );
+
+            workers.add( new RangeWorker( appId, collectionName, i, start, end ) );
+        }
+
+        return workers;
+    }
+
 
-        Query query = new Query();
-        query.setLimit( PAGE_SIZE );
-        Results r = null;
+    /** Log the entities re-saved so far, the rate and the time left */
+    private void reportProgress( long started ) {
+        long count = saved.get();
+        long expected = Math.max( total.get(), count );
+        long elapsed = Math.max( 1, System.currentTimeMillis() - started );
 
-        do {
+        double rate = count * 1000d / elapsed;
 
-            r = em.searchCollection( app, collectionName, query );
+        String eta = rate > 0 ? formatDuration( ( long ) ( ( expected - count ) / rate * 1000 ) ) : "unknown";
+
+        logger.info( "Re-saved {} of about {} entities, {} per second, {} left", new Object[] {
+                count, expected, String.format( "%.1f", rate ), eta
+        } );
+    }
+
+
+    private static String formatDuration( long millis ) {
+        long seconds = millis / 1000;
+        return String.format( "%d:%02d:%02d", seconds / 3600, ( seconds / 60 ) % 60, seconds % 60 );
+    }
+
+
+    /** Re-saves every entity of a range of a collection, from the start id up to but not including the end id */
+    private class RangeWorker implements Callable<Void> {
+
+        private final UUID appId;
+
+        private final String collectionName;
+
+        private final int range;
+
+        private final UUID start;
+
+        private final UUID end;
+
+
+        private RangeWorker( UUID appId, String collectionName, int range, UUID start, UUID end ) {
+            this.appId = appId;
+            this.collectionName = collectionName;
+            this.range = range;
+            this.start = start;
+            this.end = end;
+        }
+
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public Void call() throws Exception {
+            UUID last = checkpoints.getLast( appId, collectionName, range );
 
-            for ( Entity entity : r.getEntities() ) {
-                logger.info( "Updating entity type: {} with id: {} for app id: {}", new Object[] {
-                        entity.getType(), entity.getUuid(), appId
+            if ( Checkpoints.DONE.equals( last ) ) {
+                logger.info( "Range {} of collection: {} for app id: {} is already done", new Object[] {
+                        range, collectionName, appId
                 } );
+                return null;
+            }
+
+            final EntityManager em = emf.getEntityManager( appId );
+
+            visitRange( em, collectionName, start, end, last, PAGE_SIZE, new RangeVisitor() {
+                @Override
+                public void visit( Entity entity ) throws Exception {
+                    update( em, entity );
+                }
+
+
+                @Override
+                public void pageVisited( UUID last ) throws Exception {
+                    checkpoints.setLast( appId, collectionName, range, last );
+                }
+            } );
+
+            checkpoints.setLast( appId, collectionName, range, Checkpoints.DONE );
+
+            return null;
+        }
+
+
+        private void update( EntityManager em, Entity entity ) throws Exception {
+            if ( rateLimiter != null ) {
+                rateLimiter.acquire();
+            }
+
+            logger.debug( "Updating entity type: {} with id: {} for app id: {}", new Object[] {
+                    entity.getType(), entity.getUuid(), appId
+            } );
+
+            try {
+                em.update( entity );
+            }
+            catch ( DuplicateUniquePropertyExistsException dupee ) {
+                logger.error( "duplicate property for type: {} with id: {} for app id: {}.  Property name: {} , "
+                        + "value: {}", new Object[] {
+                        entity.getType(), entity.getUuid(), appId, dupee.getPropertyName(), dupee.getPropertyValue()
+                } );
+            }
+
+            saved.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * The bounds of the ranges of every collection, and the last id re-saved in each range.  Written to a properties
+     * file every time a range checkpoints.
+     */
+    static class Checkpoints {
+
+        static final UUID DONE = UUIDUtils.ZERO_UUID;
+
+        private final File file;
+
+        /** The previous checkpoint, only there while the file is being replaced */
+        private final File backup;
+
+        private final Properties properties = new Properties();
+
+
+        Checkpoints( File file, boolean reset ) throws IOException {
+            this.file = file;
+            this.backup = new File( file.getAbsolutePath() + ".bak" );
+
+            if ( reset ) {
+                return;
+            }
+
+            // stopped while the file was being replaced, the backup is the last complete checkpoint
+            File saved = file.exists() ? file : backup;
+
+            if ( saved.exists() ) {
+                InputStream in = new FileInputStream( saved );
 
                 try {
-                    em.update( entity );
+                    properties.load( in );
                 }
-                catch ( DuplicateUniquePropertyExistsException dupee ) {
-                    logger.error( "duplicate property for type: {} with id: {} for app id: {}.  Property name: {} , "
-                            + "value: {}", new Object[] {
-                            entity.getType(), entity.getUuid(), appId, dupee.getPropertyName(), dupee.getPropertyValue()
-                    } );
+                finally {
+                    in.close();
                 }
+
+                logger.info( "Resuming from checkpoint file {}", saved.getAbsolutePath() );
+            }
+        }
+
+
+        synchronized List<UUID> getBounds( UUID appId, String collectionName ) {
+            String value = properties.getProperty( key( appId, collectionName, "ranges" ) );
+
+            if ( value == null ) {
+                return null;
+            }
+
+            List<UUID> bounds = new ArrayList<UUID>();
+
+            for ( String bound : StringUtils.split( value, ',' ) ) {
+                bounds.add( UUID.fromString( bound ) );
+            }
+
+            return bounds;
+        }
+
+
+        synchronized void setBounds( UUID appId, String collectionName, List<UUID> bounds ) throws IOException {
+            properties.setProperty( key( appId, collectionName, "ranges" ), StringUtils.join( bounds, ',' ) );
+            save();
+        }
+
+
+        synchronized UUID getLast( UUID appId, String collectionName, int range ) {
+            String value = properties.getProperty( key( appId, collectionName, String.valueOf( range ) ) );
+            return value == null ? null : UUID.fromString( value );
+        }
+
+
+        synchronized void setLast( UUID appId, String collectionName, int range, UUID last )
+                throws IOException {
+            properties.setProperty( key( appId, collectionName, String.valueOf( range ) ), last.toString() );
+            save();
+        }
+
+
+        private static String key( UUID appId, String collectionName, String name ) {
+            return appId + "." + collectionName + "." + name;
+        }
+
+
+        /**
+         * Write to a temporary file and rename it over the checkpoint, so a crash never leaves a partial checkpoint.
+         * Where a rename can't replace a file, the old checkpoint is moved to the backup first and read if we stop
+         * before the new one is in place
+         */
+        private void save() throws IOException {
+            File temp = new File( file.getAbsolutePath() + ".tmp" );
+
+            FileOutputStream out = new FileOutputStream( temp );
+
+            try {
+                properties.store( out, "Index rebuild checkpoints" );
+
+                // on disk before it replaces the checkpoint
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+
+            if ( temp.renameTo( file ) ) {
+                return;
+            }
+
+            backup.delete();
+
+            if ( file.exists() && !file.renameTo( backup ) ) {
+                throw new IOException( "Unable to back up checkpoint file " + file.getAbsolutePath() );
+            }
+
+            if ( !temp.renameTo( file ) ) {
+                throw new IOException( "Unable to write checkpoint file " + file.getAbsolutePath() );
             }
 
-            query.setCursor( r.getCursor() );
+            backup.delete();
         }
-        while ( r != null && r.size() == PAGE_SIZE );
     }
 }
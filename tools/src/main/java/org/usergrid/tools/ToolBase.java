@@ -17,7 +17,10 @@
 package org.usergrid.tools;
 
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,11 +29,17 @@ import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.usergrid.management.ManagementService;
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.EntityManager;
 import org.usergrid.persistence.EntityManagerFactory;
+import org.usergrid.persistence.Query;
+import org.usergrid.persistence.Results;
+import org.usergrid.persistence.entities.Application;
 import org.usergrid.persistence.cassandra.CassandraService;
 import org.usergrid.persistence.cassandra.EntityManagerFactoryImpl;
 import org.usergrid.persistence.cassandra.Setup;
 import org.usergrid.services.ServiceManagerFactory;
+import org.usergrid.utils.UUIDUtils;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -242,5 +251,109 @@ public abstract class ToolBase {
     }
 
 
+    /**
+     * Split an application collection into ranges by the time of its entity ids.  The time between the first and last
+     * entity is split evenly.
+     *
+     * @return The ids that bound the ranges, one less than the count.  Empty if the collection can't be split
+     */
+    protected List<UUID> splitByTime( EntityManager em, String collectionName, int count ) throws Exception {
+        List<UUID> bounds = new ArrayList<UUID>();
+
+        if ( count < 2 ) {
+            return bounds;
+        }
+
+        Application app = em.getApplication();
+
+        UUID first = em.getCollection( app, collectionName, null, 1, Results.Level.IDS, false ).getId();
+        UUID last = em.getCollection( app, collectionName, null, 1, Results.Level.IDS, true ).getId();
+
+        // ids that aren't time based can't be split by time
+        if ( first == null || last == null || !UUIDUtils.isTimeBased( first ) || !UUIDUtils.isTimeBased( last ) ) {
+            return bounds;
+        }
+
+        return splitTimes( UUIDUtils.getTimestampInMillis( first ), UUIDUtils.getTimestampInMillis( last ), count );
+    }
+
+
+    /**
+     * Split the time between start and end evenly into count ranges.
+     *
+     * @return The ids of the smallest uuids at the bounds, in order.  Fewer than count - 1 if there are fewer
+     *         milliseconds than ranges
+     */
+    static List<UUID> splitTimes( long start, long end, int count ) {
+        List<UUID> bounds = new ArrayList<UUID>();
+
+        long step = ( end - start ) / count;
+
+        for ( int i = 1; i < count && step > 0; i++ ) {
+            bounds.add( UUIDUtils.minTimeUUID( start + step * i ) );
+        }
+
+        return bounds;
+    }
+
+
+    /**
+     * Visit the entities of a range of a collection, from the start id up to but not including the end id, a page at a
+     * time.  Each page after the first starts at the entity visited last, it's skipped since the start is inclusive.
+     *
+     * @param last The entity visited last by an earlier run, the range resumes after it.  Null to begin at the start
+     * @param pageSize The number of entities read at a time
+     */
+    protected static void visitRange( EntityManager em, String collectionName, UUID start, UUID end, UUID last,
+                                      int pageSize, RangeVisitor visitor ) throws Exception {
+
+        Results page = null;
+
+        do {
+            Query query = new Query();
+            query.setLimit( pageSize );
+
+            UUID next = last != null ? last : start;
+
+            if ( next != null ) {
+                query.withStartResult( next );
+            }
+
+            page = em.searchCollection( em.getApplicationRef(), collectionName, query );
+
+            for ( Entity entity : page.getEntities() ) {
+                if ( entity.getUuid().equals( last ) ) {
+                    continue;
+                }
+
+                if ( end != null && UUIDUtils.compare( entity.getUuid(), end ) >= 0 ) {
+                    return;
+                }
+
+                visitor.visit( entity );
+
+                last = entity.getUuid();
+            }
+
+            if ( last != null ) {
+                visitor.pageVisited( last );
+            }
+        }
+        while ( page.size() == pageSize );
+    }
+
+
+    /** Visits the entities of a range of a collection in id order */
+    protected static abstract class RangeVisitor {
+
+        public abstract void visit( Entity entity ) throws Exception;
+
+
+        /** Called after every page with the entity visited last */
+        public void pageVisited( UUID last ) throws Exception {
+        }
+    }
+
+
     public abstract void runTool( CommandLine line ) throws Exception;
 }
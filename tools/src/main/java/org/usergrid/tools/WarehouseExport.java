@@ -18,9 +18,9 @@ package org.usergrid.tools;
 
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -36,6 +36,10 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.jclouds.ContextBuilder;
@@ -81,6 +85,10 @@ import static org.usergrid.persistence.Schema.getDefaultSchema;
  * Also includes (hard-coded for now) fields from Notification, Notifier, and Receipt.  With no -startTime, scans the
  * existing *.csv files in the output directory and starts from last end date found. With no -endTime, ends at current
  * time - 1 hour. Explicitly sets "cassandra.readcl=ONE" for efficiency.
+ * <p/>
+ * The modified time of every collection is split into -ranges, and the ranges are queried concurrently by -threads
+ * threads.  Rows are written a page at a time as they're read, in no particular order.  Pass -compress to gzip the
+ * file.
  */
 public class WarehouseExport extends ExportingToolBase {
 
@@ -99,6 +107,18 @@ public class WarehouseExport extends ExportingToolBase {
     private static final String START_TIME = "startTime";
     private static final String END_TIME = "endTime";
     private static final String UPLOAD = "upload";
+    private static final String THREADS = "threads";
+    private static final String RANGES = "ranges";
+
+    private static final int DEFAULT_THREADS = 4;
+
+    /** SimpleDateFormat isn't thread safe, each thread that writes rows has its own */
+    private static final ThreadLocal<SimpleDateFormat> ROW_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss.SSS" );
+        }
+    };
 
     private static final String[] NOTIFICATION_ATTRIBUTES = {
             "payloads", "queued", "started", "finished", "deliver", "expire", "canceled", "errorMessage", "statistics"
@@ -122,6 +142,9 @@ public class WarehouseExport extends ExportingToolBase {
     private String[] collectionNames;
     private Map<String, String[]> collectionFieldMap;
     private Date startTime, endTime;
+    private int ranges;
+    private ExecutorService executor;
+    private final List<Future<Long>> futures = new ArrayList<Future<Long>>();
 
 
     @Override
@@ -147,18 +170,17 @@ public class WarehouseExport extends ExportingToolBase {
             System.exit( 1 );
         }
 
-        // create "modified" query to select data
-        StringBuilder builder = new StringBuilder();
-        builder.append( "modified >= " ).append( startTime.getTime() ).append( " and " );
-        builder.append( "modified <= " ).append( endTime.getTime() );
-        String queryString = builder.toString();
+        int threads = Integer.parseInt( line.getOptionValue( THREADS, String.valueOf( DEFAULT_THREADS ) ) );
+        ranges = Integer.parseInt( line.getOptionValue( RANGES, String.valueOf( threads ) ) );
 
         // create writer
         String dateString = DATE_FORMAT.format( new Date() );
-        String fileName = outputDir.getAbsolutePath() + "/" + dateString + ".csv";
-        FileWriter fw = new FileWriter( fileName );
+        String fileName = outputDir.getAbsolutePath() + "/" + dateString + ".csv" + ( compress ? GZIP_SUFFIX : "" );
+        OutputStreamWriter fw = new OutputStreamWriter( openOutputStream( new File( fileName ) ), "UTF-8" );
         writer = new CSVWriter( fw, SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER, '\'' );
 
+        executor = Executors.newFixedThreadPool( threads );
+
         try {
             writeMetadata();
             writeHeaders();
@@ -166,10 +188,19 @@ public class WarehouseExport extends ExportingToolBase {
             // Loop through the organizations
             Map<UUID, String> organizations = getOrganizations();
             for ( Entry<UUID, String> orgIdAndName : organizations.entrySet() ) {
-                exportApplicationsForOrg( orgIdAndName, queryString );
+                exportApplicationsForOrg( orgIdAndName );
             }
+
+            long rows = 0;
+
+            for ( Future<Long> future : futures ) {
+                rows += future.get();
+            }
+
+            LOG.info( "Exported {} rows", rows );
         }
         finally {
+            executor.shutdownNow();
             writer.close();
         }
 
@@ -245,9 +276,17 @@ public class WarehouseExport extends ExportingToolBase {
 
         Option upload = OptionBuilder.withDescription( "upload files to blob-store" ).create( UPLOAD );
 
+        Option threads = OptionBuilder.hasArg().withDescription( "number of ranges queried at a time -threads" )
+                                      .create( THREADS );
+
+        Option ranges = OptionBuilder.hasArg().withDescription( "ranges to split the modified time into -ranges" )
+                                     .create( RANGES );
+
         options.addOption( startTime );
         options.addOption( endTime );
         options.addOption( upload );
+        options.addOption( threads );
+        options.addOption( ranges );
 
         return options;
     }
@@ -263,7 +302,7 @@ public class WarehouseExport extends ExportingToolBase {
             File[] files = outputDir.listFiles( new FilenameFilter() {
                 @Override
                 public boolean accept( File dir, String name ) {
-                    return name.endsWith( ".csv" );
+                    return name.endsWith( ".csv" ) || name.endsWith( ".csv" + GZIP_SUFFIX );
                 }
             } );
             long lastEndTime = 0;
@@ -289,7 +328,8 @@ public class WarehouseExport extends ExportingToolBase {
 
 
     private long readEndTime( File file ) throws Exception {
-        CSVReader reader = new CSVReader( new FileReader( file ), SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER, '\'' );
+        CSVReader reader = new CSVReader( new InputStreamReader( openInputStream( file ), "UTF-8" ), SEPARATOR,
+                CSVWriter.NO_QUOTE_CHARACTER, '\'' );
         try {
             String[] firstLine = reader.readNext();
             if ( "start".equals( firstLine[0] ) && "end".equals( firstLine[2] ) ) {
@@ -420,7 +460,7 @@ public class WarehouseExport extends ExportingToolBase {
     }
 
 
-    private void exportApplicationsForOrg( Entry<UUID, String> orgIdAndName, String queryString ) throws Exception {
+    private void exportApplicationsForOrg( Entry<UUID, String> orgIdAndName ) throws Exception {
 
         LOG.info( "organization: {} / {}", orgIdAndName.getValue(), orgIdAndName.getKey() );
 
@@ -435,54 +475,134 @@ public class WarehouseExport extends ExportingToolBase {
             LOG.info( "application {} / {}", appName, appIdAndName.getKey() );
 
             EntityManager em = emf.getEntityManager( appIdAndName.getKey() );
-            Map<String, String[]> cfm = getCollectionFieldMap();
 
             // Loop through the collections of the Application
             Set<String> collections = em.getApplicationCollections();
             for ( String collectionName : collections ) {
-
-                // set up for retrieving only the necessary properties
-                String entityType = InflectionUtils.singularize( collectionName );
-                String[] props = cfm.get( entityType );
-                Collection<String> properties =
-                        new ArrayList<String>( BASE_ATTRIBUTES.length + ( props != null ? props.length : 0 ) );
-                properties.addAll( Arrays.asList( BASE_ATTRIBUTES ) );
-                if ( props != null ) {
-                    properties.addAll( Arrays.asList( props ) );
+                for ( String queryString : getRangeQueries() ) {
+                    futures.add( executor.submit(
+                            new RangeExport( orgName, appName, appIdAndName.getKey(), collectionName,
+                                    queryString ) ) );
                 }
+            }
+        }
+    }
+
+
+    /** Split the modified time between the start and end time into "modified" queries, one per range */
+    private List<String> getRangeQueries() {
+        long start = startTime.getTime();
+        long end = endTime.getTime();
+
+        long step = Math.max( 1, ( end - start + 1 ) / Math.max( 1, ranges ) );
 
-                Query query = Query.fromQL( queryString );
-                query.setLimit( MAX_ENTITY_FETCH );
-                query.setResultsLevel( Level.REFS );
-                Results results = em.searchCollection( em.getApplicationRef(), collectionName, query );
+        List<String> queries = new ArrayList<String>();
 
-                while ( results.size() > 0 ) {
+        for ( long lower = start; lower <= end; lower += step ) {
+            // the last range ends at the end time
+            long upper = end - lower < step * 2 ? end : lower + step - 1;
+
+            StringBuilder builder = new StringBuilder();
+            builder.append( "modified >= " ).append( lower ).append( " and " );
+            builder.append( "modified <= " ).append( upper );
+            queries.add( builder.toString() );
+
+            if ( upper == end ) {
+                break;
+            }
+        }
+
+        return queries;
+    }
 
-                    List<Entity> entities = em.getPartialEntities( results.getIds(), properties );
 
-                    for ( Entity entity : entities ) {
-                        write( orgName, appName, entity, em );
-                    }
+    /** Queries a range of a collection a page at a time and writes the rows of each page */
+    private class RangeExport implements Callable<Long> {
 
-                    if ( results.getCursor() == null ) {
-                        break;
-                    }
+        private final String orgName;
+        private final String appName;
+        private final UUID appId;
+        private final String collectionName;
+        private final String queryString;
 
-                    query.setCursor( results.getCursor() );
-                    results = em.searchCollection( em.getApplicationRef(), collectionName, query );
+
+        private RangeExport( String orgName, String appName, UUID appId, String collectionName,
+                             String queryString ) {
+            this.orgName = orgName;
+            this.appName = appName;
+            this.appId = appId;
+            this.collectionName = collectionName;
+            this.queryString = queryString;
+        }
+
+
+        @Override
+        public Long call() throws Exception {
+            EntityManager em = emf.getEntityManager( appId );
+            Map<String, String[]> cfm = getCollectionFieldMap();
+
+            // set up for retrieving only the necessary properties
+            String entityType = InflectionUtils.singularize( collectionName );
+            String[] props = cfm.get( entityType );
+            Collection<String> properties =
+                    new ArrayList<String>( BASE_ATTRIBUTES.length + ( props != null ? props.length : 0 ) );
+            properties.addAll( Arrays.asList( BASE_ATTRIBUTES ) );
+            if ( props != null ) {
+                properties.addAll( Arrays.asList( props ) );
+            }
+
+            Query query = Query.fromQL( queryString );
+            query.setLimit( MAX_ENTITY_FETCH );
+            query.setResultsLevel( Level.REFS );
+            Results results = em.searchCollection( em.getApplicationRef(), collectionName, query );
+
+            long count = 0;
+
+            while ( results.size() > 0 ) {
+
+                List<Entity> entities = em.getPartialEntities( results.getIds(), properties );
+
+                List<String[]> rows = new ArrayList<String[]>( entities.size() );
+
+                for ( Entity entity : entities ) {
+                    rows.add( getRow( orgName, appName, entity ) );
+                }
+
+                write( rows );
+                count += rows.size();
+
+                if ( results.getCursor() == null ) {
+                    break;
                 }
+
+                query.setCursor( results.getCursor() );
+                results = em.searchCollection( em.getApplicationRef(), collectionName, query );
+            }
+
+            return count;
+        }
+    }
+
+
+    /** Write a page of rows, the writer is shared by every range */
+    private void write( List<String[]> rows ) {
+        synchronized ( writer ) {
+            for ( String[] row : rows ) {
+                writer.writeNext( row );
             }
         }
     }
 
 
-    private void write( String orgName, String appName, Entity entity, EntityManager em ) throws Exception {
+    private String[] getRow( String orgName, String appName, Entity entity ) {
 
         Map<String, String[]> cfm = getCollectionFieldMap();
 
+        SimpleDateFormat dateFormat = ROW_DATE_FORMAT.get();
+
         String uuid = entity.getUuid().toString();
-        String created = DATE_FORMAT.format( entity.getCreated() );
-        String modified = DATE_FORMAT.format( entity.getModified() );
+        String created = dateFormat.format( entity.getCreated() );
+        String modified = dateFormat.format( entity.getModified() );
         String type = entity.getType();
 
         List<String> values = new ArrayList<String>( 30 );
@@ -510,7 +630,6 @@ public class WarehouseExport extends ExportingToolBase {
         }
 
         String[] stringValues = new String[values.size()];
-        values.toArray( stringValues );
-        writer.writeNext( stringValues );
+        return values.toArray( stringValues );
     }
 }
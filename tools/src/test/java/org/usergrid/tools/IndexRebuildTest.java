@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2012 Apigee Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.usergrid.tools;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.usergrid.persistence.DynamicEntity;
+import org.usergrid.persistence.Entity;
+import org.usergrid.persistence.EntityManager;
+import org.usergrid.persistence.Query;
+import org.usergrid.persistence.Results;
+import org.usergrid.tools.IndexRebuild.Checkpoints;
+import org.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class IndexRebuildTest {
+
+    private static final UUID APP_ID = UUIDUtils.newTimeUUID();
+
+    private File file;
+
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile( "indexrebuild", ".checkpoint" );
+        file.delete();
+    }
+
+
+    @After
+    public void deleteFiles() {
+        file.delete();
+        new File( file.getAbsolutePath() + ".bak" ).delete();
+        new File( file.getAbsolutePath() + ".tmp" ).delete();
+    }
+
+
+    @Test
+    public void splitEvenly() {
+        List<UUID> bounds = ToolBase.splitTimes( 1000, 2000, 4 );
+
+        assertEquals( 3, bounds.size() );
+        assertEquals( 1250, UUIDUtils.getTimestampInMillis( bounds.get( 0 ) ) );
+        assertEquals( 1500, UUIDUtils.getTimestampInMillis( bounds.get( 1 ) ) );
+        assertEquals( 1750, UUIDUtils.getTimestampInMillis( bounds.get( 2 ) ) );
+
+        // the bounds are in order, every range is below the next
+        for ( int i = 1; i < bounds.size(); i++ ) {
+            assertTrue( UUIDUtils.compare( bounds.get( i - 1 ), bounds.get( i ) ) < 0 );
+        }
+    }
+
+
+    @Test
+    public void splitTooShort() {
+        // a single range, or fewer milliseconds than ranges
+        assertTrue( ToolBase.splitTimes( 1000, 2000, 1 ).isEmpty() );
+        assertTrue( ToolBase.splitTimes( 1000, 1000, 4 ).isEmpty() );
+        assertTrue( ToolBase.splitTimes( 1000, 1003, 4 ).isEmpty() );
+    }
+
+
+    @Test
+    public void resume() throws IOException {
+        List<UUID> bounds = ToolBase.splitTimes( 1000, 2000, 3 );
+        UUID last = UUIDUtils.newTimeUUID();
+
+        Checkpoints checkpoints = new Checkpoints( file, false );
+
+        assertNull( checkpoints.getBounds( APP_ID, "things" ) );
+
+        checkpoints.setBounds( APP_ID, "things", bounds );
+        checkpoints.setLast( APP_ID, "things", 0, Checkpoints.DONE );
+        checkpoints.setLast( APP_ID, "things", 1, last );
+
+        // a new run reads the ranges back with their bounds and progress
+        Checkpoints resumed = new Checkpoints( file, false );
+
+        assertEquals( bounds, resumed.getBounds( APP_ID, "things" ) );
+        assertEquals( Checkpoints.DONE, resumed.getLast( APP_ID, "things", 0 ) );
+        assertEquals( last, resumed.getLast( APP_ID, "things", 1 ) );
+        assertNull( resumed.getLast( APP_ID, "things", 2 ) );
+
+        assertFalse( new File( file.getAbsolutePath() + ".tmp" ).exists() );
+    }
+
+
+    @Test
+    public void reset() throws IOException {
+        Checkpoints checkpoints = new Checkpoints( file, false );
+        checkpoints.setBounds( APP_ID, "things", Collections.<UUID>emptyList() );
+        checkpoints.setLast( APP_ID, "things", 0, Checkpoints.DONE );
+
+        Checkpoints reset = new Checkpoints( file, true );
+
+        assertNull( reset.getBounds( APP_ID, "things" ) );
+        assertNull( reset.getLast( APP_ID, "things", 0 ) );
+    }
+
+
+    @Test
+    public void resumeFromBackup() throws IOException {
+        List<UUID> bounds = Arrays.asList( UUIDUtils.minTimeUUID( 1500 ) );
+
+        Checkpoints checkpoints = new Checkpoints( file, false );
+        checkpoints.setBounds( APP_ID, "things", bounds );
+
+        // stopped after the checkpoint was moved aside and before the new one was in place
+        assertTrue( file.renameTo( new File( file.getAbsolutePath() + ".bak" ) ) );
+
+        assertEquals( bounds, new Checkpoints( file, false ).getBounds( APP_ID, "things" ) );
+    }
+
+
+    @Test
+    public void visitRangePages() throws Exception {
+        List<UUID> ids = timeIds( 25 );
+
+        final List<UUID> visited = new ArrayList<UUID>();
+        final List<UUID> pages = new ArrayList<UUID>();
+
+        ToolBase.visitRange( collection( ids ), "things", ids.get( 3 ), ids.get( 20 ), null, 5,
+                new ToolBase.RangeVisitor() {
+                    @Override
+                    public void visit( Entity entity ) {
+                        visited.add( entity.getUuid() );
+                    }
+
+
+                    @Override
+                    public void pageVisited( UUID last ) {
+                        pages.add( last );
+                    }
+                } );
+
+        // every entity from the start up to the end once, the page after the first repeats the last one visited
+        assertEquals( ids.subList( 3, 20 ), visited );
+        assertEquals( Arrays.asList( ids.get( 7 ), ids.get( 11 ), ids.get( 15 ), ids.get( 19 ) ), pages );
+    }
+
+
+    @Test
+    public void visitRangeResumes() throws Exception {
+        List<UUID> ids = timeIds( 12 );
+
+        final List<UUID> visited = new ArrayList<UUID>();
+
+        // the last range has no end, it runs to the end of the collection
+        ToolBase.visitRange( collection( ids ), "things", ids.get( 2 ), null, ids.get( 6 ), 5,
+                new ToolBase.RangeVisitor() {
+                    @Override
+                    public void visit( Entity entity ) {
+                        visited.add( entity.getUuid() );
+                    }
+                } );
+
+        assertEquals( ids.subList( 7, 12 ), visited );
+    }
+
+
+    private static List<UUID> timeIds( int count ) {
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for ( int i = 0; i < count; i++ ) {
+            ids.add( UUIDUtils.minTimeUUID( 1000 + i ) );
+        }
+
+        return ids;
+    }
+
+
+    /** A collection of the ids, searches return a page of them from the start result */
+    private static EntityManager collection( final List<UUID> ids ) {
+        return ( EntityManager ) Proxy.newProxyInstance( EntityManager.class.getClassLoader(), new Class<?>[] {
+                EntityManager.class
+        }, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy, Method method, Object[] args ) {
+                if ( !"searchCollection".equals( method.getName() ) ) {
+                    return null;
+                }
+
+                Query query = ( Query ) args[2];
+
+                List<Entity> page = new ArrayList<Entity>();
+
+                for ( UUID id : ids ) {
+                    if ( page.size() == query.getLimit() ) {
+                        break;
+                    }
+
+                    if ( query.getStartResult() == null || UUIDUtils.compare( id, query.getStartResult() ) >= 0 ) {
+                        page.add( new DynamicEntity( "thing", id ) );
+                    }
+                }
+
+                return Results.fromEntities( page );
+            }
+        } );
+    }
+}